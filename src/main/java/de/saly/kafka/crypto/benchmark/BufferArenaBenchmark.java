@@ -0,0 +1,91 @@
+package de.saly.kafka.crypto.benchmark;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.infra.Blackhole;
+
+import de.saly.kafka.crypto.DecryptingDeserializer;
+import de.saly.kafka.crypto.EncryptingSerializer;
+import de.saly.kafka.crypto.SerdeCryptoBase;
+import de.saly.kafka.crypto.envelope.EnvelopeDecryptingDeserializer;
+import de.saly.kafka.crypto.envelope.EnvelopeEncryptingSerializer;
+import de.saly.kafka.crypto.envelope.EnvelopeSerdeBase;
+
+/**
+ * The {@code byte[]} cipher path (arena NONE) compared with the {@code ByteBuffer} path writing into a heap or
+ * direct {@link de.saly.kafka.crypto.envelope.BufferArena}. Run with {@code -prof gc}, {@code gc.alloc.rate.norm}
+ * is the number of bytes allocated per record.
+ */
+@State(Scope.Benchmark)
+public class BufferArenaBenchmark {
+
+    private static final String TOPIC = "topic";
+
+    @Param({"NONE", "HEAP", "DIRECT"})
+    public String arena;
+
+    @Param({"AES_GCM", "AES_CTR"})
+    public String mode;
+
+    @Param({"1024", "65536", "262144", "1048576"})
+    public int size;
+
+    private byte[] testData;
+    private byte[][] testDataCrypt = new byte[16][];
+    private int next;
+    private EnvelopeEncryptingSerializer<byte[]> serializer = new EnvelopeEncryptingSerializer<byte[]>();
+    private EnvelopeDecryptingDeserializer<byte[]> deserializer = new EnvelopeDecryptingDeserializer<byte[]>();
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        KeyFiles keys = KeyFiles.generate();
+
+        Map<String, Object> config = new HashMap<>();
+        config.put(SerdeCryptoBase.CRYPTO_RSA_PRIVATEKEY_FILEPATH, keys.privateKeyPath());
+        config.put(SerdeCryptoBase.CRYPTO_RSA_PUBLICKEY_FILEPATH, keys.publicKeyPath());
+        config.put(EncryptingSerializer.CRYPTO_VALUE_SERIALIZER, ByteArraySerializer.class.getName());
+        config.put(DecryptingDeserializer.CRYPTO_VALUE_DESERIALIZER, ByteArrayDeserializer.class.getName());
+        config.put(EnvelopeSerdeBase.CRYPTO_CIPHER_MODE, mode);
+        config.put(EnvelopeSerdeBase.CRYPTO_CIPHER_MODES_ALLOWED, mode);
+        config.put(EnvelopeSerdeBase.CRYPTO_BUFFER_ARENA, arena);
+        serializer.configure(config, false);
+        deserializer.configure(config, false);
+
+        Random rand = new Random(); //no need for secure rand here
+        testData = new byte[size];
+        rand.nextBytes(testData);
+
+        for (int i = 0; i < testDataCrypt.length; i++) {
+            testDataCrypt[i] = serializer.serialize(TOPIC, testData);
+        }
+    }
+
+    @Benchmark
+    @Threads(value=1)
+    public void testSerializeEncryption(final ByteCounters counters, final Blackhole bh) {
+        final byte[] crypt = serializer.serialize(TOPIC, testData);
+        counters.plaintextBytes += size;
+        counters.ciphertextBytes += crypt.length;
+        bh.consume(crypt);
+    }
+
+    @Benchmark
+    @Threads(value=1)
+    public void testDeserializeDecryption(final ByteCounters counters, final Blackhole bh) {
+        final byte[] crypt = testDataCrypt[next++ & (testDataCrypt.length - 1)];
+        bh.consume(deserializer.deserialize(TOPIC, crypt));
+        counters.plaintextBytes += size;
+        counters.ciphertextBytes += crypt.length;
+    }
+}
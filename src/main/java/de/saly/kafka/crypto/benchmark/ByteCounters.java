@@ -0,0 +1,25 @@
+package de.saly.kafka.crypto.benchmark;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Secondary metrics, reported next to ops/s. JMH normalizes the counters per time unit
+ * so they show up as plaintext and ciphertext bytes per second. Their quotient is the
+ * ciphertext expansion ratio (see {@link Main}).
+ */
+@AuxCounters
+@State(Scope.Thread)
+public class ByteCounters {
+    public long plaintextBytes;
+    public long ciphertextBytes;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        plaintextBytes = 0;
+        ciphertextBytes = 0;
+    }
+}
@@ -0,0 +1,192 @@
+package de.saly.kafka.crypto.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.Serializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.infra.Blackhole;
+
+import de.saly.kafka.crypto.DecryptingDeserializer;
+import de.saly.kafka.crypto.EncryptingSerializer;
+import de.saly.kafka.crypto.SerdeCryptoBase;
+import de.saly.kafka.crypto.envelope.ChunkedEnvelopeEncryptingSerializer;
+import de.saly.kafka.crypto.envelope.EnvelopeDecryptingDeserializer;
+import de.saly.kafka.crypto.envelope.EnvelopeEncryptingSerializer;
+
+/**
+ * Multi-megabyte records as one AES-GCM envelope (ENVELOPE), as chunked envelope decrypted into one array (CHUNKED)
+ * and as chunked envelope read through {@link EnvelopeDecryptingDeserializer#decryptingStream(InputStream)} (STREAM).
+ * The JMH benchmarks measure throughput, run them with {@code -prof gc} for the bytes allocated per record.
+ * <p>
+ * The {@link #main(String[])} method measures the heap held per in-flight record (ciphertext excluded), that is
+ * the plaintext for ENVELOPE/CHUNKED and the segment buffers for STREAM:
+ * {@code java -cp benchmarks.jar de.saly.kafka.crypto.benchmark.ChunkedEnvelopeBenchmark [records in flight, default 8]}
+ */
+@State(Scope.Benchmark)
+public class ChunkedEnvelopeBenchmark {
+
+    private static final String TOPIC = "topic";
+
+    public enum Format {
+        ENVELOPE,
+        CHUNKED,
+        STREAM
+    }
+
+    @Param({"ENVELOPE", "CHUNKED", "STREAM"})
+    public Format format;
+
+    @Param({"1048576", "4194304", "16777216"})
+    public int size;
+
+    @Param({"65536"})
+    public int chunkSize;
+
+    private byte[] testData;
+    private byte[][] testDataCrypt = new byte[4][];
+    private int next;
+    private final byte[] readBuffer = new byte[8192];
+    private Serializer<byte[]> serializer;
+    private EnvelopeDecryptingDeserializer<byte[]> deserializer;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        final Random rand = new Random(); //no need for secure rand here
+        testData = new byte[size];
+        rand.nextBytes(testData);
+
+        final Map<String, Object> config = config(KeyFiles.generate(), chunkSize);
+        serializer = format == Format.ENVELOPE ? new EnvelopeEncryptingSerializer<byte[]>() : new ChunkedEnvelopeEncryptingSerializer<byte[]>();
+        serializer.configure(config, false);
+        deserializer = new EnvelopeDecryptingDeserializer<byte[]>();
+        deserializer.configure(config, false);
+
+        for (int i = 0; i < testDataCrypt.length; i++) {
+            testDataCrypt[i] = serializer.serialize(TOPIC, testData);
+        }
+    }
+
+    @Benchmark
+    @Threads(value=1)
+    public void testSerializeEncryption(final ByteCounters counters, final Blackhole bh) {
+        final byte[] crypt = serializer.serialize(TOPIC, testData);
+        counters.plaintextBytes += size;
+        counters.ciphertextBytes += crypt.length;
+        bh.consume(crypt);
+    }
+
+    @Benchmark
+    @Threads(value=1)
+    public void testDeserializeDecryption(final ByteCounters counters, final Blackhole bh) throws IOException {
+        final byte[] crypt = testDataCrypt[next++ & (testDataCrypt.length - 1)];
+
+        if(format == Format.STREAM) {
+            try(InputStream in = deserializer.decryptingStream(new ByteArrayInputStream(crypt))) {
+                int read;
+                while ((read = in.read(readBuffer)) > 0) {
+                    bh.consume(readBuffer[read - 1]);
+                }
+            }
+        } else {
+            bh.consume(deserializer.deserialize(TOPIC, crypt));
+        }
+
+        counters.plaintextBytes += size;
+        counters.ciphertextBytes += crypt.length;
+    }
+
+    public static void main(String[] args) throws Exception {
+        final int inFlight = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        final int chunkSize = 65536;
+        final Map<String, Object> config = config(KeyFiles.generate(), chunkSize);
+        final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        final Random rand = new Random();
+
+        System.out.println(String.format(Locale.ROOT, "Heap held per in-flight record (%d records in flight, %d byte segments)", inFlight, chunkSize));
+
+        //the first pass only warms up (class loading, JIT, thread-locals), which would distort the first numbers
+        for (int pass = 0; pass < 2; pass++) {
+            for (final int size : new int[] {1048576, 4194304, 16777216}) {
+                final byte[] plain = new byte[size];
+                rand.nextBytes(plain);
+
+                for (final Format format : Format.values()) {
+                    final double perRecord = heldPerRecord(format, plain, inFlight, config, memory);
+
+                    if(pass > 0) {
+                        System.out.println(String.format(Locale.ROOT, "%-8s %9d bytes: %12.1f KB per in-flight record", format, size, perRecord / 1024d));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return bytes of heap held per decrypted record, without the ciphertext
+     */
+    private static double heldPerRecord(final Format format, final byte[] plain, final int inFlight, final Map<String, Object> config,
+            final MemoryMXBean memory) throws IOException {
+        final Serializer<byte[]> serializer = format == Format.ENVELOPE ? new EnvelopeEncryptingSerializer<byte[]>()
+                : new ChunkedEnvelopeEncryptingSerializer<byte[]>();
+        serializer.configure(config, false);
+        final EnvelopeDecryptingDeserializer<byte[]> deserializer = new EnvelopeDecryptingDeserializer<byte[]>();
+        deserializer.configure(config, false);
+
+        final byte[][] crypts = new byte[inFlight][];
+        for (int i = 0; i < inFlight; i++) {
+            crypts[i] = serializer.serialize(TOPIC, plain);
+        }
+
+        final long before = usedAfterGc(memory);
+        final List<Object> held = new ArrayList<>();
+        for (final byte[] crypt : crypts) {
+            if(format == Format.STREAM) {
+                //a consumer in the middle of parsing the record
+                final InputStream in = deserializer.decryptingStream(new ByteArrayInputStream(crypt));
+                in.read();
+                held.add(in);
+            } else {
+                held.add(deserializer.deserialize(TOPIC, crypt));
+            }
+        }
+        final long after = usedAfterGc(memory);
+
+        //keeps the decrypted records reachable until after the measurement
+        return held.size() == inFlight ? (after - before) / (double) inFlight : Double.NaN;
+    }
+
+    private static long usedAfterGc(final MemoryMXBean memory) {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    private static Map<String, Object> config(final KeyFiles keys, final int chunkSize) {
+        final Map<String, Object> config = new HashMap<>();
+        config.put(SerdeCryptoBase.CRYPTO_RSA_PRIVATEKEY_FILEPATH, keys.privateKeyPath());
+        config.put(SerdeCryptoBase.CRYPTO_RSA_PUBLICKEY_FILEPATH, keys.publicKeyPath());
+        config.put(EncryptingSerializer.CRYPTO_VALUE_SERIALIZER, ByteArraySerializer.class.getName());
+        config.put(DecryptingDeserializer.CRYPTO_VALUE_DESERIALIZER, ByteArrayDeserializer.class.getName());
+        config.put(ChunkedEnvelopeEncryptingSerializer.CRYPTO_CHUNK_SIZE, String.valueOf(chunkSize));
+        return config;
+    }
+}
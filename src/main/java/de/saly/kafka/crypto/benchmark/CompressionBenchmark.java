@@ -0,0 +1,81 @@
+package de.saly.kafka.crypto.benchmark;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import de.saly.kafka.crypto.DecryptingDeserializer;
+import de.saly.kafka.crypto.EncryptingSerializer;
+import de.saly.kafka.crypto.SerdeCryptoBase;
+import de.saly.kafka.crypto.compression.CompressingSerializer;
+import de.saly.kafka.crypto.compression.DecompressingDeserializer;
+
+/**
+ * Compress-then-encrypt with every codec on payloads of different compressibility.
+ * The ciphertextBytes/plaintextBytes ratio printed by {@link Main} is what goes over the wire and to disk
+ * per plaintext byte, ops/s shows the CPU cost.
+ */
+@State(Scope.Benchmark)
+public class CompressionBenchmark {
+
+    private static String TOPIC = "topic";
+
+    @Param({"NONE", "GZIP", "SNAPPY", "LZ4"})
+    public String codec;
+
+    @Param({"JSON", "TEXT", "RANDOM"})
+    public PayloadType payload;
+
+    @Param({"1024", "65536"})
+    public int size;
+
+    private byte[] testData;
+    private byte[] testDataCrypt;
+
+    private EncryptingSerializer<byte[]> serializer = new EncryptingSerializer<byte[]>();
+    private DecryptingDeserializer<byte[]> deserializer = new DecryptingDeserializer<byte[]>();
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        KeyFiles keys = KeyFiles.generate();
+
+        Map<String, Object> config = new HashMap<>();
+        config.put(SerdeCryptoBase.CRYPTO_RSA_PRIVATEKEY_FILEPATH, keys.privateKeyPath());
+        config.put(SerdeCryptoBase.CRYPTO_RSA_PUBLICKEY_FILEPATH, keys.publicKeyPath());
+        config.put(EncryptingSerializer.CRYPTO_VALUE_SERIALIZER, CompressingSerializer.class.getName());
+        config.put(DecryptingDeserializer.CRYPTO_VALUE_DESERIALIZER, DecompressingDeserializer.class.getName());
+        config.put(CompressingSerializer.CRYPTO_COMPRESSION_WRAPPED_SERIALIZER, ByteArraySerializer.class.getName());
+        config.put(DecompressingDeserializer.CRYPTO_COMPRESSION_WRAPPED_DESERIALIZER, ByteArrayDeserializer.class.getName());
+        config.put(CompressingSerializer.CRYPTO_COMPRESSION_TYPE, codec);
+        serializer.configure(config, false);
+        deserializer.configure(config, false);
+
+        testData = payload.generate(new Random(), size); //no need for secure rand here
+        testDataCrypt = serializer.serialize(TOPIC, testData);
+    }
+
+    @Benchmark
+    public void testSerializeCompressEncrypt(final ByteCounters counters, final Blackhole bh) {
+        final byte[] crypt = serializer.serialize(TOPIC, testData);
+        counters.plaintextBytes += size;
+        counters.ciphertextBytes += crypt.length;
+        bh.consume(crypt);
+    }
+
+    @Benchmark
+    public void testDeserializeDecryptDecompress(final ByteCounters counters, final Blackhole bh) {
+        bh.consume(deserializer.deserialize(TOPIC, testDataCrypt));
+        counters.plaintextBytes += size;
+        counters.ciphertextBytes += testDataCrypt.length;
+    }
+}
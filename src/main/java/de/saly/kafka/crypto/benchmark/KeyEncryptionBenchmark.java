@@ -0,0 +1,126 @@
+package de.saly.kafka.crypto.benchmark;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.infra.Blackhole;
+
+import de.saly.kafka.crypto.benchmark.payload.KeyDistribution;
+import de.saly.kafka.crypto.deterministic.DeterministicDecryptingDeserializer;
+import de.saly.kafka.crypto.deterministic.DeterministicEncryptingSerializer;
+import de.saly.kafka.crypto.deterministic.DeterministicSerdeBase;
+import de.saly.kafka.crypto.deterministic.SivCache;
+
+/**
+ * Cost of deterministic key encryption ({@link DeterministicEncryptingSerializer}) on skewed keys, with and without
+ * the cache of hot keys. Keys are drawn from a {@link KeyDistribution} ({@code zipf:keys:exponent} or {@code uniform:keys}),
+ * every cache lookup is counted as {@code cacheHits} or {@code cacheMisses} (cache size 0 counts every key as miss),
+ * {@link Main} prints the resulting hit rate.
+ */
+@State(Scope.Benchmark)
+public class KeyEncryptionBenchmark {
+
+    private static String TOPIC = "topic";
+    //long enough to hold far more distinct keys than the largest cache, otherwise the hit rate is that of a loop
+    private static final int SEQUENCE_LENGTH = 1 << 20;
+
+    @Param({"zipf:100000:1.1", "zipf:100000:0.8", "uniform:100000"})
+    public String keys;
+
+    @Param({"0", "1024", "16384"})
+    public int cacheSize;
+
+    private int[] ranks;
+    private String[] plainKeys;
+    private byte[][] cryptKeys;
+    private int next;
+
+    private DeterministicEncryptingSerializer<String> serializer = new DeterministicEncryptingSerializer<String>();
+    private DeterministicDecryptingDeserializer<String> deserializer = new DeterministicDecryptingDeserializer<String>();
+
+    /**
+     * Secondary results, hits and misses per second of the cache. Their quotient is the hit rate.
+     */
+    @AuxCounters
+    @State(Scope.Thread)
+    public static class CacheCounters {
+        public long cacheHits;
+        public long cacheMisses;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            cacheHits = 0;
+            cacheMisses = 0;
+        }
+
+        void count(final SivCache cache, final long missesBefore) {
+            if(cache == null || cache.misses() != missesBefore) {
+                cacheMisses++;
+            } else {
+                cacheHits++;
+            }
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        KeyFiles keyFiles = KeyFiles.generate();
+
+        Map<String, Object> config = new HashMap<>();
+        config.put(DeterministicSerdeBase.CRYPTO_DETERMINISTIC_KEY_FILEPATH, keyFiles.deterministicKeyPath());
+        config.put(DeterministicEncryptingSerializer.CRYPTO_DETERMINISTIC_WRAPPED_SERIALIZER, StringSerializer.class.getName());
+        config.put(DeterministicDecryptingDeserializer.CRYPTO_DETERMINISTIC_WRAPPED_DESERIALIZER, StringDeserializer.class.getName());
+
+        //encrypted without cache, so that the caches of the measured serdes start empty
+        config.put(DeterministicSerdeBase.CRYPTO_DETERMINISTIC_CACHE_SIZE, 0);
+        final DeterministicEncryptingSerializer<String> uncached = new DeterministicEncryptingSerializer<String>();
+        uncached.configure(config, true);
+
+        config.put(DeterministicSerdeBase.CRYPTO_DETERMINISTIC_CACHE_SIZE, cacheSize);
+        serializer.configure(config, true);
+        deserializer.configure(config, true);
+
+        final KeyDistribution distribution = KeyDistribution.parse(keys);
+        plainKeys = new String[distribution.keys()];
+        cryptKeys = new byte[distribution.keys()][];
+        for (int i = 0; i < plainKeys.length; i++) {
+            plainKeys[i] = KeyDistribution.key(i);
+            cryptKeys[i] = uncached.serialize(TOPIC, plainKeys[i]);
+        }
+
+        final Random rand = new Random(42);
+        ranks = new int[SEQUENCE_LENGTH];
+        for (int i = 0; i < SEQUENCE_LENGTH; i++) {
+            ranks[i] = distribution.nextRank(rand);
+        }
+    }
+
+    @Benchmark
+    @Threads(value=1)
+    public void testEncryptKey(final CacheCounters counters, final Blackhole bh) {
+        final SivCache cache = serializer.cache();
+        final long misses = cache == null ? 0 : cache.misses();
+        bh.consume(serializer.serialize(TOPIC, plainKeys[ranks[next++ & (SEQUENCE_LENGTH - 1)]]));
+        counters.count(cache, misses);
+    }
+
+    @Benchmark
+    @Threads(value=1)
+    public void testDecryptKey(final CacheCounters counters, final Blackhole bh) {
+        final SivCache cache = deserializer.cache();
+        final long misses = cache == null ? 0 : cache.misses();
+        bh.consume(deserializer.deserialize(TOPIC, cryptKeys[ranks[next++ & (SEQUENCE_LENGTH - 1)]]));
+        counters.count(cache, misses);
+    }
+}
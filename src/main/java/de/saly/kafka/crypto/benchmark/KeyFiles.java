@@ -0,0 +1,68 @@
+package de.saly.kafka.crypto.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+
+import de.saly.kafka.crypto.deterministic.SivCipher;
+
+/**
+ * A freshly generated 2048 bit RSA key pair written to temporary files
+ * (public key X.509, private key PKCS#8), as expected by
+ * {@code crypto.rsa.publickey.filepath} and {@code crypto.rsa.privatekey.filepath}, plus a
+ * secret key for {@code crypto.deterministic.key.filepath}.
+ */
+public class KeyFiles {
+
+    private final File pubKey;
+    private final File privKey;
+    private final File deterministicKey;
+
+    private KeyFiles(final File pubKey, final File privKey, final File deterministicKey) {
+        this.pubKey = pubKey;
+        this.privKey = privKey;
+        this.deterministicKey = deterministicKey;
+    }
+
+    public static KeyFiles generate() throws IOException, NoSuchAlgorithmException {
+        final File pubKey = File.createTempFile("kafka", "crypto");
+        pubKey.deleteOnExit();
+        final File privKey = File.createTempFile("kafka", "crypto");
+        privKey.deleteOnExit();
+        final File deterministicKey = File.createTempFile("kafka", "crypto");
+        deterministicKey.deleteOnExit();
+
+        final KeyPairGenerator keyGen = KeyPairGenerator.getInstance("RSA");
+        keyGen.initialize(2048);
+        final KeyPair pair = keyGen.genKeyPair();
+
+        try(FileOutputStream fout = new FileOutputStream(pubKey)) {
+            fout.write(pair.getPublic().getEncoded());
+        }
+
+        try(FileOutputStream fout = new FileOutputStream(privKey)) {
+            fout.write(pair.getPrivate().getEncoded());
+        }
+
+        try(FileOutputStream fout = new FileOutputStream(deterministicKey)) {
+            fout.write(SivCipher.generateKey());
+        }
+
+        return new KeyFiles(pubKey, privKey, deterministicKey);
+    }
+
+    public String publicKeyPath() {
+        return pubKey.getAbsolutePath();
+    }
+
+    public String privateKeyPath() {
+        return privKey.getAbsolutePath();
+    }
+
+    public String deterministicKeyPath() {
+        return deterministicKey.getAbsolutePath();
+    }
+}
@@ -0,0 +1,152 @@
+package de.saly.kafka.crypto.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.infra.Blackhole;
+
+import de.saly.kafka.crypto.DecryptingDeserializer;
+import de.saly.kafka.crypto.EncryptingSerializer;
+import de.saly.kafka.crypto.SerdeCryptoBase;
+import de.saly.kafka.crypto.envelope.EnvelopeDecryptingDeserializer;
+import de.saly.kafka.crypto.envelope.EnvelopeEncryptingSerializer;
+import de.saly.kafka.crypto.envelope.KeyRegistry;
+
+/**
+ * Overhead of resolving keys by topic with a {@link KeyRegistry} for 1 to 1000 topics, records are written to and read from
+ * the topics round robin. SINGLE is one key pair for all topics ({@code crypto.rsa.*.filepath}) as baseline, DIRECTORY
+ * is a key pair per topic in a {@code crypto.key.registry.directory}. The throughput should not depend on the number of topics.
+ * <p>
+ * Generating 1000 RSA key pairs takes minutes, so the topics' key files are written from a pool of {@value #KEY_PAIRS} pairs,
+ * which makes no difference to the registry (every topic's files are parsed and cached on their own).
+ */
+@State(Scope.Benchmark)
+public class KeyRegistryBenchmark {
+
+    private static final int KEY_PAIRS = 8;
+
+    @Param({"1", "10", "100", "1000"})
+    public int topics;
+
+    @Param({"SINGLE", "DIRECTORY"})
+    public String keys;
+
+    @Param({"1024"})
+    public int size;
+
+    private String[] topicNames;
+    private byte[] testData;
+    private byte[][] testDataCrypt;
+    private int next;
+
+    private EnvelopeEncryptingSerializer<byte[]> serializer = new EnvelopeEncryptingSerializer<byte[]>();
+    private EnvelopeDecryptingDeserializer<byte[]> deserializer = new EnvelopeDecryptingDeserializer<byte[]>();
+    private KeyRegistry registry;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        topicNames = new String[topics];
+        for (int i = 0; i < topics; i++) {
+            topicNames[i] = "tenant-" + i;
+        }
+
+        Map<String, Object> config = new HashMap<>();
+        config.put(EncryptingSerializer.CRYPTO_VALUE_SERIALIZER, ByteArraySerializer.class.getName());
+        config.put(DecryptingDeserializer.CRYPTO_VALUE_DESERIALIZER, ByteArrayDeserializer.class.getName());
+        //one data key per topic must fit, otherwise this measures RSA unwraps
+        config.put(EnvelopeDecryptingDeserializer.CRYPTO_KEY_CACHE_SIZE, Math.max(16, topics));
+
+        if("SINGLE".equals(keys)) {
+            KeyFiles keyFiles = KeyFiles.generate();
+            config.put(SerdeCryptoBase.CRYPTO_RSA_PRIVATEKEY_FILEPATH, keyFiles.privateKeyPath());
+            config.put(SerdeCryptoBase.CRYPTO_RSA_PUBLICKEY_FILEPATH, keyFiles.publicKeyPath());
+        } else {
+            config.put(KeyRegistry.CRYPTO_KEY_REGISTRY_DIRECTORY, keyDirectory(topicNames).toString());
+        }
+
+        serializer.configure(config, false);
+        deserializer.configure(config, false);
+        registry = deserializer.registry();
+
+        testData = new byte[size];
+        new Random().nextBytes(testData);
+        testDataCrypt = new byte[topics][];
+        for (int i = 0; i < topics; i++) {
+            testDataCrypt[i] = serializer.serialize(topicNames[i], testData);
+            deserializer.deserialize(topicNames[i], testDataCrypt[i]);
+        }
+    }
+
+    @Benchmark
+    @Threads(value=1)
+    public void testSerializeEncryption(final Blackhole bh) {
+        bh.consume(serializer.serialize(topicNames[nextTopic()], testData));
+    }
+
+    @Benchmark
+    @Threads(value=1)
+    public void testDeserializeDecryption(final Blackhole bh) {
+        final int topic = nextTopic();
+        bh.consume(deserializer.deserialize(topicNames[topic], testDataCrypt[topic]));
+    }
+
+    @Benchmark
+    @Threads(value=1)
+    public void testLookup(final Blackhole bh) {
+        if(registry != null) {
+            bh.consume(registry.get(topicNames[nextTopic()]));
+        }
+    }
+
+    private int nextTopic() {
+        final int topic = next++;
+        if(next == topics) {
+            next = 0;
+        }
+        return topic;
+    }
+
+    /**
+     * @return a temporary directory with {@code <topic>.pub} and {@code <topic>.key} files for all topics
+     */
+    private static Path keyDirectory(final String[] topics) throws IOException, NoSuchAlgorithmException {
+        final Path directory = Files.createTempDirectory("kafka-keys");
+        directory.toFile().deleteOnExit();
+
+        final KeyPairGenerator keyGen = KeyPairGenerator.getInstance("RSA");
+        keyGen.initialize(2048);
+        final KeyPair[] pairs = new KeyPair[Math.min(KEY_PAIRS, topics.length)];
+        for (int i = 0; i < pairs.length; i++) {
+            pairs[i] = keyGen.genKeyPair();
+        }
+
+        for (int i = 0; i < topics.length; i++) {
+            final KeyPair pair = pairs[i % pairs.length];
+            write(directory.resolve(topics[i] + ".pub"), pair.getPublic().getEncoded());
+            write(directory.resolve(topics[i] + ".key"), pair.getPrivate().getEncoded());
+        }
+        return directory;
+    }
+
+    private static void write(final Path file, final byte[] content) throws IOException {
+        final File f = Files.write(file, content).toFile();
+        f.deleteOnExit();
+    }
+}
@@ -0,0 +1,121 @@
+package de.saly.kafka.crypto.benchmark;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.infra.Blackhole;
+
+import de.saly.kafka.crypto.DecryptingDeserializer;
+import de.saly.kafka.crypto.EncryptingSerializer;
+import de.saly.kafka.crypto.SerdeCryptoBase;
+import de.saly.kafka.crypto.envelope.DataKeyCache;
+import de.saly.kafka.crypto.envelope.EnvelopeDecryptingDeserializer;
+import de.saly.kafka.crypto.envelope.EnvelopeEncryptingSerializer;
+
+/**
+ * Cost of data-key rotation: encryption with a key rotated every {@code rotation} records (0 = the default of
+ * {@link EnvelopeEncryptingSerializer#AUTHENTICATED_RECORD_LIMIT}, never within a trial) and
+ * decryption of records from {@code producers} interleaved producers with a key cache of {@code cacheSize} entries.
+ * A cache smaller than the number of producers means one RSA unwrap per key change, the hit rate is printed
+ * at the end of every trial.
+ */
+@State(Scope.Benchmark)
+public class KeyRotationBenchmark {
+
+    private static final String TOPIC = "topic";
+    private static final int RECORDS = 4096;
+
+    @Param({"0", "10000", "1000", "100", "10"})
+    public int rotation;
+
+    @Param({"1", "4", "16"})
+    public int producers;
+
+    @Param({"1", "4", "16", "64"})
+    public int cacheSize;
+
+    @Param({"1024"})
+    public int size;
+
+    private byte[] testData;
+    private byte[][] testDataCrypt;
+    private int next;
+    private EnvelopeEncryptingSerializer<byte[]> serializer;
+    private EnvelopeDecryptingDeserializer<byte[]> deserializer;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        KeyFiles keys = KeyFiles.generate();
+
+        Map<String, Object> config = new HashMap<>();
+        config.put(SerdeCryptoBase.CRYPTO_RSA_PRIVATEKEY_FILEPATH, keys.privateKeyPath());
+        config.put(SerdeCryptoBase.CRYPTO_RSA_PUBLICKEY_FILEPATH, keys.publicKeyPath());
+        config.put(EncryptingSerializer.CRYPTO_VALUE_SERIALIZER, ByteArraySerializer.class.getName());
+        config.put(DecryptingDeserializer.CRYPTO_VALUE_DESERIALIZER, ByteArrayDeserializer.class.getName());
+        if(rotation > 0) {
+            config.put(EnvelopeEncryptingSerializer.CRYPTO_KEY_ROTATION_RECORDS, String.valueOf(rotation));
+        }
+        config.put(EnvelopeDecryptingDeserializer.CRYPTO_KEY_CACHE_SIZE, String.valueOf(cacheSize));
+
+        Random rand = new Random(); //no need for secure rand here
+        testData = new byte[size];
+        rand.nextBytes(testData);
+
+        //records of all producers interleaved like in a partition they all write to
+        final List<EnvelopeEncryptingSerializer<byte[]>> writers = new ArrayList<>(producers);
+        for (int p = 0; p < producers; p++) {
+            final EnvelopeEncryptingSerializer<byte[]> writer = new EnvelopeEncryptingSerializer<byte[]>();
+            writer.configure(config, false);
+            writers.add(writer);
+        }
+
+        testDataCrypt = new byte[RECORDS][];
+        for (int i = 0; i < RECORDS; i++) {
+            testDataCrypt[i] = writers.get(i % producers).serialize(TOPIC, testData);
+        }
+
+        serializer = writers.get(0);
+        deserializer = new EnvelopeDecryptingDeserializer<byte[]>();
+        deserializer.configure(config, false);
+    }
+
+    @TearDown(Level.Trial)
+    public void report() {
+        final DataKeyCache cache = deserializer.keyCache();
+        final long total = cache.hits() + cache.misses();
+        System.out.println(String.format(Locale.ROOT, "%nkey cache: %d hits, %d misses (%.2f%% hit rate), %d producer key rotations",
+                cache.hits(), cache.misses(), total == 0 ? 0 : 100d * cache.hits() / total, serializer.rotations()));
+    }
+
+    @Benchmark
+    @Threads(value=1)
+    public void testSerializeEncryption(final ByteCounters counters, final Blackhole bh) {
+        final byte[] crypt = serializer.serialize(TOPIC, testData);
+        counters.plaintextBytes += size;
+        counters.ciphertextBytes += crypt.length;
+        bh.consume(crypt);
+    }
+
+    @Benchmark
+    @Threads(value=1)
+    public void testDeserializeDecryption(final ByteCounters counters, final Blackhole bh) {
+        final byte[] crypt = testDataCrypt[next++ & (RECORDS - 1)];
+        bh.consume(deserializer.deserialize(TOPIC, crypt));
+        counters.plaintextBytes += size;
+        counters.ciphertextBytes += crypt.length;
+    }
+}
@@ -1,41 +1,166 @@
 package de.saly.kafka.crypto.benchmark;
 
-import java.util.concurrent.TimeUnit;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collection;
 
-import org.openjdk.jmh.annotations.Mode;
 import org.openjdk.jmh.annotations.Scope;
 import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.profile.LinuxPerfAsmProfiler;
+import org.openjdk.jmh.profile.ProfilerException;
+import org.openjdk.jmh.profile.StackProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
 import org.openjdk.jmh.results.format.ResultFormatType;
 import org.openjdk.jmh.runner.Runner;
 import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
 import org.openjdk.jmh.runner.options.Options;
 import org.openjdk.jmh.runner.options.OptionsBuilder;
 import org.openjdk.jmh.runner.options.VerboseMode;
 
+import de.saly.kafka.crypto.benchmark.history.ResultComparison;
+import de.saly.kafka.crypto.benchmark.history.ResultHistory;
+
 @State(Scope.Benchmark)
 public class Main {
 
-    public static void main(String[] args) throws RunnerException {
-        
+    private static final double MB = 1024 * 1024;
+
+    /**
+     * Accepts the usual JMH command line options, e.g.
+     * {@code java -jar benchmarks.jar "SerDeBenchmark.*" -f 2 -p size=1024,262144 -p serde=STRING}.
+     * Everything not given on the command line falls back to the defaults below. Without a benchmark name every
+     * benchmark except the {@link StartupBenchmark} runs, which has its own {@link StartupBenchmark#main(String[])}.
+     * <p>
+     * Without {@code -prof} the profilers from {@code -Dprofilers} (default: gc; stack and perfasm are available too)
+     * are attached. Every result is also stored in the {@link ResultHistory}.
+     * {@code java -jar benchmarks.jar compare [baseline.json] current.json} runs the {@link ResultComparison} instead.
+     */
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException, IOException {
+
+        if(args.length > 0 && "compare".equals(args[0])) {
+            System.exit(ResultComparison.run(Arrays.copyOfRange(args, 1, args.length)));
+        }
+
         String filename = "kafkae2ee_bench_result";
-        
+
+        final CommandLineOptions cli = new CommandLineOptions(args);
+
         System.out.println("Benchmark is running - Output will be written to "+filename+".(json|txt)");
-        
-        final Options opt = new OptionsBuilder()
-                .include(".*Benchmark*")
-                .forks(1)
-                .warmupIterations(5)
-                .measurementIterations(5)
-                .mode(Mode.Throughput)
-                .timeUnit(TimeUnit.SECONDS)
-                .verbosity(VerboseMode.EXTRA)
-                //.jvmArgs("-Xmx" + MEMORY, "-Dfile.encoding=utf-8", "-Dbenchmark.impl="+parserClasss)
+
+        final ChainedOptionsBuilder builder = defaults(cli)
                 .resultFormat(ResultFormatType.JSON)
                 .result(filename+".json")
-                .output(filename+".txt")
-                .build();
-                new Runner(opt).run();
-                
+                .output(filename+".txt");
+
+        if(cli.getIncludes().isEmpty()) {
+            builder.include(".*Benchmark*");
+            //measures cold JVMs, the warmup iterations of a default run would turn it into a measurement of warm clients
+            builder.exclude(StartupBenchmark.class.getSimpleName());
+        }
+
+        if(cli.getProfilers().isEmpty()) {
+            addProfilers(builder, System.getProperty("profilers", "gc"));
+        }
+
+        final Options opt = builder.build();
+        final Collection<RunResult> results = new Runner(opt).run();
+
+        printThroughput(results);
+
+        final Path version = new ResultHistory().store(Paths.get(filename+".json"), Paths.get(filename+".txt"));
+        System.out.println("Results stored in "+version+", compare them with: compare "+version.resolve(filename+".json"));
+
         System.out.println("Benchmark finished");
     }
+
+    /**
+     * @return the default run options, overridden by whatever was given on the command line. Mode and time unit are
+     *         left to the benchmark ({@code @BenchmarkMode}, {@code @OutputTimeUnit}), JMH defaults to ops/s
+     */
+    static ChainedOptionsBuilder defaults(final CommandLineOptions cli) {
+        return new OptionsBuilder()
+                .parent(cli)
+                .forks(cli.getForkCount().orElse(1))
+                .warmupIterations(cli.getWarmupIterations().orElse(5))
+                .measurementIterations(cli.getMeasurementIterations().orElse(5))
+                .verbosity(cli.verbosity().orElse(VerboseMode.EXTRA));
+                //.jvmArgs("-Xmx" + MEMORY, "-Dfile.encoding=utf-8", "-Dbenchmark.impl="+parserClasss)
+    }
+
+    /**
+     * Attaches the named profilers, perfasm only if {@code perf} is usable on this machine
+     */
+    private static void addProfilers(final ChainedOptionsBuilder builder, final String profilers) {
+        for (final String profiler : profilers.split(",")) {
+            switch (profiler.trim()) {
+            case "gc":
+                builder.addProfiler(GCProfiler.class);
+                break;
+            case "stack":
+                builder.addProfiler(StackProfiler.class);
+                break;
+            case "perfasm":
+                try {
+                    new LinuxPerfAsmProfiler("");
+                    builder.addProfiler(LinuxPerfAsmProfiler.class);
+                } catch (ProfilerException e) {
+                    System.out.println("perfasm profiler not available: "+e.getMessage());
+                }
+                break;
+            case "":
+            case "none":
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown profiler "+profiler+", use gc, stack, perfasm or none");
+            }
+        }
+    }
+
+    /**
+     * Prints MB/s and the ciphertext/plaintext ratio for every benchmark which reports
+     * plaintextBytes and ciphertextBytes as secondary results, and the hit rate for those
+     * which report cacheHits and cacheMisses.
+     */
+    private static void printThroughput(final Collection<RunResult> results) {
+        for (final RunResult result : results) {
+            final Result<?> plain = secondary(result, "plaintextBytes");
+            final Result<?> crypt = secondary(result, "ciphertextBytes");
+            final Result<?> hits = secondary(result, "cacheHits");
+            final Result<?> misses = secondary(result, "cacheMisses");
+
+            if(plain != null && crypt != null && plain.getScore() != 0) {
+                System.out.println(String.format("%s -> %.1f mb/s plaintext, %.1f mb/s ciphertext, expansion ratio %.4f",
+                        label(result), plain.getScore() / MB, crypt.getScore() / MB, crypt.getScore() / plain.getScore()));
+            }
+
+            if(hits != null && misses != null && hits.getScore() + misses.getScore() != 0) {
+                System.out.println(String.format("%s -> cache hit rate %.4f", label(result),
+                        hits.getScore() / (hits.getScore() + misses.getScore())));
+            }
+        }
+    }
+
+    /**
+     * @return the secondary result with this label or null, JMH hands them out as a raw {@code Map<String, Result>}
+     */
+    private static Result<?> secondary(final RunResult result, final String label) {
+        return result.getSecondaryResults().get(label);
+    }
+
+    private static String label(final RunResult result) {
+        final BenchmarkParams params = result.getParams();
+        final StringBuilder label = new StringBuilder(params.getBenchmark());
+        for (final String key : params.getParamsKeys()) {
+            label.append(' ').append(key).append('=').append(params.getParam(key));
+        }
+        return label.toString();
+    }
 }
@@ -0,0 +1,111 @@
+package de.saly.kafka.crypto.benchmark;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.Deserializer;
+import org.apache.kafka.common.serialization.Serializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.infra.Blackhole;
+
+import de.saly.kafka.crypto.DecryptingDeserializer;
+import de.saly.kafka.crypto.EncryptingSerializer;
+import de.saly.kafka.crypto.SerdeCryptoBase;
+import de.saly.kafka.crypto.envelope.EnvelopeDecryptingDeserializer;
+import de.saly.kafka.crypto.envelope.EnvelopeEncryptingSerializer;
+import de.saly.kafka.crypto.metrics.MeteredDecryptingDeserializer;
+import de.saly.kafka.crypto.metrics.MeteredEncryptingSerializer;
+
+/**
+ * Cost of the metered serdes: the same serde with and without {@link MeteredEncryptingSerializer}/{@link MeteredDecryptingDeserializer}
+ * around it. At 1k records the metered score should stay within a few percent of the plain one.
+ */
+@State(Scope.Benchmark)
+public class MetricsOverheadBenchmark {
+
+    private static final String TOPIC = "topic";
+
+    @Param({"false", "true"})
+    public boolean metered;
+
+    /**
+     * LIBRARY is the {@link EncryptingSerializer}, ENVELOPE the {@link EnvelopeEncryptingSerializer} with AES-GCM
+     */
+    @Param({"LIBRARY", "ENVELOPE"})
+    public String serde;
+
+    @Param({"1024"})
+    public int size;
+
+    private byte[] testData;
+    private byte[][] testDataCrypt = new byte[16][];
+    private int next;
+    private Serializer<byte[]> serializer;
+    private Deserializer<byte[]> deserializer;
+
+    @SuppressWarnings("unchecked")
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        KeyFiles keys = KeyFiles.generate();
+
+        Map<String, Object> config = new HashMap<>();
+        config.put(SerdeCryptoBase.CRYPTO_RSA_PRIVATEKEY_FILEPATH, keys.privateKeyPath());
+        config.put(SerdeCryptoBase.CRYPTO_RSA_PUBLICKEY_FILEPATH, keys.publicKeyPath());
+        config.put(EncryptingSerializer.CRYPTO_VALUE_SERIALIZER, ByteArraySerializer.class.getName());
+        config.put(DecryptingDeserializer.CRYPTO_VALUE_DESERIALIZER, ByteArrayDeserializer.class.getName());
+        config.put("client.id", "metrics-overhead-" + serde);
+
+        final boolean envelope = "ENVELOPE".equals(serde);
+        if(metered) {
+            if(envelope) {
+                config.put(MeteredEncryptingSerializer.CRYPTO_METRICS_SERIALIZER, EnvelopeEncryptingSerializer.class.getName());
+                config.put(MeteredDecryptingDeserializer.CRYPTO_METRICS_DESERIALIZER, EnvelopeDecryptingDeserializer.class.getName());
+            }
+            serializer = new MeteredEncryptingSerializer<byte[]>();
+            deserializer = new MeteredDecryptingDeserializer<byte[]>();
+        } else {
+            serializer = envelope ? new EnvelopeEncryptingSerializer<byte[]>() : new EncryptingSerializer<byte[]>();
+            deserializer = envelope ? new EnvelopeDecryptingDeserializer<byte[]>() : new DecryptingDeserializer<byte[]>();
+        }
+
+        serializer.configure(config, false);
+        deserializer.configure(config, false);
+
+        Random rand = new Random(); //no need for secure rand here
+        testData = new byte[size];
+        rand.nextBytes(testData);
+
+        for (int i = 0; i < testDataCrypt.length; i++) {
+            testDataCrypt[i] = serializer.serialize(TOPIC, testData);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        //unregisters the MBeans
+        serializer.close();
+        deserializer.close();
+    }
+
+    @Benchmark
+    @Threads(value=1)
+    public void testSerializeEncryption(final Blackhole bh) {
+        bh.consume(serializer.serialize(TOPIC, testData));
+    }
+
+    @Benchmark
+    @Threads(value=1)
+    public void testDeserializeDecryption(final Blackhole bh) {
+        bh.consume(deserializer.deserialize(TOPIC, testDataCrypt[next++ & (testDataCrypt.length - 1)]));
+    }
+}
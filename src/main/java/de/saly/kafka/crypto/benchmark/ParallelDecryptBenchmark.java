@@ -0,0 +1,91 @@
+package de.saly.kafka.crypto.benchmark;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import de.saly.kafka.crypto.DecryptingDeserializer;
+import de.saly.kafka.crypto.EncryptingSerializer;
+import de.saly.kafka.crypto.SerdeCryptoBase;
+import de.saly.kafka.crypto.clients.ParallelDecryptingConsumer;
+
+/**
+ * Decryption of one polled batch by the {@link ParallelDecryptingConsumer} with a growing number of workers.
+ * One operation is one record, so the score is records/s.
+ */
+@State(Scope.Benchmark)
+public class ParallelDecryptBenchmark {
+
+    private static final String TOPIC = "topic";
+    private static final int BATCH = 512;
+
+    @Param({"1", "2", "4", "8"})
+    public int workers;
+
+    @Param({"1024", "65536"})
+    public int size;
+
+    private ConsumerRecords<byte[], byte[]> batch;
+    private ParallelDecryptingConsumer<byte[], byte[]> consumer;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        KeyFiles keys = KeyFiles.generate();
+
+        Map<String, Object> config = new HashMap<>();
+        config.put(SerdeCryptoBase.CRYPTO_RSA_PRIVATEKEY_FILEPATH, keys.privateKeyPath());
+        config.put(SerdeCryptoBase.CRYPTO_RSA_PUBLICKEY_FILEPATH, keys.publicKeyPath());
+        config.put(EncryptingSerializer.CRYPTO_VALUE_SERIALIZER, ByteArraySerializer.class.getName());
+        config.put(DecryptingDeserializer.CRYPTO_VALUE_DESERIALIZER, ByteArrayDeserializer.class.getName());
+        config.put("key.deserializer", ByteArrayDeserializer.class.getName());
+        config.put("value.deserializer", DecryptingDeserializer.class.getName());
+        config.put(ParallelDecryptingConsumer.CRYPTO_DECRYPT_PARALLELISM, String.valueOf(workers));
+
+        EncryptingSerializer<byte[]> serializer = new EncryptingSerializer<byte[]>();
+        serializer.configure(config, false);
+
+        Random rand = new Random(); //no need for secure rand here
+        final TopicPartition partition = new TopicPartition(TOPIC, 0);
+        final List<ConsumerRecord<byte[], byte[]>> records = new ArrayList<>(BATCH);
+        for (int i = 0; i < BATCH; i++) {
+            byte[] data = new byte[size];
+            rand.nextBytes(data);
+            records.add(new ConsumerRecord<byte[], byte[]>(TOPIC, 0, i, null, serializer.serialize(TOPIC, data)));
+        }
+        serializer.close();
+
+        batch = new ConsumerRecords<byte[], byte[]>(Collections.singletonMap(partition, records));
+        consumer = new ParallelDecryptingConsumer<byte[], byte[]>(new MockConsumer<byte[], byte[]>(OffsetResetStrategy.EARLIEST), config);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        consumer.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void testDecryptBatch(final Blackhole bh) {
+        bh.consume(consumer.decrypt(batch));
+    }
+}
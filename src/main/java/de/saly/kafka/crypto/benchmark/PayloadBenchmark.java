@@ -0,0 +1,134 @@
+package de.saly.kafka.crypto.benchmark;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.kafka.common.serialization.Deserializer;
+import org.apache.kafka.common.serialization.Serializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.infra.Blackhole;
+
+import de.saly.kafka.crypto.DecryptingDeserializer;
+import de.saly.kafka.crypto.EncryptingSerializer;
+import de.saly.kafka.crypto.SerdeCryptoBase;
+import de.saly.kafka.crypto.benchmark.payload.PayloadGenerator;
+import de.saly.kafka.crypto.compression.CompressingSerializer;
+import de.saly.kafka.crypto.compression.DecompressingDeserializer;
+import de.saly.kafka.crypto.envelope.EnvelopeDecryptingDeserializer;
+import de.saly.kafka.crypto.envelope.EnvelopeEncryptingSerializer;
+import de.saly.kafka.crypto.envelope.EnvelopeSerdeBase;
+
+/**
+ * Like {@link SerDeBenchmark} but with payloads that look like traffic: a pool of records from a corpus
+ * ({@link PayloadType} or {@code file:records.txt}) with sizes from a distribution (e.g. {@code lognormal:1024:1.5},
+ * see {@link de.saly.kafka.crypto.benchmark.payload.SizeDistribution}) goes through the whole path, the wrapped
+ * serializer (STRING for text corpora, BYTEARRAY for binary ones), optionally compression and the encryption.
+ * <p>
+ * Records differ in size, so compare MB/s (plaintextBytes) rather than ops/s.
+ */
+@State(Scope.Benchmark)
+public class PayloadBenchmark {
+
+    private static String TOPIC = "topic";
+    private static final int POOL_SIZE = 256;
+    private static final long POOL_BYTES = 64 * 1024 * 1024;
+
+    @Param({"JSON", "AVRO"})
+    public String corpus;
+
+    @Param({"fixed:1024", "lognormal:1024:1.5"})
+    public String sizes;
+
+    @Param({"NONE", "LZ4"})
+    public String codec;
+
+    /**
+     * LIBRARY is the {@link EncryptingSerializer} (AES-CBC), the others are {@link EnvelopeEncryptingSerializer} modes
+     */
+    @Param({"LIBRARY", "AES_GCM"})
+    public String mode;
+
+    private Object[] testData;
+    private int[] plaintextSizes;
+    private byte[][] testDataCrypt;
+    private int next;
+
+    private Serializer<Object> serializer;
+    private Deserializer<Object> deserializer;
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void setup() throws Exception {
+        KeyFiles keys = KeyFiles.generate();
+
+        final PayloadGenerator generator = PayloadGenerator.parse(corpus, sizes);
+        final WrappedSerde serde = generator.corpus().isText() ? WrappedSerde.STRING : WrappedSerde.BYTEARRAY;
+
+        Map<String, Object> config = new HashMap<>();
+        config.put(SerdeCryptoBase.CRYPTO_RSA_PRIVATEKEY_FILEPATH, keys.privateKeyPath());
+        config.put(SerdeCryptoBase.CRYPTO_RSA_PUBLICKEY_FILEPATH, keys.publicKeyPath());
+
+        if("NONE".equals(codec)) {
+            config.put(EncryptingSerializer.CRYPTO_VALUE_SERIALIZER, serde.serializer().getName());
+            config.put(DecryptingDeserializer.CRYPTO_VALUE_DESERIALIZER, serde.deserializer().getName());
+        } else {
+            config.put(EncryptingSerializer.CRYPTO_VALUE_SERIALIZER, CompressingSerializer.class.getName());
+            config.put(DecryptingDeserializer.CRYPTO_VALUE_DESERIALIZER, DecompressingDeserializer.class.getName());
+            config.put(CompressingSerializer.CRYPTO_COMPRESSION_WRAPPED_SERIALIZER, serde.serializer().getName());
+            config.put(DecompressingDeserializer.CRYPTO_COMPRESSION_WRAPPED_DESERIALIZER, serde.deserializer().getName());
+            config.put(CompressingSerializer.CRYPTO_COMPRESSION_TYPE, codec);
+        }
+
+        if("LIBRARY".equals(mode)) {
+            serializer = new EncryptingSerializer<Object>();
+            deserializer = new DecryptingDeserializer<Object>();
+        } else {
+            config.put(EnvelopeSerdeBase.CRYPTO_CIPHER_MODE, mode);
+            config.put(EnvelopeSerdeBase.CRYPTO_CIPHER_MODES_ALLOWED, mode);
+            serializer = new EnvelopeEncryptingSerializer<Object>();
+            deserializer = new EnvelopeDecryptingDeserializer<Object>();
+        }
+
+        serializer.configure(config, false);
+        deserializer.configure(config, false);
+
+        final Serializer<Object> plain = (Serializer<Object>) serde.serializer().newInstance();
+        final byte[][] payloads = generator.pool(POOL_SIZE, POOL_BYTES);
+        //a power of two, so that next can wrap around with a mask
+        final int count = Integer.highestOneBit(payloads.length);
+
+        testData = new Object[count];
+        plaintextSizes = new int[count];
+        testDataCrypt = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            testData[i] = serde.value(payloads[i]);
+            plaintextSizes[i] = plain.serialize(TOPIC, testData[i]).length;
+            testDataCrypt[i] = serializer.serialize(TOPIC, testData[i]);
+        }
+    }
+
+    @Benchmark
+    @Threads(value=1)
+    public void testSerializeEncryption(final ByteCounters counters, final Blackhole bh) {
+        final int i = next++ & (testData.length - 1);
+        final byte[] crypt = serializer.serialize(TOPIC, testData[i]);
+        counters.plaintextBytes += plaintextSizes[i];
+        counters.ciphertextBytes += crypt.length;
+        bh.consume(crypt);
+    }
+
+    @Benchmark
+    @Threads(value=1)
+    public void testDeserializeDecryption(final ByteCounters counters, final Blackhole bh) {
+        final int i = next++ & (testDataCrypt.length - 1);
+        bh.consume(deserializer.deserialize(TOPIC, testDataCrypt[i]));
+        counters.plaintextBytes += plaintextSizes[i];
+        counters.ciphertextBytes += testDataCrypt[i].length;
+    }
+}
@@ -0,0 +1,129 @@
+package de.saly.kafka.crypto.benchmark;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import de.saly.kafka.crypto.benchmark.payload.Corpus;
+
+/**
+ * Payloads of a given size with different compressibility.
+ */
+public enum PayloadType implements Corpus {
+
+    /**
+     * Incompressible, like the payloads of {@link SerDeBenchmark}.
+     */
+    RANDOM(false) {
+        @Override
+        public byte[] generate(final Random rand, final int size) {
+            final byte[] data = new byte[size];
+            rand.nextBytes(data);
+            return data;
+        }
+    },
+
+    /**
+     * Words from a small vocabulary, compresses roughly like log lines.
+     */
+    TEXT(true) {
+        @Override
+        public byte[] generate(final Random rand, final int size) {
+            final StringBuilder sb = new StringBuilder(size + 16);
+            while (sb.length() < size) {
+                sb.append(WORDS[rand.nextInt(WORDS.length)]).append(rand.nextInt(8) == 0 ? ". " : " ");
+            }
+            return truncate(sb, size);
+        }
+    },
+
+    /**
+     * A JSON array of event objects with repeating field names and random values.
+     */
+    JSON(true) {
+        @Override
+        public byte[] generate(final Random rand, final int size) {
+            final StringBuilder sb = new StringBuilder(size + 256).append('[');
+            while (sb.length() < size) {
+                sb.append("{\"id\":").append(rand.nextInt(Integer.MAX_VALUE))
+                  .append(",\"user\":\"user-").append(rand.nextInt(10000))
+                  .append("\",\"event\":\"").append(EVENTS[rand.nextInt(EVENTS.length)])
+                  .append("\",\"timestamp\":").append(1476000000000L + rand.nextInt(Integer.MAX_VALUE))
+                  .append(",\"amount\":").append(rand.nextInt(100000) / 100d)
+                  .append(",\"tags\":[\"").append(WORDS[rand.nextInt(WORDS.length)]).append("\",\"")
+                  .append(WORDS[rand.nextInt(WORDS.length)]).append("\"]},");
+            }
+            return truncate(sb, size);
+        }
+    },
+
+    /**
+     * The events of {@link #JSON} in Avro binary encoding (as written by a {@code GenericDatumWriter}, without
+     * schema or container header): zigzag varint longs, length prefixed strings, enum indexes and little endian doubles.
+     */
+    AVRO(false) {
+        @Override
+        public byte[] generate(final Random rand, final int size) {
+            final byte[] data = new byte[size + 256];
+            int pos = 0;
+            while (pos < size) {
+                pos = putLong(data, pos, rand.nextInt(Integer.MAX_VALUE));
+                pos = putString(data, pos, "user-" + rand.nextInt(10000));
+                pos = putLong(data, pos, rand.nextInt(EVENTS.length));
+                pos = putLong(data, pos, 1476000000000L + rand.nextInt(Integer.MAX_VALUE));
+                final long amount = Double.doubleToLongBits(rand.nextInt(100000) / 100d);
+                for (int i = 0; i < 8; i++) {
+                    data[pos++] = (byte) (amount >>> (8 * i));
+                }
+                //array block of two tags, then the terminating empty block
+                pos = putLong(data, pos, 2);
+                pos = putString(data, pos, WORDS[rand.nextInt(WORDS.length)]);
+                pos = putString(data, pos, WORDS[rand.nextInt(WORDS.length)]);
+                pos = putLong(data, pos, 0);
+            }
+            return Arrays.copyOf(data, size);
+        }
+    };
+
+    private static final String[] WORDS = {"kafka", "broker", "topic", "partition", "offset", "consumer", "producer",
+            "record", "key", "value", "cipher", "encrypt", "decrypt", "the", "a", "of", "and", "to", "in", "is", "message",
+            "latency", "throughput", "batch", "error", "warning", "info", "request", "response", "client", "server"};
+
+    private static final String[] EVENTS = {"click", "view", "purchase", "login", "logout", "search", "add_to_cart"};
+
+    private final boolean text;
+
+    private PayloadType(final boolean text) {
+        this.text = text;
+    }
+
+    @Override
+    public abstract byte[] generate(Random rand, int size);
+
+    @Override
+    public boolean isText() {
+        return text;
+    }
+
+    private static int putLong(final byte[] data, int pos, final long value) {
+        long zigzag = (value << 1) ^ (value >> 63);
+        while ((zigzag & ~0x7FL) != 0) {
+            data[pos++] = (byte) ((zigzag & 0x7F) | 0x80);
+            zigzag >>>= 7;
+        }
+        data[pos++] = (byte) zigzag;
+        return pos;
+    }
+
+    private static int putString(final byte[] data, final int pos, final String value) {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        final int start = putLong(data, pos, bytes.length);
+        System.arraycopy(bytes, 0, data, start, bytes.length);
+        return start + bytes.length;
+    }
+
+    private static byte[] truncate(final StringBuilder sb, final int size) {
+        sb.setLength(size);
+        return sb.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+}
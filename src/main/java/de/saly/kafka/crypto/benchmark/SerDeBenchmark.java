@@ -1,17 +1,16 @@
 package de.saly.kafka.crypto.benchmark;
 
-import java.io.File;
-import java.io.FileOutputStream;
-import java.security.KeyPair;
-import java.security.KeyPairGenerator;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Random;
 
-import org.apache.kafka.common.serialization.ByteArrayDeserializer;
-import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.Deserializer;
+import org.apache.kafka.common.serialization.Serializer;
 import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
 import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
 import org.openjdk.jmh.annotations.State;
 import org.openjdk.jmh.annotations.Threads;
 import org.openjdk.jmh.infra.Blackhole;
@@ -19,119 +18,97 @@ import org.openjdk.jmh.infra.Blackhole;
 import de.saly.kafka.crypto.DecryptingDeserializer;
 import de.saly.kafka.crypto.EncryptingSerializer;
 import de.saly.kafka.crypto.SerdeCryptoBase;
+import de.saly.kafka.crypto.envelope.EnvelopeDecryptingDeserializer;
+import de.saly.kafka.crypto.envelope.EnvelopeEncryptingSerializer;
+import de.saly.kafka.crypto.envelope.EnvelopeSerdeBase;
 
+/**
+ * Serializes and deserializes one record per operation with one shared serializer and deserializer, on 2 and 1 threads.
+ * {@code -t} runs both benchmarks with another thread count, {@link ThreadScalingBenchmark} sweeps the thread count and
+ * compares shared instances with one per thread.
+ */
 @State(Scope.Benchmark)
 public class SerDeBenchmark {
-    
+
     private static String TOPIC = "topic";
-    private byte[] testData1k = new byte[1024];
-    private byte[] testData4k = new byte[4096];
-    private byte[] testData8k = new byte[2*4096];
-    private byte[] testData256k = new byte[256*1024];
-    
-    private byte[] testData1kCrypt;
-    private byte[] testData4kCrypt;
-    private byte[] testData8kCrypt;
-    private byte[] testData256kCrypt;
-    
-    private File pubKey;
-    private File privKey;
-    private byte[] publicKey;
-    private byte[] privateKey;
-    
-    private EncryptingSerializer<byte[]> serializer = new EncryptingSerializer<byte[]>();
-    private DecryptingDeserializer<byte[]> deserializer = new DecryptingDeserializer<byte[]>();
-    
-    public SerDeBenchmark() {
-        try {
-            pubKey = File.createTempFile("kafka", "crypto");
-            pubKey.deleteOnExit();
-            privKey = File.createTempFile("kafka", "crypto");
-            privKey.deleteOnExit();
-            
-            KeyPairGenerator keyGen = KeyPairGenerator.getInstance("RSA");
-            keyGen.initialize(2048);
-            KeyPair pair = keyGen.genKeyPair();
-            publicKey = pair.getPublic().getEncoded();
-            privateKey = pair.getPrivate().getEncoded();
-            
-            try(FileOutputStream fout = new FileOutputStream(pubKey)) {
-                fout.write(publicKey);
-            }
-            
-            try(FileOutputStream fout = new FileOutputStream(privKey)) {
-                fout.write(privateKey);
-            }
-                
-            Map<String, Object> config = new HashMap<>();
-            config.put(SerdeCryptoBase.CRYPTO_RSA_PRIVATEKEY_FILEPATH, privKey.getAbsolutePath());
-            config.put(SerdeCryptoBase.CRYPTO_RSA_PUBLICKEY_FILEPATH, pubKey.getAbsolutePath());
-            config.put(EncryptingSerializer.CRYPTO_VALUE_SERIALIZER, ByteArraySerializer.class.getName());
-            config.put(DecryptingDeserializer.CRYPTO_VALUE_DESERIALIZER, ByteArrayDeserializer.class);
-            serializer.configure(config, false);
-            deserializer.configure(config, false);
-            
-            Random rand = new Random(); //no need for secure rand here
-            
-            rand.nextBytes(testData1k);
-            rand.nextBytes(testData4k);
-            rand.nextBytes(testData8k);
-            rand.nextBytes(testData256k);
-            
-            testData1kCrypt = serializer.serialize(TOPIC, testData1k);
-            testData4kCrypt = serializer.serialize(TOPIC, testData4k);
-            testData8kCrypt = serializer.serialize(TOPIC, testData8k);
-            testData256kCrypt = serializer.serialize(TOPIC, testData256k);
-        } catch (Exception e) {
-            throw new RuntimeException(e);
+
+    @Param({"100", "1024", "4096", "8192", "65536", "262144", "1048576", "4194304"})
+    public int size;
+
+    @Param({"BYTEARRAY", "STRING"})
+    public WrappedSerde serde;
+
+    /**
+     * LIBRARY is the {@link EncryptingSerializer} (AES-CBC), the others are {@link EnvelopeEncryptingSerializer} modes.
+     * CHACHA20_POLY1305 needs a Java 11 or newer runtime, the project targets Java 8, so it is not a default mode and
+     * only runs if given with {@code -p mode=...}. On a JVM without it the setup fails with "not available in this JVM".
+     */
+    @Param({"LIBRARY", "AES_CBC", "AES_GCM", "AES_CTR"})
+    public String mode;
+
+    private Object testData;
+    private byte[][] testDataCrypt = new byte[16][];
+
+    private Serializer<Object> serializer;
+    private Deserializer<Object> deserializer;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        KeyFiles keys = KeyFiles.generate();
+
+        Map<String, Object> config = new HashMap<>();
+        config.put(SerdeCryptoBase.CRYPTO_RSA_PRIVATEKEY_FILEPATH, keys.privateKeyPath());
+        config.put(SerdeCryptoBase.CRYPTO_RSA_PUBLICKEY_FILEPATH, keys.publicKeyPath());
+        config.put(EncryptingSerializer.CRYPTO_VALUE_SERIALIZER, serde.serializer().getName());
+        config.put(DecryptingDeserializer.CRYPTO_VALUE_DESERIALIZER, serde.deserializer().getName());
+
+        if("LIBRARY".equals(mode)) {
+            serializer = new EncryptingSerializer<Object>();
+            deserializer = new DecryptingDeserializer<Object>();
+        } else {
+            config.put(EnvelopeSerdeBase.CRYPTO_CIPHER_MODE, mode);
+            config.put(EnvelopeSerdeBase.CRYPTO_CIPHER_MODES_ALLOWED, mode);
+            serializer = new EnvelopeEncryptingSerializer<Object>();
+            deserializer = new EnvelopeDecryptingDeserializer<Object>();
         }
-    }
 
-    @Benchmark
-    @Threads(value=2)
-    public void testSerializeEncryption1k(final Blackhole bh) {
-        bh.consume(serializer.serialize(TOPIC, testData1k));
-    }
-    
-    @Benchmark
-    @Threads(value=2)
-    public void testSerializeEncryption4k(final Blackhole bh) {
-        bh.consume(serializer.serialize(TOPIC, testData4k));
-    }
-    
-    @Benchmark
-    @Threads(value=2)
-    public void testSerializeEncryption8k(final Blackhole bh) {
-        bh.consume(serializer.serialize(TOPIC, testData8k));
+        serializer.configure(config, false);
+        deserializer.configure(config, false);
+
+        Random rand = new Random(); //no need for secure rand here
+
+        testData = serde.payload(rand, size);
+        //distinct records, a consumer does not decrypt the very same record over and over. ChaCha20-Poly1305 (Java 11 or
+        //newer, see mode) also refuses to be initialized twice in a row with the same key and nonce for encryption, and
+        //newer JDKs (e.g. 17) for decryption too, which would measure the fallback to a new cipher instance every time.
+        for (int i = 0; i < testDataCrypt.length; i++) {
+            testDataCrypt[i] = serializer.serialize(TOPIC, testData);
+        }
     }
-    
+
     @Benchmark
     @Threads(value=2)
-    public void testSerializeEncryption256k(final Blackhole bh) {
-        bh.consume(serializer.serialize(TOPIC, testData256k));
-    }
-    
-    @Benchmark
-    @Threads(value=1)
-    public void testDeserializeDecryption1k(final Blackhole bh) {
-        bh.consume(deserializer.deserialize(TOPIC, testData1kCrypt));
-    }
-    
-    @Benchmark
-    @Threads(value=1)
-    public void testDeserializeDecryption4k(final Blackhole bh) {
-        bh.consume(deserializer.deserialize(TOPIC, testData4kCrypt));
+    public void testSerializeEncryption(final ByteCounters counters, final Blackhole bh) {
+        final byte[] crypt = serializer.serialize(TOPIC, testData);
+        counters.plaintextBytes += size;
+        counters.ciphertextBytes += crypt.length;
+        bh.consume(crypt);
     }
-    
+
     @Benchmark
     @Threads(value=1)
-    public void testDeserializeDecryption8k(final Blackhole bh) {
-        bh.consume(deserializer.deserialize(TOPIC, testData8kCrypt));
+    public void testDeserializeDecryption(final Cursor cursor, final ByteCounters counters, final Blackhole bh) {
+        final byte[] crypt = testDataCrypt[cursor.next++ & (testDataCrypt.length - 1)];
+        bh.consume(deserializer.deserialize(TOPIC, crypt));
+        counters.plaintextBytes += size;
+        counters.ciphertextBytes += crypt.length;
     }
-    
-    @Benchmark
-    @Threads(value=1)
-    public void testDeserializeDecryption256k(final Blackhole bh) {
-        bh.consume(deserializer.deserialize(TOPIC, testData256kCrypt));
+
+    /**
+     * The record each thread decrypts next
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
     }
 }
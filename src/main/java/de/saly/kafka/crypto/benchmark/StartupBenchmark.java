@@ -0,0 +1,239 @@
+package de.saly.kafka.crypto.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.utils.Utils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+
+import de.saly.kafka.crypto.DecryptingDeserializer;
+import de.saly.kafka.crypto.EncryptingSerializer;
+import de.saly.kafka.crypto.SerdeCryptoBase;
+import de.saly.kafka.crypto.envelope.EnvelopeDecryptingDeserializer;
+import de.saly.kafka.crypto.envelope.EnvelopeEncryptingSerializer;
+import de.saly.kafka.crypto.envelope.KeyMaterial;
+
+/**
+ * What a short-lived client pays before its first record: {@code configure()} of the serializer and deserializer,
+ * the first record through both, and parsing the RSA key files. Every number is a single invocation in a fresh JVM
+ * ({@link Mode#SingleShotTime}), so it includes class loading, interpreted code and the JCE provider initialization.
+ * The state before the measured client:
+ * <ul>
+ * <li>COLD: nothing, this is the first client of the process</li>
+ * <li>PRELOADED: {@link KeyMaterial#preload(Map)} ran, e.g. at application start</li>
+ * <li>REUSED: another client has been configured and has sent a record</li>
+ * </ul>
+ * With {@code shared=false} ({@value KeyMaterial#CRYPTO_KEYS_SHARED}) every client parses its key files again.
+ * <p>
+ * Run {@link #main(String[])}, which runs every benchmark in {@value #FORKS} fresh JVMs without warmup. A default run of
+ * {@link Main} skips this benchmark, and naming it there adds Main's warmup iterations, which would measure warm clients.
+ * The key files are kept in {@code java.io.tmpdir} and generated before the first fork, generating RSA keys in a fork
+ * would warm exactly what is measured here.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class StartupBenchmark {
+
+    static final int FORKS = 20;
+
+    private static final String TOPIC = "topic";
+    private static final Path KEYS = Paths.get(System.getProperty("java.io.tmpdir"), "kafka-e2ee-startup-keys");
+
+    @State(Scope.Benchmark)
+    public static class Clients {
+
+        @Param({"COLD", "PRELOADED", "REUSED"})
+        public String state;
+
+        @Param({"true", "false"})
+        public boolean shared;
+
+        private Map<String, Object> config;
+
+        @Setup(Level.Trial)
+        public void setup() throws Exception {
+            kafkaClient();
+            config = config(startupKeys());
+            config.put(KeyMaterial.CRYPTO_KEYS_SHARED, shared);
+
+            if("PRELOADED".equals(state)) {
+                KeyMaterial.preload(config);
+            } else if("REUSED".equals(state)) {
+                roundTrip(config);
+            }
+        }
+
+        @Setup(Level.Iteration)
+        public void clear() {
+            //keeps COLD clients cold with respect to their keys if run with more than one iteration per fork
+            if("COLD".equals(state)) {
+                KeyMaterial.clear();
+            }
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Keys {
+
+        private Path directory;
+        private Path publicKey;
+        private Path privateKey;
+
+        @Setup(Level.Trial)
+        public void setup() throws Exception {
+            kafkaClient();
+            directory = startupKeys();
+            publicKey = directory.resolve("startup.pub");
+            privateKey = directory.resolve("startup.key");
+        }
+    }
+
+    @Benchmark
+    public Object configureSerializer(final Clients clients) {
+        final EnvelopeEncryptingSerializer<byte[]> serializer = new EnvelopeEncryptingSerializer<byte[]>();
+        serializer.configure(clients.config, false);
+        return serializer;
+    }
+
+    @Benchmark
+    public Object configureDeserializer(final Clients clients) {
+        final EnvelopeDecryptingDeserializer<byte[]> deserializer = new EnvelopeDecryptingDeserializer<byte[]>();
+        deserializer.configure(clients.config, false);
+        return deserializer;
+    }
+
+    /**
+     * configure() of both and one record through both, which adds the first data key unwrap and cipher use
+     */
+    @Benchmark
+    public byte[] firstRecord(final Clients clients) {
+        return roundTrip(clients.config);
+    }
+
+    /**
+     * The same for the {@link EncryptingSerializer}, which always parses its keys and cannot be preloaded
+     */
+    @Benchmark
+    public byte[] firstRecordLibrary(final Keys keys) {
+        final Map<String, Object> config = config(keys.directory);
+        final EncryptingSerializer<byte[]> serializer = new EncryptingSerializer<byte[]>();
+        final DecryptingDeserializer<byte[]> deserializer = new DecryptingDeserializer<byte[]>();
+        serializer.configure(config, false);
+        deserializer.configure(config, false);
+        return deserializer.deserialize(TOPIC, serializer.serialize(TOPIC, new byte[1024]));
+    }
+
+    @Benchmark
+    public PublicKey parsePublicKey(final Keys keys) throws Exception {
+        return KeyFactory.getInstance("RSA").generatePublic(new X509EncodedKeySpec(Files.readAllBytes(keys.publicKey)));
+    }
+
+    @Benchmark
+    public PrivateKey parsePrivateKey(final Keys keys) throws Exception {
+        return KeyFactory.getInstance("RSA").generatePrivate(new PKCS8EncodedKeySpec(Files.readAllBytes(keys.privateKey)));
+    }
+
+    /**
+     * Serdes are configured by a producer or consumer constructor, which has already initialized the logging
+     * (a cold log4j takes longer than everything measured here), so that is not attributed to the serdes
+     */
+    private static void kafkaClient() {
+        Utils.newInstance(ByteArraySerializer.class);
+    }
+
+    private static byte[] roundTrip(final Map<String, Object> config) {
+        final EnvelopeEncryptingSerializer<byte[]> serializer = new EnvelopeEncryptingSerializer<byte[]>();
+        final EnvelopeDecryptingDeserializer<byte[]> deserializer = new EnvelopeDecryptingDeserializer<byte[]>();
+        serializer.configure(config, false);
+        deserializer.configure(config, false);
+        return deserializer.deserialize(TOPIC, serializer.serialize(TOPIC, new byte[1024]));
+    }
+
+    private static Map<String, Object> config(final Path keys) {
+        final Map<String, Object> config = new HashMap<>();
+        config.put(SerdeCryptoBase.CRYPTO_RSA_PUBLICKEY_FILEPATH, keys.resolve("startup.pub").toString());
+        config.put(SerdeCryptoBase.CRYPTO_RSA_PRIVATEKEY_FILEPATH, keys.resolve("startup.key").toString());
+        config.put(EncryptingSerializer.CRYPTO_VALUE_SERIALIZER, ByteArraySerializer.class.getName());
+        config.put(DecryptingDeserializer.CRYPTO_VALUE_DESERIALIZER, ByteArrayDeserializer.class.getName());
+        return config;
+    }
+
+    /**
+     * @return the directory with the key pair of this benchmark, generated if there is none yet
+     */
+    static synchronized Path startupKeys() throws IOException {
+        final Path pub = KEYS.resolve("startup.pub");
+        final Path priv = KEYS.resolve("startup.key");
+
+        if(Files.exists(pub) && Files.exists(priv)) {
+            return KEYS;
+        }
+
+        try {
+            final KeyPairGenerator keyGen = KeyPairGenerator.getInstance("RSA");
+            keyGen.initialize(2048);
+            final KeyPair pair = keyGen.genKeyPair();
+
+            Files.createDirectories(KEYS);
+            write(priv, pair.getPrivate().getEncoded());
+            write(pub, pair.getPublic().getEncoded());
+            return KEYS;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static void write(final Path file, final byte[] content) throws IOException {
+        //forks may start while the keys are written, so they only ever see complete files
+        final Path tmp = Files.createTempFile(KEYS, "startup", ".tmp");
+        Files.write(tmp, content);
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Runs this benchmark with {@value #FORKS} forks of one measured invocation each and no warmup, other JMH options
+     * are taken from the command line like in {@link Main}
+     */
+    public static void main(String[] args) throws Exception {
+        final CommandLineOptions cli = new CommandLineOptions(args);
+        startupKeys();
+
+        final ChainedOptionsBuilder builder = Main.defaults(cli)
+                .forks(cli.getForkCount().orElse(FORKS))
+                .warmupIterations(cli.getWarmupIterations().orElse(0))
+                .measurementIterations(cli.getMeasurementIterations().orElse(1));
+
+        if(cli.getIncludes().isEmpty()) {
+            builder.include(StartupBenchmark.class.getSimpleName());
+        }
+
+        new Runner(builder.build()).run();
+    }
+}
@@ -0,0 +1,185 @@
+package de.saly.kafka.crypto.benchmark;
+
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+
+import de.saly.kafka.crypto.DecryptingDeserializer;
+import de.saly.kafka.crypto.EncryptingSerializer;
+import de.saly.kafka.crypto.SerdeCryptoBase;
+
+/**
+ * One serializer/deserializer shared by all threads (like the value serializer of a {@code KafkaProducer}
+ * which many application threads call {@code send()} on) against one instance per thread.
+ * <p>
+ * Run {@link #main(String[])} to sweep the thread count, it prints the scaling efficiency
+ * {@code ops(n) / (n * ops(1))} for every thread count. Thread counts default to powers of two
+ * up to the number of cores and can be set with {@code -Dthreads=1,2,3,4}, all other JMH options
+ * are taken from the command line like in {@link Main}.
+ */
+@State(Scope.Benchmark)
+public class ThreadScalingBenchmark {
+
+    private static String TOPIC = "topic";
+
+    @Param({"1024", "262144"})
+    public int size;
+
+    private Map<String, Object> config;
+    private byte[] testData;
+    private byte[] testDataCrypt;
+
+    private EncryptingSerializer<byte[]> serializer = new EncryptingSerializer<byte[]>();
+    private DecryptingDeserializer<byte[]> deserializer = new DecryptingDeserializer<byte[]>();
+
+    @State(Scope.Thread)
+    public static class PerThread {
+        private EncryptingSerializer<byte[]> serializer = new EncryptingSerializer<byte[]>();
+        private DecryptingDeserializer<byte[]> deserializer = new DecryptingDeserializer<byte[]>();
+
+        @Setup(Level.Trial)
+        public void setup(final ThreadScalingBenchmark shared) {
+            serializer.configure(shared.config, false);
+            deserializer.configure(shared.config, false);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        KeyFiles keys = KeyFiles.generate();
+
+        config = new HashMap<>();
+        config.put(SerdeCryptoBase.CRYPTO_RSA_PRIVATEKEY_FILEPATH, keys.privateKeyPath());
+        config.put(SerdeCryptoBase.CRYPTO_RSA_PUBLICKEY_FILEPATH, keys.publicKeyPath());
+        config.put(EncryptingSerializer.CRYPTO_VALUE_SERIALIZER, ByteArraySerializer.class.getName());
+        config.put(DecryptingDeserializer.CRYPTO_VALUE_DESERIALIZER, ByteArrayDeserializer.class.getName());
+        serializer.configure(config, false);
+        deserializer.configure(config, false);
+
+        testData = new byte[size];
+        new Random().nextBytes(testData); //no need for secure rand here
+        testDataCrypt = serializer.serialize(TOPIC, testData);
+    }
+
+    @Benchmark
+    public void testSerializeEncryptionShared(final Blackhole bh) {
+        bh.consume(serializer.serialize(TOPIC, testData));
+    }
+
+    @Benchmark
+    public void testSerializeEncryptionPerThread(final PerThread perThread, final Blackhole bh) {
+        bh.consume(perThread.serializer.serialize(TOPIC, testData));
+    }
+
+    @Benchmark
+    public void testDeserializeDecryptionShared(final Blackhole bh) {
+        bh.consume(deserializer.deserialize(TOPIC, testDataCrypt));
+    }
+
+    @Benchmark
+    public void testDeserializeDecryptionPerThread(final PerThread perThread, final Blackhole bh) {
+        bh.consume(perThread.deserializer.deserialize(TOPIC, testDataCrypt));
+    }
+
+    public static void main(String[] args) throws Exception {
+
+        String filename = "kafkae2ee_scaling_result";
+
+        final CommandLineOptions cli = new CommandLineOptions(args);
+        final int[] threads = threadCounts(System.getProperty("threads"));
+
+        //benchmark+params -> threads -> ops/s
+        final Map<String, Map<Integer, Double>> scores = new TreeMap<>();
+
+        for (final int t : threads) {
+            System.out.println("Thread scaling benchmark is running with "+t+" thread(s)");
+
+            final Collection<RunResult> results = new Runner(Main.defaults(cli)
+                    .include(ThreadScalingBenchmark.class.getSimpleName())
+                    .threads(t)
+                    .build()).run();
+
+            for (final RunResult result : results) {
+                final String label = result.getParams().getBenchmark().replace(ThreadScalingBenchmark.class.getName() + ".", "")
+                        + " size=" + result.getParams().getParam("size");
+
+                if(!scores.containsKey(label)) {
+                    scores.put(label, new TreeMap<Integer, Double>());
+                }
+                scores.get(label).put(t, result.getPrimaryResult().getScore());
+            }
+        }
+
+        final StringBuilder json = new StringBuilder("[\n");
+        System.out.println();
+        System.out.println(String.format("%-50s %8s %14s %14s %11s", "Benchmark", "Threads", "ops/s", "ops/s/thread", "Efficiency"));
+
+        for (final Map.Entry<String, Map<Integer, Double>> entry : scores.entrySet()) {
+            final Double single = entry.getValue().get(threads[0]);
+
+            for (final Map.Entry<Integer, Double> score : entry.getValue().entrySet()) {
+                final int t = score.getKey();
+                final double perThread = score.getValue() / t;
+                //relative to the smallest thread count, which usually is 1
+                final double efficiency = single == null ? Double.NaN : perThread / (single / threads[0]);
+
+                System.out.println(String.format(Locale.ROOT, "%-50s %8d %14.1f %14.1f %10.1f%%", entry.getKey(), t, score.getValue(),
+                        perThread, 100 * efficiency));
+
+                json.append(json.length() > 2 ? ",\n" : "").append(String.format(Locale.ROOT,
+                        "  {\"benchmark\":\"%s\",\"threads\":%d,\"opsPerSecond\":%.3f,\"scalingEfficiency\":%.4f}",
+                        entry.getKey(), t, score.getValue(), efficiency));
+            }
+        }
+
+        try(Writer out = new OutputStreamWriter(new FileOutputStream(filename+".json"), StandardCharsets.UTF_8)) {
+            out.write(json.append("\n]\n").toString());
+        }
+
+        System.out.println("Results written to "+filename+".json");
+    }
+
+    private static int[] threadCounts(final String threads) {
+        final List<Integer> counts = new ArrayList<>();
+
+        if(threads == null) {
+            final int cores = Runtime.getRuntime().availableProcessors();
+            for (int t = 1; t < cores; t *= 2) {
+                counts.add(t);
+            }
+            counts.add(cores);
+        } else {
+            for (final String t : threads.split(",")) {
+                counts.add(Integer.parseInt(t.trim()));
+            }
+        }
+
+        final int[] result = new int[counts.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = counts.get(i);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,75 @@
+package de.saly.kafka.crypto.benchmark;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.Deserializer;
+import org.apache.kafka.common.serialization.Serializer;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+
+/**
+ * The serializer/deserializer pairs wrapped by the encrypting serdes
+ * ({@code crypto.wrapped_serializer} and {@code crypto.wrapped_deserializer}).
+ */
+public enum WrappedSerde {
+
+    BYTEARRAY(ByteArraySerializer.class, ByteArrayDeserializer.class) {
+        @Override
+        public Object payload(final Random rand, final int size) {
+            final byte[] data = new byte[size];
+            rand.nextBytes(data);
+            return data;
+        }
+
+        @Override
+        public Object value(final byte[] payload) {
+            return payload;
+        }
+    },
+
+    STRING(StringSerializer.class, StringDeserializer.class) {
+        @Override
+        public Object payload(final Random rand, final int size) {
+            //ascii only, so that size chars are exactly size serialized bytes
+            final char[] data = new char[size];
+            for (int i = 0; i < size; i++) {
+                data[i] = (char) (' ' + rand.nextInt(95));
+            }
+            return new String(data);
+        }
+
+        @Override
+        public Object value(final byte[] payload) {
+            return new String(payload, StandardCharsets.UTF_8);
+        }
+    };
+
+    private final Class<? extends Serializer<?>> serializer;
+    private final Class<? extends Deserializer<?>> deserializer;
+
+    private WrappedSerde(final Class<? extends Serializer<?>> serializer, final Class<? extends Deserializer<?>> deserializer) {
+        this.serializer = serializer;
+        this.deserializer = deserializer;
+    }
+
+    public Class<? extends Serializer<?>> serializer() {
+        return serializer;
+    }
+
+    public Class<? extends Deserializer<?>> deserializer() {
+        return deserializer;
+    }
+
+    /**
+     * @return a random value which this serde serializes into exactly {@code size} bytes
+     */
+    public abstract Object payload(Random rand, int size);
+
+    /**
+     * @return the value this serde serializes into the given payload (for text payloads)
+     */
+    public abstract Object value(byte[] payload);
+}
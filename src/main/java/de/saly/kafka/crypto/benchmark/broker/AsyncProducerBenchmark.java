@@ -0,0 +1,82 @@
+package de.saly.kafka.crypto.benchmark.broker;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.Producer;
+
+import de.saly.kafka.crypto.benchmark.KeyFiles;
+import de.saly.kafka.crypto.benchmark.payload.PayloadGenerator;
+import de.saly.kafka.crypto.clients.AsyncEncryptingProducer;
+
+/**
+ * Compares the {@code EncryptingSerializer} running inline in {@code KafkaProducer.send()} with the
+ * {@link AsyncEncryptingProducer} for every configured number of encryption threads: duration of the
+ * {@code send()} call, end-to-end latency and throughput.
+ * <p>
+ * Usage: {@code java -cp benchmarks.jar de.saly.kafka.crypto.benchmark.broker.AsyncProducerBenchmark [key=value ...]}
+ * <ul>
+ * <li>records (50000), size (262144), payload (RANDOM, TEXT, JSON, AVRO or file:records.txt), sizes (a size distribution,
+ * overrides size), rate in records/s (0 = unlimited), partitions (4), warmup records (5000), threads (1,2,4),
+ * queue size per thread (1024)</li>
+ * <li>producer.* and consumer.* are passed to the clients</li>
+ * </ul>
+ */
+public class AsyncProducerBenchmark {
+
+    public static void main(String[] args) throws Exception {
+
+        final BenchmarkArgs bargs = new BenchmarkArgs(args);
+        final int records = bargs.getInt("records", 50000);
+        final PayloadGenerator payloads = bargs.payloads("RANDOM", 262144);
+        final int rate = bargs.getInt("rate", 0);
+        final int partitions = bargs.getInt("partitions", 4);
+        final int warmup = bargs.getInt("warmup", 5000);
+        final int[] threads = bargs.getInts("threads", 1, 2, 4);
+        final int queueSize = bargs.getInt("queue", 1024);
+        final String filename = "kafkae2ee_async_producer_result";
+
+        final KeyFiles keys = KeyFiles.generate();
+        final List<EndToEndResult> results = new ArrayList<>();
+
+        System.out.println("Async producer benchmark is running - "+records+" records ("+payloads+"), rate "
+                + (rate > 0 ? rate + " rec/s" : "unlimited") + ", "+partitions+" partition(s)");
+
+        try(EmbeddedKafka kafka = new EmbeddedKafka()) {
+            final Properties producerProps = ClientConfigs.encryptingProducer(kafka, keys, bargs.producerOverrides());
+            final Properties consumerProps = ClientConfigs.decryptingConsumer(kafka, keys, bargs.consumerOverrides());
+
+            kafka.createTopic("warmup", partitions);
+            run("warmup", new EndToEndRun("warmup", warmup, rate, payloads), new KafkaProducer<byte[], byte[]>(producerProps), consumerProps);
+
+            kafka.createTopic("inline", partitions);
+            results.add(run("inline", new EndToEndRun("inline", records, rate, payloads), new KafkaProducer<byte[], byte[]>(producerProps),
+                    consumerProps));
+
+            for (final int t : threads) {
+                final Properties asyncProps = new Properties();
+                asyncProps.putAll(producerProps);
+                asyncProps.setProperty(AsyncEncryptingProducer.CRYPTO_ASYNC_THREADS, String.valueOf(t));
+                asyncProps.setProperty(AsyncEncryptingProducer.CRYPTO_ASYNC_QUEUE_SIZE, String.valueOf(queueSize));
+
+                final String topic = "async-" + t;
+                kafka.createTopic(topic, partitions);
+                results.add(run("async threads=" + t, new EndToEndRun(topic, records, rate, payloads),
+                        new AsyncEncryptingProducer<byte[], byte[]>(asyncProps), consumerProps));
+            }
+        }
+
+        EndToEndBenchmark.report(results, filename);
+    }
+
+    private static EndToEndResult run(final String name, final EndToEndRun run, final Producer<byte[], byte[]> producer,
+            final Properties consumerProps) throws Exception {
+        try(Producer<byte[], byte[]> p = producer;
+                KafkaConsumer<byte[], byte[]> consumer = new KafkaConsumer<>(consumerProps)) {
+            return run.run(name, p, consumer);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package de.saly.kafka.crypto.benchmark.broker;
+
+import java.io.IOException;
+import java.util.Map.Entry;
+import java.util.Properties;
+
+import de.saly.kafka.crypto.benchmark.payload.PayloadGenerator;
+
+/**
+ * {@code key=value} command line arguments of the broker benchmarks. Keys prefixed with
+ * {@code producer.} or {@code consumer.} are passed on to the respective client config,
+ * e.g. {@code producer.batch.size=65536 producer.linger.ms=5}.
+ */
+public class BenchmarkArgs {
+
+    private final Properties args = new Properties();
+
+    public BenchmarkArgs(final String[] args) {
+        for (final String arg : args) {
+            final int idx = arg.indexOf('=');
+
+            if(idx <= 0) {
+                throw new IllegalArgumentException("Expected key=value but got '"+arg+"'");
+            }
+
+            this.args.setProperty(arg.substring(0, idx), arg.substring(idx + 1));
+        }
+    }
+
+    public String get(final String key, final String defaultValue) {
+        return args.getProperty(key, defaultValue);
+    }
+
+    public int getInt(final String key, final int defaultValue) {
+        final String value = args.getProperty(key);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    public long getLong(final String key, final long defaultValue) {
+        final String value = args.getProperty(key);
+        return value == null ? defaultValue : Long.parseLong(value);
+    }
+
+    public int[] getInts(final String key, final int... defaultValue) {
+        final String value = args.getProperty(key);
+
+        if(value == null) {
+            return defaultValue;
+        }
+
+        final String[] values = value.split(",");
+        final int[] result = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = Integer.parseInt(values[i].trim());
+        }
+        return result;
+    }
+
+    /**
+     * @return payloads from the corpus in {@code payload} with sizes from {@code sizes} (a size distribution spec),
+     *         which defaults to the fixed {@code size}
+     */
+    public PayloadGenerator payloads(final String defaultCorpus, final int defaultSize) throws IOException {
+        return PayloadGenerator.parse(get("payload", defaultCorpus), get("sizes", String.valueOf(getInt("size", defaultSize))));
+    }
+
+    public Properties producerOverrides() {
+        return withPrefix("producer.");
+    }
+
+    public Properties consumerOverrides() {
+        return withPrefix("consumer.");
+    }
+
+    private Properties withPrefix(final String prefix) {
+        final Properties result = new Properties();
+        for (final Entry<Object, Object> entry : args.entrySet()) {
+            final String key = (String) entry.getKey();
+            if(key.startsWith(prefix)) {
+                result.setProperty(key.substring(prefix.length()), (String) entry.getValue());
+            }
+        }
+        return result;
+    }
+}
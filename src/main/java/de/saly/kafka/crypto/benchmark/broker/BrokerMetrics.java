@@ -0,0 +1,75 @@
+package de.saly.kafka.crypto.benchmark.broker;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.Map;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Metered;
+import com.yammer.metrics.core.Metric;
+import com.yammer.metrics.core.MetricName;
+
+/**
+ * Reads the broker's own metrics from the default Yammer registry, which is shared with the {@link EmbeddedKafka}
+ * running in this JVM, and the CPU time of its request handler threads. All values are totals since the broker started.
+ */
+final class BrokerMetrics {
+
+    //name prefix of the threads of the broker's KafkaRequestHandlerPool
+    private static final String REQUEST_HANDLER_THREAD = "kafka-request-handler-";
+
+    private BrokerMetrics() {
+    }
+
+    /**
+     * @return message bytes producers sent to the topic
+     */
+    static long bytesIn(final String topic) {
+        return count("kafka.server:type=BrokerTopicMetrics,name=BytesInPerSec,topic=" + topic);
+    }
+
+    /**
+     * @return message bytes the broker sent to consumers of the topic
+     */
+    static long bytesOut(final String topic) {
+        return count("kafka.server:type=BrokerTopicMetrics,name=BytesOutPerSec,topic=" + topic);
+    }
+
+    /**
+     * CPU time, not the {@code LocalTimeMs} request histogram: that one records whole milliseconds per request, so the
+     * many sub-millisecond Produce and Fetch requests of a benchmark would add up to far too little.
+     *
+     * @return milliseconds of CPU time the broker's request handler threads have used, NaN if the JVM can not measure it
+     */
+    static double requestHandlerCpuMs() {
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+        if(!threads.isThreadCpuTimeSupported() || !threads.isThreadCpuTimeEnabled()) {
+            return Double.NaN;
+        }
+
+        long nanos = 0;
+        for (final ThreadInfo thread : threads.getThreadInfo(threads.getAllThreadIds())) {
+            if(thread != null && thread.getThreadName().startsWith(REQUEST_HANDLER_THREAD)) {
+                //-1 if the thread died in between
+                nanos += Math.max(0, threads.getThreadCpuTime(thread.getThreadId()));
+            }
+        }
+        return nanos / 1e6;
+    }
+
+    private static long count(final String mbeanName) {
+        final Metric metric = find(mbeanName);
+        return metric == null ? 0 : ((Metered) metric).count();
+    }
+
+    private static Metric find(final String mbeanName) {
+        for (final Map.Entry<MetricName, Metric> entry : Metrics.defaultRegistry().allMetrics().entrySet()) {
+            if(mbeanName.equals(entry.getKey().getMBeanName())) {
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+}
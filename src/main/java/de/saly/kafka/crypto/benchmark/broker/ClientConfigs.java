@@ -0,0 +1,59 @@
+package de.saly.kafka.crypto.benchmark.broker;
+
+import java.util.Properties;
+
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+
+import de.saly.kafka.crypto.DecryptingDeserializer;
+import de.saly.kafka.crypto.EncryptingSerializer;
+import de.saly.kafka.crypto.SerdeCryptoBase;
+import de.saly.kafka.crypto.benchmark.KeyFiles;
+
+/**
+ * Producer and consumer configs for {@code byte[]} keys and values against an {@link EmbeddedKafka},
+ * either plaintext or with the encrypting serdes wrapping the {@code ByteArray} serdes.
+ */
+public final class ClientConfigs {
+
+    private ClientConfigs() {
+    }
+
+    public static Properties producer(final EmbeddedKafka kafka, final Properties overrides) {
+        final Properties producerProps = new Properties();
+        producerProps.setProperty("bootstrap.servers", kafka.bootstrapServers());
+        producerProps.put("key.serializer", ByteArraySerializer.class.getName());
+        producerProps.put("value.serializer", ByteArraySerializer.class.getName());
+        producerProps.putAll(overrides);
+        return producerProps;
+    }
+
+    public static Properties encryptingProducer(final EmbeddedKafka kafka, final KeyFiles keys, final Properties overrides) {
+        final Properties producerProps = producer(kafka, new Properties());
+        producerProps.put("value.serializer", EncryptingSerializer.class.getName());
+        producerProps.put(EncryptingSerializer.CRYPTO_VALUE_SERIALIZER, ByteArraySerializer.class.getName());
+        producerProps.put(SerdeCryptoBase.CRYPTO_RSA_PUBLICKEY_FILEPATH, keys.publicKeyPath());
+        producerProps.putAll(overrides);
+        return producerProps;
+    }
+
+    public static Properties consumer(final EmbeddedKafka kafka, final Properties overrides) {
+        final Properties consumerProps = new Properties();
+        consumerProps.setProperty("bootstrap.servers", kafka.bootstrapServers());
+        consumerProps.put("key.deserializer", ByteArrayDeserializer.class.getName());
+        consumerProps.put("value.deserializer", ByteArrayDeserializer.class.getName());
+        consumerProps.put("enable.auto.commit", "false");
+        consumerProps.put("auto.offset.reset", "earliest");
+        consumerProps.putAll(overrides);
+        return consumerProps;
+    }
+
+    public static Properties decryptingConsumer(final EmbeddedKafka kafka, final KeyFiles keys, final Properties overrides) {
+        final Properties consumerProps = consumer(kafka, new Properties());
+        consumerProps.put("value.deserializer", DecryptingDeserializer.class.getName());
+        consumerProps.put(DecryptingDeserializer.CRYPTO_VALUE_DESERIALIZER, ByteArrayDeserializer.class.getName());
+        consumerProps.put(SerdeCryptoBase.CRYPTO_RSA_PRIVATEKEY_FILEPATH, keys.privateKeyPath());
+        consumerProps.putAll(overrides);
+        return consumerProps;
+    }
+}
@@ -0,0 +1,104 @@
+package de.saly.kafka.crypto.benchmark.broker;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+
+import de.saly.kafka.crypto.DecryptingDeserializer;
+import de.saly.kafka.crypto.EncryptingSerializer;
+import de.saly.kafka.crypto.benchmark.KeyFiles;
+import de.saly.kafka.crypto.benchmark.payload.PayloadGenerator;
+import de.saly.kafka.crypto.compression.CompressingSerializer;
+import de.saly.kafka.crypto.compression.DecompressingDeserializer;
+
+/**
+ * End-to-end MB/s and bytes on disk for a compressible workload: plaintext with and without producer compression,
+ * encrypted without compression (where the producer's compression.type is useless) and compress-then-encrypt
+ * with every configured codec.
+ * <p>
+ * Usage: {@code java -cp benchmarks.jar de.saly.kafka.crypto.benchmark.broker.CompressionEndToEndBenchmark [key=value ...]}
+ * <ul>
+ * <li>records (50000), size (4096), payload (JSON, TEXT, AVRO, RANDOM or file:records.txt), sizes (a size distribution,
+ * overrides size), rate in records/s (0 = unlimited), partitions (1), warmup records (10000), codecs (gzip,snappy,lz4)</li>
+ * <li>producer.* and consumer.* are passed to the clients</li>
+ * </ul>
+ */
+public class CompressionEndToEndBenchmark {
+
+    public static void main(String[] args) throws Exception {
+
+        final BenchmarkArgs bargs = new BenchmarkArgs(args);
+        final int records = bargs.getInt("records", 50000);
+        final PayloadGenerator payloads = bargs.payloads("JSON", 4096);
+        final int rate = bargs.getInt("rate", 0);
+        final int partitions = bargs.getInt("partitions", 1);
+        final int warmup = bargs.getInt("warmup", 10000);
+        final String[] codecs = bargs.get("codecs", "gzip,snappy,lz4").split(",");
+        final String filename = "kafkae2ee_compression_result";
+
+        final KeyFiles keys = KeyFiles.generate();
+        final List<EndToEndResult> results = new ArrayList<>();
+        final List<Long> logSizes = new ArrayList<>();
+
+        System.out.println("Compression benchmark is running - "+records+" records ("+payloads+")");
+
+        try(EmbeddedKafka kafka = new EmbeddedKafka()) {
+            final Properties plainConsumer = ClientConfigs.consumer(kafka, bargs.consumerOverrides());
+            final Properties cryptProducer = ClientConfigs.encryptingProducer(kafka, keys, bargs.producerOverrides());
+            final Properties cryptConsumer = ClientConfigs.decryptingConsumer(kafka, keys, bargs.consumerOverrides());
+
+            kafka.createTopic("warmup", partitions);
+            EndToEndBenchmark.run("warmup", new EndToEndRun("warmup", warmup, rate, payloads),
+                    ClientConfigs.producer(kafka, bargs.producerOverrides()), plainConsumer);
+
+            final Properties plainProducer = ClientConfigs.producer(kafka, bargs.producerOverrides());
+            kafka.createTopic("plain", partitions);
+            results.add(EndToEndBenchmark.run("plaintext", new EndToEndRun("plain", records, rate, payloads), plainProducer,
+                    plainConsumer));
+            logSizes.add(kafka.logSize("plain"));
+
+            final Properties plainLz4Producer = ClientConfigs.producer(kafka, bargs.producerOverrides());
+            plainLz4Producer.setProperty("compression.type", "lz4");
+            kafka.createTopic("plain-lz4", partitions);
+            results.add(EndToEndBenchmark.run("plaintext producer lz4", new EndToEndRun("plain-lz4", records, rate, payloads),
+                    plainLz4Producer, plainConsumer));
+            logSizes.add(kafka.logSize("plain-lz4"));
+
+            kafka.createTopic("crypted", partitions);
+            results.add(EndToEndBenchmark.run("encrypted", new EndToEndRun("crypted", records, rate, payloads), cryptProducer,
+                    cryptConsumer));
+            logSizes.add(kafka.logSize("crypted"));
+
+            for (final String codec : codecs) {
+                final Properties producerProps = new Properties();
+                producerProps.putAll(cryptProducer);
+                producerProps.put(EncryptingSerializer.CRYPTO_VALUE_SERIALIZER, CompressingSerializer.class.getName());
+                producerProps.put(CompressingSerializer.CRYPTO_COMPRESSION_WRAPPED_SERIALIZER, ByteArraySerializer.class.getName());
+                producerProps.put(CompressingSerializer.CRYPTO_COMPRESSION_TYPE, codec);
+
+                final Properties consumerProps = new Properties();
+                consumerProps.putAll(cryptConsumer);
+                consumerProps.put(DecryptingDeserializer.CRYPTO_VALUE_DESERIALIZER, DecompressingDeserializer.class.getName());
+                consumerProps.put(DecompressingDeserializer.CRYPTO_COMPRESSION_WRAPPED_DESERIALIZER, ByteArrayDeserializer.class.getName());
+
+                final String topic = "crypted-" + codec;
+                kafka.createTopic(topic, partitions);
+                results.add(EndToEndBenchmark.run(codec + " then encrypted", new EndToEndRun(topic, records, rate, payloads),
+                        producerProps, consumerProps));
+                logSizes.add(kafka.logSize(topic));
+            }
+        }
+
+        EndToEndBenchmark.report(results, filename);
+
+        System.out.println();
+        for (int i = 0; i < results.size(); i++) {
+            System.out.println(String.format(Locale.ROOT, "%-24s %14d bytes on disk %10.1f bytes/record %8.3f of plaintext", results.get(i).name(),
+                    logSizes.get(i), logSizes.get(i) / (double) records, logSizes.get(i) / (double) logSizes.get(0)));
+        }
+    }
+}
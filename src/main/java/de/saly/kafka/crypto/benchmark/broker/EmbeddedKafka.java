@@ -0,0 +1,155 @@
+package de.saly.kafka.crypto.benchmark.broker;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Properties;
+import java.util.regex.Pattern;
+
+import org.I0Itec.zkclient.ZkClient;
+
+import kafka.admin.AdminUtils;
+import kafka.admin.RackAwareMode;
+import kafka.server.KafkaConfig;
+import kafka.server.KafkaServer;
+import kafka.utils.MockTime;
+import kafka.utils.TestUtils;
+import kafka.utils.Time;
+import kafka.utils.ZKStringSerializer$;
+import kafka.utils.ZkUtils;
+import kafka.zk.EmbeddedZookeeper;
+
+/**
+ * Single broker plus zookeeper running in this JVM, the same setup as in {@code IntegrationTest}
+ * but listening on a free port and usable from the benchmarks.
+ */
+public class EmbeddedKafka implements AutoCloseable {
+
+    private static final String ZKHOST = "127.0.0.1";
+    private static final String BROKERHOST = "127.0.0.1";
+
+    private final EmbeddedZookeeper zkServer;
+    private final ZkUtils zkUtils;
+    private final KafkaServer kafkaServer;
+    private final Path logDir;
+    private final int port;
+
+    public EmbeddedKafka() throws IOException {
+        this(new Properties());
+    }
+
+    /**
+     * @param overrides additional broker properties, e.g. {@code log.cleaner.enable}
+     */
+    public EmbeddedKafka(final Properties overrides) throws IOException {
+        zkServer = new EmbeddedZookeeper();
+        final String zkConnect = ZKHOST + ":" + zkServer.port();
+        final ZkClient zkClient = new ZkClient(zkConnect, 30000, 30000, ZKStringSerializer$.MODULE$);
+        zkUtils = ZkUtils.apply(zkClient, false);
+
+        logDir = Files.createTempDirectory("kafka-");
+        port = freePort();
+
+        final Properties brokerProps = new Properties();
+        brokerProps.setProperty("zookeeper.connect", zkConnect);
+        brokerProps.setProperty("broker.id", "0");
+        brokerProps.setProperty("log.dirs", logDir.toAbsolutePath().toString());
+        brokerProps.setProperty("listeners", "PLAINTEXT://" + BROKERHOST + ":" + port);
+        brokerProps.putAll(overrides);
+        final KafkaConfig config = new KafkaConfig(brokerProps);
+        final Time mock = new MockTime();
+        kafkaServer = TestUtils.createServer(config, mock);
+    }
+
+    public void createTopic(final String topic, final int partitions) {
+        createTopic(topic, partitions, new Properties());
+    }
+
+    public void createTopic(final String topic, final int partitions, final Properties topicConfig) {
+        AdminUtils.createTopic(zkUtils, topic, partitions, 1, topicConfig, RackAwareMode.Disabled$.MODULE$);
+    }
+
+    public String bootstrapServers() {
+        return BROKERHOST + ":" + port;
+    }
+
+    public String host() {
+        return BROKERHOST;
+    }
+
+    public int port() {
+        return port;
+    }
+
+    public Path logDir() {
+        return logDir;
+    }
+
+    /**
+     * @return size of all log segments (without indexes) of the topic on disk
+     */
+    public long logSize(final String topic) throws IOException {
+        long size = 0;
+        try(DirectoryStream<Path> partitions = Files.newDirectoryStream(logDir, topic + "-*")) {
+            for (final Path partition : partitions) {
+                if(!partition.getFileName().toString().matches(Pattern.quote(topic) + "-\\d+")) {
+                    continue;
+                }
+
+                try(DirectoryStream<Path> segments = Files.newDirectoryStream(partition, "*.log")) {
+                    for (final Path segment : segments) {
+                        size += Files.size(segment);
+                    }
+                }
+            }
+        }
+        return size;
+    }
+
+    public KafkaServer server() {
+        return kafkaServer;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            kafkaServer.shutdown();
+            kafkaServer.awaitShutdown();
+            zkUtils.close();
+            zkServer.shutdown();
+        } finally {
+            delete(logDir);
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try(ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static void delete(final Path dir) throws IOException {
+        if(!Files.exists(dir)) {
+            return;
+        }
+
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
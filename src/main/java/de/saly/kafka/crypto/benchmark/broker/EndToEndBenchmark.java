@@ -0,0 +1,97 @@
+package de.saly.kafka.crypto.benchmark.broker;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.producer.KafkaProducer;
+
+import de.saly.kafka.crypto.benchmark.KeyFiles;
+import de.saly.kafka.crypto.benchmark.payload.PayloadGenerator;
+
+/**
+ * Produces and consumes the same workload once in plaintext and once encrypted on an {@link EmbeddedKafka}
+ * and compares sustained throughput and end-to-end latency.
+ * <p>
+ * Usage: {@code java -cp benchmarks.jar de.saly.kafka.crypto.benchmark.broker.EndToEndBenchmark [key=value ...]}
+ * <ul>
+ * <li>records (100000), size (1024), rate in records/s (0 = unlimited), partitions (1), warmup records (10000)</li>
+ * <li>payload (RANDOM, TEXT, JSON, AVRO or file:records.txt) and sizes (a size distribution like uniform:100:65536 or
+ * lognormal:1024:1.5, overrides size)</li>
+ * <li>producer.* and consumer.* are passed to the clients, e.g. producer.batch.size=65536 producer.linger.ms=5</li>
+ * </ul>
+ */
+public class EndToEndBenchmark {
+
+    public static void main(String[] args) throws Exception {
+
+        final BenchmarkArgs bargs = new BenchmarkArgs(args);
+        final int records = bargs.getInt("records", 100000);
+        final PayloadGenerator payloads = bargs.payloads("RANDOM", 1024);
+        final int rate = bargs.getInt("rate", 0);
+        final int partitions = bargs.getInt("partitions", 1);
+        final int warmup = bargs.getInt("warmup", 10000);
+        final String filename = "kafkae2ee_e2e_result";
+
+        final KeyFiles keys = KeyFiles.generate();
+        final List<EndToEndResult> results = new ArrayList<>();
+
+        System.out.println("End-to-end benchmark is running - "+records+" records ("+payloads+"), rate "
+                + (rate > 0 ? rate + " rec/s" : "unlimited") + ", "+partitions+" partition(s)");
+
+        try(EmbeddedKafka kafka = new EmbeddedKafka()) {
+            final Properties plainProducer = ClientConfigs.producer(kafka, bargs.producerOverrides());
+            final Properties plainConsumer = ClientConfigs.consumer(kafka, bargs.consumerOverrides());
+            final Properties cryptProducer = ClientConfigs.encryptingProducer(kafka, keys, bargs.producerOverrides());
+            final Properties cryptConsumer = ClientConfigs.decryptingConsumer(kafka, keys, bargs.consumerOverrides());
+
+            for (final String topic : new String[] {"plain-warmup", "plain", "crypted-warmup", "crypted"}) {
+                kafka.createTopic(topic, partitions);
+            }
+
+            run("plain-warmup", new EndToEndRun("plain-warmup", warmup, rate, payloads), plainProducer, plainConsumer);
+            results.add(run("plaintext", new EndToEndRun("plain", records, rate, payloads), plainProducer, plainConsumer));
+
+            run("crypted-warmup", new EndToEndRun("crypted-warmup", warmup, rate, payloads), cryptProducer, cryptConsumer);
+            results.add(run("encrypted", new EndToEndRun("crypted", records, rate, payloads), cryptProducer, cryptConsumer));
+        }
+
+        report(results, filename);
+    }
+
+    static EndToEndResult run(final String name, final EndToEndRun run, final Properties producerProps, final Properties consumerProps) throws Exception {
+        try(KafkaProducer<byte[], byte[]> producer = new KafkaProducer<>(producerProps);
+                KafkaConsumer<byte[], byte[]> consumer = new KafkaConsumer<>(consumerProps)) {
+            return run.run(name, producer, consumer);
+        }
+    }
+
+    /**
+     * Prints the results relative to the first one (the baseline) and writes them as JSON array to filename.json
+     */
+    static void report(final List<EndToEndResult> results, final String filename) throws IOException {
+        final EndToEndResult baseline = results.get(0);
+
+        System.out.println();
+        for (final EndToEndResult result : results) {
+            System.out.println(String.format("%s   %6.1f%% of %s throughput", result, 100d * result.mbPerSecond() / baseline.mbPerSecond(),
+                    baseline.name()));
+        }
+
+        try(Writer out = new OutputStreamWriter(new FileOutputStream(filename+".json"), StandardCharsets.UTF_8)) {
+            out.write("[\n");
+            for (int i = 0; i < results.size(); i++) {
+                out.write("  "+results.get(i).toJson()+(i < results.size() - 1 ? ",\n" : "\n"));
+            }
+            out.write("]\n");
+        }
+
+        System.out.println("Results written to "+filename+".json");
+    }
+}
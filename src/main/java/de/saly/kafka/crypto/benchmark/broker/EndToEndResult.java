@@ -0,0 +1,91 @@
+package de.saly.kafka.crypto.benchmark.broker;
+
+import java.util.Locale;
+
+import org.HdrHistogram.Histogram;
+
+/**
+ * Outcome of one {@link EndToEndRun}, end-to-end latencies are recorded in microseconds,
+ * the duration of the {@code send()} calls in nanoseconds.
+ */
+public class EndToEndResult {
+
+    private static final double MB = 1024 * 1024;
+
+    private final String name;
+    private final long records;
+    private final long bytes;
+    private final long elapsedNanos;
+    private final Histogram latency;
+    private final Histogram sendLatency;
+
+    public EndToEndResult(final String name, final long records, final long bytes, final long elapsedNanos, final Histogram latency,
+            final Histogram sendLatency) {
+        this.name = name;
+        this.records = records;
+        this.bytes = bytes;
+        this.elapsedNanos = elapsedNanos;
+        this.latency = latency;
+        this.sendLatency = sendLatency;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public long records() {
+        return records;
+    }
+
+    public long bytes() {
+        return bytes;
+    }
+
+    public Histogram latency() {
+        return latency;
+    }
+
+    public Histogram sendLatency() {
+        return sendLatency;
+    }
+
+    public double recordsPerSecond() {
+        return records / (elapsedNanos / 1e9);
+    }
+
+    public double mbPerSecond() {
+        return bytes / MB / (elapsedNanos / 1e9);
+    }
+
+    /**
+     * @return latency at the given percentile in milliseconds
+     */
+    public double latencyMillis(final double percentile) {
+        return latency.getValueAtPercentile(percentile) / 1000d;
+    }
+
+    /**
+     * @return duration of the {@code send()} call at the given percentile in microseconds
+     */
+    public double sendMicros(final double percentile) {
+        return sendLatency.getValueAtPercentile(percentile) / 1000d;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "%-24s %10.0f rec/s %9.1f mb/s   p50 %8.2f ms   p99 %8.2f ms   p99.9 %8.2f ms   max %8.2f ms"
+                + "   send() p50 %8.1f us   p99 %8.1f us",
+                name, recordsPerSecond(), mbPerSecond(), latencyMillis(50), latencyMillis(99), latencyMillis(99.9),
+                latency.getMaxValue() / 1000d, sendMicros(50), sendMicros(99));
+    }
+
+    public String toJson() {
+        return String.format(Locale.ROOT, "{\"name\":\"%s\",\"records\":%d,\"bytes\":%d,\"elapsedMs\":%d,"
+                + "\"recordsPerSecond\":%.1f,\"mbPerSecond\":%.3f,"
+                + "\"latencyMs\":{\"p50\":%.3f,\"p99\":%.3f,\"p99.9\":%.3f,\"max\":%.3f},"
+                + "\"sendUs\":{\"p50\":%.3f,\"p99\":%.3f,\"p99.9\":%.3f}}",
+                name, records, bytes, elapsedNanos / 1000000, recordsPerSecond(), mbPerSecond(),
+                latencyMillis(50), latencyMillis(99), latencyMillis(99.9), latency.getMaxValue() / 1000d,
+                sendMicros(50), sendMicros(99), sendMicros(99.9));
+    }
+}
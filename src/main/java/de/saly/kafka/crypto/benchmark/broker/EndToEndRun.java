@@ -0,0 +1,164 @@
+package de.saly.kafka.crypto.benchmark.broker;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import org.HdrHistogram.Histogram;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+
+import de.saly.kafka.crypto.benchmark.payload.PayloadGenerator;
+
+/**
+ * Sends a fixed number of records through a producer while a consumer reads them back on another thread.
+ * The first 8 bytes of every value carry the {@link System#nanoTime()} of the send, so the end-to-end
+ * latency (including serialization, batching, the broker and deserialization) is known per record.
+ * <p>
+ * With a fixed rate the intended send time is stamped instead of the actual one, so a stalled
+ * producer shows up in the latencies rather than being hidden (coordinated omission).
+ * <p>
+ * The time spent inside {@link Producer#send(ProducerRecord, Callback)} is recorded separately, this is what
+ * the application thread pays for serialization and encryption.
+ */
+public class EndToEndRun {
+
+    private static final long IDLE_TIMEOUT_MS = 30000;
+    private static final int PAYLOAD_POOL_BYTES = 64 * 1024 * 1024;
+
+    private final String topic;
+    private final int records;
+    private final int rate;
+    private final PayloadGenerator payloads;
+
+    /**
+     * @param rate records per second, 0 for as fast as possible
+     * @param payloads corpus and sizes of the record values, values below 8 bytes are padded to 8
+     */
+    public EndToEndRun(final String topic, final int records, final int rate, final PayloadGenerator payloads) {
+        this.topic = topic;
+        this.records = records;
+        this.rate = rate;
+        this.payloads = payloads;
+    }
+
+    public EndToEndResult run(final String name, final Producer<byte[], byte[]> producer, final Consumer<byte[], byte[]> consumer) throws Exception {
+        final List<TopicPartition> partitions = new ArrayList<>();
+        for (final PartitionInfo info : producer.partitionsFor(topic)) {
+            partitions.add(new TopicPartition(info.topic(), info.partition()));
+        }
+        consumer.assign(partitions);
+        consumer.seekToBeginning(partitions);
+
+        final Histogram latency = new Histogram(TimeUnit.HOURS.toMicros(1), 3);
+        final Histogram sendLatency = new Histogram(TimeUnit.HOURS.toNanos(1), 3);
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        try {
+            final Future<long[]> received = executor.submit(new Callable<long[]>() {
+                @Override
+                public long[] call() throws Exception {
+                    return consume(consumer, latency);
+                }
+            });
+
+            final long start = System.nanoTime();
+            produce(producer, start, sendLatency);
+            final long[] bytesAndEnd = received.get();
+
+            return new EndToEndResult(name, records, bytesAndEnd[0], bytesAndEnd[1] - start, latency, sendLatency);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void produce(final Producer<byte[], byte[]> producer, final long start, final Histogram sendLatency) throws Exception {
+        //distinct payloads, otherwise producer compression would just find the previous record in the batch
+        final byte[][] payloads = this.payloads.pool(1024, PAYLOAD_POOL_BYTES);
+
+        final long intervalNanos = rate > 0 ? TimeUnit.SECONDS.toNanos(1) / rate : 0;
+        final AtomicReference<Exception> failure = new AtomicReference<>();
+        final Callback callback = new Callback() {
+            @Override
+            public void onCompletion(RecordMetadata metadata, Exception exception) {
+                if(exception != null) {
+                    failure.compareAndSet(null, exception);
+                }
+            }
+        };
+
+        for (int i = 0; i < records; i++) {
+            long stamp = System.nanoTime();
+
+            if(intervalNanos > 0) {
+                final long intended = start + i * intervalNanos;
+                while (stamp < intended) {
+                    LockSupport.parkNanos(intended - stamp);
+                    stamp = System.nanoTime();
+                }
+                stamp = intended;
+            }
+
+            final byte[] payload = payloads[i % payloads.length];
+            final byte[] value = payload.length < 8 ? Arrays.copyOf(payload, 8) : payload.clone();
+            ByteBuffer.wrap(value).putLong(stamp);
+            final long beforeSend = System.nanoTime();
+            producer.send(new ProducerRecord<byte[], byte[]>(topic, value), callback);
+            sendLatency.recordValue(System.nanoTime() - beforeSend);
+        }
+
+        producer.flush();
+
+        if(failure.get() != null) {
+            throw failure.get();
+        }
+    }
+
+    /**
+     * @return received payload bytes and the nanoTime when the last record arrived
+     */
+    private long[] consume(final Consumer<byte[], byte[]> consumer, final Histogram latency) throws TimeoutException {
+        long received = 0;
+        long bytes = 0;
+        long lastReceive = System.nanoTime();
+
+        while (received < records) {
+            final ConsumerRecords<byte[], byte[]> polled = consumer.poll(100);
+            final long now = System.nanoTime();
+
+            if(polled.isEmpty()) {
+                if(TimeUnit.NANOSECONDS.toMillis(now - lastReceive) > IDLE_TIMEOUT_MS) {
+                    throw new TimeoutException("Only received "+received+" of "+records+" records from "+topic);
+                }
+                continue;
+            }
+
+            for (final ConsumerRecord<byte[], byte[]> record : polled) {
+                final long sent = ByteBuffer.wrap(record.value()).getLong();
+                latency.recordValue(Math.max(0, TimeUnit.NANOSECONDS.toMicros(now - sent)));
+                bytes += record.value().length;
+                received++;
+            }
+
+            lastReceive = now;
+        }
+
+        return new long[] {bytes, lastReceive};
+    }
+}
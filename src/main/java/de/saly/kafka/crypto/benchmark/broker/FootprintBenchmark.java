@@ -0,0 +1,225 @@
+package de.saly.kafka.crypto.benchmark.broker;
+
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+
+import de.saly.kafka.crypto.benchmark.KeyFiles;
+import de.saly.kafka.crypto.benchmark.payload.PayloadGenerator;
+import de.saly.kafka.crypto.benchmark.history.ResultHistory;
+
+/**
+ * What encryption costs the broker, for capacity planning: the same workload is produced and consumed as plaintext,
+ * plaintext with producer compression, encrypted and encrypted with producer compression (which finds nothing to
+ * compress). For every workload it reports
+ * <ul>
+ * <li>bytes of the log segments on disk</li>
+ * <li>message bytes on the wire from producers and to consumers (the broker's {@code BytesInPerSec}/{@code BytesOutPerSec}
+ * topic meters) and the producer's {@code request-size-avg}, {@code compression-rate-avg} and the consumer's
+ * {@code fetch-size-avg} network metrics</li>
+ * <li>milliseconds of CPU time the broker's request handler threads used per MB of plaintext</li>
+ * </ul>
+ * The results are written as JMH style JSON (mode {@code avgt}, lower is better) and kept in the {@link ResultHistory},
+ * so {@code Main compare} flags a grown footprint like a slower benchmark.
+ * <p>
+ * Usage: {@code java -cp benchmarks.jar de.saly.kafka.crypto.benchmark.broker.FootprintBenchmark [key=value ...]}
+ * <ul>
+ * <li>records (50000), size (1024), payload (JSON, TEXT, AVRO, RANDOM or file:records.txt), sizes (a size distribution,
+ * overrides size), rate in records/s (0 = unlimited), partitions (1), warmup records (10000), codecs (gzip,snappy,lz4)</li>
+ * <li>producer.* and consumer.* are passed to the clients</li>
+ * </ul>
+ */
+public class FootprintBenchmark {
+
+    private static final double MB = 1024 * 1024;
+    //client metrics are averaged over 30 second windows by default, one window covers the whole run instead
+    private static final String METRICS_WINDOW_MS = String.valueOf(TimeUnit.HOURS.toMillis(24));
+
+    public static void main(String[] args) throws Exception {
+
+        final BenchmarkArgs bargs = new BenchmarkArgs(args);
+        final int records = bargs.getInt("records", 50000);
+        final PayloadGenerator payloads = bargs.payloads("JSON", 1024);
+        final int rate = bargs.getInt("rate", 0);
+        final int partitions = bargs.getInt("partitions", 1);
+        final int warmup = bargs.getInt("warmup", 10000);
+        final String[] codecs = bargs.get("codecs", "gzip,snappy,lz4").split(",");
+        final String filename = "kafkae2ee_footprint_result";
+
+        final KeyFiles keys = KeyFiles.generate();
+        final List<Footprint> footprints = new ArrayList<>();
+
+        System.out.println("Footprint benchmark is running - "+records+" records ("+payloads+")");
+
+        try(EmbeddedKafka kafka = new EmbeddedKafka()) {
+            final Properties plainProducer = ClientConfigs.producer(kafka, bargs.producerOverrides());
+            final Properties plainConsumer = ClientConfigs.consumer(kafka, bargs.consumerOverrides());
+            final Properties cryptProducer = ClientConfigs.encryptingProducer(kafka, keys, bargs.producerOverrides());
+            final Properties cryptConsumer = ClientConfigs.decryptingConsumer(kafka, keys, bargs.consumerOverrides());
+
+            kafka.createTopic("warmup", partitions);
+            EndToEndBenchmark.run("warmup", new EndToEndRun("warmup", warmup, rate, payloads), cryptProducer, cryptConsumer);
+
+            final EndToEndRun plain = new EndToEndRun("plain", records, rate, payloads);
+            footprints.add(measure(kafka, "plaintext", plain, "plain", partitions, plainProducer, plainConsumer));
+
+            for (final String codec : codecs) {
+                final String topic = "plain-" + codec;
+                footprints.add(measure(kafka, "plaintext " + codec, new EndToEndRun(topic, records, rate, payloads), topic, partitions,
+                        compressed(plainProducer, codec), plainConsumer));
+            }
+
+            final EndToEndRun crypted = new EndToEndRun("crypted", records, rate, payloads);
+            footprints.add(measure(kafka, "encrypted", crypted, "crypted", partitions, cryptProducer, cryptConsumer));
+
+            for (final String codec : codecs) {
+                final String topic = "crypted-" + codec;
+                footprints.add(measure(kafka, "encrypted " + codec, new EndToEndRun(topic, records, rate, payloads), topic, partitions,
+                        compressed(cryptProducer, codec), cryptConsumer));
+            }
+        }
+
+        final Footprint baseline = footprints.get(0);
+        System.out.println();
+        System.out.println(String.format(Locale.ROOT, "%-20s %12s %8s %12s %12s %10s %12s %10s %12s %9s", "workload", "disk B/rec", "vs plain",
+                "in B/rec", "out B/rec", "cpu ms/MB", "request avg", "compr avg", "fetch avg", "mb/s"));
+        for (final Footprint footprint : footprints) {
+            System.out.println(footprint.toString(baseline));
+        }
+
+        try(Writer out = new OutputStreamWriter(new FileOutputStream(filename+".json"), StandardCharsets.UTF_8)) {
+            out.write("[\n");
+            for (int i = 0; i < footprints.size(); i++) {
+                out.write(footprints.get(i).toJson(payloads)+(i < footprints.size() - 1 ? ",\n" : "\n"));
+            }
+            out.write("]\n");
+        }
+
+        final Path version = new ResultHistory().store(Paths.get(filename+".json"));
+        System.out.println("Results written to "+filename+".json and stored in "+version);
+    }
+
+    private static Properties compressed(final Properties producerProps, final String codec) {
+        final Properties props = new Properties();
+        props.putAll(producerProps);
+        props.setProperty("compression.type", codec);
+        return props;
+    }
+
+    private static Footprint measure(final EmbeddedKafka kafka, final String name, final EndToEndRun run, final String topic, final int partitions,
+            final Properties producerProps, final Properties consumerProps) throws Exception {
+        kafka.createTopic(topic, partitions);
+
+        final Properties producerWindow = new Properties();
+        producerWindow.putAll(producerProps);
+        producerWindow.setProperty("metrics.sample.window.ms", METRICS_WINDOW_MS);
+        final Properties consumerWindow = new Properties();
+        consumerWindow.putAll(consumerProps);
+        consumerWindow.setProperty("metrics.sample.window.ms", METRICS_WINDOW_MS);
+
+        final double handlerMsBefore = BrokerMetrics.requestHandlerCpuMs();
+
+        try(KafkaProducer<byte[], byte[]> producer = new KafkaProducer<>(producerWindow);
+                KafkaConsumer<byte[], byte[]> consumer = new KafkaConsumer<>(consumerWindow)) {
+            final EndToEndResult result = run.run(name, producer, consumer);
+
+            return new Footprint(result, kafka.logSize(topic), BrokerMetrics.bytesIn(topic), BrokerMetrics.bytesOut(topic),
+                    BrokerMetrics.requestHandlerCpuMs() - handlerMsBefore,
+                    metric(producer.metrics(), "producer-metrics", "request-size-avg"),
+                    metric(producer.metrics(), "producer-metrics", "compression-rate-avg"),
+                    metric(consumer.metrics(), "consumer-fetch-manager-metrics", "fetch-size-avg"));
+        }
+    }
+
+    private static double metric(final Map<MetricName, ? extends Metric> metrics, final String group, final String name) {
+        for (final Map.Entry<MetricName, ? extends Metric> entry : metrics.entrySet()) {
+            if(group.equals(entry.getKey().group()) && name.equals(entry.getKey().name())) {
+                return entry.getValue().value();
+            }
+        }
+        return Double.NaN;
+    }
+
+    private static class Footprint {
+        private final EndToEndResult result;
+        private final long diskBytes;
+        private final long bytesIn;
+        private final long bytesOut;
+        private final double handlerMs;
+        private final double requestSizeAvg;
+        private final double compressionRateAvg;
+        private final double fetchSizeAvg;
+
+        Footprint(final EndToEndResult result, final long diskBytes, final long bytesIn, final long bytesOut, final double handlerMs,
+                final double requestSizeAvg, final double compressionRateAvg, final double fetchSizeAvg) {
+            this.result = result;
+            this.diskBytes = diskBytes;
+            this.bytesIn = bytesIn;
+            this.bytesOut = bytesOut;
+            this.handlerMs = handlerMs;
+            this.requestSizeAvg = requestSizeAvg;
+            this.compressionRateAvg = compressionRateAvg;
+            this.fetchSizeAvg = fetchSizeAvg;
+        }
+
+        double perRecord(final long bytes) {
+            return bytes / (double) result.records();
+        }
+
+        /**
+         * @return request handler CPU milliseconds per MB of plaintext
+         */
+        double handlerMsPerMb() {
+            return handlerMs / (result.bytes() / MB);
+        }
+
+        String toString(final Footprint baseline) {
+            return String.format(Locale.ROOT, "%-20s %12.1f %8.3f %12.1f %12.1f %10.2f %12.0f %10.3f %12.0f %9.1f", result.name(),
+                    perRecord(diskBytes), diskBytes / (double) baseline.diskBytes, perRecord(bytesIn), perRecord(bytesOut),
+                    handlerMsPerMb(), requestSizeAvg, compressionRateAvg, fetchSizeAvg, result.mbPerSecond());
+        }
+
+        /**
+         * @return one JMH style result per measured value
+         */
+        String toJson(final PayloadGenerator payloads) {
+            final StringBuilder json = new StringBuilder();
+            append(json, "diskBytesPerRecord", perRecord(diskBytes), "B/record", payloads);
+            append(json, "wireBytesInPerRecord", perRecord(bytesIn), "B/record", payloads);
+            append(json, "wireBytesOutPerRecord", perRecord(bytesOut), "B/record", payloads);
+            append(json, "requestHandlerCpuTime", handlerMsPerMb(), "ms/MB", payloads);
+            append(json, "producerRequestSize", requestSizeAvg, "B", payloads);
+            append(json, "consumerFetchSize", fetchSizeAvg, "B", payloads);
+            return json.toString();
+        }
+
+        private void append(final StringBuilder json, final String metric, final double score, final String unit,
+                final PayloadGenerator payloads) {
+            if(Double.isNaN(score) || Double.isInfinite(score)) {
+                return;
+            }
+
+            if(json.length() > 0) {
+                json.append(",\n");
+            }
+
+            json.append(String.format(Locale.ROOT, "  {\"benchmark\":\"%s.%s\",\"mode\":\"avgt\",\"params\":{\"workload\":\"%s\",\"payload\":\"%s\","
+                    + "\"sizes\":\"%s\"},\"primaryMetric\":{\"score\":%.3f,\"scoreUnit\":\"%s\"}}",
+                    FootprintBenchmark.class.getName(), metric, result.name(), payloads.corpus(), payloads.sizes(), score, unit));
+        }
+    }
+}
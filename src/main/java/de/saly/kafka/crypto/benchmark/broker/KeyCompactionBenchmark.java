@@ -0,0 +1,281 @@
+package de.saly.kafka.crypto.benchmark.broker;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+
+import de.saly.kafka.crypto.DecryptingDeserializer;
+import de.saly.kafka.crypto.EncryptingSerializer;
+import de.saly.kafka.crypto.SerdeCryptoBase;
+import de.saly.kafka.crypto.benchmark.KeyFiles;
+import de.saly.kafka.crypto.benchmark.payload.KeyDistribution;
+import de.saly.kafka.crypto.deterministic.DeterministicDecryptingDeserializer;
+import de.saly.kafka.crypto.deterministic.DeterministicEncryptingSerializer;
+import de.saly.kafka.crypto.deterministic.DeterministicSerdeBase;
+
+/**
+ * What deterministically encrypted keys cost and save on compacted topics: the same keyed workload is written to
+ * compacted topics with plaintext keys, with keys encrypted by the {@link DeterministicEncryptingSerializer} and, for
+ * comparison, with keys encrypted by the (randomized) {@link EncryptingSerializer}. After the log cleaner ran, every
+ * topic is read back and for every workload it reports
+ * <ul>
+ * <li>producer throughput, the cost of the key encryption end to end</li>
+ * <li>keys which went to more than one partition (0 for plaintext and deterministic keys)</li>
+ * <li>records and log bytes after producing (the cleaner may already have run) and after compaction, and the number of
+ * distinct keys read back. Only the active segment of a partition is not compacted, so a few duplicates remain</li>
+ * </ul>
+ * That compaction keeps exactly the latest value of every deterministically encrypted key is tested by
+ * {@code KeyCompactionTest}.
+ * <p>
+ * Usage: {@code java -cp benchmarks.jar de.saly.kafka.crypto.benchmark.broker.KeyCompactionBenchmark [key=value ...]}
+ * <ul>
+ * <li>records (100000), keys (a key distribution, zipf:10000:1.1), size of the values (100), partitions (4),
+ * segment.bytes of the topics (65536), wait for the log cleaner in seconds (60), warmup records (10000)</li>
+ * <li>producer.* and consumer.* are passed to the clients</li>
+ * </ul>
+ */
+public class KeyCompactionBenchmark {
+
+    private static final double MB = 1024 * 1024;
+
+    public static void main(String[] args) throws Exception {
+
+        final BenchmarkArgs bargs = new BenchmarkArgs(args);
+        final int records = bargs.getInt("records", 100000);
+        final KeyDistribution keys = KeyDistribution.parse(bargs.get("keys", "zipf:10000:1.1"));
+        final int size = Math.max(8, bargs.getInt("size", 100));
+        final int partitions = bargs.getInt("partitions", 4);
+        final String segmentBytes = bargs.get("segment.bytes", "65536");
+        final long waitMs = TimeUnit.SECONDS.toMillis(bargs.getLong("wait", 60));
+        final int warmup = bargs.getInt("warmup", 10000);
+
+        final KeyFiles keyFiles = KeyFiles.generate();
+        final List<Compaction> compactions = new ArrayList<>();
+
+        final Properties broker = new Properties();
+        broker.setProperty("log.cleaner.enable", "true");
+        broker.setProperty("log.cleaner.backoff.ms", "100");
+        broker.setProperty("log.cleaner.dedupe.buffer.size", String.valueOf(16 * 1024 * 1024));
+
+        final Properties topicConfig = new Properties();
+        topicConfig.setProperty("cleanup.policy", "compact");
+        topicConfig.setProperty("segment.bytes", segmentBytes);
+        topicConfig.setProperty("min.cleanable.dirty.ratio", "0.01");
+
+        System.out.println("Key compaction benchmark is running - "+records+" records, keys "+keys+", "+partitions+" partitions");
+
+        //one sequence of keys for all workloads
+        final int[] ranks = new int[records];
+        final Random rand = new Random(42);
+        for (int i = 0; i < records; i++) {
+            ranks[i] = keys.nextRank(rand);
+        }
+
+        try(EmbeddedKafka kafka = new EmbeddedKafka(broker)) {
+            final Properties plainProducer = ClientConfigs.producer(kafka, bargs.producerOverrides());
+            final Properties plainConsumer = ClientConfigs.consumer(kafka, bargs.consumerOverrides());
+
+            final Properties sivProducer = copy(plainProducer);
+            sivProducer.put("key.serializer", DeterministicEncryptingSerializer.class.getName());
+            sivProducer.put(DeterministicEncryptingSerializer.CRYPTO_DETERMINISTIC_WRAPPED_SERIALIZER, ByteArraySerializer.class.getName());
+            sivProducer.put(DeterministicSerdeBase.CRYPTO_DETERMINISTIC_KEY_FILEPATH, keyFiles.deterministicKeyPath());
+            final Properties sivConsumer = copy(plainConsumer);
+            sivConsumer.put("key.deserializer", DeterministicDecryptingDeserializer.class.getName());
+            sivConsumer.put(DeterministicDecryptingDeserializer.CRYPTO_DETERMINISTIC_WRAPPED_DESERIALIZER, ByteArrayDeserializer.class.getName());
+            sivConsumer.put(DeterministicSerdeBase.CRYPTO_DETERMINISTIC_KEY_FILEPATH, keyFiles.deterministicKeyPath());
+
+            final Properties randomProducer = copy(plainProducer);
+            randomProducer.put("key.serializer", EncryptingSerializer.class.getName());
+            randomProducer.put(EncryptingSerializer.CRYPTO_VALUE_SERIALIZER, ByteArraySerializer.class.getName());
+            randomProducer.put(SerdeCryptoBase.CRYPTO_RSA_PUBLICKEY_FILEPATH, keyFiles.publicKeyPath());
+            final Properties randomConsumer = copy(plainConsumer);
+            randomConsumer.put("key.deserializer", DecryptingDeserializer.class.getName());
+            randomConsumer.put(DecryptingDeserializer.CRYPTO_VALUE_DESERIALIZER, ByteArrayDeserializer.class.getName());
+            randomConsumer.put(SerdeCryptoBase.CRYPTO_RSA_PRIVATEKEY_FILEPATH, keyFiles.privateKeyPath());
+
+            kafka.createTopic("warmup", partitions);
+            for (final Properties producerProps : Arrays.asList(plainProducer, sivProducer, randomProducer)) {
+                warmup(producerProps, "warmup", Arrays.copyOf(ranks, Math.min(warmup, records)), size);
+            }
+
+            compactions.add(run(kafka, "plaintext keys", "keys-plain", ranks, keys.keys(), size, partitions, topicConfig, waitMs,
+                    plainProducer, plainConsumer));
+            compactions.add(run(kafka, "deterministic keys", "keys-siv", ranks, keys.keys(), size, partitions, topicConfig, waitMs,
+                    sivProducer, sivConsumer));
+            compactions.add(run(kafka, "randomized keys", "keys-random", ranks, keys.keys(), size, partitions, topicConfig, waitMs,
+                    randomProducer, randomConsumer));
+        }
+
+        System.out.println();
+        System.out.println(String.format(Locale.ROOT, "%-20s %9s %12s %10s %10s %10s %12s %12s %9s", "workload", "rec/s", "split keys",
+                "produced", "retained", "keys read", "disk before", "disk after", "ratio"));
+        for (final Compaction compaction : compactions) {
+            System.out.println(compaction);
+        }
+    }
+
+    private static Compaction run(final EmbeddedKafka kafka, final String name, final String topic, final int[] ranks, final int keyCount,
+            final int size, final int partitions, final Properties topicConfig, final long waitMs,
+            final Properties producerProps, final Properties consumerProps) throws Exception {
+        kafka.createTopic(topic, partitions, topicConfig);
+
+        final int[] partitionOf = new int[keyCount];
+        Arrays.fill(partitionOf, -1);
+        final Set<Integer> splitKeys = new HashSet<>();
+        final AtomicReference<Exception> failure = new AtomicReference<>();
+
+        final long start = System.nanoTime();
+        try(KafkaProducer<byte[], byte[]> producer = new KafkaProducer<>(producerProps)) {
+            for (int seq = 0; seq < ranks.length; seq++) {
+                final int rank = ranks[seq];
+                final byte[] value = ByteBuffer.allocate(size).putLong(seq).array();
+
+                producer.send(new ProducerRecord<byte[], byte[]>(topic, KeyDistribution.key(rank).getBytes(StandardCharsets.UTF_8), value),
+                        new Callback() {
+                            @Override
+                            public void onCompletion(RecordMetadata metadata, Exception exception) {
+                                if(exception != null) {
+                                    failure.compareAndSet(null, exception);
+                                    return;
+                                }
+
+                                //callbacks run on the producer's I/O thread only
+                                if(partitionOf[rank] == -1) {
+                                    partitionOf[rank] = metadata.partition();
+                                } else if(partitionOf[rank] != metadata.partition()) {
+                                    splitKeys.add(rank);
+                                }
+                            }
+                        });
+            }
+            producer.flush();
+        }
+        final double seconds = (System.nanoTime() - start) / 1e9;
+
+        if(failure.get() != null) {
+            throw failure.get();
+        }
+
+        final long before = kafka.logSize(topic);
+        final long after = awaitCompaction(kafka, topic, waitMs);
+
+        final Set<Integer> read = new HashSet<>();
+        int retained = 0;
+
+        try(KafkaConsumer<byte[], byte[]> consumer = new KafkaConsumer<>(consumerProps)) {
+            final List<TopicPartition> tps = new ArrayList<>();
+            for (final PartitionInfo partition : consumer.partitionsFor(topic)) {
+                tps.add(new TopicPartition(topic, partition.partition()));
+            }
+            consumer.assign(tps);
+            consumer.seekToEnd(tps);
+            final Map<TopicPartition, Long> end = new HashMap<>();
+            for (final TopicPartition tp : tps) {
+                end.put(tp, consumer.position(tp));
+            }
+            consumer.seekToBeginning(tps);
+
+            while (!reached(consumer, end)) {
+                for (final ConsumerRecord<byte[], byte[]> record : consumer.poll(1000)) {
+                    final String key = new String(record.key(), StandardCharsets.UTF_8);
+                    read.add(Integer.parseInt(key.substring(key.indexOf('-') + 1)));
+                    retained++;
+                }
+            }
+        }
+
+        return new Compaction(name, ranks.length / seconds, splitKeys.size(), ranks.length, retained, read.size(), before, after);
+    }
+
+    private static void warmup(final Properties producerProps, final String topic, final int[] ranks, final int size) {
+        try(KafkaProducer<byte[], byte[]> producer = new KafkaProducer<>(producerProps)) {
+            for (final int rank : ranks) {
+                producer.send(new ProducerRecord<byte[], byte[]>(topic, KeyDistribution.key(rank).getBytes(StandardCharsets.UTF_8), new byte[size]));
+            }
+            producer.flush();
+        }
+    }
+
+    private static boolean reached(final KafkaConsumer<?, ?> consumer, final Map<TopicPartition, Long> end) {
+        for (final Map.Entry<TopicPartition, Long> entry : end.entrySet()) {
+            if(consumer.position(entry.getKey()) < entry.getValue()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the log size once the cleaner has not changed it for a few seconds (or after waitMs)
+     */
+    private static long awaitCompaction(final EmbeddedKafka kafka, final String topic, final long waitMs) throws Exception {
+        final long deadline = System.currentTimeMillis() + waitMs;
+        long size = kafka.logSize(topic);
+        int unchanged = 0;
+
+        while (unchanged < 10 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(500);
+            final long current = kafka.logSize(topic);
+            unchanged = current == size ? unchanged + 1 : 0;
+            size = current;
+        }
+        return size;
+    }
+
+    private static Properties copy(final Properties props) {
+        final Properties copy = new Properties();
+        copy.putAll(props);
+        return copy;
+    }
+
+    private static class Compaction {
+        private final String name;
+        private final double recordsPerSecond;
+        private final int splitKeys;
+        private final int produced;
+        private final int retained;
+        private final int keysRead;
+        private final long diskBefore;
+        private final long diskAfter;
+
+        Compaction(final String name, final double recordsPerSecond, final int splitKeys, final int produced, final int retained,
+                final int keysRead, final long diskBefore, final long diskAfter) {
+            this.name = name;
+            this.recordsPerSecond = recordsPerSecond;
+            this.splitKeys = splitKeys;
+            this.produced = produced;
+            this.retained = retained;
+            this.keysRead = keysRead;
+            this.diskBefore = diskBefore;
+            this.diskAfter = diskAfter;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%-20s %9.0f %12d %10d %10d %10d %12.2f %12.2f %9.3f", name, recordsPerSecond, splitKeys,
+                    produced, retained, keysRead, diskBefore / MB, diskAfter / MB, diskAfter / (double) diskBefore);
+        }
+    }
+}
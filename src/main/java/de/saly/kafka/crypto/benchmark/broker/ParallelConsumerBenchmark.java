@@ -0,0 +1,131 @@
+package de.saly.kafka.crypto.benchmark.broker;
+
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+
+import de.saly.kafka.crypto.benchmark.KeyFiles;
+import de.saly.kafka.crypto.clients.ParallelDecryptingConsumer;
+
+/**
+ * Fills an encrypted topic on an {@link EmbeddedKafka} once and then reads it completely, first with a plain
+ * {@link KafkaConsumer} using the {@code DecryptingDeserializer} and then with a {@link ParallelDecryptingConsumer}
+ * for every configured worker count.
+ * <p>
+ * Usage: {@code java -cp benchmarks.jar de.saly.kafka.crypto.benchmark.broker.ParallelConsumerBenchmark [key=value ...]}
+ * <ul>
+ * <li>records (50000), size (65536), partitions (4), workers (1,2,4,8)</li>
+ * <li>producer.* and consumer.* are passed to the clients</li>
+ * </ul>
+ */
+public class ParallelConsumerBenchmark {
+
+    private static final String TOPIC = "crypted";
+
+    public static void main(String[] args) throws Exception {
+
+        final BenchmarkArgs bargs = new BenchmarkArgs(args);
+        final int records = bargs.getInt("records", 50000);
+        final int size = bargs.getInt("size", 65536);
+        final int partitions = bargs.getInt("partitions", 4);
+        final int[] workers = bargs.getInts("workers", 1, 2, 4, 8);
+        final String filename = "kafkae2ee_parallel_consumer_result";
+
+        final KeyFiles keys = KeyFiles.generate();
+        final List<String> names = new ArrayList<>();
+        final List<Double> rates = new ArrayList<>();
+
+        System.out.println("Parallel consumer benchmark is running - "+records+" records of "+size+" bytes, "+partitions+" partition(s)");
+
+        try(EmbeddedKafka kafka = new EmbeddedKafka()) {
+            kafka.createTopic(TOPIC, partitions);
+            fill(ClientConfigs.encryptingProducer(kafka, keys, bargs.producerOverrides()), records, size);
+
+            final Properties consumerProps = ClientConfigs.decryptingConsumer(kafka, keys, bargs.consumerOverrides());
+
+            //warm up and baseline
+            drain(new KafkaConsumer<byte[], byte[]>(consumerProps), records);
+            names.add("KafkaConsumer");
+            rates.add(drain(new KafkaConsumer<byte[], byte[]>(consumerProps), records));
+
+            for (final int w : workers) {
+                final Properties props = new Properties();
+                props.putAll(consumerProps);
+                props.setProperty(ParallelDecryptingConsumer.CRYPTO_DECRYPT_PARALLELISM, String.valueOf(w));
+                names.add("ParallelDecryptingConsumer workers="+w);
+                rates.add(drain(new ParallelDecryptingConsumer<byte[], byte[]>(props), records));
+            }
+        }
+
+        try(Writer out = new OutputStreamWriter(new FileOutputStream(filename+".json"), StandardCharsets.UTF_8)) {
+            System.out.println();
+            out.write("[\n");
+            for (int i = 0; i < names.size(); i++) {
+                System.out.println(String.format(Locale.ROOT, "%-40s %10.0f rec/s %9.1f mb/s %8.2fx", names.get(i), rates.get(i),
+                        rates.get(i) * size / (1024 * 1024), rates.get(i) / rates.get(0)));
+                out.write(String.format(Locale.ROOT, "  {\"name\":\"%s\",\"recordsPerSecond\":%.1f,\"mbPerSecond\":%.3f}%s\n",
+                        names.get(i), rates.get(i), rates.get(i) * size / (1024 * 1024), i < names.size() - 1 ? "," : ""));
+            }
+            out.write("]\n");
+        }
+
+        System.out.println("Results written to "+filename+".json");
+    }
+
+    private static void fill(final Properties producerProps, final int records, final int size) {
+        final Random rand = new Random();
+        try(KafkaProducer<byte[], byte[]> producer = new KafkaProducer<>(producerProps)) {
+            for (int i = 0; i < records; i++) {
+                final byte[] value = new byte[size];
+                rand.nextBytes(value);
+                producer.send(new ProducerRecord<byte[], byte[]>(TOPIC, value));
+            }
+        }
+    }
+
+    /**
+     * Reads all records from the beginning of the topic, closes the consumer and returns records/s.
+     */
+    private static double drain(final Consumer<byte[], byte[]> consumer, final int records) {
+        try {
+            final List<TopicPartition> partitions = new ArrayList<>();
+            for (final PartitionInfo info : consumer.partitionsFor(TOPIC)) {
+                partitions.add(new TopicPartition(info.topic(), info.partition()));
+            }
+            consumer.assign(partitions);
+            consumer.seekToBeginning(partitions);
+
+            final long start = System.nanoTime();
+            long received = 0;
+            while (received < records) {
+                for (final ConsumerRecord<byte[], byte[]> record : consumer.poll(100)) {
+                    if(record.value() != null) {
+                        received++;
+                    }
+                }
+
+                if(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) > 300) {
+                    throw new IllegalStateException("Only received "+received+" of "+records+" records");
+                }
+            }
+            return received / ((System.nanoTime() - start) / 1e9);
+        } finally {
+            consumer.close();
+        }
+    }
+}
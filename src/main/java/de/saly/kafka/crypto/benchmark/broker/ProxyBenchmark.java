@@ -0,0 +1,89 @@
+package de.saly.kafka.crypto.benchmark.broker;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import de.saly.kafka.crypto.SerdeCryptoBase;
+import de.saly.kafka.crypto.benchmark.KeyFiles;
+import de.saly.kafka.crypto.benchmark.payload.PayloadGenerator;
+import de.saly.kafka.crypto.proxy.EncDecProxy;
+
+/**
+ * Throughput and latency of consumers reading through the {@link EncDecProxy} compared to direct broker access:
+ * <ul>
+ * <li>plaintext, direct: the baseline without any encryption</li>
+ * <li>plaintext through the proxy: the cost of the additional hop, the topic is not decrypted</li>
+ * <li>encrypted, decrypting consumer: the {@code DecryptingDeserializer} in the consumer</li>
+ * <li>encrypted, proxy: a consumer with {@code ByteArrayDeserializer} reading through the decrypting proxy</li>
+ * </ul>
+ * Usage: {@code java -cp benchmarks.jar de.saly.kafka.crypto.benchmark.broker.ProxyBenchmark [key=value ...]}
+ * <ul>
+ * <li>records (50000), size (1024), payload (RANDOM, TEXT, JSON, AVRO or file:records.txt), sizes (a size distribution,
+ * overrides size), rate in records/s (0 = unlimited), partitions (1), warmup records (10000), workers (number of cores)</li>
+ * <li>producer.* and consumer.* are passed to the clients</li>
+ * </ul>
+ */
+public class ProxyBenchmark {
+
+    public static void main(String[] args) throws Exception {
+
+        final BenchmarkArgs bargs = new BenchmarkArgs(args);
+        final int records = bargs.getInt("records", 50000);
+        final PayloadGenerator payloads = bargs.payloads("RANDOM", 1024);
+        final int rate = bargs.getInt("rate", 0);
+        final int partitions = bargs.getInt("partitions", 1);
+        final int warmup = bargs.getInt("warmup", 10000);
+        final int workers = bargs.getInt("workers", Runtime.getRuntime().availableProcessors());
+        final String filename = "kafkae2ee_proxy_result";
+
+        final KeyFiles keys = KeyFiles.generate();
+        final List<EndToEndResult> results = new ArrayList<>();
+
+        System.out.println("Proxy benchmark is running - "+records+" records ("+payloads+"), rate "
+                + (rate > 0 ? rate + " rec/s" : "unlimited") + ", "+partitions+" partition(s), "+workers+" worker(s)");
+
+        try(EmbeddedKafka kafka = new EmbeddedKafka()) {
+            final Map<String, Object> proxyConfigs = new HashMap<>();
+            proxyConfigs.put(SerdeCryptoBase.CRYPTO_RSA_PRIVATEKEY_FILEPATH, keys.privateKeyPath());
+            proxyConfigs.put(EncDecProxy.CRYPTO_PROXY_WORKERS, workers);
+            proxyConfigs.put(EncDecProxy.CRYPTO_PROXY_TOPICS, "crypted.*");
+            proxyConfigs.put(EncDecProxy.CRYPTO_PROXY_ADVERTISED_HOST, kafka.host());
+
+            try(EncDecProxy proxy = EncDecProxy.start(0, kafka.host(), kafka.port(), proxyConfigs)) {
+                final Properties plainProducer = ClientConfigs.producer(kafka, bargs.producerOverrides());
+                final Properties cryptProducer = ClientConfigs.encryptingProducer(kafka, keys, bargs.producerOverrides());
+                final Properties plainConsumer = ClientConfigs.consumer(kafka, bargs.consumerOverrides());
+                final Properties cryptConsumer = ClientConfigs.decryptingConsumer(kafka, keys, bargs.consumerOverrides());
+                final Properties proxyConsumer = ClientConfigs.consumer(kafka, bargs.consumerOverrides());
+                proxyConsumer.setProperty("bootstrap.servers", kafka.host() + ":" + proxy.port());
+
+                kafka.createTopic("crypted-warmup", partitions);
+                EndToEndBenchmark.run("warmup", new EndToEndRun("crypted-warmup", warmup, rate, payloads), cryptProducer, proxyConsumer);
+
+                kafka.createTopic("plain", partitions);
+                results.add(EndToEndBenchmark.run("plaintext direct", new EndToEndRun("plain", records, rate, payloads), plainProducer,
+                        plainConsumer));
+
+                kafka.createTopic("plain-proxy", partitions);
+                results.add(EndToEndBenchmark.run("plaintext proxy", new EndToEndRun("plain-proxy", records, rate, payloads), plainProducer,
+                        proxyConsumer));
+
+                kafka.createTopic("crypted", partitions);
+                results.add(EndToEndBenchmark.run("encrypted consumer", new EndToEndRun("crypted", records, rate, payloads), cryptProducer,
+                        cryptConsumer));
+
+                kafka.createTopic("crypted-proxy", partitions);
+                results.add(EndToEndBenchmark.run("encrypted proxy", new EndToEndRun("crypted-proxy", records, rate, payloads), cryptProducer,
+                        proxyConsumer));
+
+                System.out.println("Proxy decrypted "+proxy.decryptedRecords()+" records in "+proxy.fetches()+" fetch responses, "
+                        + proxy.decryptionFailures()+" failures");
+            }
+        }
+
+        EndToEndBenchmark.report(results, filename);
+    }
+}
@@ -0,0 +1,204 @@
+package de.saly.kafka.crypto.benchmark.history;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Just enough of a JSON parser to read the result files JMH writes. Objects become {@link Map}s, arrays {@link List}s,
+ * numbers {@link Double}s. JMH writes {@code NaN} unquoted for missing scores, which is accepted as well.
+ */
+class JsonReader {
+
+    private final String json;
+    private int pos;
+
+    private JsonReader(final String json) {
+        this.json = json;
+    }
+
+    static Object parse(final String json) {
+        final JsonReader reader = new JsonReader(json);
+        final Object value = reader.value();
+        reader.skipWhitespace();
+
+        if(reader.pos != json.length()) {
+            throw reader.error("Unexpected trailing content");
+        }
+        return value;
+    }
+
+    private Object value() {
+        skipWhitespace();
+
+        if(pos >= json.length()) {
+            throw error("Unexpected end of input");
+        }
+
+        final char c = json.charAt(pos);
+        switch (c) {
+        case '{':
+            return object();
+        case '[':
+            return array();
+        case '"':
+            return string();
+        case 't':
+            return literal("true", Boolean.TRUE);
+        case 'f':
+            return literal("false", Boolean.FALSE);
+        case 'n':
+            return literal("null", null);
+        case 'N':
+            return literal("NaN", Double.NaN);
+        default:
+            return number();
+        }
+    }
+
+    private Map<String, Object> object() {
+        final Map<String, Object> result = new LinkedHashMap<>();
+        pos++;
+        skipWhitespace();
+
+        if(peek() == '}') {
+            pos++;
+            return result;
+        }
+
+        while (true) {
+            skipWhitespace();
+            final String key = string();
+            skipWhitespace();
+            expect(':');
+            result.put(key, value());
+            skipWhitespace();
+
+            if(peek() == ',') {
+                pos++;
+            } else {
+                expect('}');
+                return result;
+            }
+        }
+    }
+
+    private List<Object> array() {
+        final List<Object> result = new ArrayList<>();
+        pos++;
+        skipWhitespace();
+
+        if(peek() == ']') {
+            pos++;
+            return result;
+        }
+
+        while (true) {
+            result.add(value());
+            skipWhitespace();
+
+            if(peek() == ',') {
+                pos++;
+            } else {
+                expect(']');
+                return result;
+            }
+        }
+    }
+
+    private String string() {
+        expect('"');
+        final StringBuilder sb = new StringBuilder();
+
+        while (true) {
+            final char c = next();
+
+            if(c == '"') {
+                return sb.toString();
+            }
+
+            if(c != '\\') {
+                sb.append(c);
+                continue;
+            }
+
+            final char escaped = next();
+            switch (escaped) {
+            case 'b':
+                sb.append('\b');
+                break;
+            case 'f':
+                sb.append('\f');
+                break;
+            case 'n':
+                sb.append('\n');
+                break;
+            case 'r':
+                sb.append('\r');
+                break;
+            case 't':
+                sb.append('\t');
+                break;
+            case 'u':
+                if(pos + 4 > json.length()) {
+                    throw error("Invalid unicode escape");
+                }
+                sb.append((char) Integer.parseInt(json.substring(pos, pos + 4), 16));
+                pos += 4;
+                break;
+            default:
+                sb.append(escaped);
+            }
+        }
+    }
+
+    private Double number() {
+        final int start = pos;
+        while (pos < json.length() && "+-0123456789.eE".indexOf(json.charAt(pos)) >= 0) {
+            pos++;
+        }
+
+        if(start == pos) {
+            throw error("Unexpected character '"+json.charAt(pos)+"'");
+        }
+        return Double.valueOf(json.substring(start, pos));
+    }
+
+    private Object literal(final String literal, final Object value) {
+        if(!json.startsWith(literal, pos)) {
+            throw error("Expected "+literal);
+        }
+        pos += literal.length();
+        return value;
+    }
+
+    private void skipWhitespace() {
+        while (pos < json.length() && Character.isWhitespace(json.charAt(pos))) {
+            pos++;
+        }
+    }
+
+    private char peek() {
+        if(pos >= json.length()) {
+            throw error("Unexpected end of input");
+        }
+        return json.charAt(pos);
+    }
+
+    private char next() {
+        final char c = peek();
+        pos++;
+        return c;
+    }
+
+    private void expect(final char expected) {
+        if(next() != expected) {
+            throw error("Expected '"+expected+"'");
+        }
+    }
+
+    private IllegalArgumentException error(final String message) {
+        return new IllegalArgumentException(message+" at position "+pos);
+    }
+}
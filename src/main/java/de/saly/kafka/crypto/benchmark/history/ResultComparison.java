@@ -0,0 +1,175 @@
+package de.saly.kafka.crypto.benchmark.history;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compares two JMH JSON result files benchmark by benchmark (same method, mode and parameters) and counts regressions:
+ * <ul>
+ * <li>the primary score got worse by more than {@code threshold.throughput} percent (default: 10), higher is better
+ * for throughput mode, lower for all other modes</li>
+ * <li>{@code gc.alloc.rate.norm} (bytes per operation, only present if the GC profiler was attached) grew by more than
+ * {@code threshold.alloc} percent (default: 10)</li>
+ * </ul>
+ * Usage: {@code java -cp benchmarks.jar de.saly.kafka.crypto.benchmark.Main compare [baseline.json] current.json},
+ * without a baseline the latest result in the {@link ResultHistory} is used. Exits with 1 if there is a regression,
+ * so it can gate a build after upgrading the crypto library or the JDK.
+ */
+public class ResultComparison {
+
+    private static final String ALLOC_NORM = "gc.alloc.rate.norm";
+
+    private final double throughputThreshold;
+    private final double allocThreshold;
+
+    public ResultComparison(final double throughputThresholdPercent, final double allocThresholdPercent) {
+        this.throughputThreshold = throughputThresholdPercent / 100d;
+        this.allocThreshold = allocThresholdPercent / 100d;
+    }
+
+    public static void main(String[] args) throws IOException {
+        System.exit(run(args));
+    }
+
+    /**
+     * @return the exit code: 0 without regressions, 1 with regressions, 2 for wrong usage
+     */
+    public static int run(final String[] args) throws IOException {
+        final Path baseline;
+        final Path current;
+
+        if(args.length == 2) {
+            baseline = Paths.get(args[0]);
+            current = Paths.get(args[1]);
+        } else if(args.length == 1) {
+            current = Paths.get(args[0]);
+            baseline = new ResultHistory().latest(current.getFileName().toString(), current);
+
+            if(baseline == null) {
+                System.err.println("No baseline for "+current.getFileName()+" in "+new ResultHistory().dir());
+                return 2;
+            }
+        } else {
+            System.err.println("Usage: compare [baseline.json] current.json (-Dthreshold.throughput=10 -Dthreshold.alloc=10 in percent)");
+            return 2;
+        }
+
+        final ResultComparison comparison = new ResultComparison(Double.parseDouble(System.getProperty("threshold.throughput", "10")),
+                Double.parseDouble(System.getProperty("threshold.alloc", "10")));
+        System.out.println("Comparing "+current+" against baseline "+baseline);
+        return comparison.compare(load(baseline), load(current)) > 0 ? 1 : 0;
+    }
+
+    /**
+     * Prints one line per benchmark found in both result sets
+     *
+     * @return the number of regressions
+     */
+    public int compare(final Map<String, Score> baseline, final Map<String, Score> current) {
+        int regressions = 0;
+
+        for (final Map.Entry<String, Score> entry : current.entrySet()) {
+            final Score base = baseline.get(entry.getKey());
+            final Score now = entry.getValue();
+
+            if(base == null) {
+                System.out.println(String.format(Locale.ROOT, "   NEW  %s %.3f %s", entry.getKey(), now.score, now.unit));
+                continue;
+            }
+
+            final double change = (now.score - base.score) / base.score;
+            final boolean slower = now.higherIsBetter() ? change < -throughputThreshold : change > throughputThreshold;
+            final StringBuilder line = new StringBuilder(String.format(Locale.ROOT, "%s %s %.3f -> %.3f %s (%+.1f%%)",
+                    slower ? "SLOWER" : "    OK", entry.getKey(), base.score, now.score, now.unit, change * 100));
+
+            boolean moreAlloc = false;
+            if(!Double.isNaN(base.allocNorm) && !Double.isNaN(now.allocNorm) && base.allocNorm >= 1) {
+                final double allocChange = (now.allocNorm - base.allocNorm) / base.allocNorm;
+                moreAlloc = allocChange > allocThreshold;
+                line.append(String.format(Locale.ROOT, ", alloc %.0f -> %.0f B/op (%+.1f%%)%s", base.allocNorm, now.allocNorm,
+                        allocChange * 100, moreAlloc ? " ALLOC REGRESSION" : ""));
+            }
+
+            if(slower || moreAlloc) {
+                regressions++;
+            }
+            System.out.println(line);
+        }
+
+        for (final String key : baseline.keySet()) {
+            if(!current.containsKey(key)) {
+                System.out.println("  GONE  "+key);
+            }
+        }
+
+        System.out.println(regressions+" regression(s), thresholds "+throughputThreshold * 100+"% score, "+allocThreshold * 100+"% alloc");
+        return regressions;
+    }
+
+    /**
+     * @return the benchmarks of a JMH JSON result file by "method mode param=value ..."
+     */
+    @SuppressWarnings("unchecked")
+    public static Map<String, Score> load(final Path file) throws IOException {
+        final Object json = JsonReader.parse(new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+
+        if(!(json instanceof List)) {
+            throw new IOException(file+" is not a JMH JSON result file");
+        }
+
+        final Map<String, Score> result = new LinkedHashMap<>();
+        for (final Object element : (List<Object>) json) {
+            final Map<String, Object> benchmark = (Map<String, Object>) element;
+            final String mode = (String) benchmark.get("mode");
+            final StringBuilder key = new StringBuilder((String) benchmark.get("benchmark")).append(' ').append(mode);
+
+            final Map<String, Object> params = (Map<String, Object>) benchmark.get("params");
+            if(params != null) {
+                for (final Map.Entry<String, Object> param : new TreeMap<>(params).entrySet()) {
+                    key.append(' ').append(param.getKey()).append('=').append(param.getValue());
+                }
+            }
+
+            final Map<String, Object> primary = (Map<String, Object>) benchmark.get("primaryMetric");
+            double allocNorm = Double.NaN;
+            final Map<String, Object> secondary = (Map<String, Object>) benchmark.get("secondaryMetrics");
+            if(secondary != null) {
+                for (final Map.Entry<String, Object> metric : secondary.entrySet()) {
+                    //JMH prefixes profiler results with a middle dot
+                    if(metric.getKey().endsWith(ALLOC_NORM)) {
+                        allocNorm = (Double) ((Map<String, Object>) metric.getValue()).get("score");
+                    }
+                }
+            }
+
+            result.put(key.toString(), new Score(mode, (Double) primary.get("score"), (String) primary.get("scoreUnit"), allocNorm));
+        }
+        return result;
+    }
+
+    public static class Score {
+        private final String mode;
+        private final double score;
+        private final String unit;
+        private final double allocNorm;
+
+        public Score(final String mode, final double score, final String unit, final double allocNorm) {
+            this.mode = mode;
+            this.score = score;
+            this.unit = unit;
+            this.allocNorm = allocNorm;
+        }
+
+        boolean higherIsBetter() {
+            return "thrpt".equals(mode);
+        }
+    }
+}
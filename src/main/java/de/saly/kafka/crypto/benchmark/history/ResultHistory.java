@@ -0,0 +1,102 @@
+package de.saly.kafka.crypto.benchmark.history;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * Keeps a copy of every benchmark result in a directory of its own below {@code history.dir} (default: {@code bench-history}),
+ * named after the time of the run, the JVM and the version of the crypto library, e.g.
+ * {@code 20161017-093012_jdk1.8.0_102_lib1.0.1}. The names sort by time, so the last one is the latest run.
+ */
+public class ResultHistory {
+
+    private static final String LIBRARY_POM = "/META-INF/maven/de.saly/kafka-end-2-end-encryption/pom.properties";
+
+    private final Path dir;
+
+    public ResultHistory() {
+        this(Paths.get(System.getProperty("history.dir", "bench-history")));
+    }
+
+    public ResultHistory(final Path dir) {
+        this.dir = dir;
+    }
+
+    public Path dir() {
+        return dir;
+    }
+
+    /**
+     * Copies the given result files into a new version directory
+     *
+     * @return the version directory
+     */
+    public Path store(final Path... files) throws IOException {
+        final Path version = dir.resolve(new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.ROOT).format(new Date())
+                + "_jdk" + System.getProperty("java.version") + "_lib" + libraryVersion());
+        Files.createDirectories(version);
+
+        for (final Path file : files) {
+            if(Files.exists(file)) {
+                Files.copy(file, version.resolve(file.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        return version;
+    }
+
+    /**
+     * @return the latest stored result file with the given name which is not {@code exclude} or a copy of it, null if there is none
+     */
+    public Path latest(final String filename, final Path exclude) throws IOException {
+        final byte[] excluded = exclude != null && Files.exists(exclude) ? Files.readAllBytes(exclude) : null;
+
+        if(!Files.isDirectory(dir)) {
+            return null;
+        }
+
+        final List<Path> versions = new ArrayList<>();
+        try(DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (final Path version : stream) {
+                versions.add(version);
+            }
+        }
+        Collections.sort(versions, Collections.reverseOrder());
+
+        for (final Path version : versions) {
+            final Path candidate = version.resolve(filename);
+            if(Files.exists(candidate) && (excluded == null || !Arrays.equals(excluded, Files.readAllBytes(candidate)))) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return version of the kafka-end-2-end-encryption jar on the classpath, {@code unknown} if the jar has no maven metadata
+     */
+    static String libraryVersion() {
+        try(InputStream in = ResultHistory.class.getResourceAsStream(LIBRARY_POM)) {
+            if(in != null) {
+                final Properties pom = new Properties();
+                pom.load(in);
+                return pom.getProperty("version", "unknown");
+            }
+        } catch (IOException e) {
+            //fall through
+        }
+        return "unknown";
+    }
+}
@@ -0,0 +1,19 @@
+package de.saly.kafka.crypto.benchmark.payload;
+
+import java.util.Random;
+
+/**
+ * Source of record values which look like real traffic, e.g. JSON or Avro, see {@code PayloadType} and {@link FileCorpus}.
+ */
+public interface Corpus {
+
+    /**
+     * @return a payload of exactly {@code size} bytes
+     */
+    byte[] generate(Random rand, int size);
+
+    /**
+     * @return true if the payloads are text (and go through a {@code StringSerializer} in practice), false if binary
+     */
+    boolean isText();
+}
@@ -0,0 +1,71 @@
+package de.saly.kafka.crypto.benchmark.payload;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Payloads made of sample records from a file with one record per line, e.g. JSON dumped from a topic with
+ * {@code kafka-console-consumer}. A payload is a random record cut to the requested size, or several random
+ * records separated by newlines if one is not long enough.
+ */
+public class FileCorpus implements Corpus {
+
+    private final Path file;
+    private final byte[][] lines;
+
+    public FileCorpus(final Path file) throws IOException {
+        this.file = file;
+
+        final byte[] content = Files.readAllBytes(file);
+        final List<byte[]> lines = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i <= content.length; i++) {
+            if(i == content.length || content[i] == '\n') {
+                final int end = i > start && content[i - 1] == '\r' ? i - 1 : i;
+                if(end > start) {
+                    lines.add(Arrays.copyOfRange(content, start, end));
+                }
+                start = i + 1;
+            }
+        }
+
+        if(lines.isEmpty()) {
+            throw new IOException(file+" contains no records");
+        }
+
+        this.lines = lines.toArray(new byte[lines.size()][]);
+    }
+
+    @Override
+    public byte[] generate(final Random rand, final int size) {
+        final byte[] payload = new byte[size];
+        int position = 0;
+
+        while (position < size) {
+            if(position > 0) {
+                payload[position++] = '\n';
+            }
+
+            final byte[] line = lines[rand.nextInt(lines.length)];
+            final int n = Math.min(line.length, size - position);
+            System.arraycopy(line, 0, payload, position, n);
+            position += n;
+        }
+        return payload;
+    }
+
+    @Override
+    public boolean isText() {
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "file:" + file;
+    }
+}
@@ -0,0 +1,116 @@
+package de.saly.kafka.crypto.benchmark.payload;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Record keys, given as spec like the {@link SizeDistribution}:
+ * <ul>
+ * <li>{@code uniform:100000}: every one of 100000 keys is equally likely</li>
+ * <li>{@code zipf:100000:1.1}: Zipf distributed with the given exponent, the key of rank k is drawn with a probability
+ * proportional to 1/k^s. Real keys (customers, devices, tenants) are usually skewed like this, with s around 1</li>
+ * </ul>
+ * Keys are {@code key-<rank>}, so rank 0 is the hottest key.
+ */
+public abstract class KeyDistribution {
+
+    private final String spec;
+    private final int keys;
+
+    private KeyDistribution(final String spec, final int keys) {
+        if(keys < 1) {
+            throw new IllegalArgumentException("Number of keys must be at least 1, was "+keys);
+        }
+
+        this.spec = spec;
+        this.keys = keys;
+    }
+
+    /**
+     * @return the rank of the next key, between 0 (inclusive) and {@link #keys()} (exclusive)
+     */
+    public abstract int nextRank(Random rand);
+
+    public String next(final Random rand) {
+        return key(nextRank(rand));
+    }
+
+    public byte[] nextBytes(final Random rand) {
+        return next(rand).getBytes(StandardCharsets.UTF_8);
+    }
+
+    public static String key(final int rank) {
+        return "key-" + rank;
+    }
+
+    /**
+     * @return number of distinct keys
+     */
+    public int keys() {
+        return keys;
+    }
+
+    public static KeyDistribution parse(final String spec) {
+        final String[] parts = spec.trim().split(":");
+
+        try {
+            switch (parts[0]) {
+            case "uniform":
+                return new Uniform(spec, Integer.parseInt(parts[1]));
+            case "zipf":
+                return new Zipf(spec, Integer.parseInt(parts[1]), Double.parseDouble(parts[2]));
+            default:
+                throw new IllegalArgumentException("Unknown key distribution '"+spec+"'");
+            }
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Invalid key distribution '"+spec+"', expected e.g. uniform:100000 or zipf:100000:1.1", e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return spec;
+    }
+
+    private static final class Uniform extends KeyDistribution {
+
+        Uniform(final String spec, final int keys) {
+            super(spec, keys);
+        }
+
+        @Override
+        public int nextRank(final Random rand) {
+            return rand.nextInt(keys());
+        }
+    }
+
+    private static final class Zipf extends KeyDistribution {
+        //cumulative probabilities, a draw is a binary search
+        private final double[] cdf;
+
+        Zipf(final String spec, final int keys, final double exponent) {
+            super(spec, keys);
+
+            if(exponent <= 0) {
+                throw new IllegalArgumentException("Exponent must be positive, was "+exponent);
+            }
+
+            cdf = new double[keys];
+            double sum = 0;
+            for (int k = 0; k < keys; k++) {
+                sum += 1 / Math.pow(k + 1, exponent);
+                cdf[k] = sum;
+            }
+            for (int k = 0; k < keys; k++) {
+                cdf[k] /= sum;
+            }
+        }
+
+        @Override
+        public int nextRank(final Random rand) {
+            final int idx = Arrays.binarySearch(cdf, rand.nextDouble());
+            return Math.min(idx >= 0 ? idx : -idx - 1, cdf.length - 1);
+        }
+    }
+}
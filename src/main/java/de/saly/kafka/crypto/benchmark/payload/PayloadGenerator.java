@@ -0,0 +1,77 @@
+package de.saly.kafka.crypto.benchmark.payload;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import de.saly.kafka.crypto.benchmark.PayloadType;
+
+/**
+ * Payloads from a {@link Corpus} with sizes from a {@link SizeDistribution}, for the JMH benchmarks as well as
+ * the runs against the embedded broker. The same seed gives the same payloads.
+ */
+public class PayloadGenerator {
+
+    private final Corpus corpus;
+    private final SizeDistribution sizes;
+    private final Random rand;
+
+    public PayloadGenerator(final Corpus corpus, final SizeDistribution sizes) {
+        this(corpus, sizes, new Random().nextLong());
+    }
+
+    public PayloadGenerator(final Corpus corpus, final SizeDistribution sizes, final long seed) {
+        this.corpus = corpus;
+        this.sizes = sizes;
+        this.rand = new Random(seed); //no need for secure rand here
+    }
+
+    /**
+     * @param corpus a {@link PayloadType} name or {@code file:records.txt} for a {@link FileCorpus}
+     * @param sizes a {@link SizeDistribution} spec
+     */
+    public static PayloadGenerator parse(final String corpus, final String sizes) throws IOException {
+        return new PayloadGenerator(corpus(corpus), SizeDistribution.parse(sizes));
+    }
+
+    public static Corpus corpus(final String spec) throws IOException {
+        if(spec.startsWith("file:")) {
+            return new FileCorpus(Paths.get(spec.substring(5)));
+        }
+        return PayloadType.valueOf(spec.trim());
+    }
+
+    public Corpus corpus() {
+        return corpus;
+    }
+
+    public SizeDistribution sizes() {
+        return sizes;
+    }
+
+    public byte[] next() {
+        return corpus.generate(rand, sizes.next(rand));
+    }
+
+    /**
+     * @return distinct payloads, at most {@code maxCount} or as many as fit into {@code maxBytes} (but at least one)
+     */
+    public byte[][] pool(final int maxCount, final long maxBytes) {
+        final List<byte[]> pool = new ArrayList<>();
+        long bytes = 0;
+
+        while (pool.size() < maxCount && (pool.isEmpty() || bytes < maxBytes)) {
+            final byte[] payload = next();
+            pool.add(payload);
+            bytes += payload.length;
+        }
+        return pool.toArray(new byte[pool.size()][]);
+    }
+
+    @Override
+    public String toString() {
+        return corpus + " " + sizes;
+    }
+}
@@ -0,0 +1,163 @@
+package de.saly.kafka.crypto.benchmark.payload;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Record sizes in bytes, given as spec so that they can be passed as JMH parameter or benchmark argument:
+ * <ul>
+ * <li>{@code 1024} or {@code fixed:1024}: always the same size</li>
+ * <li>{@code uniform:100:65536}: uniformly distributed between min and max (both inclusive)</li>
+ * <li>{@code lognormal:1024:1.5[:524288]}: log-normal with the given median and sigma, a long tail of large records.
+ * Sizes are capped at max (default 512k, so that encrypted records stay below the producer's default max.request.size)</li>
+ * <li>{@code file:sizes.txt}: the sizes in the file (one per line, e.g. taken from a production topic) replayed in order</li>
+ * </ul>
+ */
+public abstract class SizeDistribution {
+
+    private static final int DEFAULT_MAX = 512 * 1024;
+
+    private final String spec;
+
+    private SizeDistribution(final String spec) {
+        this.spec = spec;
+    }
+
+    public abstract int next(Random rand);
+
+    public static SizeDistribution fixed(final int size) {
+        return parse(String.valueOf(size));
+    }
+
+    public static SizeDistribution parse(final String spec) {
+        final String[] parts = spec.trim().split(":", 2);
+
+        try {
+            switch (parts[0]) {
+            case "fixed":
+                return new Fixed(spec, Integer.parseInt(parts[1]));
+            case "uniform":
+                final String[] range = parts[1].split(":");
+                return new Uniform(spec, Integer.parseInt(range[0]), Integer.parseInt(range[1]));
+            case "lognormal":
+                final String[] args = parts[1].split(":");
+                return new LogNormal(spec, Double.parseDouble(args[0]), Double.parseDouble(args[1]),
+                        args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_MAX);
+            case "file":
+                return new Replay(spec, Paths.get(parts[1]));
+            default:
+                return new Fixed(spec, Integer.parseInt(parts[0]));
+            }
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Invalid size distribution '"+spec+"', expected e.g. 1024, uniform:100:65536, "
+                    + "lognormal:1024:1.5 or file:sizes.txt", e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return spec;
+    }
+
+    private static final class Fixed extends SizeDistribution {
+        private final int size;
+
+        Fixed(final String spec, final int size) {
+            super(spec);
+            this.size = requirePositive(size);
+        }
+
+        @Override
+        public int next(final Random rand) {
+            return size;
+        }
+    }
+
+    private static final class Uniform extends SizeDistribution {
+        private final int min;
+        private final int max;
+
+        Uniform(final String spec, final int min, final int max) {
+            super(spec);
+            this.min = requirePositive(min);
+            this.max = max;
+
+            if(max < min) {
+                throw new IllegalArgumentException("max "+max+" is less than min "+min);
+            }
+        }
+
+        @Override
+        public int next(final Random rand) {
+            return min + rand.nextInt(max - min + 1);
+        }
+    }
+
+    private static final class LogNormal extends SizeDistribution {
+        private final double mu;
+        private final double sigma;
+        private final int max;
+
+        LogNormal(final String spec, final double median, final double sigma, final int max) {
+            super(spec);
+            this.mu = Math.log(requirePositive((int) median));
+            this.sigma = sigma;
+            this.max = requirePositive(max);
+        }
+
+        @Override
+        public int next(final Random rand) {
+            final double size = Math.exp(mu + sigma * rand.nextGaussian());
+            return (int) Math.max(1, Math.min(max, Math.round(size)));
+        }
+    }
+
+    private static final class Replay extends SizeDistribution {
+        private final int[] sizes;
+        private int next;
+
+        Replay(final String spec, final Path file) {
+            super(spec);
+
+            final List<Integer> sizes = new ArrayList<>();
+            try {
+                for (final String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                    if(!line.trim().isEmpty()) {
+                        sizes.add(requirePositive(Integer.parseInt(line.trim())));
+                    }
+                }
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Can not read sizes from "+file, e);
+            }
+
+            if(sizes.isEmpty()) {
+                throw new IllegalArgumentException(file+" contains no sizes");
+            }
+
+            this.sizes = new int[sizes.size()];
+            for (int i = 0; i < this.sizes.length; i++) {
+                this.sizes[i] = sizes.get(i);
+            }
+        }
+
+        @Override
+        public int next(final Random rand) {
+            final int size = sizes[next];
+            next = (next + 1) % sizes.length;
+            return size;
+        }
+    }
+
+    private static int requirePositive(final int size) {
+        if(size < 1) {
+            throw new IllegalArgumentException("Size must be at least 1, was "+size);
+        }
+        return size;
+    }
+}
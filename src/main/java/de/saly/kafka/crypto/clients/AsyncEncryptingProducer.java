@@ -0,0 +1,363 @@
+package de.saly.kafka.crypto.clients;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.errors.InterruptException;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.Serializer;
+import org.apache.kafka.common.utils.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.saly.kafka.crypto.util.ConfiguredInstances;
+
+/**
+ * Producer which takes value serialization (and therefore encryption) off the thread calling {@link #send(ProducerRecord)}.
+ * <p>
+ * It is configured exactly like a {@link KafkaProducer} using the {@code EncryptingSerializer} as {@code value.serializer}.
+ * Records are handed to one of {@value #CRYPTO_ASYNC_THREADS} worker threads ("lanes", default: number of cores), each
+ * owning its own value serializer, which serializes them and forwards the encrypted {@code byte[]} to an internal
+ * {@link KafkaProducer} with {@link ByteArraySerializer}s.
+ * <ul>
+ * <li>Records with the same key, or the same explicit partition, always go to the same lane, so their order is kept.
+ * Records without key and partition are distributed round robin, so they may reach the internal producer (and its
+ * partitioner) in another order than they were sent, even if they end up in the same partition. Give them a key or
+ * an explicit partition if their order matters.</li>
+ * <li>Every lane has a bounded queue of {@value #CRYPTO_ASYNC_QUEUE_SIZE} records (default 1024), {@code send()} blocks
+ * while the queue of its lane is full.</li>
+ * <li>The returned {@link Future} and the {@link Callback} complete with the result of the internal producer.
+ * Value serialization errors are reported through them instead of being thrown by {@code send()}. Callbacks run on
+ * the lane (or the I/O thread of the internal producer), an exception thrown by one is logged and does not stop the lane.</li>
+ * <li>{@code send()} and {@code flush()} throw an {@link IllegalStateException} once the producer is closed.</li>
+ * </ul>
+ * Keys are not encrypted and still serialized on the calling thread, like {@link KafkaProducer} does.
+ */
+public class AsyncEncryptingProducer<K, V> implements Producer<K, V> {
+
+    public static final String CRYPTO_ASYNC_THREADS = "crypto.async.threads";
+    public static final String CRYPTO_ASYNC_QUEUE_SIZE = "crypto.async.queue.size";
+
+    private static final Logger log = LoggerFactory.getLogger(AsyncEncryptingProducer.class);
+
+    private final Producer<byte[], byte[]> delegate;
+    private final Serializer<K> keySerializer;
+    private final List<Lane> lanes = new ArrayList<>();
+    private final AtomicInteger roundRobin = new AtomicInteger();
+    //enqueuing holds the read lock, so no task can be queued behind the close marker of a lane
+    private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+    private boolean closed;
+
+    public AsyncEncryptingProducer(final Properties properties) {
+        this(ConfiguredInstances.propsToMap(properties));
+    }
+
+    public AsyncEncryptingProducer(final Map<String, Object> configs) {
+        this(new KafkaProducer<byte[], byte[]>(configs, new ByteArraySerializer(), new ByteArraySerializer()), configs);
+    }
+
+    /**
+     * @param delegate the producer the serialized records are sent with, e.g. a {@code MockProducer}
+     * @param configs the config holding the key.serializer and value.serializer (and their crypto settings)
+     */
+    @SuppressWarnings("unchecked")
+    public AsyncEncryptingProducer(final Producer<byte[], byte[]> delegate, final Map<String, Object> configs) {
+        this.delegate = delegate;
+
+        Serializer<K> keySerializer = null;
+        try {
+            final int threads = intConfig(configs, CRYPTO_ASYNC_THREADS, Runtime.getRuntime().availableProcessors());
+            final int queueSize = intConfig(configs, CRYPTO_ASYNC_QUEUE_SIZE, 1024);
+
+            keySerializer = ConfiguredInstances.newInstance(configs, "key.serializer", Serializer.class);
+            keySerializer.configure(configs, true);
+
+            for (int i = 0; i < threads; i++) {
+                final Serializer<V> valueSerializer = ConfiguredInstances.newInstance(configs, "value.serializer", Serializer.class);
+                valueSerializer.configure(configs, false);
+                lanes.add(new Lane(i, valueSerializer, queueSize));
+            }
+        } catch (RuntimeException e) {
+            //nobody can close a producer which failed to construct, so release what was started so far
+            try {
+                stopLanes();
+            } finally {
+                if(keySerializer != null) {
+                    keySerializer.close();
+                }
+                delegate.close(0, TimeUnit.MILLISECONDS);
+            }
+            throw e;
+        }
+
+        this.keySerializer = keySerializer;
+    }
+
+    @Override
+    public Future<RecordMetadata> send(final ProducerRecord<K, V> record) {
+        return send(record, null);
+    }
+
+    @Override
+    public Future<RecordMetadata> send(final ProducerRecord<K, V> record, final Callback callback) {
+        final byte[] key;
+        try {
+            key = keySerializer.serialize(record.topic(), record.key());
+        } catch (ClassCastException e) {
+            throw new SerializationException("Can't convert key of class " + record.key().getClass().getName() + " to class "
+                    + keySerializer.getClass().getName(), e);
+        }
+
+        final int lane;
+        if(record.partition() != null) {
+            lane = record.partition() % lanes.size();
+        } else if(key != null) {
+            lane = Utils.abs(Utils.murmur2(key)) % lanes.size();
+        } else {
+            lane = Utils.abs(roundRobin.getAndIncrement()) % lanes.size();
+        }
+
+        final Task task = new Task(record, key, callback);
+        closeLock.readLock().lock();
+        try {
+            ensureOpen();
+            lanes.get(lane).enqueue(task);
+        } finally {
+            closeLock.readLock().unlock();
+        }
+        return task.future;
+    }
+
+    private void ensureOpen() {
+        if(closed) {
+            throw new IllegalStateException("Cannot send after the producer is closed.");
+        }
+    }
+
+    /**
+     * Waits until every record sent so far was handed to the internal producer and then flushes it.
+     */
+    @Override
+    public void flush() {
+        final CountDownLatch drained = new CountDownLatch(lanes.size());
+        closeLock.readLock().lock();
+        try {
+            ensureOpen();
+            for (final Lane lane : lanes) {
+                lane.enqueue(new Task(drained));
+            }
+        } finally {
+            closeLock.readLock().unlock();
+        }
+
+        try {
+            drained.await();
+        } catch (InterruptedException e) {
+            throw new InterruptException(e);
+        }
+
+        delegate.flush();
+    }
+
+    @Override
+    public List<PartitionInfo> partitionsFor(final String topic) {
+        return delegate.partitionsFor(topic);
+    }
+
+    @Override
+    public Map<MetricName, ? extends Metric> metrics() {
+        return delegate.metrics();
+    }
+
+    @Override
+    public void close() {
+        close(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sends all queued records and closes the internal producer, the timeout only applies to the latter.
+     * Closing again has no effect.
+     */
+    @Override
+    public void close(final long timeout, final TimeUnit unit) {
+        closeLock.writeLock().lock();
+        try {
+            if(closed) {
+                return;
+            }
+            closed = true;
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+
+        try {
+            stopLanes();
+        } finally {
+            delegate.close(timeout, unit);
+            keySerializer.close();
+        }
+    }
+
+    /**
+     * Lets every lane send what is queued and waits until it is done
+     */
+    private void stopLanes() {
+        try {
+            for (final Lane lane : lanes) {
+                lane.enqueue(Task.POISON);
+            }
+
+            for (final Lane lane : lanes) {
+                lane.join();
+            }
+        } catch (InterruptedException e) {
+            throw new InterruptException(e);
+        }
+    }
+
+    private static int intConfig(final Map<String, Object> configs, final String key, final int defaultValue) {
+        final Object value = configs.get(key);
+        final int result = value == null ? defaultValue : Integer.parseInt(value.toString());
+
+        if(result < 1) {
+            throw new IllegalArgumentException(key+" must be at least 1, was "+result);
+        }
+
+        return result;
+    }
+
+    /**
+     * A record waiting for its lane, or a flush/close marker.
+     */
+    private static class Task {
+
+        static final Task POISON = new Task((CountDownLatch) null);
+
+        final ProducerRecord<?, ?> record;
+        final byte[] key;
+        final Callback callback;
+        final CompletableFuture<RecordMetadata> future;
+        final CountDownLatch drained;
+
+        Task(final ProducerRecord<?, ?> record, final byte[] key, final Callback callback) {
+            this.record = record;
+            this.key = key;
+            this.callback = callback;
+            this.future = new CompletableFuture<>();
+            this.drained = null;
+        }
+
+        Task(final CountDownLatch drained) {
+            this.record = null;
+            this.key = null;
+            this.callback = null;
+            this.future = null;
+            this.drained = drained;
+        }
+
+        /**
+         * Completes the future and runs the callback, only the first call has an effect
+         */
+        void complete(final RecordMetadata metadata, final Exception exception) {
+            final boolean first = exception == null ? future.complete(metadata) : future.completeExceptionally(exception);
+
+            if(!first || callback == null) {
+                return;
+            }
+
+            try {
+                callback.onCompletion(metadata, exception);
+            } catch (RuntimeException e) {
+                log.error("Error executing user-provided callback on message for topic-partition {}-{}", record.topic(),
+                        record.partition(), e);
+            }
+        }
+    }
+
+    private class Lane extends Thread {
+
+        private final Serializer<V> valueSerializer;
+        private final BlockingQueue<Task> queue;
+
+        Lane(final int id, final Serializer<V> valueSerializer, final int queueSize) {
+            super("kafka-async-encrypt-" + id);
+            this.valueSerializer = valueSerializer;
+            this.queue = new ArrayBlockingQueue<>(queueSize);
+            setDaemon(true);
+            start();
+        }
+
+        void enqueue(final Task task) {
+            try {
+                queue.put(task);
+            } catch (InterruptedException e) {
+                throw new InterruptException(e);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                Task task;
+                while ((task = queue.take()) != Task.POISON) {
+                    if(task.drained != null) {
+                        task.drained.countDown();
+                    } else {
+                        send(task);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                valueSerializer.close();
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private void send(final Task task) {
+            final ProducerRecord<K, V> record = (ProducerRecord<K, V>) task.record;
+            final byte[] value;
+
+            try {
+                value = valueSerializer.serialize(record.topic(), record.value());
+            } catch (RuntimeException e) {
+                task.complete(null, e instanceof KafkaException ? e : new SerializationException("Can't serialize value of record "
+                        + record, e));
+                return;
+            }
+
+            try {
+                delegate.send(new ProducerRecord<byte[], byte[]>(record.topic(), record.partition(), record.timestamp(), task.key, value),
+                        new Callback() {
+                            @Override
+                            public void onCompletion(RecordMetadata metadata, Exception exception) {
+                                task.complete(metadata, exception);
+                            }
+                        });
+            } catch (RuntimeException e) {
+                task.complete(null, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,414 @@
+package de.saly.kafka.crypto.clients;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.consumer.OffsetCommitCallback;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.Deserializer;
+
+import de.saly.kafka.crypto.util.ConfiguredInstances;
+
+/**
+ * Consumer which polls raw {@code byte[]} records and deserializes (and therefore decrypts) every
+ * polled batch on a {@link ForkJoinPool} instead of on the polling thread.
+ * <p>
+ * It is configured exactly like a {@link KafkaConsumer} using the {@code DecryptingDeserializer} as
+ * {@code value.deserializer}. Every worker thread gets its own key and value deserializer instance,
+ * configured from the same properties, so the deserializers need not be thread-safe. A worker closes its
+ * deserializers when it terminates (the pool retires idle workers), so at most {@code parallelism} of them
+ * plus the ones of the polling thread are alive.
+ * The returned {@link ConsumerRecords} keep the per-partition order of the polled records.
+ * <p>
+ * {@value #CRYPTO_DECRYPT_PARALLELISM} sets the number of workers, it defaults to the number of cores.
+ * With 1 records are deserialized inline on the polling thread.
+ */
+public class ParallelDecryptingConsumer<K, V> implements Consumer<K, V> {
+
+    public static final String CRYPTO_DECRYPT_PARALLELISM = "crypto.decrypt.parallelism";
+
+    private static final long CLOSE_TIMEOUT_MS = 10000;
+
+    private final Consumer<byte[], byte[]> delegate;
+    private final Map<String, Object> configs;
+    private final int parallelism;
+    private final ForkJoinPool pool;
+    private Deserializers<K, V> inline;
+
+    public ParallelDecryptingConsumer(final Properties properties) {
+        this(ConfiguredInstances.propsToMap(properties));
+    }
+
+    public ParallelDecryptingConsumer(final Map<String, Object> configs) {
+        this(new KafkaConsumer<byte[], byte[]>(configs, new ByteArrayDeserializer(), new ByteArrayDeserializer()), configs);
+    }
+
+    /**
+     * @param delegate the consumer to poll raw records from, e.g. a {@code MockConsumer}
+     * @param configs the config holding the key.deserializer and value.deserializer (and their crypto settings)
+     */
+    public ParallelDecryptingConsumer(final Consumer<byte[], byte[]> delegate, final Map<String, Object> configs) {
+        this.delegate = delegate;
+        this.configs = configs;
+
+        final Object parallelismConfig = configs.get(CRYPTO_DECRYPT_PARALLELISM);
+        this.parallelism = parallelismConfig == null ? Runtime.getRuntime().availableProcessors()
+                : Integer.parseInt(parallelismConfig.toString());
+
+        if(parallelism < 1) {
+            throw new IllegalArgumentException(CRYPTO_DECRYPT_PARALLELISM+" must be at least 1, was "+parallelism);
+        }
+
+        this.pool = parallelism > 1 ? new ForkJoinPool(parallelism, new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+            @Override
+            public ForkJoinWorkerThread newThread(final ForkJoinPool pool) {
+                return new Worker(pool);
+            }
+        }, null, false) : null;
+    }
+
+    @Override
+    public ConsumerRecords<K, V> poll(final long timeout) {
+        return decrypt(delegate.poll(timeout));
+    }
+
+    /**
+     * Deserializes a batch of raw records, in parallel if it is configured that way.
+     */
+    public ConsumerRecords<K, V> decrypt(final ConsumerRecords<byte[], byte[]> raw) {
+        if(raw.isEmpty()) {
+            return ConsumerRecords.empty();
+        }
+
+        final ConsumerRecord<byte[], byte[]>[] in = newRecords(raw.count());
+        int i = 0;
+        for (final TopicPartition partition : raw.partitions()) {
+            for (final ConsumerRecord<byte[], byte[]> record : raw.records(partition)) {
+                in[i++] = record;
+            }
+        }
+
+        final ConsumerRecord<K, V>[] out = newRecords(in.length);
+
+        if(pool == null || in.length == 1) {
+            deserialize(in, out, 0, in.length);
+        } else {
+            //a few more chunks than workers so that stealing can even out unequal record sizes
+            pool.invoke(new DecryptTask(in, out, 0, in.length, Math.max(1, in.length / (parallelism * 4))));
+        }
+
+        final Map<TopicPartition, List<ConsumerRecord<K, V>>> records = new LinkedHashMap<>();
+        i = 0;
+        for (final TopicPartition partition : raw.partitions()) {
+            final int count = raw.records(partition).size();
+            final List<ConsumerRecord<K, V>> list = new ArrayList<>(count);
+            for (int j = 0; j < count; j++) {
+                list.add(out[i++]);
+            }
+            records.put(partition, list);
+        }
+
+        return new ConsumerRecords<K, V>(records);
+    }
+
+    /**
+     * @return the pool batches are deserialized on, null with a parallelism of 1
+     */
+    ForkJoinPool pool() {
+        return pool;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"}) //generic arrays cannot be created otherwise
+    private static <A, B> ConsumerRecord<A, B>[] newRecords(final int length) {
+        return new ConsumerRecord[length];
+    }
+
+    /**
+     * @return the deserializers of the calling worker, or those of the polling thread
+     */
+    @SuppressWarnings("unchecked") //a worker owned by this consumer has its K and V
+    private Deserializers<K, V> deserializers() {
+        final Thread thread = Thread.currentThread();
+
+        if(thread instanceof ParallelDecryptingConsumer.Worker) {
+            final Worker worker = (Worker) thread;
+            if(worker.owner() == this) {
+                return worker.deserializers();
+            }
+        }
+
+        //the consumer is not thread-safe, so only the polling thread gets here
+        if(inline == null) {
+            inline = new Deserializers<K, V>(configs);
+        }
+        return inline;
+    }
+
+    private void deserialize(final ConsumerRecord<byte[], byte[]>[] in, final ConsumerRecord<K, V>[] out, final int from, final int to) {
+        final Deserializers<K, V> d = deserializers();
+
+        for (int i = from; i < to; i++) {
+            final ConsumerRecord<byte[], byte[]> r = in[i];
+
+            try {
+                final K key = r.key() == null ? null : d.key.deserialize(r.topic(), r.key());
+                final V value = r.value() == null ? null : d.value.deserialize(r.topic(), r.value());
+                out[i] = new ConsumerRecord<K, V>(r.topic(), r.partition(), r.offset(), r.timestamp(), r.timestampType(),
+                        r.checksum(), r.serializedKeySize(), r.serializedValueSize(), key, value);
+            } catch (RuntimeException e) {
+                throw new SerializationException("Error deserializing key/value for partition " + r.topic() + "-" + r.partition()
+                        + " at offset " + r.offset(), e);
+            }
+        }
+    }
+
+    private class DecryptTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final ConsumerRecord<byte[], byte[]>[] in;
+        private final ConsumerRecord<K, V>[] out;
+        private final int from;
+        private final int to;
+        private final int grain;
+
+        DecryptTask(final ConsumerRecord<byte[], byte[]>[] in, final ConsumerRecord<K, V>[] out, final int from, final int to, final int grain) {
+            this.in = in;
+            this.out = out;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            if(to - from <= grain) {
+                deserialize(in, out, from, to);
+            } else {
+                final int mid = (from + to) >>> 1;
+                invokeAll(new DecryptTask(in, out, from, mid, grain), new DecryptTask(in, out, mid, to, grain));
+            }
+        }
+    }
+
+    /**
+     * Pool thread owning its deserializers, they are created with the first batch and closed when the thread terminates.
+     */
+    private class Worker extends ForkJoinWorkerThread {
+
+        private Deserializers<K, V> deserializers;
+
+        Worker(final ForkJoinPool pool) {
+            super(pool);
+        }
+
+        ParallelDecryptingConsumer<K, V> owner() {
+            return ParallelDecryptingConsumer.this;
+        }
+
+        Deserializers<K, V> deserializers() {
+            if(deserializers == null) {
+                deserializers = new Deserializers<K, V>(configs);
+            }
+            return deserializers;
+        }
+
+        @Override
+        protected void onTermination(final Throwable exception) {
+            try {
+                if(deserializers != null) {
+                    deserializers.close();
+                }
+            } finally {
+                super.onTermination(exception);
+            }
+        }
+    }
+
+    /**
+     * The key and value deserializer of one worker thread.
+     */
+    private static class Deserializers<K, V> {
+        private final Deserializer<K> key;
+        private final Deserializer<V> value;
+
+        @SuppressWarnings("unchecked")
+        Deserializers(final Map<String, Object> configs) {
+            key = ConfiguredInstances.newInstance(configs, "key.deserializer", Deserializer.class);
+            key.configure(configs, true);
+            value = ConfiguredInstances.newInstance(configs, "value.deserializer", Deserializer.class);
+            value.configure(configs, false);
+        }
+
+        void close() {
+            key.close();
+            value.close();
+        }
+    }
+
+    @Override
+    public Set<TopicPartition> assignment() {
+        return delegate.assignment();
+    }
+
+    @Override
+    public Set<String> subscription() {
+        return delegate.subscription();
+    }
+
+    @Override
+    public void subscribe(final Collection<String> topics) {
+        delegate.subscribe(topics);
+    }
+
+    @Override
+    public void subscribe(final Collection<String> topics, final ConsumerRebalanceListener callback) {
+        delegate.subscribe(topics, callback);
+    }
+
+    @Override
+    public void assign(final Collection<TopicPartition> partitions) {
+        delegate.assign(partitions);
+    }
+
+    @Override
+    public void subscribe(final Pattern pattern, final ConsumerRebalanceListener callback) {
+        delegate.subscribe(pattern, callback);
+    }
+
+    @Override
+    public void unsubscribe() {
+        delegate.unsubscribe();
+    }
+
+    @Override
+    public void commitSync() {
+        delegate.commitSync();
+    }
+
+    @Override
+    public void commitSync(final Map<TopicPartition, OffsetAndMetadata> offsets) {
+        delegate.commitSync(offsets);
+    }
+
+    @Override
+    public void commitAsync() {
+        delegate.commitAsync();
+    }
+
+    @Override
+    public void commitAsync(final OffsetCommitCallback callback) {
+        delegate.commitAsync(callback);
+    }
+
+    @Override
+    public void commitAsync(final Map<TopicPartition, OffsetAndMetadata> offsets, final OffsetCommitCallback callback) {
+        delegate.commitAsync(offsets, callback);
+    }
+
+    @Override
+    public void seek(final TopicPartition partition, final long offset) {
+        delegate.seek(partition, offset);
+    }
+
+    @Override
+    public void seekToBeginning(final Collection<TopicPartition> partitions) {
+        delegate.seekToBeginning(partitions);
+    }
+
+    @Override
+    public void seekToEnd(final Collection<TopicPartition> partitions) {
+        delegate.seekToEnd(partitions);
+    }
+
+    @Override
+    public long position(final TopicPartition partition) {
+        return delegate.position(partition);
+    }
+
+    @Override
+    public OffsetAndMetadata committed(final TopicPartition partition) {
+        return delegate.committed(partition);
+    }
+
+    @Override
+    public Map<MetricName, ? extends Metric> metrics() {
+        return delegate.metrics();
+    }
+
+    @Override
+    public List<PartitionInfo> partitionsFor(final String topic) {
+        return delegate.partitionsFor(topic);
+    }
+
+    @Override
+    public Map<String, List<PartitionInfo>> listTopics() {
+        return delegate.listTopics();
+    }
+
+    @Override
+    public Set<TopicPartition> paused() {
+        return delegate.paused();
+    }
+
+    @Override
+    public void pause(final Collection<TopicPartition> partitions) {
+        delegate.pause(partitions);
+    }
+
+    @Override
+    public void resume(final Collection<TopicPartition> partitions) {
+        delegate.resume(partitions);
+    }
+
+    @Override
+    public void close() {
+        try {
+            delegate.close();
+        } finally {
+            if(pool != null) {
+                //idle workers terminate right away and close their deserializers
+                pool.shutdown();
+                awaitTermination();
+            }
+
+            if(inline != null) {
+                inline.close();
+            }
+        }
+    }
+
+    private void awaitTermination() {
+        try {
+            pool.awaitTermination(CLOSE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void wakeup() {
+        delegate.wakeup();
+    }
+}
@@ -0,0 +1,88 @@
+package de.saly.kafka.crypto.compression;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.serialization.Serializer;
+
+import de.saly.kafka.crypto.util.ConfiguredInstances;
+
+/**
+ * Compresses the output of a wrapped serializer. Meant to be configured as {@code crypto.wrapped_serializer}
+ * of the {@code EncryptingSerializer} so that records are compressed before they get encrypted, because
+ * ciphertext does not compress and the producer's {@code compression.type} has no effect on encrypted topics.
+ * <p>
+ * Every record starts with the id of the {@link CompressionCodec}, followed by the uncompressed length
+ * (unless the codec is NONE) and the data. Records smaller than {@value #CRYPTO_COMPRESSION_THRESHOLD} bytes
+ * and records which do not get smaller are stored uncompressed.
+ * <ul>
+ * <li>{@value #CRYPTO_COMPRESSION_TYPE}: none, gzip, snappy or lz4 (default: lz4)</li>
+ * <li>{@value #CRYPTO_COMPRESSION_THRESHOLD}: minimum record size to compress in bytes (default: 256)</li>
+ * <li>{@value #CRYPTO_COMPRESSION_WRAPPED_SERIALIZER}: the serializer whose output is compressed</li>
+ * </ul>
+ */
+public class CompressingSerializer<T> implements Serializer<T> {
+
+    public static final String CRYPTO_COMPRESSION_TYPE = "crypto.compression.type";
+    public static final String CRYPTO_COMPRESSION_THRESHOLD = "crypto.compression.threshold";
+    public static final String CRYPTO_COMPRESSION_WRAPPED_SERIALIZER = "crypto.compression.wrapped_serializer";
+
+    static final int HEADER_SIZE = 1 + 4;
+
+    private Serializer<T> inner;
+    private CompressionCodec codec = CompressionCodec.LZ4;
+    private int threshold = 256;
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public void configure(final Map<String, ?> configs, final boolean isKey) {
+        inner = ConfiguredInstances.newInstance(configs, CRYPTO_COMPRESSION_WRAPPED_SERIALIZER, Serializer.class);
+        inner.configure(configs, isKey);
+
+        final Object codecConfig = configs.get(CRYPTO_COMPRESSION_TYPE);
+        if(codecConfig != null) {
+            codec = CompressionCodec.forName(codecConfig.toString());
+        }
+
+        final Object thresholdConfig = configs.get(CRYPTO_COMPRESSION_THRESHOLD);
+        if(thresholdConfig != null) {
+            threshold = Integer.parseInt(thresholdConfig.toString());
+        }
+    }
+
+    @Override
+    public byte[] serialize(final String topic, final T data) {
+        final byte[] plain = inner.serialize(topic, data);
+
+        if(plain == null) {
+            return null;
+        }
+
+        if(codec != CompressionCodec.NONE && plain.length >= threshold) {
+            try {
+                final byte[] compressed = codec.compress(plain, HEADER_SIZE);
+
+                if(compressed.length < plain.length + 1) {
+                    ByteBuffer.wrap(compressed).put(codec.id()).putInt(plain.length);
+                    return compressed;
+                }
+            } catch (IOException e) {
+                throw new SerializationException("Unable to compress record with "+codec, e);
+            }
+        }
+
+        final byte[] uncompressed = new byte[1 + plain.length];
+        uncompressed[0] = CompressionCodec.NONE.id();
+        System.arraycopy(plain, 0, uncompressed, 1, plain.length);
+        return uncompressed;
+    }
+
+    @Override
+    public void close() {
+        if(inner != null) {
+            inner.close();
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package de.saly.kafka.crypto.compression;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.xerial.snappy.Snappy;
+
+import net.jpountz.lz4.LZ4Factory;
+
+/**
+ * The codecs of the compress-then-encrypt stage. The id is written as first byte of every
+ * compressed record, so it must never change for an existing codec.
+ */
+public enum CompressionCodec {
+
+    NONE(0) {
+        @Override
+        byte[] compress(final byte[] data, final int headerSize) {
+            final byte[] result = new byte[headerSize + data.length];
+            System.arraycopy(data, 0, result, headerSize, data.length);
+            return result;
+        }
+
+        @Override
+        byte[] decompress(final byte[] data, final int offset, final int length, final int originalLength) {
+            return Arrays.copyOfRange(data, offset, offset + length);
+        }
+    },
+
+    GZIP(1) {
+        @Override
+        byte[] compress(final byte[] data, final int headerSize) throws IOException {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(headerSize + data.length / 2);
+            out.write(new byte[headerSize]);
+            try(GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+                gzip.write(data);
+            }
+            return out.toByteArray();
+        }
+
+        @Override
+        byte[] decompress(final byte[] data, final int offset, final int length, final int originalLength) throws IOException {
+            final byte[] result = new byte[originalLength];
+            try(DataInputStream in = new DataInputStream(new GZIPInputStream(new ByteArrayInputStream(data, offset, length)))) {
+                in.readFully(result);
+                if(in.read() != -1) {
+                    throw new IOException("More than the "+originalLength+" bytes in the header");
+                }
+            }
+            return result;
+        }
+    },
+
+    SNAPPY(2) {
+        @Override
+        byte[] compress(final byte[] data, final int headerSize) throws IOException {
+            final byte[] result = new byte[headerSize + Snappy.maxCompressedLength(data.length)];
+            final int length = Snappy.compress(data, 0, data.length, result, headerSize);
+            return Arrays.copyOf(result, headerSize + length);
+        }
+
+        @Override
+        byte[] decompress(final byte[] data, final int offset, final int length, final int originalLength) throws IOException {
+            if(Snappy.uncompressedLength(data, offset, length) != originalLength) {
+                throw new IOException("Uncompressed length does not match the "+originalLength+" bytes in the header");
+            }
+            final byte[] result = new byte[originalLength];
+            Snappy.uncompress(data, offset, length, result, 0);
+            return result;
+        }
+    },
+
+    LZ4(3) {
+        @Override
+        byte[] compress(final byte[] data, final int headerSize) {
+            final byte[] result = new byte[headerSize + LZ4_FACTORY.fastCompressor().maxCompressedLength(data.length)];
+            final int length = LZ4_FACTORY.fastCompressor().compress(data, 0, data.length, result, headerSize);
+            return Arrays.copyOf(result, headerSize + length);
+        }
+
+        @Override
+        byte[] decompress(final byte[] data, final int offset, final int length, final int originalLength) throws IOException {
+            final byte[] result = new byte[originalLength];
+            //the safe decompressor checks the input bounds, the fast one trusts the header
+            final int written = LZ4_FACTORY.safeDecompressor().decompress(data, offset, length, result, 0);
+            if(written != originalLength) {
+                throw new IOException("Decompressed "+written+" bytes instead of the "+originalLength+" bytes in the header");
+            }
+            return result;
+        }
+    };
+
+    private static final LZ4Factory LZ4_FACTORY = LZ4Factory.fastestInstance();
+
+    private final byte id;
+
+    private CompressionCodec(final int id) {
+        this.id = (byte) id;
+    }
+
+    public byte id() {
+        return id;
+    }
+
+    /**
+     * @return the compressed data, preceded by headerSize bytes left free for the caller
+     */
+    abstract byte[] compress(byte[] data, int headerSize) throws IOException;
+
+    /**
+     * @param originalLength the uncompressed length from the record header, checked against the data
+     */
+    abstract byte[] decompress(byte[] data, int offset, int length, int originalLength) throws IOException;
+
+    public static CompressionCodec forId(final byte id) {
+        for (final CompressionCodec codec : values()) {
+            if(codec.id == id) {
+                return codec;
+            }
+        }
+        throw new IllegalArgumentException("Unknown compression codec id "+id);
+    }
+
+    public static CompressionCodec forName(final String name) {
+        return valueOf(name.trim().toUpperCase(Locale.ROOT));
+    }
+}
@@ -0,0 +1,96 @@
+package de.saly.kafka.crypto.compression;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.serialization.Deserializer;
+
+import de.saly.kafka.crypto.util.ConfiguredInstances;
+
+/**
+ * Counterpart of the {@link CompressingSerializer}, configured as {@code crypto.wrapped_deserializer} of
+ * the {@code DecryptingDeserializer}. The codec is taken from the first byte of every record, so topics
+ * with mixed codecs (or uncompressed records) can be read without further configuration.
+ * <p>
+ * The uncompressed length in the header is not authenticated by every cipher (the library's AES-CBC is not),
+ * so it is bounded before anything is allocated for it, and records which do not decompress to exactly that
+ * length are rejected with a {@link SerializationException}.
+ * <ul>
+ * <li>{@value #CRYPTO_COMPRESSION_WRAPPED_DESERIALIZER}: the deserializer which gets the decompressed data</li>
+ * <li>{@value #CRYPTO_COMPRESSION_MAX_SIZE}: largest uncompressed record accepted in bytes (default: 64 MiB)</li>
+ * </ul>
+ */
+public class DecompressingDeserializer<T> implements Deserializer<T> {
+
+    public static final String CRYPTO_COMPRESSION_WRAPPED_DESERIALIZER = "crypto.compression.wrapped_deserializer";
+    public static final String CRYPTO_COMPRESSION_MAX_SIZE = "crypto.compression.max.size";
+
+    private Deserializer<T> inner;
+    private int maxSize = 64 * 1024 * 1024;
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public void configure(final Map<String, ?> configs, final boolean isKey) {
+        inner = ConfiguredInstances.newInstance(configs, CRYPTO_COMPRESSION_WRAPPED_DESERIALIZER, Deserializer.class);
+        inner.configure(configs, isKey);
+
+        final Object maxSizeConfig = configs.get(CRYPTO_COMPRESSION_MAX_SIZE);
+        if(maxSizeConfig != null) {
+            maxSize = Integer.parseInt(maxSizeConfig.toString());
+        }
+    }
+
+    @Override
+    public T deserialize(final String topic, final byte[] data) {
+        if(data == null) {
+            return inner.deserialize(topic, null);
+        }
+
+        return inner.deserialize(topic, decompress(data));
+    }
+
+    private byte[] decompress(final byte[] data) {
+        if(data.length < 1) {
+            throw new SerializationException("Empty record, the compression codec is missing");
+        }
+
+        final CompressionCodec codec;
+        try {
+            codec = CompressionCodec.forId(data[0]);
+        } catch (IllegalArgumentException e) {
+            throw new SerializationException("Not a compressed record", e);
+        }
+
+        if(codec == CompressionCodec.NONE) {
+            return Arrays.copyOfRange(data, 1, data.length);
+        }
+
+        if(data.length < CompressingSerializer.HEADER_SIZE) {
+            throw new SerializationException("Record of "+data.length+" bytes is shorter than the "+codec+" header");
+        }
+
+        final int originalLength = ByteBuffer.wrap(data, 1, 4).getInt();
+
+        if(originalLength < 0 || originalLength > maxSize) {
+            throw new SerializationException("Uncompressed length "+originalLength+" is not between 0 and "
+                    +CRYPTO_COMPRESSION_MAX_SIZE+" ("+maxSize+")");
+        }
+
+        try {
+            return codec.decompress(data, CompressingSerializer.HEADER_SIZE, data.length - CompressingSerializer.HEADER_SIZE, originalLength);
+        } catch (IOException | RuntimeException e) {
+            //LZ4 reports corrupt input with runtime exceptions
+            throw new SerializationException("Unable to decompress record with "+codec, e);
+        }
+    }
+
+    @Override
+    public void close() {
+        if(inner != null) {
+            inner.close();
+        }
+    }
+}
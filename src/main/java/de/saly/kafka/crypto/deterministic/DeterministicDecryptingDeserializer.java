@@ -0,0 +1,78 @@
+package de.saly.kafka.crypto.deterministic;
+
+import java.security.GeneralSecurityException;
+import java.util.Map;
+
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.serialization.Deserializer;
+
+import de.saly.kafka.crypto.util.ConfiguredInstances;
+
+/**
+ * Counterpart of the {@link DeterministicEncryptingSerializer}, meant as {@code key.deserializer}. Decrypts and verifies
+ * the key and hands the plaintext to the deserializer configured as {@value #CRYPTO_DETERMINISTIC_WRAPPED_DESERIALIZER}.
+ * Plaintexts of hot keys are kept in a {@link SivCache}, see {@link DeterministicSerdeBase} for the settings.
+ * <p>
+ * Thread-safe.
+ */
+public class DeterministicDecryptingDeserializer<T> extends DeterministicSerdeBase implements Deserializer<T> {
+
+    public static final String CRYPTO_DETERMINISTIC_WRAPPED_DESERIALIZER = "crypto.deterministic.wrapped_deserializer";
+
+    private Deserializer<T> inner;
+    private SivCipher cipher;
+    private SivCache cache;
+    private boolean bindTopic;
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public void configure(final Map<String, ?> configs, final boolean isKey) {
+        inner = ConfiguredInstances.newInstance(configs, CRYPTO_DETERMINISTIC_WRAPPED_DESERIALIZER, Deserializer.class);
+        inner.configure(configs, isKey);
+        cipher = sivCipher(configs);
+        cache = sivCache(configs);
+        bindTopic = bindTopic(configs);
+    }
+
+    @Override
+    public T deserialize(final String topic, final byte[] data) {
+        if(data == null) {
+            return inner.deserialize(topic, null);
+        }
+
+        final String cacheTopic = bindTopic ? topic : ANY_TOPIC;
+
+        if(cache != null) {
+            final byte[] cached = cache.get(cacheTopic, data);
+            if(cached != null) {
+                //the wrapped deserializer may hand out the array itself (ByteArrayDeserializer)
+                return inner.deserialize(topic, cached.clone());
+            }
+        }
+
+        try {
+            final byte[] plain = cipher.decrypt(bindTopic ? associatedData(topic) : null, data);
+
+            if(cache != null) {
+                cache.put(cacheTopic, data, plain.clone());
+            }
+            return inner.deserialize(topic, plain);
+        } catch (GeneralSecurityException e) {
+            throw new SerializationException("Unable to decrypt key", e);
+        }
+    }
+
+    /**
+     * @return the cache of hot keys, null if disabled
+     */
+    public SivCache cache() {
+        return cache;
+    }
+
+    @Override
+    public void close() {
+        if(inner != null) {
+            inner.close();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package de.saly.kafka.crypto.deterministic;
+
+import java.security.GeneralSecurityException;
+import java.util.Map;
+
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.serialization.Serializer;
+
+import de.saly.kafka.crypto.util.ConfiguredInstances;
+
+/**
+ * Deterministically encrypts the output of the serializer configured as {@value #CRYPTO_DETERMINISTIC_WRAPPED_SERIALIZER}
+ * with a {@link SivCipher}, meant as {@code key.serializer}: equal keys give equal ciphertexts, so the default partitioner
+ * puts them into the same partition and the log cleaner compacts them. Null keys stay null.
+ * <p>
+ * Ciphertexts of hot keys are kept in a {@link SivCache}, see {@link DeterministicSerdeBase} for the settings.
+ * The returned arrays may come from the cache and must not be modified (the producer only reads them).
+ * <p>
+ * Thread-safe.
+ */
+public class DeterministicEncryptingSerializer<T> extends DeterministicSerdeBase implements Serializer<T> {
+
+    public static final String CRYPTO_DETERMINISTIC_WRAPPED_SERIALIZER = "crypto.deterministic.wrapped_serializer";
+
+    private Serializer<T> inner;
+    private SivCipher cipher;
+    private SivCache cache;
+    private boolean bindTopic;
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public void configure(final Map<String, ?> configs, final boolean isKey) {
+        inner = ConfiguredInstances.newInstance(configs, CRYPTO_DETERMINISTIC_WRAPPED_SERIALIZER, Serializer.class);
+        inner.configure(configs, isKey);
+        cipher = sivCipher(configs);
+        cache = sivCache(configs);
+        bindTopic = bindTopic(configs);
+    }
+
+    @Override
+    public byte[] serialize(final String topic, final T data) {
+        final byte[] plain = inner.serialize(topic, data);
+
+        if(plain == null) {
+            return null;
+        }
+
+        final String cacheTopic = bindTopic ? topic : ANY_TOPIC;
+
+        if(cache != null) {
+            final byte[] cached = cache.get(cacheTopic, plain);
+            if(cached != null) {
+                return cached;
+            }
+        }
+
+        try {
+            final byte[] encrypted = cipher.encrypt(bindTopic ? associatedData(topic) : null, plain);
+
+            if(cache != null) {
+                cache.put(cacheTopic, plain, encrypted);
+            }
+            return encrypted;
+        } catch (GeneralSecurityException e) {
+            throw new SerializationException("Unable to encrypt key", e);
+        }
+    }
+
+    /**
+     * @return the cache of hot keys, null if disabled
+     */
+    public SivCache cache() {
+        return cache;
+    }
+
+    @Override
+    public void close() {
+        if(inner != null) {
+            inner.close();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package de.saly.kafka.crypto.deterministic;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Map;
+
+import org.apache.kafka.common.config.ConfigException;
+
+/**
+ * Common parts of the {@link DeterministicEncryptingSerializer} and {@link DeterministicDecryptingDeserializer}, which
+ * are meant for record keys: the value serdes encrypt every record with a random IV (and the envelope serdes with a
+ * random data key), so equal keys would give different ciphertexts, end up in different partitions and never be compacted.
+ * <ul>
+ * <li>{@value #CRYPTO_DETERMINISTIC_KEY_FILEPATH}: file with the {@value SivCipher#KEY_BYTES} byte secret key, shared by
+ * producers and consumers (see {@link SivCipher#generateKey()})</li>
+ * <li>{@value #CRYPTO_DETERMINISTIC_CACHE_SIZE}: number of results cached for hot keys, 0 disables the cache (default: 10000)</li>
+ * <li>{@value #CRYPTO_DETERMINISTIC_BIND_TOPIC}: whether the topic name is bound as associated data, so that the same
+ * key gives different ciphertexts in different topics (default: true). Set it to false for topics which are copied
+ * byte by byte to topics with another name, e.g. by a renaming MirrorMaker</li>
+ * </ul>
+ */
+public abstract class DeterministicSerdeBase {
+
+    public static final String CRYPTO_DETERMINISTIC_KEY_FILEPATH = "crypto.deterministic.key.filepath";
+    public static final String CRYPTO_DETERMINISTIC_CACHE_SIZE = "crypto.deterministic.cache.size";
+    public static final String CRYPTO_DETERMINISTIC_BIND_TOPIC = "crypto.deterministic.bind.topic";
+
+    static final int DEFAULT_CACHE_SIZE = 10000;
+    //cache entries of unbound keys are shared by all topics
+    static final String ANY_TOPIC = "";
+
+    protected static SivCipher sivCipher(final Map<String, ?> configs) {
+        final Object path = configs.get(CRYPTO_DETERMINISTIC_KEY_FILEPATH);
+
+        if(path == null) {
+            throw new ConfigException("Missing required configuration \""+CRYPTO_DETERMINISTIC_KEY_FILEPATH+"\" which has no default value.");
+        }
+
+        final byte[] key;
+        try {
+            key = Files.readAllBytes(Paths.get(path.toString()));
+        } catch (IOException e) {
+            throw new ConfigException(CRYPTO_DETERMINISTIC_KEY_FILEPATH, path, "Unable to read key file: "+e);
+        }
+
+        if(key.length != SivCipher.KEY_BYTES) {
+            throw new ConfigException(CRYPTO_DETERMINISTIC_KEY_FILEPATH, path, "Key must be "+SivCipher.KEY_BYTES+" bytes, was "+key.length);
+        }
+
+        return new SivCipher(key);
+    }
+
+    /**
+     * @return the cache sized as configured in {@value #CRYPTO_DETERMINISTIC_CACHE_SIZE}, null if disabled
+     */
+    protected static SivCache sivCache(final Map<String, ?> configs) {
+        final Object size = configs.get(CRYPTO_DETERMINISTIC_CACHE_SIZE);
+        final int capacity = size == null ? DEFAULT_CACHE_SIZE : Integer.parseInt(size.toString().trim());
+        return capacity > 0 ? new SivCache(capacity) : null;
+    }
+
+    protected static boolean bindTopic(final Map<String, ?> configs) {
+        final Object bind = configs.get(CRYPTO_DETERMINISTIC_BIND_TOPIC);
+        return bind == null || Boolean.parseBoolean(bind.toString().trim());
+    }
+
+    static byte[] associatedData(final String topic) {
+        return topic.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,109 @@
+package de.saly.kafka.crypto.deterministic;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded LRU cache of deterministic encryption results (plaintext to ciphertext for the serializer, ciphertext to
+ * plaintext for the deserializer), keyed by topic and input bytes.
+ * <p>
+ * Keys are usually skewed, a few hot keys (tenants, large customers, ...) make up most of the records, so a cache of
+ * a few thousand entries saves the HMAC and AES-CTR pass for most records. Cached arrays are shared, callers
+ * must not modify them.
+ */
+public class SivCache {
+
+    private final int capacity;
+    private final Map<CacheKey, byte[]> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public SivCache(final int capacity) {
+        if(capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1, was "+capacity);
+        }
+
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<CacheKey, byte[]>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<CacheKey, byte[]> eldest) {
+                return size() > SivCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * @return the cached result for the input or null
+     */
+    public byte[] get(final String topic, final byte[] input) {
+        final byte[] result;
+
+        synchronized (entries) {
+            result = entries.get(new CacheKey(topic, input));
+        }
+
+        if(result == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return result;
+    }
+
+    public void put(final String topic, final byte[] input, final byte[] result) {
+        //the input array belongs to the caller, who might reuse it
+        final CacheKey entry = new CacheKey(topic, input.clone());
+
+        synchronized (entries) {
+            entries.put(entry, result);
+        }
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    private static class CacheKey {
+        private final String topic;
+        private final byte[] input;
+        private final int hash;
+
+        CacheKey(final String topic, final byte[] input) {
+            this.topic = topic;
+            this.input = input;
+            this.hash = 31 * topic.hashCode() + Arrays.hashCode(input);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if(!(obj instanceof CacheKey)) {
+                return false;
+            }
+            final CacheKey other = (CacheKey) obj;
+            return hash == other.hash && topic.equals(other.topic) && Arrays.equals(input, other.input);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package de.saly.kafka.crypto.deterministic;
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.kafka.common.KafkaException;
+
+/**
+ * Deterministic authenticated encryption in the SIV construction (RFC 5297) with HMAC-SHA256 as PRF instead of CMAC,
+ * because the JDK has no AES-CMAC: the synthetic IV is the HMAC of associated data and plaintext (truncated to 16 bytes)
+ * and is used as counter block for AES-CTR. Equal plaintexts (with equal associated data) give equal ciphertexts, which is
+ * what keys need to keep partitioning and log compaction working. Nothing but equality leaks, the IV authenticates the record.
+ * <pre>
+ * magic (1) | version (1) | synthetic iv (16) | ciphertext (same length as plaintext)
+ * </pre>
+ * The key is {@value #KEY_BYTES} bytes, the first half is the HMAC key, the second half the AES-256 key.
+ * <p>
+ * Thread-safe, every thread uses its own {@link Mac} and {@link Cipher} instance.
+ */
+public final class SivCipher {
+
+    public static final int KEY_BYTES = 64;
+
+    static final byte MAGIC = (byte) 0xD5;
+    static final byte VERSION = 1;
+    static final int SIV_BYTES = 16;
+    static final int HEADER_SIZE = 1 + 1 + SIV_BYTES;
+
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final String CTR_TRANSFORMATION = "AES/CTR/NoPadding";
+    private static final byte[] EMPTY = new byte[0];
+
+    private final SecretKeySpec macKey;
+    private final SecretKeySpec encKey;
+
+    private final ThreadLocal<Mac> macs = new ThreadLocal<Mac>() {
+        @Override
+        protected Mac initialValue() {
+            try {
+                final Mac mac = Mac.getInstance(MAC_ALGORITHM);
+                mac.init(macKey);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new KafkaException("Unable to create "+MAC_ALGORITHM, e);
+            }
+        }
+    };
+
+    private final ThreadLocal<Cipher> ciphers = new ThreadLocal<Cipher>() {
+        @Override
+        protected Cipher initialValue() {
+            try {
+                return Cipher.getInstance(CTR_TRANSFORMATION);
+            } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
+                throw new KafkaException("Unable to create "+CTR_TRANSFORMATION+" cipher", e);
+            }
+        }
+    };
+
+    public SivCipher(final byte[] key) {
+        if(key.length != KEY_BYTES) {
+            throw new IllegalArgumentException("Key must be "+KEY_BYTES+" bytes, was "+key.length);
+        }
+
+        macKey = new SecretKeySpec(key, 0, KEY_BYTES / 2, MAC_ALGORITHM);
+        encKey = new SecretKeySpec(key, KEY_BYTES / 2, KEY_BYTES / 2, "AES");
+    }
+
+    /**
+     * @return a new random key
+     */
+    public static byte[] generateKey() {
+        final byte[] key = new byte[KEY_BYTES];
+        new SecureRandom().nextBytes(key);
+        return key;
+    }
+
+    /**
+     * @param associatedData authenticated but not encrypted, e.g. the topic name, null for none
+     */
+    public byte[] encrypt(final byte[] associatedData, final byte[] plain) throws GeneralSecurityException {
+        final byte[] siv = siv(associatedData, plain);
+        final byte[] result = new byte[HEADER_SIZE + plain.length];
+        result[0] = MAGIC;
+        result[1] = VERSION;
+        System.arraycopy(siv, 0, result, 2, SIV_BYTES);
+
+        final Cipher cipher = ciphers.get();
+        cipher.init(Cipher.ENCRYPT_MODE, encKey, new IvParameterSpec(siv));
+        cipher.doFinal(plain, 0, plain.length, result, HEADER_SIZE);
+        return result;
+    }
+
+    /**
+     * @throws AEADBadTagException if the data was encrypted with another key or associated data or was manipulated
+     */
+    public byte[] decrypt(final byte[] associatedData, final byte[] data) throws GeneralSecurityException {
+        if(data.length < HEADER_SIZE || data[0] != MAGIC) {
+            throw new GeneralSecurityException("Not a deterministically encrypted record");
+        }
+
+        if(data[1] != VERSION) {
+            throw new GeneralSecurityException("Unsupported version "+data[1]);
+        }
+
+        final Cipher cipher = ciphers.get();
+        cipher.init(Cipher.DECRYPT_MODE, encKey, new IvParameterSpec(data, 2, SIV_BYTES));
+        final byte[] plain = cipher.doFinal(data, HEADER_SIZE, data.length - HEADER_SIZE);
+
+        final byte[] siv = siv(associatedData, plain);
+        if(!MessageDigest.isEqual(siv, Arrays.copyOfRange(data, 2, HEADER_SIZE))) {
+            throw new AEADBadTagException("Synthetic iv does not match, wrong key or topic or manipulated record");
+        }
+        return plain;
+    }
+
+    private byte[] siv(final byte[] associatedData, final byte[] plain) {
+        final byte[] ad = associatedData == null ? EMPTY : associatedData;
+        final Mac mac = macs.get();
+        //length prefix, so that the boundary between associated data and plaintext is unambiguous
+        mac.update((byte) (ad.length >>> 24));
+        mac.update((byte) (ad.length >>> 16));
+        mac.update((byte) (ad.length >>> 8));
+        mac.update((byte) ad.length);
+        mac.update(ad);
+        mac.update(plain);
+        return Arrays.copyOf(mac.doFinal(), SIV_BYTES);
+    }
+}
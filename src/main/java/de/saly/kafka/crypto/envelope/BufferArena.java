@@ -0,0 +1,57 @@
+package de.saly.kafka.crypto.envelope;
+
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+/**
+ * One reusable {@link ByteBuffer} per thread the cipher writes into, so the only allocation per record is the
+ * final {@code byte[]} handed to Kafka. Buffers grow to the next power of two and are kept up to
+ * {@link #MAX_RETAINED_BYTES}, larger records get a temporary buffer.
+ */
+public class BufferArena {
+
+    public static final int MAX_RETAINED_BYTES = 16 * 1024 * 1024;
+
+    public enum Type {
+        /** no arena, the cipher works on {@code byte[]} */
+        NONE,
+        HEAP,
+        DIRECT;
+
+        public static Type forName(final String name) {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    private final boolean direct;
+    private final ThreadLocal<ByteBuffer> buffers = new ThreadLocal<ByteBuffer>();
+
+    public BufferArena(final boolean direct) {
+        this.direct = direct;
+    }
+
+    /**
+     * @return a cleared buffer of the calling thread with room for at least {@code capacity} bytes,
+     * only valid until the next call from the same thread
+     */
+    public ByteBuffer output(final int capacity) {
+        final ByteBuffer buffer = buffers.get();
+
+        if(buffer != null && buffer.capacity() >= capacity) {
+            buffer.clear();
+            return buffer;
+        }
+
+        if(capacity > MAX_RETAINED_BYTES) {
+            return allocate(capacity);
+        }
+
+        final ByteBuffer grown = allocate(Math.min(MAX_RETAINED_BYTES, Integer.highestOneBit(Math.max(capacity, 1024) - 1) << 1));
+        buffers.set(grown);
+        return grown;
+    }
+
+    private ByteBuffer allocate(final int capacity) {
+        return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+}
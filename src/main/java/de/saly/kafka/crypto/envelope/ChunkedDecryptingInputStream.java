@@ -0,0 +1,176 @@
+package de.saly.kafka.crypto.envelope;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.util.Set;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+
+/**
+ * Decrypts a {@link ChunkedEnvelope} read from an {@link InputStream} one segment at a time, so at most one segment of
+ * ciphertext and plaintext is held no matter how large the record is. Every segment is authenticated before any of its
+ * plaintext is returned, a manipulated or truncated envelope fails with an {@link IOException} at the affected segment.
+ * <p>
+ * Not thread-safe.
+ */
+class ChunkedDecryptingInputStream extends InputStream {
+
+    private final DataInputStream in;
+    private final CipherMode mode;
+    private final SecretKey key;
+    private final byte[] aad;
+    private final byte[] iv;
+    private final byte[] ciphertext;
+    private final byte[] plaintext;
+
+    private int carry;
+    private int segment;
+    private boolean lastDone;
+    private int plainPos;
+    private int plainLimit;
+
+    ChunkedDecryptingInputStream(final InputStream envelope, final DataKeyCache keyCache, final TopicKeys keys,
+            final Set<CipherMode> allowedModes) throws IOException {
+        in = new DataInputStream(envelope);
+
+        final byte[] fixed = new byte[EnvelopeSerdeBase.FIXED_HEADER_SIZE];
+        in.readFully(fixed);
+
+        if(fixed[0] != EnvelopeSerdeBase.MAGIC) {
+            throw new IOException("Not an encrypted envelope (bad magic byte)");
+        }
+
+        if(fixed[1] != EnvelopeSerdeBase.CHUNKED_VERSION) {
+            throw new IOException("Not a chunked envelope (version "+fixed[1]+")");
+        }
+
+        try {
+            mode = CipherMode.forId(fixed[2]);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Corrupt envelope", e);
+        }
+
+        if(!allowedModes.contains(mode)) {
+            throw new IOException("Cipher mode "+mode+" is not allowed, see "+EnvelopeSerdeBase.CRYPTO_CIPHER_MODES_ALLOWED);
+        }
+
+        if(!mode.authenticated()) {
+            throw new IOException("Chunked envelope with unauthenticated mode "+mode);
+        }
+
+        final int wrappedKeyLength = ((fixed[3] & 0xFF) << 8) | (fixed[4] & 0xFF);
+
+        aad = new byte[fixed.length + wrappedKeyLength + ChunkedEnvelope.SEGMENT_SIZE_BYTES];
+        System.arraycopy(fixed, 0, aad, 0, fixed.length);
+        in.readFully(aad, fixed.length, aad.length - fixed.length);
+
+        final int segmentSize = ((aad[aad.length - 4] & 0xFF) << 24) | ((aad[aad.length - 3] & 0xFF) << 16)
+                | ((aad[aad.length - 2] & 0xFF) << 8) | (aad[aad.length - 1] & 0xFF);
+
+        final String invalid = ChunkedEnvelope.checkSegmentSize(segmentSize);
+        if(invalid != null) {
+            throw new IOException(invalid);
+        }
+
+        final byte[] salt = new byte[ChunkedEnvelope.SALT_BYTES];
+        in.readFully(salt);
+        iv = new byte[mode.ivLength()];
+
+        try {
+            key = ChunkedEnvelope.segmentKey(keyCache.get(keys, mode, aad, fixed.length, wrappedKeyLength), mode, salt, 0);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Unable to unwrap data key", e);
+        }
+
+        //one byte more than a segment to know whether the segment is the last one
+        ciphertext = new byte[segmentSize + EnvelopeSerdeBase.TAG_BYTES + 1];
+        plaintext = new byte[segmentSize];
+    }
+
+    @Override
+    public int read() throws IOException {
+        if(!fill()) {
+            return -1;
+        }
+        return plaintext[plainPos++] & 0xFF;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        if(len == 0) {
+            return 0;
+        }
+
+        if(!fill()) {
+            return -1;
+        }
+
+        final int n = Math.min(len, plainLimit - plainPos);
+        System.arraycopy(plaintext, plainPos, b, off, n);
+        plainPos += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return plainLimit - plainPos;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * @return false at the end of the plaintext
+     */
+    private boolean fill() throws IOException {
+        while (plainPos == plainLimit) {
+            if(lastDone) {
+                return false;
+            }
+            decryptSegment();
+        }
+        return true;
+    }
+
+    private void decryptSegment() throws IOException {
+        int length = carry;
+        while (length < ciphertext.length) {
+            final int read = in.read(ciphertext, length, ciphertext.length - length);
+            if(read < 0) {
+                break;
+            }
+            length += read;
+        }
+
+        final boolean last = length < ciphertext.length;
+        final int segmentLength = last ? length : ciphertext.length - 1;
+
+        if(segmentLength < EnvelopeSerdeBase.TAG_BYTES) {
+            throw new EOFException("Truncated envelope in segment "+segment);
+        }
+
+        try {
+            ChunkedEnvelope.nonce(iv, segment, last);
+            final Cipher cipher = EnvelopeSerdeBase.decryptCipher(mode, key, iv, 0);
+            cipher.updateAAD(aad);
+            plainLimit = cipher.doFinal(ciphertext, 0, segmentLength, plaintext, 0);
+            plainPos = 0;
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Unable to decrypt segment "+segment+" with "+mode, e);
+        }
+
+        if(last) {
+            lastDone = true;
+        } else {
+            ciphertext[0] = ciphertext[ciphertext.length - 1];
+            carry = 1;
+            segment++;
+        }
+    }
+}
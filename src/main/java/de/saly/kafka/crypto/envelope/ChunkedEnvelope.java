@@ -0,0 +1,84 @@
+package de.saly.kafka.crypto.envelope;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Layout of the chunked envelope (version 2), written by the {@link ChunkedEnvelopeEncryptingSerializer}:
+ * <pre>
+ * header (as for version 1) | segment size (4) | salt (16) | segment 0 | segment 1 | ...
+ * </pre>
+ * Every segment holds {@code segment size} bytes of plaintext (the last one up to that) plus the authentication tag.
+ * The segments are not encrypted with the data key but with a key derived from it and the random salt of the record
+ * (HKDF-SHA256), so every record has its own key and the nonces can be a counter: {@code zeros | segment number (4) |
+ * last segment flag (1)}. Segments can neither be reordered nor dropped from the end. The header and the segment size
+ * are the additional authenticated data of every segment.
+ * <p>
+ * A random nonce prefix per record would leave only 7 random bytes per data key, which collide after far fewer records
+ * than a data key may encrypt, the 16 byte salt does not.
+ */
+final class ChunkedEnvelope {
+
+    static final int SEGMENT_SIZE_BYTES = 4;
+    static final int SALT_BYTES = 16;
+    static final int NONCE_SUFFIX_BYTES = 4 + 1;
+
+    /**
+     * Largest segment size accepted, a reader allocates a segment before it can authenticate it
+     */
+    static final int MAX_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private static final byte[] INFO = "kafka-e2ee chunked envelope segment key".getBytes(StandardCharsets.US_ASCII);
+
+    private ChunkedEnvelope() {
+    }
+
+    /**
+     * @return the key of the segments of one record, HKDF-SHA256 (RFC 5869) of the data key with the salt of the record
+     */
+    static SecretKey segmentKey(final SecretKey dataKey, final CipherMode mode, final byte[] salt, final int saltOffset) throws GeneralSecurityException {
+        final byte[] prk = Hkdf.extract(salt, saltOffset, SALT_BYTES, dataKey.getEncoded());
+        final byte[] okm = Hkdf.expand(prk, INFO, mode.id());
+        return new SecretKeySpec(okm, 0, EnvelopeSerdeBase.DATA_KEY_BYTES, mode.keyAlgorithm());
+    }
+
+    /**
+     * Sets segment number and last segment flag of a nonce
+     */
+    static void nonce(final byte[] iv, final int segment, final boolean last) {
+        final int offset = iv.length - NONCE_SUFFIX_BYTES;
+        iv[offset] = (byte) (segment >>> 24);
+        iv[offset + 1] = (byte) (segment >>> 16);
+        iv[offset + 2] = (byte) (segment >>> 8);
+        iv[offset + 3] = (byte) segment;
+        iv[offset + 4] = (byte) (last ? 1 : 0);
+    }
+
+    /**
+     * @return a message why a segment size read from an envelope is invalid, null if it is valid
+     */
+    static String checkSegmentSize(final int segmentSize) {
+        if(segmentSize < 1 || segmentSize > MAX_SEGMENT_SIZE) {
+            return "Invalid segment size "+segmentSize+", must be between 1 and "+MAX_SEGMENT_SIZE;
+        }
+        return null;
+    }
+
+    /**
+     * @return number of segments for the given plaintext length, an empty plaintext is one empty segment
+     */
+    static int segmentsForPlaintext(final int plainLength, final int segmentSize) {
+        return (int) Math.max(1, ((long) plainLength + segmentSize - 1) / segmentSize);
+    }
+
+    /**
+     * @return number of segments of the given length of all segments (with tags)
+     */
+    static int segmentsForCiphertext(final int cipherLength, final int segmentSize) {
+        final long full = (long) segmentSize + EnvelopeSerdeBase.TAG_BYTES;
+        return (int) Math.max(1, (cipherLength + full - 1) / full);
+    }
+}
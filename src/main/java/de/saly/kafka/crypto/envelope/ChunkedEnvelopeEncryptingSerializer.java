@@ -0,0 +1,92 @@
+package de.saly.kafka.crypto.envelope;
+
+import java.security.GeneralSecurityException;
+import java.util.Map;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+
+import org.apache.kafka.common.config.ConfigException;
+import org.apache.kafka.common.errors.SerializationException;
+
+/**
+ * Like the {@link EnvelopeEncryptingSerializer} but encrypts the plaintext in segments of {@value #CRYPTO_CHUNK_SIZE}
+ * bytes (default: 64k) which are authenticated independently, see {@link ChunkedEnvelope}. Consumers can then decrypt
+ * multi-megabyte records segment by segment with {@link EnvelopeDecryptingDeserializer#decryptingStream(java.io.InputStream)}
+ * instead of holding the whole plaintext. Only the authenticated modes AES_GCM and CHACHA20_POLY1305 are supported.
+ * <p>
+ * Thread-safe, every thread uses its own {@link Cipher} instance.
+ */
+public class ChunkedEnvelopeEncryptingSerializer<T> extends EnvelopeEncryptingSerializer<T> {
+
+    public static final String CRYPTO_CHUNK_SIZE = "crypto.chunk.size";
+
+    private int segmentSize = 64 * 1024;
+
+    @Override
+    public void configure(final Map<String, ?> configs, final boolean isKey) {
+        final CipherMode mode = cipherMode(configs);
+
+        if(!mode.authenticated()) {
+            throw new ConfigException(CRYPTO_CIPHER_MODE, mode, "Chunked envelopes need an authenticated cipher mode");
+        }
+
+        final Object chunkSize = configs.get(CRYPTO_CHUNK_SIZE);
+        if(chunkSize != null) {
+            segmentSize = Integer.parseInt(chunkSize.toString());
+
+            final String invalid = ChunkedEnvelope.checkSegmentSize(segmentSize);
+            if(invalid != null) {
+                throw new ConfigException(CRYPTO_CHUNK_SIZE, chunkSize, invalid);
+            }
+        }
+
+        super.configure(configs, isKey);
+    }
+
+    @Override
+    byte[] encrypt(final String topic, final byte[] plain) {
+        final CipherMode mode = mode();
+
+        try {
+            final DataKey dataKey = dataKey(topic, plain.length);
+            final byte[] header = dataKey.header;
+            final int segments = ChunkedEnvelope.segmentsForPlaintext(plain.length, segmentSize);
+            final int aadLength = header.length + ChunkedEnvelope.SEGMENT_SIZE_BYTES;
+
+            final byte[] result = new byte[aadLength + ChunkedEnvelope.SALT_BYTES + plain.length + segments * TAG_BYTES];
+            System.arraycopy(header, 0, result, 0, header.length);
+            result[header.length] = (byte) (segmentSize >>> 24);
+            result[header.length + 1] = (byte) (segmentSize >>> 16);
+            result[header.length + 2] = (byte) (segmentSize >>> 8);
+            result[header.length + 3] = (byte) segmentSize;
+
+            final byte[] salt = new byte[ChunkedEnvelope.SALT_BYTES];
+            RANDOM.get().nextBytes(salt);
+            System.arraycopy(salt, 0, result, aadLength, salt.length);
+
+            final SecretKey key = ChunkedEnvelope.segmentKey(dataKey.key, mode, salt, 0);
+            final Cipher cipher = mode.cipher(key);
+            final byte[] iv = new byte[mode.ivLength()];
+            int pos = aadLength + salt.length;
+
+            for (int segment = 0; segment < segments; segment++) {
+                final int offset = segment * segmentSize;
+                final boolean last = segment == segments - 1;
+                ChunkedEnvelope.nonce(iv, segment, last);
+                cipher.init(Cipher.ENCRYPT_MODE, key, mode.parameterSpec(iv, 0));
+                cipher.updateAAD(result, 0, aadLength);
+                pos += cipher.doFinal(plain, offset, last ? plain.length - offset : segmentSize, result, pos);
+            }
+
+            return result;
+        } catch (GeneralSecurityException e) {
+            throw new SerializationException("Unable to encrypt record with "+mode, e);
+        }
+    }
+
+    @Override
+    byte version() {
+        return CHUNKED_VERSION;
+    }
+}
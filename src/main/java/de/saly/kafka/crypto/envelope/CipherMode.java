@@ -0,0 +1,117 @@
+package de.saly.kafka.crypto.envelope;
+
+import java.security.GeneralSecurityException;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.Locale;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+
+/**
+ * The symmetric ciphers records can be encrypted with. The id is written into the envelope of every record,
+ * so it must never change for an existing mode.
+ * <p>
+ * AES_GCM and CHACHA20_POLY1305 are authenticated (the envelope header is bound as additional authenticated data),
+ * AES_CBC and AES_CTR are not, consumers reject them unless they are listed in
+ * {@value EnvelopeSerdeBase#CRYPTO_CIPHER_MODES_ALLOWED}.
+ * <p>
+ * CHACHA20_POLY1305 needs a Java 11 or newer runtime, the project targets Java 8. On a JVM without it {@link #newCipher()}
+ * throws an {@link IllegalStateException}, so serdes configured with it fail on first use, the tests skip the mode and
+ * the benchmarks only run it if it is asked for.
+ */
+public enum CipherMode {
+
+    AES_CBC(0, "AES/CBC/PKCS5Padding", "AES", 16, false),
+    AES_GCM(1, "AES/GCM/NoPadding", "AES", 12, true),
+    AES_CTR(2, "AES/CTR/NoPadding", "AES", 16, false),
+    CHACHA20_POLY1305(3, "ChaCha20-Poly1305", "ChaCha20", 12, true);
+
+    private static final int GCM_TAG_BITS = 128;
+
+    private final byte id;
+    private final String transformation;
+    private final String keyAlgorithm;
+    private final int ivLength;
+    private final boolean authenticated;
+
+    //Cipher instances are not thread-safe but expensive to look up, so every thread keeps its own per mode
+    private final ThreadLocal<Cipher> ciphers = new ThreadLocal<Cipher>() {
+        @Override
+        protected Cipher initialValue() {
+            return newCipher();
+        }
+    };
+
+    private CipherMode(final int id, final String transformation, final String keyAlgorithm, final int ivLength, final boolean authenticated) {
+        this.id = (byte) id;
+        this.transformation = transformation;
+        this.keyAlgorithm = keyAlgorithm;
+        this.ivLength = ivLength;
+        this.authenticated = authenticated;
+    }
+
+    public byte id() {
+        return id;
+    }
+
+    public String transformation() {
+        return transformation;
+    }
+
+    public String keyAlgorithm() {
+        return keyAlgorithm;
+    }
+
+    public int ivLength() {
+        return ivLength;
+    }
+
+    public boolean authenticated() {
+        return authenticated;
+    }
+
+    /**
+     * @return the (uninitialized) cipher of the calling thread for this mode
+     */
+    public Cipher cipher() {
+        return ciphers.get();
+    }
+
+    /**
+     * @return the (uninitialized) cipher of the calling thread for this mode and key, the one last initialized with
+     *         the key if it is a data key of the envelope serdes
+     */
+    public Cipher cipher(final SecretKey key) {
+        return key instanceof DataKeySpec ? ((DataKeySpec) key).cipher(this) : ciphers.get();
+    }
+
+    /**
+     * @return a new cipher for this mode, only needed if the one of the calling thread refuses an initialization
+     */
+    public Cipher newCipher() {
+        try {
+            return Cipher.getInstance(transformation);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Cipher "+transformation+" not available in this JVM", e);
+        }
+    }
+
+    public AlgorithmParameterSpec parameterSpec(final byte[] iv, final int offset) {
+        return this == AES_GCM ? new GCMParameterSpec(GCM_TAG_BITS, iv, offset, ivLength) : new IvParameterSpec(iv, offset, ivLength);
+    }
+
+    public static CipherMode forId(final byte id) {
+        for (final CipherMode mode : values()) {
+            if(mode.id == id) {
+                return mode;
+            }
+        }
+        throw new IllegalArgumentException("Unknown cipher mode id "+id);
+    }
+
+    public static CipherMode forName(final String name) {
+        return valueOf(name.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+    }
+}
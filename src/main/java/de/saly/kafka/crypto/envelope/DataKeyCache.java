@@ -0,0 +1,185 @@
+package de.saly.kafka.crypto.envelope;
+
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.SecretKey;
+
+/**
+ * Bounded LRU cache of unwrapped data keys, keyed by the wrapped key as found in the envelope.
+ * <p>
+ * Unwrapping needs the RSA private key and is orders of magnitude more expensive than decrypting a record,
+ * so with rotating data keys (or several producers) the cache must hold at least one key per producer
+ * whose records are read interleaved. Records of the same producer come in runs, so the last key is
+ * checked first without any allocation or locking.
+ * <p>
+ * Keys are cached per {@link TopicKeys}: with a {@link KeyRegistry} a wrapped key found in one topic is only
+ * taken from the cache for records of topics with the same RSA key pair. They are also cached per {@link CipherMode},
+ * every mode has its own key derived from the data key (see {@link DataKeySpec#derive(byte[], CipherMode)}).
+ */
+public class DataKeyCache {
+
+    private final TopicKeys defaultKeys;
+    private final int capacity;
+    private final Map<Fingerprint, SecretKey> keys;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private volatile Entry last;
+
+    public DataKeyCache(final PrivateKey privateKey, final int capacity) {
+        this(new TopicKeys(KeyRegistry.DEFAULT_NAME, null, privateKey), capacity);
+    }
+
+    /**
+     * @param defaultKeys the keys used by {@link #get(CipherMode, byte[], int, int)}, null if the keys are always given
+     */
+    public DataKeyCache(final TopicKeys defaultKeys, final int capacity) {
+        if(capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1, was "+capacity);
+        }
+
+        this.defaultKeys = defaultKeys;
+        this.capacity = capacity;
+        this.keys = new LinkedHashMap<Fingerprint, SecretKey>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Fingerprint, SecretKey> eldest) {
+                return size() > DataKeyCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * @return the key of the mode for the wrapped key at {@code data[offset, offset+length)}
+     */
+    public SecretKey get(final CipherMode mode, final byte[] data, final int offset, final int length) throws GeneralSecurityException {
+        if(defaultKeys == null) {
+            throw new IllegalStateException("No default keys, the keys of the topic must be given");
+        }
+        return get(defaultKeys, mode, data, offset, length);
+    }
+
+    /**
+     * @return the key of the mode for the wrapped key at {@code data[offset, offset+length)}, unwrapped with the private key of {@code topicKeys}
+     */
+    public SecretKey get(final TopicKeys topicKeys, final CipherMode mode, final byte[] data, final int offset, final int length) throws GeneralSecurityException {
+        final Entry e = last;
+
+        if(e != null && e.fingerprint.matches(topicKeys, mode, data, offset, length)) {
+            hits.incrementAndGet();
+            return e.key;
+        }
+
+        final Fingerprint fingerprint = new Fingerprint(topicKeys, mode, Arrays.copyOfRange(data, offset, offset + length));
+        SecretKey key;
+
+        synchronized (keys) {
+            key = keys.get(fingerprint);
+        }
+
+        if(key != null) {
+            hits.incrementAndGet();
+        } else {
+            //unwrap outside the lock, concurrent misses for the same key just unwrap twice
+            misses.incrementAndGet();
+            try {
+                key = DataKeySpec.derive(topicKeys.unwrap(fingerprint.wrapped, mode.keyAlgorithm()).getEncoded(), mode);
+            } catch (GeneralSecurityException ex) {
+                failures.incrementAndGet();
+                throw ex;
+            }
+
+            synchronized (keys) {
+                keys.put(fingerprint, key);
+            }
+        }
+
+        last = new Entry(fingerprint, key);
+        return key;
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    /**
+     * @return number of lookups which needed an RSA unwrap
+     */
+    public long misses() {
+        return misses.get();
+    }
+
+    /**
+     * @return number of failed unwraps (wrong private key or manipulated wrapped key)
+     */
+    public long failures() {
+        return failures.get();
+    }
+
+    public int size() {
+        synchronized (keys) {
+            return keys.size();
+        }
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    private static class Entry {
+        private final Fingerprint fingerprint;
+        private final SecretKey key;
+
+        Entry(final Fingerprint fingerprint, final SecretKey key) {
+            this.fingerprint = fingerprint;
+            this.key = key;
+        }
+    }
+
+    private static class Fingerprint {
+        private final TopicKeys keys;
+        private final CipherMode mode;
+        private final byte[] wrapped;
+        private final int hash;
+
+        Fingerprint(final TopicKeys keys, final CipherMode mode, final byte[] wrapped) {
+            this.keys = keys;
+            this.mode = mode;
+            this.wrapped = wrapped;
+            this.hash = 31 * (31 * System.identityHashCode(keys) + mode.ordinal()) + Arrays.hashCode(wrapped);
+        }
+
+        boolean matches(final TopicKeys keys, final CipherMode mode, final byte[] data, final int offset, final int length) {
+            if(this.keys != keys || this.mode != mode || wrapped.length != length) {
+                return false;
+            }
+
+            for (int i = 0; i < length; i++) {
+                if(wrapped[i] != data[offset + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if(!(obj instanceof Fingerprint)) {
+                return false;
+            }
+            final Fingerprint other = (Fingerprint) obj;
+            return hash == other.hash && matches(other.keys, other.mode, other.wrapped, 0, other.wrapped.length);
+        }
+    }
+}
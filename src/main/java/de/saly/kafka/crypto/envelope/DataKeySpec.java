@@ -0,0 +1,55 @@
+package de.saly.kafka.crypto.envelope;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * A data key which brings its own cipher per thread. Re-initializing a cipher with another key than last time expands
+ * the key schedule again, which costs more than encrypting a small record. With one data key per topic (see
+ * {@link KeyRegistry}) and records of many topics interleaved that would happen for nearly every record, so every
+ * data key keeps the ciphers it was last initialized with.
+ * <p>
+ * Records are not encrypted with the wrapped data key itself but with a key derived from it for one mode, see
+ * {@link #derive(byte[], CipherMode)}.
+ */
+final class DataKeySpec extends SecretKeySpec {
+
+    private static final long serialVersionUID = 1L;
+    private static final byte[] INFO = "kafka-e2ee envelope mode key".getBytes(StandardCharsets.US_ASCII);
+
+    private final transient CipherMode mode;
+    private final transient ThreadLocal<Cipher> ciphers = new ThreadLocal<Cipher>() {
+        @Override
+        protected Cipher initialValue() {
+            return mode.newCipher();
+        }
+    };
+
+    DataKeySpec(final byte[] key, final CipherMode mode) {
+        super(key, mode.keyAlgorithm());
+        this.mode = mode;
+    }
+
+    /**
+     * The mode is read from the unauthenticated header, so a record rewritten to another mode must not be decrypted with
+     * the key of its original mode (e.g. GCM as CTR without the tag, or with the padding checks of CBC). Every mode gets
+     * its own key, HKDF-SHA256 expand of the data key with the mode id. The data key is random, so it is the
+     * pseudorandom key already (RFC 5869, section 3.3).
+     *
+     * @param dataKey the random key which is wrapped into the envelope
+     * @return the key records of the mode are encrypted with
+     */
+    static DataKeySpec derive(final byte[] dataKey, final CipherMode mode) throws GeneralSecurityException {
+        return new DataKeySpec(Hkdf.expand(dataKey, INFO, mode.id()), mode);
+    }
+
+    /**
+     * @return the cipher of the calling thread for this key, the shared one of the mode if the key was made for another mode
+     */
+    Cipher cipher(final CipherMode mode) {
+        return mode == this.mode ? ciphers.get() : mode.cipher();
+    }
+}
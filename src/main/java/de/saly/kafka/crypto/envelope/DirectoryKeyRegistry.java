@@ -0,0 +1,91 @@
+package de.saly.kafka.crypto.envelope;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.config.ConfigException;
+
+/**
+ * Keys of a topic in a directory as {@code <topic>.pub} (X.509) and {@code <topic>.key} (PKCS#8), the same formats as
+ * {@code crypto.rsa.publickey.filepath} and {@code crypto.rsa.privatekey.filepath}. Producers only need the {@code .pub},
+ * consumers only the {@code .key} files. A topic's keys are reloaded when the modification time or size of one of its
+ * files changes, so replace them by moving new files in place rather than writing into them. Unless
+ * {@value KeyMaterial#CRYPTO_KEYS_SHARED} is false the parsed keys come from the process-wide {@link KeyMaterial} cache,
+ * so further clients with the same directory do not parse them again.
+ */
+final class DirectoryKeyRegistry extends KeyRegistry {
+
+    static final String PUBLIC_SUFFIX = ".pub";
+    static final String PRIVATE_SUFFIX = ".key";
+
+    private final Path directory;
+    private final boolean shared;
+
+    DirectoryKeyRegistry(final String directory, final String defaultName, final long reloadMs, final boolean shared) {
+        super(defaultName, reloadMs);
+        this.directory = Paths.get(directory);
+        this.shared = shared;
+
+        if(!Files.isDirectory(this.directory)) {
+            throw new ConfigException(CRYPTO_KEY_REGISTRY_DIRECTORY, directory, "Not a directory");
+        }
+    }
+
+    @Override
+    protected long stamp(final String name) {
+        final long pub = stamp(file(name, PUBLIC_SUFFIX));
+        final long priv = stamp(file(name, PRIVATE_SUFFIX));
+
+        if(pub == MISSING && priv == MISSING) {
+            return MISSING;
+        }
+        return 31 * pub + priv;
+    }
+
+    private static long stamp(final Path file) {
+        try {
+            final BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            return 31 * attributes.lastModifiedTime().toMillis() + attributes.size();
+        } catch (NoSuchFileException e) {
+            return MISSING;
+        } catch (IOException e) {
+            throw new KafkaException("Unable to check "+file, e);
+        }
+    }
+
+    @Override
+    protected TopicKeys load(final String name) {
+        final Path pub = file(name, PUBLIC_SUFFIX);
+        final Path priv = file(name, PRIVATE_SUFFIX);
+
+        try {
+            return new TopicKeys(name, Files.exists(pub) ? publicKey(pub) : null, Files.exists(priv) ? privateKey(priv) : null);
+        } catch (IOException e) {
+            throw new KafkaException("Unable to read keys of "+name+" from "+directory, e);
+        }
+    }
+
+    private PublicKey publicKey(final Path file) throws IOException {
+        return shared ? KeyMaterial.publicKey(file) : EnvelopeSerdeBase.parsePublicKey(Files.readAllBytes(file));
+    }
+
+    private PrivateKey privateKey(final Path file) throws IOException {
+        return shared ? KeyMaterial.privateKey(file) : EnvelopeSerdeBase.parsePrivateKey(Files.readAllBytes(file));
+    }
+
+    private Path file(final String name, final String suffix) {
+        return directory.resolve(name + suffix);
+    }
+
+    @Override
+    public String toString() {
+        return directory.toString();
+    }
+}
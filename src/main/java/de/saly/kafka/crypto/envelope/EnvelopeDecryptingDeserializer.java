@@ -0,0 +1,234 @@
+package de.saly.kafka.crypto.envelope;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.security.GeneralSecurityException;
+import java.util.Map;
+import java.util.Set;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.serialization.Deserializer;
+
+import de.saly.kafka.crypto.DecryptingDeserializer;
+import de.saly.kafka.crypto.util.ConfiguredInstances;
+
+/**
+ * Decrypts envelopes written by the {@link EnvelopeEncryptingSerializer} and hands the plaintext to the
+ * deserializer configured as {@code crypto.wrapped_deserializer}. The cipher mode is read from every record,
+ * records of a mode not in {@value #CRYPTO_CIPHER_MODES_ALLOWED} (default: AES_GCM,CHACHA20_POLY1305) are rejected.
+ * Allow AES_CBC or AES_CTR only for topics written with them, they cannot detect manipulated records. Chunked envelopes of the {@link ChunkedEnvelopeEncryptingSerializer} are
+ * supported as well, {@link #decryptingStream(InputStream)} decrypts them without materializing the plaintext.
+ * <p>
+ * Unwrapped data keys are kept in a {@link DataKeyCache} of {@value #CRYPTO_KEY_CACHE_SIZE} entries (default: 16).
+ * With a {@link KeyRegistry} configured the private key is resolved by topic, the cache should then hold at least
+ * one data key per key pair read interleaved.
+ * <p>
+ * Thread-safe, every thread uses its own {@link Cipher} instance.
+ */
+public class EnvelopeDecryptingDeserializer<T> extends EnvelopeSerdeBase implements Deserializer<T> {
+
+    public static final String CRYPTO_KEY_CACHE_SIZE = "crypto.key.cache.size";
+
+    private Deserializer<T> inner;
+    private DataKeyCache keyCache;
+    private TopicKeys keys;
+    private KeyRegistry registry;
+    private BufferArena arena;
+    private Set<CipherMode> allowedModes;
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public void configure(final Map<String, ?> configs, final boolean isKey) {
+        inner = ConfiguredInstances.newInstance(configs, DecryptingDeserializer.CRYPTO_VALUE_DESERIALIZER, Deserializer.class);
+        inner.configure(configs, isKey);
+        arena = bufferArena(configs);
+        allowedModes = allowedModes(configs);
+        final Object cacheSize = configs.get(CRYPTO_KEY_CACHE_SIZE);
+        registry = KeyRegistry.fromConfig(configs);
+        keys = registry == null ? new TopicKeys(KeyRegistry.DEFAULT_NAME, null, readPrivateKey(configs)) : null;
+        keyCache = new DataKeyCache(keys, cacheSize == null ? 16 : Integer.parseInt(cacheSize.toString()));
+    }
+
+    @Override
+    public T deserialize(final String topic, final byte[] data) {
+        if(data == null) {
+            return inner.deserialize(topic, null);
+        }
+
+        if(data.length < FIXED_HEADER_SIZE || data[0] != MAGIC) {
+            throw new SerializationException("Not an encrypted envelope (bad magic byte)");
+        }
+
+        if(data[1] == CHUNKED_VERSION) {
+            return inner.deserialize(topic, decryptChunked(topic, data));
+        }
+
+        if(data[1] != VERSION) {
+            throw new SerializationException("Unsupported envelope version "+data[1]);
+        }
+
+        final CipherMode mode = allowedMode(data[2]);
+        final int wrappedKeyLength = ByteBuffer.wrap(data, 3, 2).getShort() & 0xFFFF;
+        final int headerLength = FIXED_HEADER_SIZE + wrappedKeyLength;
+        final int ctOffset = headerLength + mode.ivLength();
+
+        if(wrappedKeyLength == 0 || ctOffset + (mode.authenticated() ? TAG_BYTES : 0) > data.length) {
+            throw new SerializationException("Truncated or corrupt envelope");
+        }
+
+        try {
+            final SecretKey key = keyCache.get(keys(topic), mode, data, FIXED_HEADER_SIZE, wrappedKeyLength);
+            final Cipher cipher = decryptCipher(mode, key, data, headerLength);
+
+            if(mode.authenticated()) {
+                cipher.updateAAD(data, 0, headerLength);
+            }
+
+            if(arena == null) {
+                return inner.deserialize(topic, cipher.doFinal(data, ctOffset, data.length - ctOffset));
+            }
+
+            final ByteBuffer out = arena.output(cipher.getOutputSize(data.length - ctOffset));
+            cipher.doFinal(ByteBuffer.wrap(data, ctOffset, data.length - ctOffset), out);
+            out.flip();
+            final byte[] plain = new byte[out.remaining()];
+            out.get(plain);
+            return inner.deserialize(topic, plain);
+        } catch (GeneralSecurityException e) {
+            throw new SerializationException("Unable to decrypt record with "+mode, e);
+        }
+    }
+
+    /**
+     * Decrypts all segments of a chunked envelope into one plaintext array
+     */
+    private byte[] decryptChunked(final String topic, final byte[] data) {
+        final CipherMode mode = allowedMode(data[2]);
+        final int wrappedKeyLength = ByteBuffer.wrap(data, 3, 2).getShort() & 0xFFFF;
+        final int aadLength = FIXED_HEADER_SIZE + wrappedKeyLength + ChunkedEnvelope.SEGMENT_SIZE_BYTES;
+        final int ctOffset = aadLength + ChunkedEnvelope.SALT_BYTES;
+
+        if(!mode.authenticated()) {
+            throw new SerializationException("Chunked envelope with unauthenticated mode "+mode);
+        }
+
+        if(wrappedKeyLength == 0 || ctOffset + TAG_BYTES > data.length) {
+            throw new SerializationException("Truncated or corrupt chunked envelope");
+        }
+
+        final int segmentSize = ByteBuffer.wrap(data, aadLength - ChunkedEnvelope.SEGMENT_SIZE_BYTES, 4).getInt();
+        final String invalid = ChunkedEnvelope.checkSegmentSize(segmentSize);
+
+        if(invalid != null) {
+            throw new SerializationException(invalid);
+        }
+
+        final int segments = ChunkedEnvelope.segmentsForCiphertext(data.length - ctOffset, segmentSize);
+
+        if(data.length - ctOffset < segments * TAG_BYTES) {
+            throw new SerializationException("Truncated or corrupt chunked envelope");
+        }
+
+        try {
+            final SecretKey dataKey = keyCache.get(keys(topic), mode, data, FIXED_HEADER_SIZE, wrappedKeyLength);
+            final SecretKey key = ChunkedEnvelope.segmentKey(dataKey, mode, data, aadLength);
+            final byte[] plain = new byte[data.length - ctOffset - segments * TAG_BYTES];
+            final byte[] iv = new byte[mode.ivLength()];
+
+            int in = ctOffset;
+            int out = 0;
+            for (int segment = 0; segment < segments; segment++) {
+                final boolean last = segment == segments - 1;
+                final int length = last ? data.length - in : segmentSize + TAG_BYTES;
+                ChunkedEnvelope.nonce(iv, segment, last);
+                final Cipher cipher = decryptCipher(mode, key, iv, 0);
+                cipher.updateAAD(data, 0, aadLength);
+                out += cipher.doFinal(data, in, length, plain, out);
+                in += length;
+            }
+
+            return plain;
+        } catch (GeneralSecurityException e) {
+            throw new SerializationException("Unable to decrypt chunked record with "+mode, e);
+        }
+    }
+
+    /**
+     * Decrypts a chunked envelope (written by the {@link ChunkedEnvelopeEncryptingSerializer}) one segment at a time,
+     * e.g. {@code decryptingStream(new ByteArrayInputStream(record.value()))} with the {@code ByteArrayDeserializer} as
+     * value deserializer. Only one segment of plaintext is held, however large the record is.
+     * With a {@link KeyRegistry} use {@link #decryptingStream(String, InputStream)}.
+     */
+    public InputStream decryptingStream(final InputStream envelope) throws IOException {
+        if(keys == null) {
+            throw new IllegalStateException("Keys are resolved by topic, use decryptingStream(topic, envelope)");
+        }
+        return new ChunkedDecryptingInputStream(envelope, keyCache, keys, allowedModes);
+    }
+
+    /**
+     * @see #decryptingStream(InputStream)
+     */
+    public InputStream decryptingStream(final String topic, final InputStream envelope) throws IOException {
+        return new ChunkedDecryptingInputStream(envelope, keyCache, keys(topic), allowedModes);
+    }
+
+    /**
+     * @see #decryptingStream(InputStream)
+     */
+    public ReadableByteChannel decryptingChannel(final ReadableByteChannel envelope) throws IOException {
+        return Channels.newChannel(decryptingStream(Channels.newInputStream(envelope)));
+    }
+
+    /**
+     * @see #decryptingStream(String, InputStream)
+     */
+    public ReadableByteChannel decryptingChannel(final String topic, final ReadableByteChannel envelope) throws IOException {
+        return Channels.newChannel(decryptingStream(topic, Channels.newInputStream(envelope)));
+    }
+
+    /**
+     * @return the mode of the id read from an envelope
+     * @throws SerializationException if the mode is unknown or not allowed
+     */
+    private CipherMode allowedMode(final byte id) {
+        final CipherMode mode = envelopeMode(id);
+
+        if(!allowedModes.contains(mode)) {
+            throw new SerializationException("Cipher mode "+mode+" is not allowed, see "+CRYPTO_CIPHER_MODES_ALLOWED);
+        }
+
+        return mode;
+    }
+
+    private TopicKeys keys(final String topic) {
+        return registry == null ? keys : registry.get(topic);
+    }
+
+    /**
+     * @return the registry the keys are resolved with, null if one key pair is configured
+     */
+    public KeyRegistry registry() {
+        return registry;
+    }
+
+    /**
+     * @return the cache of unwrapped data keys, e.g. for its hit and miss counters
+     */
+    public DataKeyCache keyCache() {
+        return keyCache;
+    }
+
+    @Override
+    public void close() {
+        if(inner != null) {
+            inner.close();
+        }
+    }
+}
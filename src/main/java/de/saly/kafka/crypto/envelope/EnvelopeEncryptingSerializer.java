@@ -0,0 +1,275 @@
+package de.saly.kafka.crypto.envelope;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.config.ConfigException;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.serialization.Serializer;
+
+import de.saly.kafka.crypto.EncryptingSerializer;
+import de.saly.kafka.crypto.util.ConfiguredInstances;
+
+/**
+ * Encrypts the output of the serializer configured as {@code crypto.wrapped_serializer} with the
+ * {@link CipherMode} configured as {@value #CRYPTO_CIPHER_MODE} (default: AES_GCM) into an envelope
+ * as described in {@link EnvelopeSerdeBase}.
+ * <p>
+ * A random data key is generated and wrapped with the RSA public key at configure time. It is replaced by a new one after
+ * {@value #CRYPTO_KEY_ROTATION_RECORDS} records, {@value #CRYPTO_KEY_ROTATION_BYTES} plaintext bytes or
+ * {@value #CRYPTO_KEY_ROTATION_MS} milliseconds, whatever comes first (0 = never, the default).
+ * Consumers cache unwrapped keys, see {@link DataKeyCache}.
+ * <p>
+ * Every record gets a random iv. The authenticated modes have a 96 bit nonce, which NIST SP 800-38D limits to 2<sup>32</sup>
+ * records per key, so for them {@value #CRYPTO_KEY_ROTATION_RECORDS} defaults to {@value #AUTHENTICATED_RECORD_LIMIT} and
+ * must be between 1 and that limit.
+ * <p>
+ * With a {@link KeyRegistry} configured the public key is resolved by topic instead, every key pair gets its own data key
+ * (generated with the first record) and a changed public key gets a new data key with the next record.
+ * <p>
+ * Thread-safe, every thread uses its own {@link Cipher} instance.
+ */
+public class EnvelopeEncryptingSerializer<T> extends EnvelopeSerdeBase implements Serializer<T> {
+
+    public static final String CRYPTO_KEY_ROTATION_RECORDS = "crypto.key.rotation.records";
+    public static final String CRYPTO_KEY_ROTATION_BYTES = "crypto.key.rotation.bytes";
+    public static final String CRYPTO_KEY_ROTATION_MS = "crypto.key.rotation.ms";
+
+    /**
+     * Most records one data key encrypts in an authenticated mode, half of the 2^32 random nonces allowed per key
+     */
+    public static final long AUTHENTICATED_RECORD_LIMIT = 1L << 31;
+
+    static final ThreadLocal<SecureRandom> RANDOM = new ThreadLocal<SecureRandom>() {
+        @Override
+        protected SecureRandom initialValue() {
+            return new SecureRandom();
+        }
+    };
+
+    private Serializer<T> inner;
+    private CipherMode mode;
+    private TopicKeys keys;
+    private KeyRegistry registry;
+    private long rotationRecords;
+    private long rotationBytes;
+    private long rotationNanos;
+    private BufferArena arena;
+    private final ConcurrentMap<String, DataKey> current = new ConcurrentHashMap<>();
+    private final AtomicLong rotations = new AtomicLong();
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public void configure(final Map<String, ?> configs, final boolean isKey) {
+        inner = ConfiguredInstances.newInstance(configs, EncryptingSerializer.CRYPTO_VALUE_SERIALIZER, Serializer.class);
+        inner.configure(configs, isKey);
+        mode = cipherMode(configs);
+        arena = bufferArena(configs);
+
+        registry = KeyRegistry.fromConfig(configs);
+        keys = registry == null ? new TopicKeys(KeyRegistry.DEFAULT_NAME, readPublicKey(configs), null) : null;
+        final long recordLimit = recordLimit();
+        rotationRecords = getLong(configs, CRYPTO_KEY_ROTATION_RECORDS, recordLimit);
+        rotationBytes = getLong(configs, CRYPTO_KEY_ROTATION_BYTES, 0);
+        rotationNanos = TimeUnit.MILLISECONDS.toNanos(getLong(configs, CRYPTO_KEY_ROTATION_MS, 0));
+
+        if(recordLimit > 0 && (rotationRecords < 1 || rotationRecords > recordLimit)) {
+            throw new ConfigException(CRYPTO_KEY_ROTATION_RECORDS, rotationRecords, "Must be between 1 and "+recordLimit
+                    +" with "+mode+", its random nonces are not safe for more records per data key");
+        }
+
+        if(keys != null) {
+            current.put(keys.name(), newDataKey(keys));
+        }
+    }
+
+    @Override
+    public byte[] serialize(final String topic, final T data) {
+        final byte[] plain = inner.serialize(topic, data);
+
+        if(plain == null) {
+            return null;
+        }
+
+        return encrypt(topic, plain);
+    }
+
+    byte[] encrypt(final String topic, final byte[] plain) {
+        try {
+            final DataKey dataKey = dataKey(topic, plain.length);
+            final byte[] header = dataKey.header;
+            final Cipher cipher = mode.cipher(dataKey.key);
+            final int ivOffset = header.length;
+            final int ctOffset = ivOffset + mode.ivLength();
+
+            final byte[] iv = new byte[mode.ivLength()];
+            RANDOM.get().nextBytes(iv);
+            cipher.init(Cipher.ENCRYPT_MODE, dataKey.key, mode.parameterSpec(iv, 0));
+
+            if(mode.authenticated()) {
+                cipher.updateAAD(header);
+            }
+
+            final int outputSize = cipher.getOutputSize(plain.length);
+            final byte[] result;
+
+            if(arena == null) {
+                result = new byte[ctOffset + outputSize];
+                final int written = cipher.doFinal(plain, 0, plain.length, result, ctOffset);
+                checkLength(outputSize, written);
+            } else {
+                final ByteBuffer out = arena.output(outputSize);
+                final int written = cipher.doFinal(ByteBuffer.wrap(plain), out);
+                out.flip();
+                result = new byte[ctOffset + written];
+                out.get(result, ctOffset, written);
+            }
+
+            System.arraycopy(header, 0, result, 0, header.length);
+            System.arraycopy(iv, 0, result, ivOffset, iv.length);
+            return result;
+        } catch (GeneralSecurityException e) {
+            throw new SerializationException("Unable to encrypt record with "+mode, e);
+        }
+    }
+
+    private static void checkLength(final int expected, final int written) {
+        if(written != expected) {
+            throw new IllegalStateException("Expected "+expected+" bytes of ciphertext, got "+written);
+        }
+    }
+
+    /**
+     * @return the data key for the next record of the given size, rotated if the current one has been used up
+     *         or the public key of the topic changed
+     */
+    DataKey dataKey(final String topic, final int plainLength) {
+        final TopicKeys keys = registry == null ? this.keys : registry.get(topic);
+        final DataKey key = current.get(keys.name());
+
+        if(key != null && key.keys == keys && !key.use(plainLength)) {
+            return key;
+        }
+
+        synchronized (this) {
+            final DataKey latest = current.get(keys.name());
+
+            //another thread rotated meanwhile, its key may be used up by now as well
+            if(latest != null && latest != key && latest.keys == keys && !latest.use(plainLength)) {
+                return latest;
+            }
+
+            final DataKey rotated = newDataKey(keys);
+            current.put(keys.name(), rotated);
+
+            if(latest != null) {
+                rotations.incrementAndGet();
+            }
+
+            rotated.use(plainLength);
+            return rotated;
+        }
+    }
+
+    private DataKey newDataKey(final TopicKeys keys) {
+        final byte[] keyBytes = new byte[DATA_KEY_BYTES];
+        RANDOM.get().nextBytes(keyBytes);
+
+        final SecretKey key;
+        final byte[] wrappedKey;
+        try {
+            key = DataKeySpec.derive(keyBytes, mode);
+            wrappedKey = keys.wrap(new SecretKeySpec(keyBytes, mode.keyAlgorithm()));
+        } catch (GeneralSecurityException e) {
+            throw new KafkaException("Unable to wrap data key with the public key of "+keys.name(), e);
+        }
+
+        final byte[] header = ByteBuffer.allocate(FIXED_HEADER_SIZE + wrappedKey.length)
+                .put(MAGIC)
+                .put(version())
+                .put(mode.id())
+                .putShort((short) wrappedKey.length)
+                .put(wrappedKey)
+                .array();
+
+        return new DataKey(keys, key, header);
+    }
+
+    CipherMode mode() {
+        return mode;
+    }
+
+    /**
+     * @return the most records one data key may encrypt with the configured mode, 0 for no limit
+     */
+    long recordLimit() {
+        return mode.authenticated() ? AUTHENTICATED_RECORD_LIMIT : 0;
+    }
+
+    /**
+     * @return the envelope version written into the header
+     */
+    byte version() {
+        return VERSION;
+    }
+
+    /**
+     * @return how often the data key has been replaced since configure
+     */
+    public long rotations() {
+        return rotations.get();
+    }
+
+    private static long getLong(final Map<String, ?> configs, final String key, final long defaultValue) {
+        final Object value = configs.get(key);
+        return value == null ? defaultValue : Long.parseLong(value.toString());
+    }
+
+    class DataKey {
+        final TopicKeys keys;
+        final SecretKey key;
+        final byte[] header;
+        private final long created = System.nanoTime();
+        private final AtomicLong records = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+
+        DataKey(final TopicKeys keys, final SecretKey key, final byte[] header) {
+            this.keys = keys;
+            this.key = key;
+            this.header = header;
+        }
+
+        /**
+         * @return true if this key must not be used for the record because the rotation policy is exhausted
+         */
+        boolean use(final int plainLength) {
+            if(rotationNanos > 0 && System.nanoTime() - created >= rotationNanos) {
+                return true;
+            }
+
+            if(rotationRecords > 0 && records.incrementAndGet() > rotationRecords) {
+                return true;
+            }
+
+            return rotationBytes > 0 && bytes.addAndGet(plainLength) > rotationBytes;
+        }
+    }
+
+    @Override
+    public void close() {
+        if(inner != null) {
+            inner.close();
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package de.saly.kafka.crypto.envelope;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.KeyFactory;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.config.ConfigException;
+import org.apache.kafka.common.errors.SerializationException;
+
+import de.saly.kafka.crypto.SerdeCryptoBase;
+
+/**
+ * Common parts of the envelope serdes, which support several {@link CipherMode}s.
+ * <p>
+ * Every record is a self-describing envelope:
+ * <pre>
+ * magic (1) | version (1) | cipher mode (1) | wrapped key length (2) | wrapped data key | iv | ciphertext (+ tag)
+ * </pre>
+ * The data key is wrapped with the RSA public key from {@code crypto.rsa.publickey.filepath} using OAEP.
+ * Everything before the iv is the header, authenticated modes bind it as additional authenticated data.
+ * Because the mode is part of every record consumers can read topics written with mixed modes. The mode is bound to the
+ * key instead: every mode encrypts with its own key derived from the data key, so a record whose mode is rewritten
+ * can not be decrypted. Consumers only accept the modes in {@value #CRYPTO_CIPHER_MODES_ALLOWED} (default: the
+ * authenticated ones) and reject others before the data key is unwrapped.
+ * <p>
+ * The RSA key settings and the wrapped serializer settings are the same as for the
+ * {@code EncryptingSerializer}/{@code DecryptingDeserializer}, so the envelope serdes are drop-in replacements.
+ * Parsed keys are shared by all clients of the process, see {@link KeyMaterial}.
+ * <p>
+ * With {@value #CRYPTO_BUFFER_ARENA} set to heap or direct the cipher works on {@link java.nio.ByteBuffer}s and writes
+ * into a {@link BufferArena}, which avoids the cipher-internal buffering of the {@code byte[]} API.
+ */
+public abstract class EnvelopeSerdeBase {
+
+    public static final String CRYPTO_CIPHER_MODE = "crypto.cipher.mode";
+    public static final String CRYPTO_CIPHER_MODES_ALLOWED = "crypto.cipher.modes.allowed";
+    public static final String CRYPTO_BUFFER_ARENA = "crypto.buffer.arena";
+
+    static final byte MAGIC = (byte) 0xE2;
+    static final byte VERSION = 1;
+    static final byte CHUNKED_VERSION = 2;
+    static final int TAG_BYTES = 16;
+    static final int FIXED_HEADER_SIZE = 1 + 1 + 1 + 2;
+    static final String RSA_TRANSFORMATION = "RSA/ECB/OAEPWithSHA-256AndMGF1Padding";
+    static final int DATA_KEY_BYTES = 32;
+
+    protected static PublicKey readPublicKey(final Map<String, ?> configs) {
+        final Path file = keyFile(configs, SerdeCryptoBase.CRYPTO_RSA_PUBLICKEY_FILEPATH);
+
+        try {
+            return sharedKeys(configs) ? KeyMaterial.publicKey(file) : parsePublicKey(Files.readAllBytes(file));
+        } catch (IOException e) {
+            throw new ConfigException(SerdeCryptoBase.CRYPTO_RSA_PUBLICKEY_FILEPATH, file.toString(), "Unable to read key file: "+e);
+        }
+    }
+
+    protected static PrivateKey readPrivateKey(final Map<String, ?> configs) {
+        final Path file = keyFile(configs, SerdeCryptoBase.CRYPTO_RSA_PRIVATEKEY_FILEPATH);
+
+        try {
+            return sharedKeys(configs) ? KeyMaterial.privateKey(file) : parsePrivateKey(Files.readAllBytes(file));
+        } catch (IOException e) {
+            throw new ConfigException(SerdeCryptoBase.CRYPTO_RSA_PRIVATEKEY_FILEPATH, file.toString(), "Unable to read key file: "+e);
+        }
+    }
+
+    static PublicKey parsePublicKey(final byte[] encoded) {
+        try {
+            return KeyFactory.getInstance("RSA").generatePublic(new X509EncodedKeySpec(encoded));
+        } catch (GeneralSecurityException e) {
+            throw new KafkaException("Invalid RSA public key (X.509 expected)", e);
+        }
+    }
+
+    static PrivateKey parsePrivateKey(final byte[] encoded) {
+        try {
+            return KeyFactory.getInstance("RSA").generatePrivate(new PKCS8EncodedKeySpec(encoded));
+        } catch (GeneralSecurityException e) {
+            throw new KafkaException("Invalid RSA private key (PKCS#8 expected)", e);
+        }
+    }
+
+    private static Path keyFile(final Map<String, ?> configs, final String key) {
+        final Object path = configs.get(key);
+
+        if(path == null) {
+            throw new ConfigException("Missing required configuration \""+key+"\" which has no default value.");
+        }
+
+        return Paths.get(path.toString());
+    }
+
+    /**
+     * @return false if {@value KeyMaterial#CRYPTO_KEYS_SHARED} disables the process-wide {@link KeyMaterial} cache
+     */
+    static boolean sharedKeys(final Map<String, ?> configs) {
+        final Object shared = configs.get(KeyMaterial.CRYPTO_KEYS_SHARED);
+        return shared == null || Boolean.parseBoolean(shared.toString().trim());
+    }
+
+    /**
+     * @return the arena configured as {@value #CRYPTO_BUFFER_ARENA} (none, heap or direct), null for none (the default)
+     */
+    protected static BufferArena bufferArena(final Map<String, ?> configs) {
+        final Object type = configs.get(CRYPTO_BUFFER_ARENA);
+        final BufferArena.Type arena = type == null ? BufferArena.Type.NONE : BufferArena.Type.forName(type.toString());
+        return arena == BufferArena.Type.NONE ? null : new BufferArena(arena == BufferArena.Type.DIRECT);
+    }
+
+    /**
+     * @return the cipher of the calling thread initialized for decryption
+     */
+    static Cipher decryptCipher(final CipherMode mode, final SecretKey key, final byte[] iv, final int ivOffset) throws GeneralSecurityException {
+        final Cipher cipher = mode.cipher(key);
+
+        try {
+            cipher.init(Cipher.DECRYPT_MODE, key, mode.parameterSpec(iv, ivOffset));
+            return cipher;
+        } catch (InvalidKeyException e) {
+            //ChaCha20-Poly1305 refuses to be initialized twice in a row with the same key and nonce, even for decryption.
+            //That happens if the same record is read again (seek, rebalance), so this is rare enough for a new instance.
+            final Cipher fresh = mode.newCipher();
+            fresh.init(Cipher.DECRYPT_MODE, key, mode.parameterSpec(iv, ivOffset));
+            return fresh;
+        }
+    }
+
+    /**
+     * @return the mode of the id read from an envelope
+     * @throws SerializationException if no mode has this id
+     */
+    static CipherMode envelopeMode(final byte id) {
+        try {
+            return CipherMode.forId(id);
+        } catch (IllegalArgumentException e) {
+            throw new SerializationException("Corrupt envelope", e);
+        }
+    }
+
+    /**
+     * @return the modes listed in {@value #CRYPTO_CIPHER_MODES_ALLOWED} (a list or comma separated), the authenticated
+     *         modes if it is not set
+     */
+    protected static Set<CipherMode> allowedModes(final Map<String, ?> configs) {
+        final Object modes = configs.get(CRYPTO_CIPHER_MODES_ALLOWED);
+
+        if(modes == null) {
+            return EnumSet.of(CipherMode.AES_GCM, CipherMode.CHACHA20_POLY1305);
+        }
+
+        final Set<CipherMode> allowed = EnumSet.noneOf(CipherMode.class);
+        for (final Object mode : modes instanceof Collection ? (Collection<?>) modes : Arrays.asList(modes.toString().split(","))) {
+            if(!mode.toString().trim().isEmpty()) {
+                allowed.add(CipherMode.forName(mode.toString()));
+            }
+        }
+
+        if(allowed.isEmpty()) {
+            throw new ConfigException(CRYPTO_CIPHER_MODES_ALLOWED, modes, "At least one cipher mode must be allowed");
+        }
+
+        return allowed;
+    }
+
+    protected static CipherMode cipherMode(final Map<String, ?> configs) {
+        final Object mode = configs.get(CRYPTO_CIPHER_MODE);
+        return mode == null ? CipherMode.AES_GCM : CipherMode.forName(mode.toString());
+    }
+}
@@ -0,0 +1,50 @@
+package de.saly.kafka.crypto.envelope;
+
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * HKDF-SHA256 (RFC 5869) for the keys the envelope serdes derive, limited to one block of output (32 bytes).
+ */
+final class Hkdf {
+
+    private static final String HMAC = "HmacSHA256";
+
+    private static final ThreadLocal<Mac> MACS = new ThreadLocal<Mac>() {
+        @Override
+        protected Mac initialValue() {
+            try {
+                return Mac.getInstance(HMAC);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(HMAC+" not available in this JVM", e);
+            }
+        }
+    };
+
+    private Hkdf() {
+    }
+
+    /**
+     * @return the pseudorandom key of the input key material and the salt at {@code salt[offset, offset+length)}
+     */
+    static byte[] extract(final byte[] salt, final int offset, final int length, final byte[] ikm) throws GeneralSecurityException {
+        final Mac mac = MACS.get();
+        mac.init(new SecretKeySpec(salt, offset, length, HMAC));
+        return mac.doFinal(ikm);
+    }
+
+    /**
+     * @return the first block of output keying material for {@code info} followed by {@code context}
+     */
+    static byte[] expand(final byte[] prk, final byte[] info, final byte context) throws GeneralSecurityException {
+        final Mac mac = MACS.get();
+        mac.init(new SecretKeySpec(prk, HMAC));
+        mac.update(info);
+        mac.update(context);
+        mac.update((byte) 1);
+        return mac.doFinal();
+    }
+}
@@ -0,0 +1,228 @@
+package de.saly.kafka.crypto.envelope;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyFactory;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.interfaces.RSAPrivateCrtKey;
+import java.security.spec.RSAPublicKeySpec;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+
+import org.apache.kafka.common.KafkaException;
+
+import de.saly.kafka.crypto.SerdeCryptoBase;
+
+/**
+ * Process-wide cache of parsed RSA keys. Every {@code configure()} of the envelope serdes (and every {@link DirectoryKeyRegistry})
+ * needs the keys of its key files, parsing them costs more than the rest of configure, and batch jobs or autoscaling
+ * consumers create many short-lived clients with the same files. Keys are therefore cached by file and parsed again only
+ * when the modification time or size of the file changes.
+ * <ul>
+ * <li>{@value #CRYPTO_KEYS_SHARED}: use the cache (default: true), false parses the key files in every configure()</li>
+ * </ul>
+ * {@link #preload(Map)} parses the keys of a client configuration before the first client is created, e.g. at application
+ * start, and warms the JCE provider lookups and RSA and cipher code the first record would otherwise pay for.
+ * <p>
+ * Thread-safe.
+ */
+public final class KeyMaterial {
+
+    public static final String CRYPTO_KEYS_SHARED = "crypto.keys.shared";
+
+    private static final ConcurrentMap<Path, Cached> KEYS = new ConcurrentHashMap<>();
+    private static final AtomicLong PARSED = new AtomicLong();
+    private static final AtomicLong HITS = new AtomicLong();
+
+    private KeyMaterial() {
+    }
+
+    /**
+     * @return the X.509 encoded RSA public key in the file, the cached one if the file did not change
+     * @throws KafkaException if the file does not hold a public key
+     */
+    public static PublicKey publicKey(final Path file) throws IOException {
+        return (PublicKey) key(file, false);
+    }
+
+    /**
+     * @return the PKCS#8 encoded RSA private key in the file, the cached one if the file did not change
+     * @throws KafkaException if the file does not hold a private key
+     */
+    public static PrivateKey privateKey(final Path file) throws IOException {
+        return (PrivateKey) key(file, true);
+    }
+
+    private static Key key(final Path file, final boolean isPrivate) throws IOException {
+        final Path path = file.toAbsolutePath().normalize();
+        final long stamp = stamp(path);
+        final Cached cached = KEYS.get(path);
+
+        if(cached != null && cached.stamp == stamp && cached.isPrivate == isPrivate) {
+            HITS.incrementAndGet();
+            return cached.key;
+        }
+
+        //concurrent configures of a changed file may parse it twice, which is harmless
+        final byte[] encoded = Files.readAllBytes(path);
+        final Key key = isPrivate ? EnvelopeSerdeBase.parsePrivateKey(encoded) : EnvelopeSerdeBase.parsePublicKey(encoded);
+        PARSED.incrementAndGet();
+        KEYS.put(path, new Cached(key, stamp, isPrivate));
+        return key;
+    }
+
+    private static long stamp(final Path file) throws IOException {
+        final BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        return 31 * attributes.lastModifiedTime().toMillis() + attributes.size();
+    }
+
+    /**
+     * Parses the keys of {@code crypto.rsa.publickey.filepath}, {@code crypto.rsa.privatekey.filepath} and all keys in
+     * {@value KeyRegistry#CRYPTO_KEY_REGISTRY_DIRECTORY} into the cache, and runs a throwaway data key through the
+     * configured {@link CipherMode} and every private key (wrapped with its public half). Clients created afterwards
+     * find their keys parsed and the JCE classes loaded. Keystores of a {@link KeyStoreKeyRegistry} are not preloaded.
+     *
+     * @return the number of keys parsed or found in the cache
+     * @throws KafkaException if a configured key file cannot be read or parsed
+     */
+    public static int preload(final Map<String, ?> configs) {
+        int keys = 0;
+
+        try {
+            final Object publicKey = configs.get(SerdeCryptoBase.CRYPTO_RSA_PUBLICKEY_FILEPATH);
+            final Object privateKey = configs.get(SerdeCryptoBase.CRYPTO_RSA_PRIVATEKEY_FILEPATH);
+            final Object directory = configs.get(KeyRegistry.CRYPTO_KEY_REGISTRY_DIRECTORY);
+
+            if(publicKey != null) {
+                publicKey(Paths.get(publicKey.toString()));
+                keys++;
+            }
+
+            if(privateKey != null) {
+                warm(privateKey(Paths.get(privateKey.toString())));
+                keys++;
+            }
+
+            if(directory != null) {
+                try(DirectoryStream<Path> files = Files.newDirectoryStream(Paths.get(directory.toString()))) {
+                    for (final Path file : files) {
+                        final String name = file.getFileName().toString();
+                        if(name.endsWith(DirectoryKeyRegistry.PUBLIC_SUFFIX)) {
+                            publicKey(file);
+                            keys++;
+                        } else if(name.endsWith(DirectoryKeyRegistry.PRIVATE_SUFFIX)) {
+                            warm(privateKey(file));
+                            keys++;
+                        }
+                    }
+                }
+            }
+
+            warm(EnvelopeSerdeBase.cipherMode(configs));
+        } catch (IOException e) {
+            throw new KafkaException("Unable to preload keys", e);
+        }
+
+        return keys;
+    }
+
+    /**
+     * Wraps and unwraps a throwaway data key, which also checks that the private key is a complete RSA key
+     */
+    private static void warm(final PrivateKey privateKey) {
+        if(!(privateKey instanceof RSAPrivateCrtKey)) {
+            return;
+        }
+
+        final RSAPrivateCrtKey crtKey = (RSAPrivateCrtKey) privateKey;
+
+        try {
+            final PublicKey publicKey = KeyFactory.getInstance("RSA")
+                    .generatePublic(new RSAPublicKeySpec(crtKey.getModulus(), crtKey.getPublicExponent()));
+            final TopicKeys keys = new TopicKeys(KeyRegistry.DEFAULT_NAME, publicKey, privateKey);
+            keys.unwrap(keys.wrap(dataKey(CipherMode.AES_GCM)), CipherMode.AES_GCM.keyAlgorithm());
+        } catch (GeneralSecurityException e) {
+            throw new KafkaException("Unable to use private key", e);
+        }
+    }
+
+    /**
+     * Encrypts and decrypts a few bytes, which loads the provider and cipher classes of the mode and seeds the random
+     */
+    private static void warm(final CipherMode mode) {
+        try {
+            final SecretKey key = dataKey(mode);
+            final byte[] iv = new byte[mode.ivLength()];
+            EnvelopeEncryptingSerializer.RANDOM.get().nextBytes(iv);
+
+            final Cipher encrypt = mode.newCipher();
+            encrypt.init(Cipher.ENCRYPT_MODE, key, mode.parameterSpec(iv, 0));
+            final byte[] encrypted = encrypt.doFinal(new byte[16]);
+            //ChaCha20-Poly1305 refuses the same key and nonce twice on one instance
+            final Cipher decrypt = mode.newCipher();
+            decrypt.init(Cipher.DECRYPT_MODE, key, mode.parameterSpec(iv, 0));
+            decrypt.doFinal(encrypted);
+        } catch (GeneralSecurityException e) {
+            throw new KafkaException("Unable to use "+mode, e);
+        }
+    }
+
+    private static SecretKey dataKey(final CipherMode mode) throws GeneralSecurityException {
+        final byte[] keyBytes = new byte[EnvelopeSerdeBase.DATA_KEY_BYTES];
+        new SecureRandom().nextBytes(keyBytes);
+        return DataKeySpec.derive(keyBytes, mode);
+    }
+
+    /**
+     * Drops all cached keys, e.g. once no more clients will be created
+     */
+    public static void clear() {
+        KEYS.clear();
+    }
+
+    /**
+     * @return how often a key file has been parsed
+     */
+    public static long parsed() {
+        return PARSED.get();
+    }
+
+    /**
+     * @return how often a cached key has been used instead of parsing the file
+     */
+    public static long hits() {
+        return HITS.get();
+    }
+
+    /**
+     * @return number of cached keys
+     */
+    public static int size() {
+        return KEYS.size();
+    }
+
+    private static class Cached {
+        private final Key key;
+        private final long stamp;
+        private final boolean isPrivate;
+
+        Cached(final Key key, final long stamp, final boolean isPrivate) {
+            this.key = key;
+            this.stamp = stamp;
+            this.isPrivate = isPrivate;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package de.saly.kafka.crypto.envelope;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.config.ConfigException;
+
+/**
+ * Resolves the RSA keys of a topic by its name, so that one producer or consumer can serve many tenants with
+ * a key pair each. Keys come from a directory ({@value #CRYPTO_KEY_REGISTRY_DIRECTORY}, see {@link DirectoryKeyRegistry})
+ * or a keystore ({@value #CRYPTO_KEY_REGISTRY_KEYSTORE}, see {@link KeyStoreKeyRegistry}). Topics without keys of their own
+ * use the keys named {@value #CRYPTO_KEY_REGISTRY_DEFAULT} (default: {@value #DEFAULT_NAME}) if there are any.
+ * <ul>
+ * <li>{@value #CRYPTO_KEY_REGISTRY_RELOAD_MS}: how often the source of a topic's keys is checked for changes, changed
+ * keys are used from the next record on without restarting the client. 0 disables reloading (default: 30000)</li>
+ * </ul>
+ * Reloaded keys keep the private key they replaced (see {@link TopicKeys#previous()}), so a consumer still reads the
+ * records produced before the change. Only one generation is kept, and a client started after the change only has the
+ * new keys.
+ * Parsed keys are cached by name, a lookup is one map access as long as no check is due, however many topics there are.
+ * <p>
+ * Thread-safe.
+ */
+public abstract class KeyRegistry {
+
+    public static final String CRYPTO_KEY_REGISTRY_DIRECTORY = "crypto.key.registry.directory";
+    public static final String CRYPTO_KEY_REGISTRY_KEYSTORE = "crypto.key.registry.keystore.filepath";
+    public static final String CRYPTO_KEY_REGISTRY_KEYSTORE_PASSWORD = "crypto.key.registry.keystore.password";
+    public static final String CRYPTO_KEY_REGISTRY_KEYSTORE_TYPE = "crypto.key.registry.keystore.type";
+    public static final String CRYPTO_KEY_REGISTRY_DEFAULT = "crypto.key.registry.default";
+    public static final String CRYPTO_KEY_REGISTRY_RELOAD_MS = "crypto.key.registry.reload.ms";
+
+    public static final String DEFAULT_NAME = "default";
+
+    /**
+     * Stamp of keys which do not exist
+     */
+    static final long MISSING = Long.MIN_VALUE;
+
+    private final String defaultName;
+    private final long reloadNanos;
+    private final ConcurrentMap<String, Resolved> topics = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Loaded> loaded = new ConcurrentHashMap<>();
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong reloads = new AtomicLong();
+
+    protected KeyRegistry(final String defaultName, final long reloadMs) {
+        this.defaultName = defaultName;
+        this.reloadNanos = TimeUnit.MILLISECONDS.toNanos(reloadMs);
+    }
+
+    /**
+     * @return the registry configured by {@value #CRYPTO_KEY_REGISTRY_DIRECTORY} or {@value #CRYPTO_KEY_REGISTRY_KEYSTORE},
+     *         null if neither is set
+     */
+    public static KeyRegistry fromConfig(final Map<String, ?> configs) {
+        final Object directory = configs.get(CRYPTO_KEY_REGISTRY_DIRECTORY);
+        final Object keystore = configs.get(CRYPTO_KEY_REGISTRY_KEYSTORE);
+
+        if(directory != null && keystore != null) {
+            throw new ConfigException("Only one of "+CRYPTO_KEY_REGISTRY_DIRECTORY+" and "+CRYPTO_KEY_REGISTRY_KEYSTORE+" can be set");
+        }
+
+        if(directory == null && keystore == null) {
+            return null;
+        }
+
+        final Object defaultName = configs.get(CRYPTO_KEY_REGISTRY_DEFAULT);
+        final Object reloadMs = configs.get(CRYPTO_KEY_REGISTRY_RELOAD_MS);
+        final String name = defaultName == null ? DEFAULT_NAME : defaultName.toString();
+        final long reload = reloadMs == null ? 30000 : Long.parseLong(reloadMs.toString().trim());
+
+        if(directory != null) {
+            return new DirectoryKeyRegistry(directory.toString(), name, reload, EnvelopeSerdeBase.sharedKeys(configs));
+        }
+
+        final Object password = configs.get(CRYPTO_KEY_REGISTRY_KEYSTORE_PASSWORD);
+        final Object type = configs.get(CRYPTO_KEY_REGISTRY_KEYSTORE_TYPE);
+        return new KeyStoreKeyRegistry(keystore.toString(), password == null ? null : password.toString().toCharArray(),
+                type == null ? "PKCS12" : type.toString(), name, reload);
+    }
+
+    /**
+     * @return the keys of the topic, or the default keys if the topic has none
+     * @throws KafkaException if neither exist or cannot be read
+     */
+    public TopicKeys get(final String topic) {
+        final Resolved resolved = topics.get(topic);
+
+        if(resolved != null && (reloadNanos <= 0 || System.nanoTime() - resolved.checked < reloadNanos)) {
+            return resolved.keys;
+        }
+
+        return resolve(topic, resolved);
+    }
+
+    /**
+     * Checks the source of the topic's keys and (re)loads them if they are new or have changed
+     */
+    private TopicKeys resolve(final String topic, final Resolved previous) {
+        String name = topic;
+        long stamp = stamp(topic);
+
+        if(stamp == MISSING) {
+            name = defaultName;
+            stamp = stamp(defaultName);
+        }
+
+        if(stamp == MISSING) {
+            if(previous != null) {
+                //keys removed, keep using the last ones rather than failing every record until they are back
+                topics.put(topic, new Resolved(previous.keys, System.nanoTime()));
+                return previous.keys;
+            }
+            throw new KafkaException("No keys for topic "+topic+" and no "+defaultName+" keys in "+this);
+        }
+
+        Loaded keys = loaded.get(name);
+
+        if(keys == null || keys.stamp != stamp) {
+            //concurrent lookups of a changed topic may load it twice, which is harmless
+            final TopicKeys current = load(name);
+            final Loaded fresh = new Loaded(keys == null ? current : current.replacing(keys.keys), stamp);
+            loads.incrementAndGet();
+            if(keys != null) {
+                reloads.incrementAndGet();
+            }
+            loaded.put(name, fresh);
+            keys = fresh;
+        }
+
+        topics.put(topic, new Resolved(keys.keys, System.nanoTime()));
+        return keys.keys;
+    }
+
+    /**
+     * @return a value which changes whenever the keys with this name change (e.g. file modification time and size),
+     *         {@link #MISSING} if there are none
+     */
+    protected abstract long stamp(String name);
+
+    /**
+     * @throws KafkaException if the keys cannot be read or parsed
+     */
+    protected abstract TopicKeys load(String name);
+
+    /**
+     * @return how often keys have been parsed, including reloads
+     */
+    public long loads() {
+        return loads.get();
+    }
+
+    /**
+     * @return how often keys have been parsed again because they changed
+     */
+    public long reloads() {
+        return reloads.get();
+    }
+
+    /**
+     * @return number of topics resolved so far
+     */
+    public int size() {
+        return topics.size();
+    }
+
+    private static class Resolved {
+        private final TopicKeys keys;
+        private final long checked;
+
+        Resolved(final TopicKeys keys, final long checked) {
+            this.keys = keys;
+            this.checked = checked;
+        }
+    }
+
+    private static class Loaded {
+        private final TopicKeys keys;
+        private final long stamp;
+
+        Loaded(final TopicKeys keys, final long stamp) {
+            this.keys = keys;
+            this.stamp = stamp;
+        }
+    }
+}
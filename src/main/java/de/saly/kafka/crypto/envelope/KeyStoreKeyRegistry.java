@@ -0,0 +1,130 @@
+package de.saly.kafka.crypto.envelope;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.Certificate;
+import java.util.Arrays;
+
+import org.apache.kafka.common.KafkaException;
+
+/**
+ * Keys of a topic in a keystore (PKCS12 by default, see {@value #CRYPTO_KEY_REGISTRY_KEYSTORE_TYPE}) under the topic name
+ * as alias: a private key entry for consumers (its certificate carries the public key) or a trusted certificate entry
+ * for producers, which only need the public key. The keys are protected with the store password. The whole keystore is
+ * reloaded when its modification time or size changes, topics whose keys did not change keep their cached keys.
+ * Keystores are not meant for concurrent access, so it is only read under a lock (which lookups of cached keys never take).
+ */
+final class KeyStoreKeyRegistry extends KeyRegistry {
+
+    private final Path file;
+    private final char[] password;
+    private final String type;
+    private volatile Store store;
+
+    KeyStoreKeyRegistry(final String file, final char[] password, final String type, final String defaultName, final long reloadMs) {
+        super(defaultName, reloadMs);
+        this.file = Paths.get(file);
+        this.password = password;
+        this.type = type;
+        this.store = open(fileStamp());
+    }
+
+    @Override
+    protected synchronized long stamp(final String name) {
+        final Store store = current();
+
+        try {
+            //the certificate changes with the key pair, so cached keys are only replaced if their entry changed
+            return store.keyStore.containsAlias(name) ? entryHash(store.keyStore, name) : MISSING;
+        } catch (GeneralSecurityException e) {
+            throw new KafkaException("Unable to read "+name+" from "+file, e);
+        }
+    }
+
+    @Override
+    protected synchronized TopicKeys load(final String name) {
+        final KeyStore keyStore = current().keyStore;
+
+        try {
+            final Certificate certificate = keyStore.getCertificate(name);
+            final Key key = keyStore.isKeyEntry(name) ? keyStore.getKey(name, password) : null;
+
+            if(key != null && !(key instanceof PrivateKey)) {
+                throw new KafkaException("Entry "+name+" in "+file+" is not a private key");
+            }
+
+            return new TopicKeys(name, certificate == null ? null : certificate.getPublicKey(), (PrivateKey) key);
+        } catch (GeneralSecurityException e) {
+            throw new KafkaException("Unable to read keys of "+name+" from "+file, e);
+        }
+    }
+
+    private static int entryHash(final KeyStore keyStore, final String name) throws GeneralSecurityException {
+        final Certificate certificate = keyStore.getCertificate(name);
+        return certificate == null ? 0 : Arrays.hashCode(certificate.getEncoded());
+    }
+
+    /**
+     * @return the store, opened again if the file changed
+     */
+    private Store current() {
+        final long stamp = fileStamp();
+        Store current = store;
+
+        if(current.stamp != stamp) {
+            synchronized (this) {
+                current = store;
+                if(current.stamp != stamp) {
+                    current = open(stamp);
+                    store = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    private Store open(final long stamp) {
+        try(InputStream in = Files.newInputStream(file)) {
+            final KeyStore keyStore = KeyStore.getInstance(type);
+            keyStore.load(in, password);
+            return new Store(keyStore, stamp);
+        } catch (IOException | GeneralSecurityException e) {
+            throw new KafkaException("Unable to open keystore "+file, e);
+        }
+    }
+
+    private long fileStamp() {
+        try {
+            final BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            return 31 * attributes.lastModifiedTime().toMillis() + attributes.size();
+        } catch (NoSuchFileException e) {
+            throw new KafkaException("Keystore "+file+" does not exist", e);
+        } catch (IOException e) {
+            throw new KafkaException("Unable to check "+file, e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return file.toString();
+    }
+
+    private static class Store {
+        private final KeyStore keyStore;
+        private final long stamp;
+
+        Store(final KeyStore keyStore, final long stamp) {
+            this.keyStore = keyStore;
+            this.stamp = stamp;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package de.saly.kafka.crypto.envelope;
+
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+
+import org.apache.kafka.common.KafkaException;
+
+/**
+ * The RSA key pair of a topic (or of all topics if only one pair is configured), either key may be missing:
+ * producers only need the public key, consumers only the private key.
+ * <p>
+ * Initializing an OAEP cipher with an RSA key costs more than a wrap with it, so every thread keeps its own
+ * cipher initialized once per key for wrapping and unwrapping data keys.
+ * <p>
+ * Keys reloaded by a {@link KeyRegistry} keep the private key they replaced: data keys it wrapped (records produced
+ * before the change) are unwrapped with it if the current private key fails.
+ */
+public final class TopicKeys {
+
+    private final String name;
+    private final PublicKey publicKey;
+    private final PrivateKey privateKey;
+    private final TopicKeys previous;
+
+    private final ThreadLocal<Cipher> wrapCiphers = new ThreadLocal<Cipher>() {
+        @Override
+        protected Cipher initialValue() {
+            return rsaCipher(Cipher.WRAP_MODE, publicKey);
+        }
+    };
+
+    private final ThreadLocal<Cipher> unwrapCiphers = new ThreadLocal<Cipher>() {
+        @Override
+        protected Cipher initialValue() {
+            return rsaCipher(Cipher.UNWRAP_MODE, privateKey);
+        }
+    };
+
+    public TopicKeys(final String name, final PublicKey publicKey, final PrivateKey privateKey) {
+        this(name, publicKey, privateKey, null);
+    }
+
+    private TopicKeys(final String name, final PublicKey publicKey, final PrivateKey privateKey, final TopicKeys previous) {
+        this.name = name;
+        this.publicKey = publicKey;
+        this.privateKey = privateKey;
+        this.previous = previous;
+    }
+
+    /**
+     * @return these keys with the private key of {@code replaced} as fallback for unwrapping, only one generation
+     *         is kept so that keys replaced again and again do not pile up
+     */
+    TopicKeys replacing(final TopicKeys replaced) {
+        if(replaced.privateKey == null || replaced.privateKey.equals(privateKey)) {
+            return this;
+        }
+        return new TopicKeys(name, publicKey, privateKey, new TopicKeys(replaced.name, null, replaced.privateKey));
+    }
+
+    /**
+     * @return the keys replaced by these ones (only the private key), null if there were none
+     */
+    public TopicKeys previous() {
+        return previous;
+    }
+
+    /**
+     * @return the topic name or the name of the fallback keys which a topic resolved to
+     */
+    public String name() {
+        return name;
+    }
+
+    public PublicKey publicKey() {
+        return publicKey;
+    }
+
+    public PrivateKey privateKey() {
+        return privateKey;
+    }
+
+    public byte[] wrap(final SecretKey key) throws GeneralSecurityException {
+        if(publicKey == null) {
+            throw new KafkaException("No public key for "+name);
+        }
+
+        try {
+            return wrapCiphers.get().wrap(key);
+        } catch (GeneralSecurityException | RuntimeException e) {
+            wrapCiphers.remove();
+            throw e;
+        }
+    }
+
+    public SecretKey unwrap(final byte[] wrapped, final String keyAlgorithm) throws GeneralSecurityException {
+        if(privateKey == null) {
+            throw new KafkaException("No private key for "+name);
+        }
+
+        try {
+            return (SecretKey) unwrapCiphers.get().unwrap(wrapped, keyAlgorithm, Cipher.SECRET_KEY);
+        } catch (GeneralSecurityException e) {
+            //a failed unwrap (wrong key, manipulated record) must not leave a half used cipher behind
+            unwrapCiphers.remove();
+
+            if(previous == null) {
+                throw e;
+            }
+
+            //wrapped before the keys were replaced
+            try {
+                return previous.unwrap(wrapped, keyAlgorithm);
+            } catch (GeneralSecurityException ex) {
+                e.addSuppressed(ex);
+                throw e;
+            }
+        } catch (RuntimeException e) {
+            unwrapCiphers.remove();
+            throw e;
+        }
+    }
+
+    private static Cipher rsaCipher(final int opmode, final Key key) {
+        try {
+            final Cipher rsa = Cipher.getInstance(EnvelopeSerdeBase.RSA_TRANSFORMATION);
+            rsa.init(opmode, key);
+            return rsa;
+        } catch (GeneralSecurityException e) {
+            throw new KafkaException("Unable to initialize "+EnvelopeSerdeBase.RSA_TRANSFORMATION, e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "TopicKeys [" + name + (publicKey == null ? "" : ", public") + (privateKey == null ? "" : ", private")
+                + (previous == null ? "" : ", previous private") + "]";
+    }
+}
@@ -0,0 +1,256 @@
+package de.saly.kafka.crypto.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.config.ConfigException;
+import org.apache.kafka.common.metrics.JmxReporter;
+import org.apache.kafka.common.metrics.KafkaMetric;
+import org.apache.kafka.common.metrics.Measurable;
+import org.apache.kafka.common.metrics.MetricConfig;
+import org.apache.kafka.common.metrics.Metrics;
+import org.apache.kafka.common.metrics.MetricsReporter;
+import org.apache.kafka.common.metrics.Sensor;
+import org.apache.kafka.common.metrics.stats.Avg;
+import org.apache.kafka.common.metrics.stats.Max;
+import org.apache.kafka.common.metrics.stats.Percentile;
+import org.apache.kafka.common.metrics.stats.Percentiles;
+import org.apache.kafka.common.metrics.stats.Percentiles.BucketSizing;
+import org.apache.kafka.common.metrics.stats.Rate;
+import org.apache.kafka.common.metrics.stats.Total;
+import org.apache.kafka.common.utils.SystemTime;
+
+/**
+ * Per-topic sensors of the metered serdes, registered on a {@link Metrics} registry of their own which is reported over JMX
+ * in the domain of the client ({@code kafka.producer} or {@code kafka.consumer}), tagged with the client id, {@code serde}
+ * ({@code key} or {@code value}, so a client may meter both) and the topic:
+ * <ul>
+ * <li>{@code <op>-time-avg|max|p50|p99|p99.9} in microseconds</li>
+ * <li>{@code bytes-in-rate|total} plaintext (encrypt) or ciphertext (decrypt) and {@code bytes-out-rate|total} the other way round</li>
+ * <li>{@code records-total} and {@code overhead-bytes-avg}, ciphertext minus plaintext per record</li>
+ * <li>the plaintext side is only known with a {@code crypto.wrapped_serializer}/{@code crypto.wrapped_deserializer}, without
+ * one records and ciphertext bytes are still counted, but plaintext bytes and the overhead are not</li>
+ * <li>{@code <op>-error-rate|total} records which could not be encrypted or decrypted</li>
+ * </ul>
+ * Kafka sensors synchronize and update every stat on each record, which costs more than encrypting a small record. So the totals
+ * are counted exactly, but times and rates are only recorded for every {@value #CRYPTO_METRICS_SAMPLE_INTERVAL}th record
+ * (default: 16, 1 records all) of a thread. The sample window and count follow the client's {@code metrics.sample.window.ms}
+ * and {@code metrics.num.samples}.
+ * <p>
+ * The client id tag is the {@code client.id} the serde is configured with. Serdes are configured before the client
+ * generates an id, so without an explicit {@code client.id} the tag is empty ({@code client-id=""}) rather than the
+ * {@code producer-1}/{@code consumer-1} of the client's own metrics, and the sensors of such clients share their MBeans.
+ * Set {@code client.id} when more than one metered client runs in a JVM.
+ */
+public class CryptoSensors implements AutoCloseable {
+
+    public static final String CRYPTO_METRICS_SAMPLE_INTERVAL = "crypto.metrics.sample.interval";
+
+    private static final double MAX_MICROS = TimeUnit.SECONDS.toMicros(1);
+    private static final int PERCENTILES_SIZE_BYTES = 4000;
+
+    private final Metrics metrics;
+    private final String operation;
+    private final String group;
+    private final Map<String, String> serdeTags;
+    private final int sampleInterval;
+    private final ThreadLocal<int[]> sampleCounter = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[1];
+        }
+    };
+    private final ConcurrentMap<String, TopicSensors> topics = new ConcurrentHashMap<>();
+
+    /**
+     * @param jmxPrefix JMX domain, e.g. {@code kafka.producer}
+     * @param operation {@code encrypt} or {@code decrypt}
+     * @param isKey whether the serde is the key serde of the client
+     */
+    public CryptoSensors(final Map<String, ?> configs, final String jmxPrefix, final String operation, final boolean isKey) {
+        final MetricConfig config = new MetricConfig();
+        final Object window = configs.get("metrics.sample.window.ms");
+        if(window != null) {
+            config.timeWindow(Long.parseLong(window.toString()), TimeUnit.MILLISECONDS);
+        }
+        final Object samples = configs.get("metrics.num.samples");
+        if(samples != null) {
+            config.samples(Integer.parseInt(samples.toString()));
+        }
+
+        //every Metrics registers its own kafka-metrics-count, which would replace (and on close remove) the MBean of the client
+        this.metrics = new Metrics(config, new ArrayList<MetricsReporter>(), new SystemTime());
+        this.metrics.removeMetric(metrics.metricName("count", "kafka-metrics-count"));
+        this.metrics.addReporter(new JmxReporter(jmxPrefix));
+        this.operation = operation;
+        this.group = "crypto-" + operation + "-metrics";
+
+        final Object interval = configs.get(CRYPTO_METRICS_SAMPLE_INTERVAL);
+        this.sampleInterval = interval == null ? 16 : Integer.parseInt(interval.toString());
+        if(sampleInterval < 1) {
+            throw new ConfigException(CRYPTO_METRICS_SAMPLE_INTERVAL, interval, "Must be at least 1");
+        }
+
+        final Object clientId = configs.get("client.id");
+        final Map<String, String> tags = new LinkedHashMap<>();
+        tags.put("client-id", clientId == null ? "" : clientId.toString());
+        tags.put("serde", isKey ? "key" : "value");
+        this.serdeTags = Collections.unmodifiableMap(tags);
+    }
+
+    /**
+     * @return true if the next record of the calling thread should be timed
+     */
+    public boolean sample() {
+        final int[] counter = sampleCounter.get();
+        if(++counter[0] >= sampleInterval) {
+            counter[0] = 0;
+            return true;
+        }
+        return false;
+    }
+
+    public TopicSensors forTopic(final String topic) {
+        final TopicSensors sensors = topics.get(topic);
+        if(sensors != null) {
+            return sensors;
+        }
+
+        synchronized (topics) {
+            final TopicSensors existing = topics.get(topic);
+            if(existing != null) {
+                return existing;
+            }
+
+            final TopicSensors created = new TopicSensors(topic);
+            topics.put(topic, created);
+            return created;
+        }
+    }
+
+    /**
+     * Registers a gauge which is not per topic, e.g. the key unwrap counters
+     */
+    public void addGauge(final String name, final String description, final Measurable measurable) {
+        metrics.addMetric(metrics.metricName(name, group, description, new HashMap<>(serdeTags)), measurable);
+    }
+
+    /**
+     * @return all registered metrics, as seen over JMX
+     */
+    public Map<MetricName, KafkaMetric> metrics() {
+        return Collections.unmodifiableMap(metrics.metrics());
+    }
+
+    @Override
+    public void close() {
+        metrics.close();
+    }
+
+    public class TopicSensors {
+        private final LongAdder records = new LongAdder();
+        private final LongAdder bytesInTotal = new LongAdder();
+        private final LongAdder bytesOutTotal = new LongAdder();
+        //records with both lengths known and the sum of their length differences
+        private final LongAdder measured = new LongAdder();
+        private final LongAdder overhead = new LongAdder();
+        private final Sensor time;
+        private final Sensor bytesIn;
+        private final Sensor bytesOut;
+        private final Sensor errors;
+
+        private TopicSensors(final String topic) {
+            final Map<String, String> tags = new LinkedHashMap<>(serdeTags);
+            tags.put("topic", topic);
+            final String prefix = operation + ":" + topic + ":";
+
+            time = metrics.sensor(prefix + "time");
+            time.add(name(operation + "-time-avg", "Average time to " + operation + " a record in microseconds", tags), new Avg());
+            time.add(name(operation + "-time-max", "Maximum time to " + operation + " a record in microseconds", tags), new Max());
+            time.add(new Percentiles(PERCENTILES_SIZE_BYTES, MAX_MICROS, BucketSizing.LINEAR,
+                    new Percentile(name(operation + "-time-p50", "Median time to " + operation + " a record in microseconds", tags), 50),
+                    new Percentile(name(operation + "-time-p99", "99th percentile time to " + operation + " a record in microseconds", tags), 99),
+                    new Percentile(name(operation + "-time-p99.9", "99.9th percentile time to " + operation + " a record in microseconds", tags), 99.9)));
+
+            bytesIn = metrics.sensor(prefix + "bytes-in");
+            bytesIn.add(name("bytes-in-rate", "Bytes per second going into " + operation + "ion", tags), new Rate());
+            bytesOut = metrics.sensor(prefix + "bytes-out");
+            bytesOut.add(name("bytes-out-rate", "Bytes per second coming out of " + operation + "ion", tags), new Rate());
+
+            metrics.addMetric(name("records-total", "Records gone through " + operation + "ion", tags), total(records));
+            metrics.addMetric(name("bytes-in-total", "Bytes gone into " + operation + "ion", tags), total(bytesInTotal));
+            metrics.addMetric(name("bytes-out-total", "Bytes come out of " + operation + "ion", tags), total(bytesOutTotal));
+            metrics.addMetric(name("overhead-bytes-avg", "Average ciphertext minus plaintext bytes per record", tags), new Measurable() {
+                @Override
+                public double measure(MetricConfig config, long now) {
+                    final long count = measured.sum();
+                    return count == 0 ? 0 : Math.abs(overhead.sum()) / (double) count;
+                }
+            });
+
+            errors = metrics.sensor(prefix + "errors");
+            errors.add(name(operation + "-error-rate", "Records per second which could not be " + operation + "ed", tags), new Rate());
+            errors.add(name(operation + "-error-total", "Records which could not be " + operation + "ed", tags), new Total());
+        }
+
+        private MetricName name(final String name, final String description, final Map<String, String> tags) {
+            return metrics.metricName(name, group, description, new HashMap<>(tags));
+        }
+
+        private Measurable total(final LongAdder adder) {
+            return new Measurable() {
+                @Override
+                public double measure(MetricConfig config, long now) {
+                    return adder.sum();
+                }
+            };
+        }
+
+        /**
+         * @param nanos time the record took, negative if it was not sampled
+         * @param bytesIn length of the input, negative if unknown
+         * @param bytesOut length of the output, negative if unknown
+         */
+        public void record(final long nanos, final int bytesIn, final int bytesOut) {
+            final boolean sampled = nanos >= 0;
+            final long now = sampled ? System.currentTimeMillis() : 0;
+
+            if(sampled) {
+                time.record(nanos / 1000d, now);
+            }
+
+            records.increment();
+
+            if(bytesIn >= 0) {
+                bytesInTotal.add(bytesIn);
+                if(sampled) {
+                    this.bytesIn.record(bytesIn * (double) sampleInterval, now);
+                }
+            }
+
+            if(bytesOut >= 0) {
+                bytesOutTotal.add(bytesOut);
+                if(sampled) {
+                    this.bytesOut.record(bytesOut * (double) sampleInterval, now);
+                }
+            }
+
+            if(bytesIn >= 0 && bytesOut >= 0) {
+                measured.increment();
+                overhead.add(bytesOut - bytesIn);
+            }
+        }
+
+        public void error() {
+            errors.record();
+        }
+    }
+}
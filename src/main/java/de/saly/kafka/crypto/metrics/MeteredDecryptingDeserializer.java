@@ -0,0 +1,115 @@
+package de.saly.kafka.crypto.metrics;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.kafka.common.metrics.Measurable;
+import org.apache.kafka.common.metrics.MetricConfig;
+import org.apache.kafka.common.serialization.Deserializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.saly.kafka.crypto.DecryptingDeserializer;
+import de.saly.kafka.crypto.envelope.DataKeyCache;
+import de.saly.kafka.crypto.envelope.EnvelopeDecryptingDeserializer;
+import de.saly.kafka.crypto.util.ConfiguredInstances;
+
+/**
+ * Measures the deserializer configured as {@value #CRYPTO_METRICS_DESERIALIZER} (default: {@link DecryptingDeserializer},
+ * the {@link EnvelopeDecryptingDeserializer} works as well) and reports the {@link CryptoSensors} over JMX in the
+ * {@code kafka.consumer} domain.
+ * <p>
+ * For the {@link EnvelopeDecryptingDeserializer} the key cache is reported as well: {@code key-unwrap-total} (RSA unwraps),
+ * {@code key-unwrap-failure-total} and {@code key-cache-hit-total}. The {@link DecryptingDeserializer} does not expose its
+ * key handling.
+ */
+public class MeteredDecryptingDeserializer<T> implements Deserializer<T> {
+
+    public static final String CRYPTO_METRICS_DESERIALIZER = "crypto.metrics.deserializer";
+
+    private static final Logger log = LoggerFactory.getLogger(MeteredDecryptingDeserializer.class);
+
+    private Deserializer<T> delegate;
+    private CryptoSensors sensors;
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public void configure(final Map<String, ?> configs, final boolean isKey) {
+        final Map<String, Object> delegateConfigs = new HashMap<>(configs);
+        //the counting serde goes between the measured serde and the actual one
+        if(configs.containsKey(DecryptingDeserializer.CRYPTO_VALUE_DESERIALIZER)) {
+            delegateConfigs.put(PlaintextCounter.CRYPTO_METRICS_WRAPPED_DESERIALIZER, configs.get(DecryptingDeserializer.CRYPTO_VALUE_DESERIALIZER));
+            delegateConfigs.put(DecryptingDeserializer.CRYPTO_VALUE_DESERIALIZER, PlaintextCounter.CountingDeserializer.class.getName());
+        } else {
+            log.warn("{} is not set, records and ciphertext bytes are counted but not plaintext bytes", DecryptingDeserializer.CRYPTO_VALUE_DESERIALIZER);
+        }
+
+        if(!configs.containsKey(CRYPTO_METRICS_DESERIALIZER)) {
+            delegateConfigs.put(CRYPTO_METRICS_DESERIALIZER, DecryptingDeserializer.class.getName());
+        }
+
+        delegate = ConfiguredInstances.newInstance(delegateConfigs, CRYPTO_METRICS_DESERIALIZER, Deserializer.class);
+        delegate.configure(delegateConfigs, isKey);
+        sensors = new CryptoSensors(configs, "kafka.consumer", "decrypt", isKey);
+
+        if(delegate instanceof EnvelopeDecryptingDeserializer) {
+            final DataKeyCache cache = ((EnvelopeDecryptingDeserializer<T>) delegate).keyCache();
+            sensors.addGauge("key-unwrap-total", "Data keys unwrapped with the RSA private key", new Measurable() {
+                @Override
+                public double measure(MetricConfig config, long now) {
+                    return cache.misses();
+                }
+            });
+            sensors.addGauge("key-unwrap-failure-total", "Data keys which could not be unwrapped", new Measurable() {
+                @Override
+                public double measure(MetricConfig config, long now) {
+                    return cache.failures();
+                }
+            });
+            sensors.addGauge("key-cache-hit-total", "Data keys found in the cache", new Measurable() {
+                @Override
+                public double measure(MetricConfig config, long now) {
+                    return cache.hits();
+                }
+            });
+        }
+    }
+
+    @Override
+    public T deserialize(final String topic, final byte[] data) {
+        final CryptoSensors.TopicSensors topicSensors = sensors.forTopic(topic);
+        final boolean sample = sensors.sample();
+        final long start = sample ? System.nanoTime() : 0;
+        final T result;
+
+        try {
+            result = delegate.deserialize(topic, data);
+        } catch (RuntimeException e) {
+            topicSensors.error();
+            throw e;
+        }
+
+        final long nanos = sample ? System.nanoTime() - start : -1;
+        final int plaintext = PlaintextCounter.takeLastLength();
+
+        if(data != null) {
+            topicSensors.record(nanos, data.length, plaintext);
+        }
+        return result;
+    }
+
+    public CryptoSensors sensors() {
+        return sensors;
+    }
+
+    @Override
+    public void close() {
+        if(delegate != null) {
+            delegate.close();
+        }
+
+        if(sensors != null) {
+            sensors.close();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package de.saly.kafka.crypto.metrics;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.kafka.common.serialization.Serializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.saly.kafka.crypto.EncryptingSerializer;
+import de.saly.kafka.crypto.util.ConfiguredInstances;
+
+/**
+ * Measures the serializer configured as {@value #CRYPTO_METRICS_SERIALIZER} (default: {@link EncryptingSerializer},
+ * the envelope serializers work as well) and reports the {@link CryptoSensors} over JMX in the {@code kafka.producer} domain.
+ * <p>
+ * Configure it as {@code value.serializer} with the same settings as the measured serializer, the wrapped
+ * serializer ({@code crypto.wrapped_serializer}) is still the one turning the value into plaintext.
+ */
+public class MeteredEncryptingSerializer<T> implements Serializer<T> {
+
+    public static final String CRYPTO_METRICS_SERIALIZER = "crypto.metrics.serializer";
+
+    private static final Logger log = LoggerFactory.getLogger(MeteredEncryptingSerializer.class);
+
+    private Serializer<T> delegate;
+    private CryptoSensors sensors;
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public void configure(final Map<String, ?> configs, final boolean isKey) {
+        final Map<String, Object> delegateConfigs = new HashMap<>(configs);
+        //the counting serde goes between the measured serde and the actual one
+        if(configs.containsKey(EncryptingSerializer.CRYPTO_VALUE_SERIALIZER)) {
+            delegateConfigs.put(PlaintextCounter.CRYPTO_METRICS_WRAPPED_SERIALIZER, configs.get(EncryptingSerializer.CRYPTO_VALUE_SERIALIZER));
+            delegateConfigs.put(EncryptingSerializer.CRYPTO_VALUE_SERIALIZER, PlaintextCounter.CountingSerializer.class.getName());
+        } else {
+            log.warn("{} is not set, records and ciphertext bytes are counted but not plaintext bytes", EncryptingSerializer.CRYPTO_VALUE_SERIALIZER);
+        }
+
+        if(!configs.containsKey(CRYPTO_METRICS_SERIALIZER)) {
+            delegateConfigs.put(CRYPTO_METRICS_SERIALIZER, EncryptingSerializer.class.getName());
+        }
+
+        delegate = ConfiguredInstances.newInstance(delegateConfigs, CRYPTO_METRICS_SERIALIZER, Serializer.class);
+        delegate.configure(delegateConfigs, isKey);
+        sensors = new CryptoSensors(configs, "kafka.producer", "encrypt", isKey);
+    }
+
+    @Override
+    public byte[] serialize(final String topic, final T data) {
+        final CryptoSensors.TopicSensors topicSensors = sensors.forTopic(topic);
+        final boolean sample = sensors.sample();
+        final long start = sample ? System.nanoTime() : 0;
+        final byte[] crypt;
+
+        try {
+            crypt = delegate.serialize(topic, data);
+        } catch (RuntimeException e) {
+            topicSensors.error();
+            throw e;
+        }
+
+        final long nanos = sample ? System.nanoTime() - start : -1;
+        final int plaintext = PlaintextCounter.takeLastLength();
+
+        if(crypt != null) {
+            topicSensors.record(nanos, plaintext, crypt.length);
+        }
+        return crypt;
+    }
+
+    public CryptoSensors sensors() {
+        return sensors;
+    }
+
+    @Override
+    public void close() {
+        if(delegate != null) {
+            delegate.close();
+        }
+
+        if(sensors != null) {
+            sensors.close();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package de.saly.kafka.crypto.metrics;
+
+import java.util.Map;
+
+import org.apache.kafka.common.serialization.Deserializer;
+import org.apache.kafka.common.serialization.Serializer;
+
+import de.saly.kafka.crypto.util.ConfiguredInstances;
+
+/**
+ * The encrypting serdes never expose the plaintext, so the metered serdes put these counting serdes in the
+ * {@code crypto.wrapped_serializer}/{@code crypto.wrapped_deserializer} slot. They hand the plaintext length of the
+ * current record to the metered serde on the same thread.
+ */
+public final class PlaintextCounter {
+
+    public static final String CRYPTO_METRICS_WRAPPED_SERIALIZER = "crypto.metrics.wrapped_serializer";
+    public static final String CRYPTO_METRICS_WRAPPED_DESERIALIZER = "crypto.metrics.wrapped_deserializer";
+
+    private static final ThreadLocal<int[]> LAST_LENGTH = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[] {-1};
+        }
+    };
+
+    private PlaintextCounter() {
+    }
+
+    /**
+     * @return the plaintext length of the last record serialized or deserialized on this thread, -1 if unknown (or null)
+     */
+    static int takeLastLength() {
+        final int[] last = LAST_LENGTH.get();
+        final int length = last[0];
+        last[0] = -1;
+        return length;
+    }
+
+    private static void setLastLength(final byte[] plain) {
+        LAST_LENGTH.get()[0] = plain == null ? -1 : plain.length;
+    }
+
+    public static class CountingSerializer<T> implements Serializer<T> {
+
+        private Serializer<T> inner;
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public void configure(final Map<String, ?> configs, final boolean isKey) {
+            inner = ConfiguredInstances.newInstance(configs, CRYPTO_METRICS_WRAPPED_SERIALIZER, Serializer.class);
+            inner.configure(configs, isKey);
+        }
+
+        @Override
+        public byte[] serialize(final String topic, final T data) {
+            final byte[] plain = inner.serialize(topic, data);
+            setLastLength(plain);
+            return plain;
+        }
+
+        @Override
+        public void close() {
+            if(inner != null) {
+                inner.close();
+            }
+        }
+    }
+
+    public static class CountingDeserializer<T> implements Deserializer<T> {
+
+        private Deserializer<T> inner;
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public void configure(final Map<String, ?> configs, final boolean isKey) {
+            inner = ConfiguredInstances.newInstance(configs, CRYPTO_METRICS_WRAPPED_DESERIALIZER, Deserializer.class);
+            inner.configure(configs, isKey);
+        }
+
+        @Override
+        public T deserialize(final String topic, final byte[] data) {
+            setLastLength(data);
+            return inner.deserialize(topic, data);
+        }
+
+        @Override
+        public void close() {
+            if(inner != null) {
+                inner.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package de.saly.kafka.crypto.proxy;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.kafka.common.config.ConfigException;
+import org.apache.kafka.common.protocol.ApiKeys;
+import org.apache.kafka.common.protocol.ProtoUtils;
+import org.apache.kafka.common.protocol.types.Struct;
+
+/**
+ * Replaces broker addresses in Metadata and GroupCoordinator responses so that clients which bootstrapped
+ * through the proxy keep talking to a proxy instead of connecting to the brokers directly.
+ * Addresses are matched as {@code host:port} exactly like the broker advertises them, unknown ones are left alone.
+ */
+final class AddressRewriter {
+
+    private final Map<String, Endpoint> routes = new HashMap<>();
+
+    /**
+     * @param routes comma separated {@code brokerhost:port=proxyhost:port} pairs, may be empty
+     */
+    AddressRewriter(final String routes) {
+        for (final String route : routes.split(",")) {
+            if(route.trim().isEmpty()) {
+                continue;
+            }
+
+            final String[] pair = route.split("=");
+            if(pair.length != 2) {
+                throw new ConfigException(EncDecProxy.CRYPTO_PROXY_ROUTES, routes, "Expected brokerhost:port=proxyhost:port, was "+route);
+            }
+
+            add(pair[0].trim(), pair[1].trim());
+        }
+    }
+
+    void add(final String broker, final String proxy) {
+        final int colon = proxy.lastIndexOf(':');
+        if(colon < 1) {
+            throw new ConfigException(EncDecProxy.CRYPTO_PROXY_ROUTES, proxy, "Expected proxyhost:port");
+        }
+
+        try {
+            routes.put(broker, new Endpoint(proxy.substring(0, colon), Integer.parseInt(proxy.substring(colon + 1))));
+        } catch (NumberFormatException e) {
+            throw new ConfigException(EncDecProxy.CRYPTO_PROXY_ROUTES, proxy, "Invalid port");
+        }
+    }
+
+    /**
+     * @return the rewritten response or the given frame if no address was replaced
+     */
+    ByteBuffer rewrite(final ByteBuffer frame, final short apiKey, final short version) {
+        final ByteBuffer body = frame.duplicate();
+        body.position(ProxyConnection.RESPONSE_HEADER_SIZE);
+        final Struct response = ProtoUtils.parseResponse(apiKey, version, body);
+        boolean rewritten = false;
+
+        if(apiKey == ApiKeys.METADATA.id) {
+            for (final Object broker : response.getArray("brokers")) {
+                rewritten |= rewrite((Struct) broker);
+            }
+        } else if(apiKey == ApiKeys.GROUP_COORDINATOR.id) {
+            rewritten = rewrite(response.getStruct("coordinator"));
+        }
+
+        return rewritten ? ProxyConnection.response(frame.getInt(ProxyConnection.SIZE_LENGTH), response) : frame;
+    }
+
+    private boolean rewrite(final Struct node) {
+        final Endpoint proxy = routes.get(node.getString("host") + ":" + node.getInt("port"));
+
+        if(proxy == null) {
+            return false;
+        }
+
+        node.set("host", proxy.host);
+        node.set("port", proxy.port);
+        return true;
+    }
+
+    private static final class Endpoint {
+        final String host;
+        final int port;
+
+        Endpoint(final String host, final int port) {
+            this.host = host;
+            this.port = port;
+        }
+    }
+}
@@ -0,0 +1,315 @@
+package de.saly.kafka.crypto.proxy;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.saly.kafka.crypto.DecryptingDeserializer;
+import de.saly.kafka.crypto.proxy.ProxyConnection.Response;
+
+/**
+ * Kafka protocol proxy in front of a broker which decrypts record values in Fetch responses, so that consumers
+ * with plain {@code ByteArrayDeserializer}s or {@code StringDeserializer}s can read encrypted topics.
+ * <p>
+ * One selector thread accepts client connections, opens a connection to the broker for each of them and shuffles
+ * the size prefixed requests and responses between the two without blocking. Every API except Fetch is passed
+ * through unchanged, apart from the broker addresses in Metadata and GroupCoordinator responses which are replaced
+ * by the address of the proxy (see {@value #CRYPTO_PROXY_ROUTES}). Fetch responses for consumers are parsed,
+ * their messages decrypted in parallel on a {@link ForkJoinPool} and written back uncompressed with new sizes and CRCs.
+ * <p>
+ * It is configured like a consumer (without bootstrap.servers): the {@code value.deserializer} decrypts the values
+ * and has to return the plaintext {@code byte[]}, by default it is the {@code DecryptingDeserializer} wrapping the
+ * {@code ByteArrayDeserializer}, which needs the private key in {@code crypto.rsa.privatekey.filepath}.
+ * <ul>
+ * <li>{@value #CRYPTO_PROXY_WORKERS} decryption threads, defaults to the number of cores</li>
+ * <li>{@value #CRYPTO_PROXY_TOPICS} regular expression of the topics to decrypt, defaults to all topics</li>
+ * <li>{@value #CRYPTO_PROXY_ADVERTISED_HOST} host name clients are told to connect to, defaults to the local host name</li>
+ * <li>{@value #CRYPTO_PROXY_ROUTES} comma separated {@code brokerhost:port=proxyhost:port} pairs for the other brokers
+ * of the cluster, each of them needs its own proxy. The broker the proxy forwards to is always routed to the proxy.</li>
+ * <li>{@value #CRYPTO_PROXY_FAILURE_PASSTHROUGH} true passes values which can not be decrypted on encrypted (default: false)</li>
+ * </ul>
+ * By default a value which can not be decrypted fails the fetch of its partition at its offset with {@code CORRUPT_MESSAGE},
+ * so the consumer stops at that offset instead of getting ciphertext. Every failure is logged either way.
+ */
+public class EncDecProxy implements Closeable {
+
+    public static final String CRYPTO_PROXY_WORKERS = "crypto.proxy.workers";
+    public static final String CRYPTO_PROXY_TOPICS = "crypto.proxy.topics";
+    public static final String CRYPTO_PROXY_ADVERTISED_HOST = "crypto.proxy.advertised.host";
+    public static final String CRYPTO_PROXY_ROUTES = "crypto.proxy.routes";
+    public static final String CRYPTO_PROXY_FAILURE_PASSTHROUGH = "crypto.proxy.failure.passthrough";
+
+    private static final Logger log = LoggerFactory.getLogger(EncDecProxy.class);
+
+    private final InetSocketAddress broker;
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private final AddressRewriter rewriter;
+    private final FetchDecryptor decryptor;
+    private final ForkJoinPool workers;
+    private final Set<ProxyConnection> connections = ConcurrentHashMap.newKeySet();
+    private final Queue<ProxyConnection> completed = new ConcurrentLinkedQueue<>();
+    private final LongAdder fetches = new LongAdder();
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    /**
+     * Listens on all interfaces and starts the selector thread.
+     *
+     * @param port the port to listen on, 0 for a free one
+     */
+    public static EncDecProxy start(final int port, final String brokerHost, final int brokerPort, final Map<String, ?> configs)
+            throws IOException {
+        final EncDecProxy proxy = new EncDecProxy(new InetSocketAddress(port), brokerHost, brokerPort, configs);
+        proxy.thread.start();
+        return proxy;
+    }
+
+    private EncDecProxy(final InetSocketAddress listen, final String brokerHost, final int brokerPort, final Map<String, ?> configs)
+            throws IOException {
+        final Map<String, Object> proxyConfigs = new HashMap<>(configs);
+        if(!proxyConfigs.containsKey("value.deserializer")) {
+            proxyConfigs.put("value.deserializer", DecryptingDeserializer.class);
+            proxyConfigs.put(DecryptingDeserializer.CRYPTO_VALUE_DESERIALIZER, ByteArrayDeserializer.class.getName());
+        }
+
+        final int parallelism = proxyConfigs.containsKey(CRYPTO_PROXY_WORKERS)
+                ? Integer.parseInt(proxyConfigs.get(CRYPTO_PROXY_WORKERS).toString()) : Runtime.getRuntime().availableProcessors();
+        if(parallelism < 1) {
+            throw new IllegalArgumentException(CRYPTO_PROXY_WORKERS+" must be at least 1, was "+parallelism);
+        }
+
+        final Object topics = proxyConfigs.get(CRYPTO_PROXY_TOPICS);
+        final Object routes = proxyConfigs.get(CRYPTO_PROXY_ROUTES);
+        final Object advertisedHost = proxyConfigs.get(CRYPTO_PROXY_ADVERTISED_HOST);
+        final Object passThrough = proxyConfigs.get(CRYPTO_PROXY_FAILURE_PASSTHROUGH);
+
+        this.broker = new InetSocketAddress(brokerHost, brokerPort);
+        this.decryptor = new FetchDecryptor(proxyConfigs, Pattern.compile(topics == null ? ".*" : topics.toString()), parallelism,
+                passThrough != null && Boolean.parseBoolean(passThrough.toString().trim()));
+        this.workers = decryptor.pool();
+        this.rewriter = new AddressRewriter(routes == null ? "" : routes.toString());
+        this.selector = Selector.open();
+        this.server = ServerSocketChannel.open();
+
+        try {
+            server.bind(listen);
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+
+        rewriter.add(brokerHost + ":" + brokerPort, (advertisedHost == null ? InetAddress.getLocalHost().getCanonicalHostName()
+                : advertisedHost.toString()) + ":" + port());
+
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, "encdec-proxy-" + port());
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * @return the port the proxy listens on
+     */
+    public int port() {
+        return server.socket().getLocalPort();
+    }
+
+    /**
+     * @return number of open client connections
+     */
+    public int connections() {
+        return connections.size();
+    }
+
+    /**
+     * @return number of Fetch responses passed through the decryptor
+     */
+    public long fetches() {
+        return fetches.sum();
+    }
+
+    /**
+     * @return number of decrypted record values
+     */
+    public long decryptedRecords() {
+        return decryptor.decrypted();
+    }
+
+    /**
+     * @return number of record values which could not be decrypted, with {@value #CRYPTO_PROXY_FAILURE_PASSTHROUGH}
+     *         they were passed on encrypted, otherwise their partition was failed
+     */
+    public long decryptionFailures() {
+        return decryptor.failures();
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        selector.wakeup();
+
+        if(thread != null && thread != Thread.currentThread()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        for (final ProxyConnection connection : connections) {
+            connection.close();
+        }
+        connections.clear();
+
+        server.close();
+        selector.close();
+        decryptor.close();
+    }
+
+    /**
+     * @return bytes waiting to be written to clients and the broker, read from another thread than the selector
+     *         thread it is only an estimate
+     */
+    long queuedBytes() {
+        long queued = 0;
+        for (final ProxyConnection connection : connections) {
+            queued += connection.queuedBytes();
+        }
+        return queued;
+    }
+
+    AddressRewriter rewriter() {
+        return rewriter;
+    }
+
+    /**
+     * Decrypts a Fetch response on the worker pool and completes the response with it.
+     */
+    void decrypt(final ProxyConnection connection, final Response response, final ByteBuffer frame, final short version) {
+        fetches.increment();
+        workers.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    response.complete(decryptor.decrypt(frame, version), null);
+                } catch (RuntimeException e) {
+                    response.complete(null, e);
+                }
+
+                completed.add(connection);
+                selector.wakeup();
+            }
+        });
+    }
+
+    private void loop() {
+        try {
+            while (running) {
+                selector.select();
+
+                ProxyConnection connection;
+                while ((connection = completed.poll()) != null) {
+                    try {
+                        connection.completed();
+                    } catch (IOException | RuntimeException e) {
+                        close(connection);
+                    }
+                }
+
+                final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    final SelectionKey key = keys.next();
+                    keys.remove();
+
+                    if(!key.isValid()) {
+                        continue;
+                    }
+
+                    if(key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+
+                    connection = (ProxyConnection) key.attachment();
+                    try {
+                        connection.handle(key);
+                    } catch (IOException | RuntimeException e) {
+                        close(connection);
+                    }
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            if(running) {
+                throw new KafkaException("Proxy on port "+port()+" failed", e);
+            }
+        }
+    }
+
+    private void accept() {
+        final SocketChannel client;
+        try {
+            client = server.accept();
+        } catch (IOException e) {
+            //e.g. too many open files, the client is accepted once the condition clears
+            if(running) {
+                log.error("Could not accept a connection on port {}", port(), e);
+            }
+            return;
+        }
+
+        if(client == null) {
+            return;
+        }
+
+        SocketChannel upstream = null;
+        try {
+            upstream = SocketChannel.open();
+            client.configureBlocking(false);
+            client.socket().setTcpNoDelay(true);
+            upstream.configureBlocking(false);
+            upstream.socket().setTcpNoDelay(true);
+            upstream.connect(broker);
+
+            final ProxyConnection connection = new ProxyConnection(this, client, upstream);
+            connection.register(selector);
+            connections.add(connection);
+        } catch (IOException e) {
+            log.warn("Could not connect client {} to broker {}", client.socket().getRemoteSocketAddress(), broker, e);
+            ProxyConnection.closeQuietly(client);
+            ProxyConnection.closeQuietly(upstream);
+        }
+    }
+
+    private void close(final ProxyConnection connection) {
+        connection.close();
+        connections.remove(connection);
+    }
+}
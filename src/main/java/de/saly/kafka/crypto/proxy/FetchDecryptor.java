@@ -0,0 +1,278 @@
+package de.saly.kafka.crypto.proxy;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+import org.apache.kafka.common.protocol.ApiKeys;
+import org.apache.kafka.common.protocol.Errors;
+import org.apache.kafka.common.protocol.ProtoUtils;
+import org.apache.kafka.common.protocol.types.Struct;
+import org.apache.kafka.common.serialization.Deserializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.saly.kafka.crypto.proxy.MessageSets.Message;
+import de.saly.kafka.crypto.proxy.MessageSets.Partition;
+import de.saly.kafka.crypto.util.ConfiguredInstances;
+
+/**
+ * Decrypts the record values of a Fetch response. All messages of the response are decrypted in parallel, as
+ * {@link RecursiveAction}s on the {@link #pool()} of the decryptor. Every worker thread owns a value deserializer
+ * configured from the proxy config and closes it when it terminates, so at most {@code parallelism} are alive.
+ * <p>
+ * A value which can not be decrypted fails its partition like a corrupt record would: the messages before it are
+ * returned, and once it is the first message of a fetch the partition is answered with {@code CORRUPT_MESSAGE}, so the
+ * consumer does not get past it (the 0.10 consumer logs the error on every fetch). With {@code passThrough} such values are returned encrypted instead.
+ * Every failure is logged and counted.
+ */
+final class FetchDecryptor {
+
+    private static final Logger log = LoggerFactory.getLogger(FetchDecryptor.class);
+    private static final long CLOSE_TIMEOUT_MS = 10000;
+
+    private final Map<String, Object> configs;
+    private final Pattern topics;
+    private final int parallelism;
+    private final boolean passThrough;
+    private final ForkJoinPool pool;
+    private final LongAdder decrypted = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    FetchDecryptor(final Map<String, Object> configs, final Pattern topics, final int parallelism, final boolean passThrough) {
+        this.configs = configs;
+        this.topics = topics;
+        this.parallelism = parallelism;
+        this.passThrough = passThrough;
+        this.pool = new ForkJoinPool(parallelism, new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+            @Override
+            public ForkJoinWorkerThread newThread(final ForkJoinPool pool) {
+                return new Worker(pool);
+            }
+        }, null, false);
+    }
+
+    /**
+     * @return the pool Fetch responses have to be decrypted on
+     */
+    ForkJoinPool pool() {
+        return pool;
+    }
+
+    /**
+     * Must be called on a thread of the {@link #pool()}.
+     *
+     * @param frame the complete response including size and correlation id
+     * @return the response with decrypted values, or the given frame if there was nothing to decrypt
+     */
+    ByteBuffer decrypt(final ByteBuffer frame, final short version) {
+        final ByteBuffer body = frame.duplicate();
+        body.position(ProxyConnection.RESPONSE_HEADER_SIZE);
+        final Struct response = ProtoUtils.parseResponse(ApiKeys.FETCH.id, version, body);
+
+        final List<Struct> partitionStructs = new ArrayList<>();
+        final List<Partition> partitions = new ArrayList<>();
+        int count = 0;
+
+        for (final Object topicResponse : response.getArray("responses")) {
+            final String topic = ((Struct) topicResponse).getString("topic");
+
+            if(!topics.matcher(topic).matches()) {
+                continue;
+            }
+
+            for (final Object partitionResponse : ((Struct) topicResponse).getArray("partition_responses")) {
+                final Struct partitionStruct = (Struct) partitionResponse;
+                final ByteBuffer set = partitionStruct.getBytes("record_set");
+
+                if(!set.hasRemaining()) {
+                    continue;
+                }
+
+                final Partition partition = MessageSets.read(topic, set);
+
+                if(partition != null) {
+                    partitionStructs.add(partitionStruct);
+                    partitions.add(partition);
+                    count += partition.messages.size();
+                }
+            }
+        }
+
+        if(count == 0) {
+            return frame;
+        }
+
+        final Message[] messages = new Message[count];
+        int i = 0;
+        for (final Partition partition : partitions) {
+            for (final Message message : partition.messages) {
+                messages[i++] = message;
+            }
+        }
+
+        //a few more chunks than workers so that stealing can even out unequal record sizes
+        new DecryptTask(messages, 0, count, Math.max(1, count / (parallelism * 4))).invoke();
+
+        for (i = 0; i < partitions.size(); i++) {
+            partitionStructs.get(i).set("record_set", recordSet(partitionStructs.get(i), partitions.get(i)));
+        }
+
+        return ProxyConnection.response(frame.getInt(ProxyConnection.SIZE_LENGTH), response);
+    }
+
+    /**
+     * @return the decrypted messages up to the first one which could not be decrypted, all of them with pass-through
+     */
+    private ByteBuffer recordSet(final Struct partitionStruct, final Partition partition) {
+        final List<Message> messages = partition.messages;
+
+        for (int i = 0; i < messages.size(); i++) {
+            final Message message = messages.get(i);
+
+            if(message.failure == null) {
+                continue;
+            }
+
+            final int number = partitionStruct.getInt("partition");
+
+            if(passThrough) {
+                log.warn("Passing on the encrypted value of {}-{} at offset {}, decryption failed: {}", message.topic, number,
+                        message.offset, message.failure.toString());
+                continue;
+            }
+
+            log.error("Failing fetch of {}-{} at offset {}, the value can not be decrypted", message.topic, number,
+                    message.offset, message.failure);
+
+            if(i == 0) {
+                partitionStruct.set("error_code", Errors.CORRUPT_MESSAGE.code());
+                return ByteBuffer.allocate(0);
+            }
+
+            return MessageSets.write(new Partition(messages.subList(0, i), ByteBuffer.allocate(0)));
+        }
+
+        return MessageSets.write(partition);
+    }
+
+    long decrypted() {
+        return decrypted.sum();
+    }
+
+    long failures() {
+        return failures.sum();
+    }
+
+    /**
+     * Stops the pool, its workers close their deserializers when they terminate
+     */
+    void close() {
+        pool.shutdownNow();
+        try {
+            pool.awaitTermination(CLOSE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Deserializer<byte[]> deserializer() {
+        final Thread thread = Thread.currentThread();
+
+        if(thread instanceof FetchDecryptor.Worker && ((Worker) thread).owner() == this) {
+            return ((Worker) thread).deserializer();
+        }
+
+        throw new IllegalStateException("Fetch responses must be decrypted on the pool of the decryptor, not on "+thread.getName());
+    }
+
+    private void decrypt(final Message[] messages, final int from, final int to) {
+        final Deserializer<byte[]> d = deserializer();
+
+        for (int i = from; i < to; i++) {
+            final Message message = messages[i];
+
+            if(message.value == null) {
+                continue;
+            }
+
+            try {
+                message.value = d.deserialize(message.topic, message.value);
+                decrypted.increment();
+            } catch (RuntimeException e) {
+                message.failure = e;
+                failures.increment();
+            }
+        }
+    }
+
+    private class DecryptTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Message[] messages;
+        private final int from;
+        private final int to;
+        private final int grain;
+
+        DecryptTask(final Message[] messages, final int from, final int to, final int grain) {
+            this.messages = messages;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            if(to - from <= grain) {
+                decrypt(messages, from, to);
+            } else {
+                final int mid = (from + to) >>> 1;
+                invokeAll(new DecryptTask(messages, from, mid, grain), new DecryptTask(messages, mid, to, grain));
+            }
+        }
+    }
+
+    /**
+     * Pool thread owning its deserializer, it is created with the first response and closed when the thread terminates.
+     */
+    private class Worker extends ForkJoinWorkerThread {
+
+        private Deserializer<byte[]> deserializer;
+
+        Worker(final ForkJoinPool pool) {
+            super(pool);
+        }
+
+        FetchDecryptor owner() {
+            return FetchDecryptor.this;
+        }
+
+        @SuppressWarnings("unchecked")
+        Deserializer<byte[]> deserializer() {
+            if(deserializer == null) {
+                deserializer = ConfiguredInstances.newInstance(configs, "value.deserializer", Deserializer.class);
+                deserializer.configure(configs, false);
+            }
+            return deserializer;
+        }
+
+        @Override
+        protected void onTermination(final Throwable exception) {
+            try {
+                if(deserializer != null) {
+                    deserializer.close();
+                }
+            } finally {
+                super.onTermination(exception);
+            }
+        }
+    }
+}
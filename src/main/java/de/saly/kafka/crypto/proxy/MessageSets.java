@@ -0,0 +1,167 @@
+package de.saly.kafka.crypto.proxy;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.record.CompressionType;
+import org.apache.kafka.common.record.InvalidRecordException;
+import org.apache.kafka.common.record.LogEntry;
+import org.apache.kafka.common.record.MemoryRecords;
+import org.apache.kafka.common.record.Record;
+import org.apache.kafka.common.record.Records;
+import org.apache.kafka.common.record.TimestampType;
+import org.apache.kafka.common.utils.Crc32;
+import org.apache.kafka.common.utils.Utils;
+
+/**
+ * Reads the message set of a fetched partition into single messages and writes them back, uncompressed and with
+ * new values, in the 0.10 on-wire format: {@code offset (8) | size (4) | crc (4) | magic (1) | attributes (1) |
+ * [timestamp (8)] | key length (4) | key | value length (4) | value}.
+ */
+final class MessageSets {
+
+    private static final int CRC_LENGTH = 4;
+    private static final int TIMESTAMP_LENGTH = 8;
+
+    private MessageSets() {
+    }
+
+    /**
+     * One message of a fetched partition, compressed wrappers are already unpacked.
+     */
+    static final class Message {
+        final String topic;
+        final long offset;
+        final byte magic;
+        final TimestampType timestampType;
+        final long timestamp;
+        final byte[] key;
+        byte[] value;
+        //why the value could not be decrypted, null if it was
+        RuntimeException failure;
+
+        Message(final String topic, final long offset, final Record record) {
+            this.topic = topic;
+            this.offset = offset;
+            this.magic = record.magic();
+            this.timestampType = record.timestampType();
+            this.timestamp = record.timestamp();
+            this.key = record.hasKey() ? Utils.toArray(record.key()) : null;
+            this.value = record.value() == null ? null : Utils.toArray(record.value());
+        }
+
+        int size() {
+            return Records.LOG_OVERHEAD + recordSize();
+        }
+
+        private int recordSize() {
+            return Record.RECORD_OVERHEAD - (magic > Record.MAGIC_VALUE_V0 ? 0 : TIMESTAMP_LENGTH)
+                    + (key == null ? 0 : key.length) + (value == null ? 0 : value.length);
+        }
+    }
+
+    /**
+     * The messages of one partition plus the incomplete message the broker may have cut off at the end of the response.
+     */
+    static final class Partition {
+        final List<Message> messages;
+        final ByteBuffer trailing;
+
+        Partition(final List<Message> messages, final ByteBuffer trailing) {
+            this.messages = messages;
+            this.trailing = trailing;
+        }
+
+        int size() {
+            int size = trailing.remaining();
+            for (final Message message : messages) {
+                size += message.size();
+            }
+            return size;
+        }
+    }
+
+    /**
+     * @return the messages in the set or null if it contains no complete message or a corrupt one,
+     *         the set is then best handed to the consumer unchanged so that it can report the error
+     */
+    static Partition read(final String topic, final ByteBuffer set) {
+        final ByteBuffer buffer = set.duplicate();
+        final List<Message> messages = new ArrayList<>();
+
+        try {
+            while (buffer.remaining() >= Records.LOG_OVERHEAD) {
+                final int start = buffer.position();
+                final long offset = buffer.getLong(start);
+                final int size = buffer.getInt(start + Records.OFFSET_LENGTH);
+
+                if(size < 0 || buffer.remaining() < Records.LOG_OVERHEAD + size) {
+                    break;
+                }
+
+                final ByteBuffer entry = slice(buffer, start, Records.LOG_OVERHEAD + size);
+                final Record record = new Record(slice(buffer, start + Records.LOG_OVERHEAD, size));
+                record.ensureValid();
+
+                if(record.compressionType() == CompressionType.NONE) {
+                    messages.add(new Message(topic, offset, record));
+                } else {
+                    for (final LogEntry inner : MemoryRecords.readableRecords(entry)) {
+                        messages.add(new Message(topic, inner.offset(), inner.record()));
+                    }
+                }
+
+                buffer.position(start + Records.LOG_OVERHEAD + size);
+            }
+        } catch (InvalidRecordException | KafkaException e) {
+            return null;
+        }
+
+        return messages.isEmpty() ? null : new Partition(messages, buffer.slice());
+    }
+
+    static ByteBuffer write(final Partition partition) {
+        final ByteBuffer out = ByteBuffer.allocate(partition.size());
+
+        for (final Message message : partition.messages) {
+            out.putLong(message.offset);
+            out.putInt(message.recordSize());
+
+            final int crcPosition = out.position();
+            out.position(crcPosition + CRC_LENGTH);
+            out.put(message.magic);
+            out.put(message.timestampType == TimestampType.NO_TIMESTAMP_TYPE ? 0
+                    : message.timestampType.updateAttributes((byte) Record.NO_COMPRESSION));
+            if(message.magic > Record.MAGIC_VALUE_V0) {
+                out.putLong(message.timestamp);
+            }
+            putBytes(out, message.key);
+            putBytes(out, message.value);
+
+            final long crc = Crc32.crc32(out.array(), out.arrayOffset() + crcPosition + CRC_LENGTH, out.position() - crcPosition - CRC_LENGTH);
+            out.putInt(crcPosition, (int) crc);
+        }
+
+        out.put(partition.trailing.duplicate());
+        out.flip();
+        return out;
+    }
+
+    private static void putBytes(final ByteBuffer out, final byte[] bytes) {
+        if(bytes == null) {
+            out.putInt(-1);
+        } else {
+            out.putInt(bytes.length);
+            out.put(bytes);
+        }
+    }
+
+    private static ByteBuffer slice(final ByteBuffer buffer, final int position, final int length) {
+        final ByteBuffer slice = buffer.duplicate();
+        slice.position(position);
+        slice.limit(position + length);
+        return slice.slice();
+    }
+}
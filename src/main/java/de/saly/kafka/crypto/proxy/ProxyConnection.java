@@ -0,0 +1,311 @@
+package de.saly.kafka.crypto.proxy;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import org.apache.kafka.common.protocol.ApiKeys;
+import org.apache.kafka.common.protocol.types.Struct;
+
+/**
+ * One client connection and the connection to the broker opened for it. Lives on the selector thread of the
+ * {@link EncDecProxy}, only the decryption of Fetch responses happens elsewhere.
+ * <p>
+ * Requests are forwarded as they are, the header is only peeked at to remember which API and version the
+ * response with the same correlation id will have. Responses go back to the client in request order,
+ * a response which is still being decrypted holds back the ones behind it.
+ * <p>
+ * While more than {@value #MAX_QUEUED_BYTES} bytes wait to be written to one side, the other side is not read,
+ * so a slow client or broker can not make the proxy buffer without bound.
+ */
+final class ProxyConnection {
+
+    static final int SIZE_LENGTH = 4;
+    static final int RESPONSE_HEADER_SIZE = SIZE_LENGTH + 4;
+
+    //api key, api version, correlation id and the length of the client id
+    private static final int REQUEST_HEADER_SIZE = SIZE_LENGTH + 2 + 2 + 4 + 2;
+    //same as the broker's default socket.request.max.bytes
+    private static final int MAX_FRAME_SIZE = 100 * 1024 * 1024;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    static final int MAX_QUEUED_BYTES = 8 * 1024 * 1024;
+
+    private final EncDecProxy proxy;
+    private final SocketChannel client;
+    private final SocketChannel upstream;
+    private final FrameReader fromClient = new FrameReader();
+    private final FrameReader fromUpstream = new FrameReader();
+    private final Deque<ByteBuffer> toClient = new ArrayDeque<>();
+    private final Deque<ByteBuffer> toUpstream = new ArrayDeque<>();
+    private final Deque<InFlight> inFlight = new ArrayDeque<>();
+    private final Deque<Response> responses = new ArrayDeque<>();
+    private long toClientBytes;
+    private long toUpstreamBytes;
+    private SelectionKey clientKey;
+    private SelectionKey upstreamKey;
+    private boolean closed;
+
+    ProxyConnection(final EncDecProxy proxy, final SocketChannel client, final SocketChannel upstream) {
+        this.proxy = proxy;
+        this.client = client;
+        this.upstream = upstream;
+    }
+
+    void register(final Selector selector) throws IOException {
+        clientKey = client.register(selector, SelectionKey.OP_READ, this);
+        upstreamKey = upstream.register(selector, upstream.isConnectionPending() ? SelectionKey.OP_CONNECT : SelectionKey.OP_READ, this);
+    }
+
+    /**
+     * Handles whatever the selector reported as ready for one of the two channels.
+     */
+    void handle(final SelectionKey key) throws IOException {
+        if(key.channel() == upstream) {
+            if(key.isConnectable()) {
+                upstream.finishConnect();
+            } else if(key.isReadable()) {
+                for (final ByteBuffer frame : fromUpstream.read(upstream)) {
+                    response(frame);
+                }
+                flushResponses();
+            }
+        } else if(key.isReadable()) {
+            for (final ByteBuffer frame : fromClient.read(client)) {
+                request(frame);
+            }
+        }
+
+        flush();
+    }
+
+    /**
+     * Called on the selector thread after a Fetch response was decrypted.
+     */
+    void completed() throws IOException {
+        if(!closed) {
+            flushResponses();
+            flush();
+        }
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    void close() {
+        closed = true;
+        closeQuietly(client);
+        closeQuietly(upstream);
+    }
+
+    static ByteBuffer response(final int correlationId, final Struct body) {
+        final ByteBuffer frame = ByteBuffer.allocate(RESPONSE_HEADER_SIZE + body.sizeOf());
+        frame.putInt(frame.capacity() - SIZE_LENGTH);
+        frame.putInt(correlationId);
+        body.writeTo(frame);
+        frame.flip();
+        return frame;
+    }
+
+    private void request(final ByteBuffer frame) throws IOException {
+        if(frame.limit() < REQUEST_HEADER_SIZE) {
+            throw new IOException("Request of "+frame.limit()+" bytes is too short");
+        }
+
+        final short apiKey = frame.getShort(SIZE_LENGTH);
+        final short version = frame.getShort(SIZE_LENGTH + 2);
+        final int correlationId = frame.getInt(SIZE_LENGTH + 4);
+        final int body = REQUEST_HEADER_SIZE + Math.max(0, frame.getShort(REQUEST_HEADER_SIZE - 2));
+
+        if(apiKey == ApiKeys.PRODUCE.id && frame.getShort(body) == 0) {
+            //acks=0, the broker does not answer
+        } else {
+            //only fetches of consumers (replica id -1) and not those of followers are decrypted
+            final boolean decrypt = apiKey == ApiKeys.FETCH.id && frame.getInt(body) < 0;
+            inFlight.add(new InFlight(correlationId, apiKey, version, decrypt));
+        }
+
+        toUpstream.add(frame);
+        toUpstreamBytes += frame.remaining();
+    }
+
+    private void response(final ByteBuffer frame) throws IOException {
+        final InFlight request = inFlight.poll();
+        final int correlationId = frame.getInt(SIZE_LENGTH);
+
+        if(request == null || request.correlationId != correlationId) {
+            throw new IOException("Unexpected response with correlation id "+correlationId);
+        }
+
+        final Response response = new Response();
+        responses.add(response);
+
+        if(request.decrypt) {
+            proxy.decrypt(this, response, frame, request.version);
+        } else if(request.apiKey == ApiKeys.METADATA.id || request.apiKey == ApiKeys.GROUP_COORDINATOR.id) {
+            response.complete(proxy.rewriter().rewrite(frame, request.apiKey, request.version), null);
+        } else {
+            response.complete(frame, null);
+        }
+    }
+
+    private void flushResponses() throws IOException {
+        Response head;
+        while ((head = responses.peek()) != null && head.done) {
+            responses.poll();
+
+            if(head.failure != null) {
+                throw new IOException("Could not decrypt fetch response", head.failure);
+            }
+
+            toClient.add(head.frame);
+            toClientBytes += head.frame.remaining();
+        }
+    }
+
+    private void flush() throws IOException {
+        toClientBytes -= write(client, toClient);
+
+        if(upstream.isConnected()) {
+            toUpstreamBytes -= write(upstream, toUpstream);
+        }
+
+        //a side is only read while the queue towards the other side is below the bound
+        clientKey.interestOps((toUpstreamBytes > MAX_QUEUED_BYTES ? 0 : SelectionKey.OP_READ)
+                | (toClient.isEmpty() ? 0 : SelectionKey.OP_WRITE));
+        upstreamKey.interestOps(upstream.isConnectionPending() ? SelectionKey.OP_CONNECT
+                : (toClientBytes > MAX_QUEUED_BYTES ? 0 : SelectionKey.OP_READ) | (toUpstream.isEmpty() ? 0 : SelectionKey.OP_WRITE));
+    }
+
+    long queuedBytes() {
+        return toClientBytes + toUpstreamBytes;
+    }
+
+    /**
+     * @return number of bytes written
+     */
+    private static long write(final SocketChannel channel, final Deque<ByteBuffer> queue) throws IOException {
+        long written = 0;
+        ByteBuffer head;
+        while ((head = queue.peek()) != null) {
+            written += channel.write(head);
+
+            if(head.hasRemaining()) {
+                break;
+            }
+
+            queue.poll();
+        }
+        return written;
+    }
+
+    static void closeQuietly(final SocketChannel channel) {
+        if(channel == null) {
+            return;
+        }
+
+        try {
+            channel.close();
+        } catch (IOException e) {
+            //ignore
+        }
+    }
+
+    private static final class InFlight {
+        final int correlationId;
+        final short apiKey;
+        final short version;
+        final boolean decrypt;
+
+        InFlight(final int correlationId, final short apiKey, final short version, final boolean decrypt) {
+            this.correlationId = correlationId;
+            this.apiKey = apiKey;
+            this.version = version;
+            this.decrypt = decrypt;
+        }
+    }
+
+    /**
+     * A response on its way to the client, completed by a worker thread for Fetch responses.
+     */
+    static final class Response {
+        private ByteBuffer frame;
+        private Throwable failure;
+        private volatile boolean done;
+
+        void complete(final ByteBuffer frame, final Throwable failure) {
+            this.frame = frame;
+            this.failure = failure;
+            this.done = true;
+        }
+    }
+
+    /**
+     * Splits the bytes read from a channel into size prefixed frames, every frame is returned as one buffer
+     * including its size.
+     */
+    private static final class FrameReader {
+        private final ByteBuffer in = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        private ByteBuffer frame;
+
+        List<ByteBuffer> read(final SocketChannel channel) throws IOException {
+            final List<ByteBuffer> frames = new ArrayList<>(1);
+
+            //large frames are read directly instead of being copied through the read buffer
+            final int read = frame != null && in.position() == 0 ? channel.read(frame) : channel.read(in);
+            if(read < 0) {
+                throw new EOFException();
+            }
+
+            if(frame != null && !frame.hasRemaining()) {
+                frames.add(complete());
+            }
+
+            in.flip();
+            while (true) {
+                if(frame == null) {
+                    if(in.remaining() < SIZE_LENGTH) {
+                        break;
+                    }
+
+                    final int size = in.getInt();
+                    if(size < 0 || size > MAX_FRAME_SIZE) {
+                        throw new IOException("Invalid frame size "+size);
+                    }
+
+                    frame = ByteBuffer.allocate(SIZE_LENGTH + size);
+                    frame.putInt(size);
+                }
+
+                final int n = Math.min(in.remaining(), frame.remaining());
+                final ByteBuffer chunk = in.duplicate();
+                chunk.limit(chunk.position() + n);
+                frame.put(chunk);
+                in.position(in.position() + n);
+
+                if(frame.hasRemaining()) {
+                    break;
+                }
+
+                frames.add(complete());
+            }
+            in.compact();
+
+            return frames;
+        }
+
+        private ByteBuffer complete() {
+            final ByteBuffer complete = frame;
+            complete.flip();
+            frame = null;
+            return complete;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package de.saly.kafka.crypto.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.config.ConfigException;
+import org.apache.kafka.common.utils.Utils;
+
+/**
+ * Creates the serializers/deserializers named in a client config, which like in the
+ * Kafka clients may be given either as {@link Class} or as class name.
+ */
+public final class ConfiguredInstances {
+
+    private ConfiguredInstances() {
+    }
+
+    public static <T> T newInstance(final Map<String, ?> configs, final String key, final Class<T> type) {
+        final Object value = configs.get(key);
+
+        if(value == null) {
+            throw new ConfigException("Missing required configuration \""+key+"\" which has no default value.");
+        }
+
+        try {
+            final Class<?> clazz = value instanceof Class ? (Class<?>) value : Class.forName(value.toString().trim());
+
+            if(!type.isAssignableFrom(clazz)) {
+                throw new KafkaException(clazz.getName()+" is not an instance of "+type.getName());
+            }
+
+            return type.cast(Utils.newInstance(clazz));
+        } catch (ClassNotFoundException e) {
+            throw new ConfigException(key, value, "Class "+value+" cannot be found");
+        }
+    }
+
+    public static Map<String, Object> propsToMap(final Properties properties) {
+        final Map<String, Object> map = new HashMap<>(properties.size());
+        for (final Map.Entry<Object, Object> entry : properties.entrySet()) {
+            map.put((String) entry.getKey(), entry.getValue());
+        }
+        return map;
+    }
+}
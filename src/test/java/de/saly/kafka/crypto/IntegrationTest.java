@@ -13,6 +13,8 @@ import java.nio.file.attribute.BasicFileAttributes;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Properties;
 
 import org.I0Itec.zkclient.ZkClient;
@@ -22,9 +24,12 @@ import org.apache.kafka.clients.consumer.KafkaConsumer;
 import org.apache.kafka.clients.producer.KafkaProducer;
 import org.apache.kafka.clients.producer.Producer;
 import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.TopicPartition;
 import org.junit.Assert;
 import org.junit.Test;
 
+import de.saly.kafka.crypto.proxy.EncDecProxy;
+
 import kafka.admin.AdminUtils;
 import kafka.admin.RackAwareMode;
 import kafka.server.KafkaConfig;
@@ -226,14 +231,10 @@ public class IntegrationTest {
             assertEquals("datadatadatadatadatadatadatadatadatadatadata:"+Integer.toString(i++), record.value());
         }
         System.out.println("end consume");
-    }
-    
-    
+    }*/
+
     @Test
     public void testInteg3() throws Exception {
-        
-        final int proxyPort = 10991;
-        EncDecProxy.start(proxyPort, BROKERHOST, BROKERPORT);
 
         EmbeddedZookeeper zkServer = new EmbeddedZookeeper();
         String zkConnect = ZKHOST + ":" + zkServer.port();
@@ -250,45 +251,80 @@ public class IntegrationTest {
         Time mock = new MockTime();
         KafkaServer kafkaServer = TestUtils.createServer(config, mock);
 
-        // create topic
-        AdminUtils.createTopic(zkUtils, TOPIC, 1, 1, new Properties(), RackAwareMode.Disabled$.MODULE$);
-        
-        Properties producerProps = new Properties();
-        producerProps.setProperty("bootstrap.servers", BROKERHOST + ":" + BROKERPORT);
-        producerProps.put("enable.auto.commit", "true");
-        producerProps.put("key.serializer", "org.apache.kafka.common.serialization.StringSerializer");
-        producerProps.put("value.serializer", "de.saly.kafka.crypto.EncryptingSerializer");
-        producerProps.put("crypto.wrapped_serializer", "org.apache.kafka.common.serialization.StringSerializer");
-        producerProps.put("crypto.rsa.publickey.filepath", pubKey.getAbsolutePath());
+        Map<String, Object> proxyConfigs = new HashMap<String, Object>();
+        proxyConfigs.put("crypto.rsa.privatekey.filepath", privKey.getAbsolutePath());
+        proxyConfigs.put(EncDecProxy.CRYPTO_PROXY_ADVERTISED_HOST, BROKERHOST);
+        EncDecProxy proxy = EncDecProxy.start(0, BROKERHOST, BROKERPORT, proxyConfigs);
 
+        try {
+            // create topic
+            AdminUtils.createTopic(zkUtils, TOPIC, 1, 1, new Properties(), RackAwareMode.Disabled$.MODULE$);
 
-        Producer<String, String> producer = new KafkaProducer<String, String>(producerProps);
-        System.out.println("start send");
-        for(int i = 0; i < 1000; i++) {
-            producer.send(new ProducerRecord<String, String>(TOPIC, "key:"+Integer.toString(i), "data:"+Integer.toString(i)));
-        }
-        
-        producer.close();
-        System.out.println("end send");
-        Properties consumerProps = new Properties();
-        consumerProps.setProperty("bootstrap.servers", BROKERHOST + ":" + proxyPort);
-        consumerProps.put("group.id", "test");
-        consumerProps.put("key.deserializer", "org.apache.kafka.common.serialization.StringDeserializer");
-        consumerProps.put("value.deserializer", "org.apache.kafka.common.serialization.StringDeserializer");
-        consumerProps.put("auto.offset.reset", "earliest");
-        System.out.println("start consume");
-        KafkaConsumer<String, String> consumer = new KafkaConsumer<String, String>(consumerProps);
-        consumer.subscribe(Arrays.asList(TOPIC));
-        
-        int i =0;
-        ConsumerRecords<String, String> records = consumer.poll(10000);
-        
-        Assert.assertEquals(1000, records.count());
-        
-        for (ConsumerRecord<String, String> record : records) {
-            assertEquals("key:"+String.valueOf(i), record.key());
-            assertEquals("data:"+Integer.toString(i++), record.value());
+            Properties producerProps = new Properties();
+            producerProps.setProperty("bootstrap.servers", BROKERHOST + ":" + BROKERPORT);
+            producerProps.put("key.serializer", "org.apache.kafka.common.serialization.StringSerializer");
+            producerProps.put("value.serializer", "de.saly.kafka.crypto.EncryptingSerializer");
+            producerProps.put("crypto.wrapped_serializer", "org.apache.kafka.common.serialization.StringSerializer");
+            producerProps.put("crypto.rsa.publickey.filepath", pubKey.getAbsolutePath());
+            // the proxy has to decrypt inside compressed wrapper messages
+            producerProps.put("compression.type", "gzip");
+            producerProps.put("linger.ms", "100");
+
+            try(Producer<String, String> producer = new KafkaProducer<String, String>(producerProps)) {
+                for(int i = 0; i < 1000; i++) {
+                    producer.send(new ProducerRecord<String, String>(TOPIC, "key:"+Integer.toString(i), "data:"+Integer.toString(i)));
+                }
+            }
+
+            Properties consumerProps = new Properties();
+            consumerProps.setProperty("bootstrap.servers", BROKERHOST + ":" + proxy.port());
+            consumerProps.put("group.id", "test");
+            consumerProps.put("key.deserializer", "org.apache.kafka.common.serialization.StringDeserializer");
+            consumerProps.put("value.deserializer", "org.apache.kafka.common.serialization.StringDeserializer");
+            consumerProps.put("auto.offset.reset", "earliest");
+
+            try(KafkaConsumer<String, String> consumer = new KafkaConsumer<String, String>(consumerProps)) {
+                consumer.subscribe(Arrays.asList(TOPIC));
+
+                int i = 0;
+                long deadline = System.currentTimeMillis() + 20000;
+                while(i < 1000 && System.currentTimeMillis() < deadline) {
+                    for (ConsumerRecord<String, String> record : consumer.poll(1000)) {
+                        assertEquals(i, record.offset());
+                        assertEquals("key:"+String.valueOf(i), record.key());
+                        assertEquals("data:"+Integer.toString(i++), record.value());
+                    }
+                }
+
+                Assert.assertEquals(1000, i);
+                Assert.assertEquals(1000, proxy.decryptedRecords());
+                Assert.assertEquals(0, proxy.decryptionFailures());
+
+                // a value the proxy can not decrypt must fail the fetch, not reach the consumer encrypted
+                KeyPairGenerator keyGen = KeyPairGenerator.getInstance("RSA");
+                keyGen.initialize(2048);
+                File otherKey = File.createTempFile("kafka", "crypto");
+                otherKey.deleteOnExit();
+                Files.write(otherKey.toPath(), keyGen.genKeyPair().getPublic().getEncoded());
+                producerProps.put("crypto.rsa.publickey.filepath", otherKey.getAbsolutePath());
+                try(Producer<String, String> producer = new KafkaProducer<String, String>(producerProps)) {
+                    producer.send(new ProducerRecord<String, String>(TOPIC, "key:1000", "data:1000")).get();
+                }
+
+                // the consumer logs CORRUPT_MESSAGE on every fetch and stays at the offset
+                deadline = System.currentTimeMillis() + 5000;
+                while(System.currentTimeMillis() < deadline) {
+                    Assert.assertEquals(0, consumer.poll(500).count());
+                }
+
+                Assert.assertEquals(1000, consumer.position(new TopicPartition(TOPIC, 0)));
+                Assert.assertTrue(proxy.decryptionFailures() > 0);
+            }
+        } finally {
+            proxy.close();
+            kafkaServer.shutdown();
+            kafkaServer.awaitShutdown();
+            zkServer.shutdown();
         }
-        System.out.println("end consume");
-    }*/
+    }
 }
@@ -0,0 +1,216 @@
+package de.saly.kafka.crypto;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Future;
+
+import org.I0Itec.zkclient.ZkClient;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.Test;
+
+import de.saly.kafka.crypto.deterministic.DeterministicDecryptingDeserializer;
+import de.saly.kafka.crypto.deterministic.DeterministicEncryptingSerializer;
+import de.saly.kafka.crypto.deterministic.DeterministicSerdeBase;
+import de.saly.kafka.crypto.deterministic.SivCipher;
+import kafka.admin.AdminUtils;
+import kafka.admin.RackAwareMode;
+import kafka.server.KafkaConfig;
+import kafka.server.KafkaServer;
+import kafka.utils.MockTime;
+import kafka.utils.TestUtils;
+import kafka.utils.Time;
+import kafka.utils.ZKStringSerializer$;
+import kafka.utils.ZkUtils;
+import kafka.zk.EmbeddedZookeeper;
+
+/**
+ * Deterministically encrypted keys on a compacted topic: equal keys must give equal ciphertexts, land in the same
+ * partition and be compacted down to their latest value.
+ */
+public class KeyCompactionTest {
+
+    private final static String TOPIC = "compactedKeyTopic";
+    private final static int PARTITIONS = 4;
+    private final static int KEYS = 100;
+    private final static int ROUNDS = 10;
+    //unique keys per partition written after the workload, so the workload is no longer in the active segment
+    private final static int FILLERS = 400;
+
+    private static final String ZKHOST = "127.0.0.1";
+    private static final String BROKERHOST = "127.0.0.1";
+    private static final int BROKERPORT = 9093;
+
+    private final File deterministicKey;
+
+    public KeyCompactionTest() throws Exception {
+        deterministicKey = File.createTempFile("kafka", "siv");
+        deterministicKey.deleteOnExit();
+        Files.write(deterministicKey.toPath(), SivCipher.generateKey());
+    }
+
+    @Test
+    public void testEqualKeysEqualCiphertext() throws Exception {
+        final Map<String, Object> configs = new HashMap<String, Object>();
+        configs.put(DeterministicSerdeBase.CRYPTO_DETERMINISTIC_KEY_FILEPATH, deterministicKey.getAbsolutePath());
+        configs.put(DeterministicSerdeBase.CRYPTO_DETERMINISTIC_CACHE_SIZE, "0");
+        configs.put(DeterministicEncryptingSerializer.CRYPTO_DETERMINISTIC_WRAPPED_SERIALIZER, StringSerializer.class.getName());
+
+        final DeterministicEncryptingSerializer<String> serializer = new DeterministicEncryptingSerializer<String>();
+        serializer.configure(configs, true);
+        final DeterministicEncryptingSerializer<String> other = new DeterministicEncryptingSerializer<String>();
+        other.configure(configs, true);
+
+        assertArrayEquals(serializer.serialize(TOPIC, "key-1"), serializer.serialize(TOPIC, "key-1"));
+        assertArrayEquals(serializer.serialize(TOPIC, "key-1"), other.serialize(TOPIC, "key-1"));
+        assertFalse(Arrays.equals(serializer.serialize(TOPIC, "key-1"), serializer.serialize(TOPIC, "key-2")));
+    }
+
+    @Test
+    public void testCompaction() throws Exception {
+
+        EmbeddedZookeeper zkServer = new EmbeddedZookeeper();
+        String zkConnect = ZKHOST + ":" + zkServer.port();
+        ZkClient zkClient = new ZkClient(zkConnect, 30000, 30000, ZKStringSerializer$.MODULE$);
+        ZkUtils zkUtils = ZkUtils.apply(zkClient, false);
+
+        // setup Broker with a log cleaner which runs early
+        Properties brokerProps = new Properties();
+        brokerProps.setProperty("zookeeper.connect", zkConnect);
+        brokerProps.setProperty("broker.id", "0");
+        brokerProps.setProperty("log.dirs", Files.createTempDirectory("kafka-").toAbsolutePath().toString());
+        brokerProps.setProperty("listeners", "PLAINTEXT://" + BROKERHOST + ":" + BROKERPORT);
+        brokerProps.setProperty("log.cleaner.enable", "true");
+        brokerProps.setProperty("log.cleaner.backoff.ms", "100");
+        brokerProps.setProperty("log.cleaner.dedupe.buffer.size", String.valueOf(16 * 1024 * 1024));
+        KafkaConfig config = new KafkaConfig(brokerProps);
+        Time mock = new MockTime();
+        KafkaServer kafkaServer = TestUtils.createServer(config, mock);
+
+        try {
+            Properties topicConfig = new Properties();
+            topicConfig.setProperty("cleanup.policy", "compact");
+            topicConfig.setProperty("segment.bytes", "16384");
+            topicConfig.setProperty("min.cleanable.dirty.ratio", "0.01");
+            AdminUtils.createTopic(zkUtils, TOPIC, PARTITIONS, 1, topicConfig, RackAwareMode.Disabled$.MODULE$);
+
+            Properties producerProps = new Properties();
+            producerProps.setProperty("bootstrap.servers", BROKERHOST + ":" + BROKERPORT);
+            producerProps.put("key.serializer", DeterministicEncryptingSerializer.class.getName());
+            producerProps.put(DeterministicEncryptingSerializer.CRYPTO_DETERMINISTIC_WRAPPED_SERIALIZER, StringSerializer.class.getName());
+            producerProps.put(DeterministicSerdeBase.CRYPTO_DETERMINISTIC_KEY_FILEPATH, deterministicKey.getAbsolutePath());
+            producerProps.put("value.serializer", StringSerializer.class.getName());
+            // batches must fit into a segment
+            producerProps.put("batch.size", "4096");
+
+            final int[] partitionOf = new int[KEYS];
+            Arrays.fill(partitionOf, -1);
+            final Map<String, String> latest = new HashMap<String, String>();
+
+            try(Producer<String, String> producer = new KafkaProducer<String, String>(producerProps)) {
+                final List<Future<RecordMetadata>> sent = new ArrayList<Future<RecordMetadata>>();
+                for (int i = 0; i < KEYS * ROUNDS; i++) {
+                    sent.add(producer.send(new ProducerRecord<String, String>(TOPIC, "key-" + (i % KEYS), "value:" + i)));
+                    latest.put("key-" + (i % KEYS), "value:" + i);
+                }
+
+                for (int i = 0; i < sent.size(); i++) {
+                    final int partition = sent.get(i).get().partition();
+                    if(partitionOf[i % KEYS] == -1) {
+                        partitionOf[i % KEYS] = partition;
+                    }
+                    assertEquals("partition of key-" + (i % KEYS), partitionOf[i % KEYS], partition);
+                }
+
+                for (int p = 0; p < PARTITIONS; p++) {
+                    for (int i = 0; i < FILLERS; i++) {
+                        final String key = "filler-" + p + "-" + i;
+                        producer.send(new ProducerRecord<String, String>(TOPIC, p, key, "filler"));
+                        latest.put(key, "filler");
+                    }
+                }
+            }
+
+            Properties consumerProps = new Properties();
+            consumerProps.setProperty("bootstrap.servers", BROKERHOST + ":" + BROKERPORT);
+            consumerProps.put("key.deserializer", DeterministicDecryptingDeserializer.class.getName());
+            consumerProps.put(DeterministicDecryptingDeserializer.CRYPTO_DETERMINISTIC_WRAPPED_DESERIALIZER, StringDeserializer.class.getName());
+            consumerProps.put(DeterministicSerdeBase.CRYPTO_DETERMINISTIC_KEY_FILEPATH, deterministicKey.getAbsolutePath());
+            consumerProps.put("value.deserializer", StringDeserializer.class.getName());
+
+            try(KafkaConsumer<String, String> consumer = new KafkaConsumer<String, String>(consumerProps)) {
+                final List<TopicPartition> partitions = new ArrayList<TopicPartition>();
+                for (final PartitionInfo info : consumer.partitionsFor(TOPIC)) {
+                    partitions.add(new TopicPartition(TOPIC, info.partition()));
+                }
+                consumer.assign(partitions);
+
+                // the cleaner runs in the background, read until every key is left once
+                List<ConsumerRecord<String, String>> records = readAll(consumer, partitions);
+                final long deadline = System.currentTimeMillis() + 60000;
+                while(records.size() > latest.size() && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(500);
+                    records = readAll(consumer, partitions);
+                }
+
+                assertEquals("records after compaction", latest.size(), records.size());
+
+                final Map<String, String> read = new HashMap<String, String>();
+                for (final ConsumerRecord<String, String> record : records) {
+                    if(record.key().startsWith("key-")) {
+                        assertEquals(record.key(), partitionOf[Integer.parseInt(record.key().substring(4))], record.partition());
+                    }
+                    assertTrue("duplicate " + record.key(), read.put(record.key(), record.value()) == null);
+                }
+                assertEquals(latest, read);
+            }
+        } finally {
+            kafkaServer.shutdown();
+            kafkaServer.awaitShutdown();
+            zkServer.shutdown();
+        }
+    }
+
+    private static List<ConsumerRecord<String, String>> readAll(final KafkaConsumer<String, String> consumer,
+            final List<TopicPartition> partitions) {
+        consumer.seekToEnd(partitions);
+        final Map<TopicPartition, Long> end = new HashMap<TopicPartition, Long>();
+        for (final TopicPartition tp : partitions) {
+            end.put(tp, consumer.position(tp));
+        }
+        consumer.seekToBeginning(partitions);
+
+        final List<ConsumerRecord<String, String>> records = new ArrayList<ConsumerRecord<String, String>>();
+        boolean reached = false;
+        while(!reached) {
+            for (final ConsumerRecord<String, String> record : consumer.poll(1000)) {
+                records.add(record);
+            }
+
+            reached = true;
+            for (final TopicPartition tp : partitions) {
+                reached &= consumer.position(tp) >= end.get(tp);
+            }
+        }
+        return records;
+    }
+}
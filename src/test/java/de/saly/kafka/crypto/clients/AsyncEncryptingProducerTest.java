@@ -0,0 +1,174 @@
+package de.saly.kafka.crypto.clients;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.Test;
+
+public class AsyncEncryptingProducerTest {
+
+    private static final String TOPIC = "asyncTopic";
+    private static final int KEYS = 10;
+    private static final int RECORDS = 1000;
+
+    @Test(timeout = 30000)
+    public void testKeyOrder() throws Exception {
+        final MockProducer<byte[], byte[]> mock = mock();
+
+        try(AsyncEncryptingProducer<String, String> producer = new AsyncEncryptingProducer<String, String>(mock, config(4, 8))) {
+            for (int i = 0; i < RECORDS; i++) {
+                producer.send(new ProducerRecord<String, String>(TOPIC, "key-" + (i % KEYS), String.valueOf(i)));
+            }
+            producer.flush();
+
+            final List<ProducerRecord<byte[], byte[]>> sent = mock.history();
+            assertEquals(RECORDS, sent.size());
+
+            final int[] last = new int[KEYS];
+            for (final ProducerRecord<byte[], byte[]> record : sent) {
+                final int key = Integer.parseInt(new String(record.key(), "UTF-8").substring(4));
+                final int value = Integer.parseInt(new String(record.value(), "UTF-8"));
+                assertEquals(key, value % KEYS);
+                assertTrue("key-" + key + ": " + value + " after " + last[key], value >= last[key]);
+                last[key] = value;
+            }
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testCloseDrainsLanes() throws Exception {
+        final MockProducer<byte[], byte[]> mock = mock();
+        final AsyncEncryptingProducer<String, String> producer = new AsyncEncryptingProducer<String, String>(mock, config(4, 8));
+        final List<Future<RecordMetadata>> futures = new ArrayList<>();
+
+        for (int i = 0; i < RECORDS; i++) {
+            futures.add(producer.send(new ProducerRecord<String, String>(TOPIC, null, String.valueOf(i))));
+        }
+        producer.close();
+
+        assertEquals(RECORDS, mock.history().size());
+        for (final Future<RecordMetadata> future : futures) {
+            assertTrue(future.isDone());
+        }
+
+        try {
+            producer.send(new ProducerRecord<String, String>(TOPIC, "key", "value"));
+            fail("Sent after close");
+        } catch (IllegalStateException e) {
+            //expected
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testThrowingCallback() throws Exception {
+        final MockProducer<byte[], byte[]> mock = mock();
+        final AtomicInteger[] calls = new AtomicInteger[RECORDS];
+
+        //one lane, every record goes through the lane of the failing callbacks
+        try(AsyncEncryptingProducer<String, String> producer = new AsyncEncryptingProducer<String, String>(mock, config(1, 8))) {
+            final List<Future<RecordMetadata>> futures = new ArrayList<>();
+
+            for (int i = 0; i < RECORDS; i++) {
+                final AtomicInteger count = calls[i] = new AtomicInteger();
+                futures.add(producer.send(new ProducerRecord<String, String>(TOPIC, "key", String.valueOf(i)), new Callback() {
+                    @Override
+                    public void onCompletion(final RecordMetadata metadata, final Exception exception) {
+                        count.incrementAndGet();
+                        throw new IllegalStateException("callback failure");
+                    }
+                }));
+            }
+            producer.flush();
+
+            assertEquals(RECORDS, mock.history().size());
+            for (int i = 0; i < RECORDS; i++) {
+                assertEquals("callbacks of record " + i, 1, calls[i].get());
+                //the callback failure is not the result of the send
+                assertTrue(futures.get(i).get() != null);
+            }
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testConfigureFailure() throws Exception {
+        final AtomicInteger closed = new AtomicInteger();
+        final MockProducer<byte[], byte[]> mock = new MockProducer<byte[], byte[]>(true, new ByteArraySerializer(), new ByteArraySerializer()) {
+            @Override
+            public void close(final long timeout, final TimeUnit timeUnit) {
+                closed.incrementAndGet();
+            }
+        };
+
+        final Map<String, Object> config = config(4, 8);
+        config.put("value.serializer", FailingSerializer.class.getName());
+        FailingSerializer.configured.set(0);
+        FailingSerializer.closed.set(0);
+
+        try {
+            new AsyncEncryptingProducer<String, String>(mock, config);
+            fail("Configure failure not thrown");
+        } catch (IllegalArgumentException e) {
+            //expected
+        }
+
+        assertEquals(1, closed.get());
+        assertEquals("lanes started", 2, FailingSerializer.configured.get());
+        assertEquals("serializers of the started lanes closed", 2, FailingSerializer.closed.get());
+        for (final Thread thread : Thread.getAllStackTraces().keySet()) {
+            assertFalse(thread.getName(), thread.getName().startsWith("kafka-async-encrypt-"));
+        }
+    }
+
+    /**
+     * Fails to configure the third instance
+     */
+    public static class FailingSerializer extends StringSerializer {
+
+        static final AtomicInteger configured = new AtomicInteger();
+        static final AtomicInteger closed = new AtomicInteger();
+
+        @Override
+        public void configure(final Map<String, ?> configs, final boolean isKey) {
+            if(configured.get() == 2) {
+                throw new IllegalArgumentException("third lane");
+            }
+            super.configure(configs, isKey);
+            configured.incrementAndGet();
+        }
+
+        @Override
+        public void close() {
+            closed.incrementAndGet();
+            super.close();
+        }
+    }
+
+    private static MockProducer<byte[], byte[]> mock() {
+        return new MockProducer<byte[], byte[]>(true, new ByteArraySerializer(), new ByteArraySerializer());
+    }
+
+    private static Map<String, Object> config(final int threads, final int queueSize) {
+        final Map<String, Object> config = new HashMap<>();
+        config.put("key.serializer", StringSerializer.class.getName());
+        config.put("value.serializer", StringSerializer.class.getName());
+        config.put(AsyncEncryptingProducer.CRYPTO_ASYNC_THREADS, String.valueOf(threads));
+        config.put(AsyncEncryptingProducer.CRYPTO_ASYNC_QUEUE_SIZE, String.valueOf(queueSize));
+        return config;
+    }
+}
@@ -0,0 +1,190 @@
+package de.saly.kafka.crypto.clients;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import de.saly.kafka.crypto.DecryptingDeserializer;
+import de.saly.kafka.crypto.EncryptingSerializer;
+import de.saly.kafka.crypto.SerdeCryptoBase;
+import de.saly.kafka.crypto.envelope.EnvelopeDecryptingDeserializer;
+import de.saly.kafka.crypto.envelope.EnvelopeEncryptingSerializer;
+
+public class ParallelDecryptingConsumerTest {
+
+    private static final String TOPIC = "parallelTopic";
+    private static final int PARTITIONS = 3;
+    private static final int RECORDS = 200;
+
+    private static File pubKey;
+    private static File privKey;
+
+    @BeforeClass
+    public static void keys() throws Exception {
+        final KeyPairGenerator keyGen = KeyPairGenerator.getInstance("RSA");
+        keyGen.initialize(2048);
+        final KeyPair pair = keyGen.genKeyPair();
+
+        pubKey = File.createTempFile("kafka", "crypto");
+        pubKey.deleteOnExit();
+        privKey = File.createTempFile("kafka", "crypto");
+        privKey.deleteOnExit();
+        Files.write(pubKey.toPath(), pair.getPublic().getEncoded());
+        Files.write(privKey.toPath(), pair.getPrivate().getEncoded());
+    }
+
+    @Test
+    public void testPartitionOrder() throws Exception {
+        final MockConsumer<byte[], byte[]> mock = mock();
+        final EnvelopeEncryptingSerializer<String> serializer = serializer();
+
+        //interleaved, so that the records of a partition are spread over the whole batch
+        for (int i = 0; i < RECORDS; i++) {
+            for (int p = 0; p < PARTITIONS; p++) {
+                mock.addRecord(new ConsumerRecord<byte[], byte[]>(TOPIC, p, i, null, serializer.serialize(TOPIC, p + ":" + i)));
+            }
+        }
+
+        try(ParallelDecryptingConsumer<byte[], String> consumer = new ParallelDecryptingConsumer<byte[], String>(mock, config(4))) {
+            final ConsumerRecords<byte[], String> records = consumer.poll(0);
+            assertEquals(PARTITIONS * RECORDS, records.count());
+
+            for (int p = 0; p < PARTITIONS; p++) {
+                final List<ConsumerRecord<byte[], String>> partition = records.records(new TopicPartition(TOPIC, p));
+                assertEquals(RECORDS, partition.size());
+
+                for (int i = 0; i < RECORDS; i++) {
+                    assertEquals(i, partition.get(i).offset());
+                    assertEquals(p + ":" + i, partition.get(i).value());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testDecryptFailure() throws Exception {
+        final MockConsumer<byte[], byte[]> mock = mock();
+        final EnvelopeEncryptingSerializer<String> serializer = serializer();
+
+        for (int i = 0; i < RECORDS; i++) {
+            final byte[] value = serializer.serialize(TOPIC, "1:" + i);
+            if(i == 57) {
+                //breaks the authentication tag
+                value[value.length - 1] ^= 1;
+            }
+            mock.addRecord(new ConsumerRecord<byte[], byte[]>(TOPIC, 1, i, null, value));
+        }
+
+        try(ParallelDecryptingConsumer<byte[], String> consumer = new ParallelDecryptingConsumer<byte[], String>(mock, config(4))) {
+            consumer.poll(0);
+            fail("Corrupt record not reported");
+        } catch (SerializationException e) {
+            //the pool may rethrow a copy, the original is then its cause
+            assertTrue(String.valueOf(e), messages(e).contains(TOPIC + "-1 at offset 57"));
+        }
+    }
+
+    @Test
+    public void testCloseShutsDownPool() throws Exception {
+        final MockConsumer<byte[], byte[]> mock = mock();
+        final EnvelopeEncryptingSerializer<String> serializer = serializer();
+
+        for (int i = 0; i < RECORDS; i++) {
+            mock.addRecord(new ConsumerRecord<byte[], byte[]>(TOPIC, 0, i, null, serializer.serialize(TOPIC, "0:" + i)));
+        }
+
+        final Map<String, Object> config = config(4);
+        config.put("value.deserializer", ClosingDeserializer.class.getName());
+        ClosingDeserializer.open.set(0);
+
+        final ParallelDecryptingConsumer<byte[], String> consumer = new ParallelDecryptingConsumer<byte[], String>(mock, config);
+        assertEquals(RECORDS, consumer.poll(0).count());
+        assertTrue("no deserializer created", ClosingDeserializer.open.get() > 0);
+
+        consumer.close();
+        assertTrue(consumer.pool().isTerminated());
+        assertTrue(mock.closed());
+        assertEquals("deserializers left open", 0, ClosingDeserializer.open.get());
+    }
+
+    /**
+     * Counts the instances which are configured but not yet closed
+     */
+    public static class ClosingDeserializer extends EnvelopeDecryptingDeserializer<String> {
+
+        static final AtomicInteger open = new AtomicInteger();
+
+        @Override
+        public void configure(final Map<String, ?> configs, final boolean isKey) {
+            super.configure(configs, isKey);
+            open.incrementAndGet();
+        }
+
+        @Override
+        public void close() {
+            open.decrementAndGet();
+            super.close();
+        }
+    }
+
+    private static String messages(Throwable e) {
+        final StringBuilder messages = new StringBuilder();
+        for (; e != null; e = e.getCause()) {
+            messages.append(e.getMessage()).append('\n');
+        }
+        return messages.toString();
+    }
+
+    private static MockConsumer<byte[], byte[]> mock() {
+        final MockConsumer<byte[], byte[]> mock = new MockConsumer<byte[], byte[]>(OffsetResetStrategy.EARLIEST);
+        final List<TopicPartition> partitions = new ArrayList<>();
+        final Map<TopicPartition, Long> beginning = new HashMap<>();
+        for (int p = 0; p < PARTITIONS; p++) {
+            partitions.add(new TopicPartition(TOPIC, p));
+            beginning.put(new TopicPartition(TOPIC, p), 0L);
+        }
+        mock.assign(partitions);
+        mock.updateBeginningOffsets(beginning);
+        return mock;
+    }
+
+    private static Map<String, Object> config(final int parallelism) {
+        final Map<String, Object> config = new HashMap<>();
+        config.put(SerdeCryptoBase.CRYPTO_RSA_PUBLICKEY_FILEPATH, pubKey.getAbsolutePath());
+        config.put(SerdeCryptoBase.CRYPTO_RSA_PRIVATEKEY_FILEPATH, privKey.getAbsolutePath());
+        config.put(EncryptingSerializer.CRYPTO_VALUE_SERIALIZER, StringSerializer.class.getName());
+        config.put(DecryptingDeserializer.CRYPTO_VALUE_DESERIALIZER, StringDeserializer.class.getName());
+        config.put("key.deserializer", ByteArrayDeserializer.class.getName());
+        config.put("value.deserializer", EnvelopeDecryptingDeserializer.class.getName());
+        config.put(ParallelDecryptingConsumer.CRYPTO_DECRYPT_PARALLELISM, String.valueOf(parallelism));
+        return config;
+    }
+
+    private static EnvelopeEncryptingSerializer<String> serializer() {
+        final EnvelopeEncryptingSerializer<String> serializer = new EnvelopeEncryptingSerializer<String>();
+        serializer.configure(config(1), false);
+        return serializer;
+    }
+}
@@ -0,0 +1,166 @@
+package de.saly.kafka.crypto.compression;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.junit.Test;
+
+public class CompressionTest {
+
+    private static final String TOPIC = "compressedTopic";
+
+    private final byte[] text;
+
+    public CompressionTest() {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            sb.append("{\"id\":").append(i).append(",\"name\":\"event\",\"tags\":[\"a\",\"b\"]}\n");
+        }
+        text = sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testRoundTripPerCodec() throws Exception {
+        for (final CompressionCodec codec : CompressionCodec.values()) {
+            final byte[] compressed = serializer(codec, 256).serialize(TOPIC, text);
+
+            assertEquals(codec.name(), codec.id(), compressed[0]);
+            if(codec != CompressionCodec.NONE) {
+                assertEquals(codec.name(), text.length, ByteBuffer.wrap(compressed, 1, 4).getInt());
+                assertEquals(codec.name() + " should compress json", true, compressed.length < text.length);
+            }
+            assertArrayEquals(codec.name(), text, deserializer().deserialize(TOPIC, compressed));
+        }
+    }
+
+    @Test
+    public void testRoundTripEmptyRecord() throws Exception {
+        for (final CompressionCodec codec : CompressionCodec.values()) {
+            final byte[] compressed = serializer(codec, 0).serialize(TOPIC, new byte[0]);
+            assertArrayEquals(codec.name(), new byte[0], deserializer().deserialize(TOPIC, compressed));
+        }
+    }
+
+    @Test
+    public void testThreshold() throws Exception {
+        final CompressingSerializer<byte[]> serializer = serializer(CompressionCodec.LZ4, text.length);
+
+        final byte[] below = serializer.serialize(TOPIC, Arrays.copyOf(text, text.length - 1));
+        assertEquals(CompressionCodec.NONE.id(), below[0]);
+        assertEquals(text.length, below.length);
+
+        final byte[] at = serializer.serialize(TOPIC, text);
+        assertEquals(CompressionCodec.LZ4.id(), at[0]);
+    }
+
+    @Test
+    public void testIncompressibleStoredUncompressed() throws Exception {
+        final byte[] random = new byte[4096];
+        new java.util.Random(42).nextBytes(random);
+
+        final byte[] stored = serializer(CompressionCodec.GZIP, 0).serialize(TOPIC, random);
+        assertEquals(CompressionCodec.NONE.id(), stored[0]);
+        assertArrayEquals(random, deserializer().deserialize(TOPIC, stored));
+    }
+
+    @Test
+    public void testRejectsEmptyAndShortInput() throws Exception {
+        expectRejected(new byte[0]);
+        expectRejected(new byte[] { CompressionCodec.LZ4.id(), 0, 0 });
+        expectRejected(new byte[] { (byte) 42, 1, 2, 3, 4, 5 });
+    }
+
+    @Test
+    public void testRejectsOversizedLength() throws Exception {
+        for (final CompressionCodec codec : CompressionCodec.values()) {
+            if(codec == CompressionCodec.NONE) {
+                continue;
+            }
+
+            final byte[] compressed = serializer(codec, 0).serialize(TOPIC, text);
+
+            ByteBuffer.wrap(compressed, 1, 4).putInt(Integer.MAX_VALUE);
+            expectRejected(compressed);
+
+            ByteBuffer.wrap(compressed, 1, 4).putInt(-1);
+            expectRejected(compressed);
+
+            //within the limit but not what the data decompresses to
+            ByteBuffer.wrap(compressed, 1, 4).putInt(text.length * 2);
+            expectRejected(compressed);
+        }
+    }
+
+    @Test
+    public void testMaxSize() throws Exception {
+        final byte[] compressed = serializer(CompressionCodec.SNAPPY, 0).serialize(TOPIC, text);
+
+        final Map<String, Object> config = new HashMap<>();
+        config.put(DecompressingDeserializer.CRYPTO_COMPRESSION_WRAPPED_DESERIALIZER, ByteArrayDeserializer.class.getName());
+        config.put(DecompressingDeserializer.CRYPTO_COMPRESSION_MAX_SIZE, text.length - 1);
+        final DecompressingDeserializer<byte[]> limited = new DecompressingDeserializer<byte[]>();
+        limited.configure(config, false);
+
+        try {
+            limited.deserialize(TOPIC, compressed);
+            fail("Record larger than the maximum accepted");
+        } catch (SerializationException e) {
+            //expected
+        }
+    }
+
+    @Test
+    public void testRejectsCorruptData() throws Exception {
+        for (final CompressionCodec codec : CompressionCodec.values()) {
+            if(codec == CompressionCodec.NONE) {
+                continue;
+            }
+
+            final byte[] compressed = serializer(codec, 0).serialize(TOPIC, text);
+            expectRejected(Arrays.copyOf(compressed, compressed.length / 2));
+
+            final byte[] garbage = compressed.clone();
+            for (int i = CompressingSerializer.HEADER_SIZE; i < garbage.length; i++) {
+                garbage[i] = (byte) 0xFF;
+            }
+            expectRejected(garbage);
+        }
+    }
+
+    private void expectRejected(final byte[] data) {
+        try {
+            deserializer().deserialize(TOPIC, data);
+            fail("Accepted invalid record " + Arrays.toString(Arrays.copyOf(data, Math.min(data.length, 8))));
+        } catch (SerializationException e) {
+            //expected
+        }
+    }
+
+    private static CompressingSerializer<byte[]> serializer(final CompressionCodec codec, final int threshold) {
+        final Map<String, Object> config = new HashMap<>();
+        config.put(CompressingSerializer.CRYPTO_COMPRESSION_WRAPPED_SERIALIZER, ByteArraySerializer.class.getName());
+        config.put(CompressingSerializer.CRYPTO_COMPRESSION_TYPE, codec.name());
+        config.put(CompressingSerializer.CRYPTO_COMPRESSION_THRESHOLD, threshold);
+        final CompressingSerializer<byte[]> serializer = new CompressingSerializer<byte[]>();
+        serializer.configure(config, false);
+        return serializer;
+    }
+
+    private static DecompressingDeserializer<byte[]> deserializer() {
+        final Map<String, Object> config = new HashMap<>();
+        config.put(DecompressingDeserializer.CRYPTO_COMPRESSION_WRAPPED_DESERIALIZER, ByteArrayDeserializer.class.getName());
+        final DecompressingDeserializer<byte[]> deserializer = new DecompressingDeserializer<byte[]>();
+        deserializer.configure(config, false);
+        return deserializer;
+    }
+}
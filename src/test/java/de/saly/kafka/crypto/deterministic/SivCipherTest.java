@@ -0,0 +1,166 @@
+package de.saly.kafka.crypto.deterministic;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.junit.Test;
+
+public class SivCipherTest {
+
+    private static final byte[] TOPIC_A = "topicA".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] TOPIC_B = "topicB".getBytes(StandardCharsets.UTF_8);
+
+    private final SivCipher cipher = new SivCipher(SivCipher.generateKey());
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        for (final byte[] ad : new byte[][] { null, TOPIC_A }) {
+            for (final int size : new int[] { 0, 1, 15, 16, 17, 1000, 64 * 1024 }) {
+                final byte[] plain = random(size);
+                final byte[] encrypted = cipher.encrypt(ad, plain);
+
+                assertEquals(SivCipher.HEADER_SIZE + size, encrypted.length);
+                assertEquals(SivCipher.MAGIC, encrypted[0]);
+                assertEquals(SivCipher.VERSION, encrypted[1]);
+                assertArrayEquals("size " + size, plain, cipher.decrypt(ad, encrypted));
+            }
+        }
+    }
+
+    @Test
+    public void testDeterministic() throws Exception {
+        final byte[] plain = random(100);
+        assertArrayEquals(cipher.encrypt(TOPIC_A, plain), cipher.encrypt(TOPIC_A, plain.clone()));
+
+        final byte[] other = plain.clone();
+        other[99] ^= 1;
+        assertFalse(Arrays.equals(cipher.encrypt(TOPIC_A, plain), cipher.encrypt(TOPIC_A, other)));
+
+        //another key gives other ciphertexts for the same plaintext
+        assertFalse(Arrays.equals(cipher.encrypt(TOPIC_A, plain), new SivCipher(SivCipher.generateKey()).encrypt(TOPIC_A, plain)));
+    }
+
+    @Test
+    public void testTampered() throws Exception {
+        final byte[] encrypted = cipher.encrypt(TOPIC_A, random(100));
+
+        //magic, version, synthetic iv and ciphertext
+        for (int i = 0; i < encrypted.length; i++) {
+            final byte[] corrupt = encrypted.clone();
+            corrupt[i] ^= 0x40;
+            expectRejected(cipher, TOPIC_A, corrupt, "byte " + i);
+        }
+
+        for (int length = 0; length < encrypted.length; length++) {
+            expectRejected(cipher, TOPIC_A, Arrays.copyOf(encrypted, length), "cut at " + length);
+        }
+
+        expectRejected(new SivCipher(SivCipher.generateKey()), TOPIC_A, encrypted, "other key");
+    }
+
+    @Test
+    public void testAssociatedData() throws Exception {
+        final byte[] plain = random(100);
+        final byte[] encrypted = cipher.encrypt(TOPIC_A, plain);
+
+        assertFalse(Arrays.equals(encrypted, cipher.encrypt(TOPIC_B, plain)));
+        expectRejected(cipher, TOPIC_B, encrypted, "other associated data");
+        expectRejected(cipher, null, encrypted, "no associated data");
+
+        //the boundary between associated data and plaintext must matter
+        final byte[] ab = "ab".getBytes(StandardCharsets.UTF_8);
+        final byte[] a = "a".getBytes(StandardCharsets.UTF_8);
+        final byte[] bc = "bc".getBytes(StandardCharsets.UTF_8);
+        final byte[] c = "c".getBytes(StandardCharsets.UTF_8);
+        assertFalse(Arrays.equals(Arrays.copyOfRange(cipher.encrypt(ab, c), 2, SivCipher.HEADER_SIZE),
+                Arrays.copyOfRange(cipher.encrypt(a, bc), 2, SivCipher.HEADER_SIZE)));
+    }
+
+    @Test
+    public void testKeyLength() throws Exception {
+        try {
+            new SivCipher(new byte[SivCipher.KEY_BYTES / 2]);
+            fail("Accepted a short key");
+        } catch (IllegalArgumentException e) {
+            //expected
+        }
+    }
+
+    @Test
+    public void testTopicBinding() throws Exception {
+        final File key = File.createTempFile("kafka", "siv");
+        key.deleteOnExit();
+        Files.write(key.toPath(), SivCipher.generateKey());
+
+        for (final String cacheSize : new String[] { "0", "100" }) {
+            final Map<String, Object> config = new HashMap<>();
+            config.put(DeterministicSerdeBase.CRYPTO_DETERMINISTIC_KEY_FILEPATH, key.getAbsolutePath());
+            config.put(DeterministicSerdeBase.CRYPTO_DETERMINISTIC_CACHE_SIZE, cacheSize);
+            config.put(DeterministicEncryptingSerializer.CRYPTO_DETERMINISTIC_WRAPPED_SERIALIZER, ByteArraySerializer.class.getName());
+            config.put(DeterministicDecryptingDeserializer.CRYPTO_DETERMINISTIC_WRAPPED_DESERIALIZER, ByteArrayDeserializer.class.getName());
+
+            final byte[] plain = random(20);
+            final DeterministicEncryptingSerializer<byte[]> serializer = serializer(config);
+            final DeterministicDecryptingDeserializer<byte[]> deserializer = deserializer(config);
+
+            final byte[] inA = serializer.serialize("topicA", plain);
+            assertArrayEquals(inA, serializer.serialize("topicA", plain));
+            assertFalse(Arrays.equals(inA, serializer.serialize("topicB", plain)));
+            assertArrayEquals(plain, deserializer.deserialize("topicA", inA));
+
+            try {
+                deserializer.deserialize("topicB", inA);
+                fail("Key of topicA accepted in topicB, cache size " + cacheSize);
+            } catch (SerializationException e) {
+                //expected
+            }
+
+            config.put(DeterministicSerdeBase.CRYPTO_DETERMINISTIC_BIND_TOPIC, "false");
+            final DeterministicEncryptingSerializer<byte[]> unbound = serializer(config);
+            final byte[] anyTopic = unbound.serialize("topicA", plain);
+            assertArrayEquals(anyTopic, unbound.serialize("topicB", plain));
+            assertArrayEquals(plain, deserializer(config).deserialize("topicB", anyTopic));
+        }
+    }
+
+    private static void expectRejected(final SivCipher cipher, final byte[] ad, final byte[] data, final String what) {
+        try {
+            cipher.decrypt(ad, data);
+            fail("Accepted corrupt record: " + what);
+        } catch (GeneralSecurityException e) {
+            //expected
+        }
+    }
+
+    private static byte[] random(final int size) {
+        final byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+
+    private static DeterministicEncryptingSerializer<byte[]> serializer(final Map<String, Object> config) {
+        final DeterministicEncryptingSerializer<byte[]> serializer = new DeterministicEncryptingSerializer<byte[]>();
+        serializer.configure(config, true);
+        return serializer;
+    }
+
+    private static DeterministicDecryptingDeserializer<byte[]> deserializer(final Map<String, Object> config) {
+        final DeterministicDecryptingDeserializer<byte[]> deserializer = new DeterministicDecryptingDeserializer<byte[]>();
+        deserializer.configure(config, true);
+        return deserializer;
+    }
+}
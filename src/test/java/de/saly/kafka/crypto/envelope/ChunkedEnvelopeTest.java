@@ -0,0 +1,319 @@
+package de.saly.kafka.crypto.envelope;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.kafka.common.config.ConfigException;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import de.saly.kafka.crypto.DecryptingDeserializer;
+import de.saly.kafka.crypto.EncryptingSerializer;
+import de.saly.kafka.crypto.SerdeCryptoBase;
+
+public class ChunkedEnvelopeTest {
+
+    private static final String TOPIC = "chunkedTopic";
+    private static final int SEGMENT = 64;
+
+    private static File pubKey;
+    private static File privKey;
+
+    @BeforeClass
+    public static void keys() throws Exception {
+        final KeyPairGenerator keyGen = KeyPairGenerator.getInstance("RSA");
+        keyGen.initialize(2048);
+        final KeyPair pair = keyGen.genKeyPair();
+
+        pubKey = File.createTempFile("kafka", "crypto");
+        pubKey.deleteOnExit();
+        privKey = File.createTempFile("kafka", "crypto");
+        privKey.deleteOnExit();
+        Files.write(pubKey.toPath(), pair.getPublic().getEncoded());
+        Files.write(privKey.toPath(), pair.getPrivate().getEncoded());
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        for (final CipherMode mode : modes()) {
+            final Map<String, Object> config = config(mode);
+            final ChunkedEnvelopeEncryptingSerializer<byte[]> serializer = serializer(config);
+            final EnvelopeDecryptingDeserializer<byte[]> deserializer = deserializer(config);
+
+            for (final int size : new int[] { 1, SEGMENT - 1, SEGMENT + 1, 10 * SEGMENT + 17, 100000 }) {
+                final byte[] plain = random(size);
+                final byte[] envelope = serializer.serialize(TOPIC, plain);
+
+                assertEquals(EnvelopeSerdeBase.CHUNKED_VERSION, envelope[1]);
+                assertArrayEquals(mode + "/" + size, plain, deserializer.deserialize(TOPIC, envelope));
+                assertArrayEquals(mode + "/" + size + " stream", plain, stream(deserializer, envelope));
+            }
+        }
+    }
+
+    @Test
+    public void testEmptyPlaintext() throws Exception {
+        for (final CipherMode mode : modes()) {
+            final Map<String, Object> config = config(mode);
+            final byte[] envelope = serializer(config).serialize(TOPIC, new byte[0]);
+            final EnvelopeDecryptingDeserializer<byte[]> deserializer = deserializer(config);
+
+            //one empty segment, just its tag
+            assertEquals(headerLength(envelope) + EnvelopeSerdeBase.TAG_BYTES, envelope.length);
+            assertArrayEquals(mode.name(), new byte[0], deserializer.deserialize(TOPIC, envelope));
+            assertArrayEquals(mode.name(), new byte[0], stream(deserializer, envelope));
+        }
+    }
+
+    @Test
+    public void testEmptyInput() throws Exception {
+        final EnvelopeDecryptingDeserializer<byte[]> deserializer = deserializer(config(CipherMode.AES_GCM));
+        expectRejected(deserializer, new byte[0], "empty record");
+
+        try {
+            stream(deserializer, new byte[0]);
+            fail("Accepted empty stream");
+        } catch (IOException e) {
+            //expected
+        }
+    }
+
+    @Test
+    public void testExactMultipleOfSegmentSize() throws Exception {
+        for (final CipherMode mode : modes()) {
+            final Map<String, Object> config = config(mode);
+            final EnvelopeDecryptingDeserializer<byte[]> deserializer = deserializer(config);
+
+            for (final int segments : new int[] { 1, 2, 3, 16 }) {
+                final byte[] plain = random(segments * SEGMENT);
+                final byte[] envelope = serializer(config).serialize(TOPIC, plain);
+
+                assertEquals(headerLength(envelope) + segments * (SEGMENT + EnvelopeSerdeBase.TAG_BYTES), envelope.length);
+                assertArrayEquals(mode + "/" + segments, plain, deserializer.deserialize(TOPIC, envelope));
+                assertArrayEquals(mode + "/" + segments + " stream", plain, stream(deserializer, envelope));
+            }
+        }
+    }
+
+    @Test
+    public void testDroppedLastSegment() throws Exception {
+        for (final CipherMode mode : modes()) {
+            final Map<String, Object> config = config(mode);
+            final EnvelopeDecryptingDeserializer<byte[]> deserializer = deserializer(config);
+
+            //the dropped segment is full (exact multiple) or shorter
+            for (final int size : new int[] { 3 * SEGMENT, 3 * SEGMENT - 10 }) {
+                final byte[] envelope = serializer(config).serialize(TOPIC, random(size));
+                final int lastSegment = headerLength(envelope) + 2 * (SEGMENT + EnvelopeSerdeBase.TAG_BYTES);
+                expectRejected(deserializer, Arrays.copyOf(envelope, lastSegment), mode + "/" + size);
+            }
+        }
+    }
+
+    @Test
+    public void testReorderedSegments() throws Exception {
+        for (final CipherMode mode : modes()) {
+            final Map<String, Object> config = config(mode);
+            final EnvelopeDecryptingDeserializer<byte[]> deserializer = deserializer(config);
+            final byte[] envelope = serializer(config).serialize(TOPIC, random(3 * SEGMENT));
+
+            final int full = SEGMENT + EnvelopeSerdeBase.TAG_BYTES;
+            final int first = headerLength(envelope);
+            final byte[] swapped = envelope.clone();
+            System.arraycopy(envelope, first, swapped, first + full, full);
+            System.arraycopy(envelope, first + full, swapped, first, full);
+            expectRejected(deserializer, swapped, mode + " swapped segments");
+
+            //a full segment moved to the end
+            final byte[] rotated = envelope.clone();
+            System.arraycopy(envelope, first + full, rotated, first, 2 * full);
+            System.arraycopy(envelope, first, rotated, first + 2 * full, full);
+            expectRejected(deserializer, rotated, mode + " rotated segments");
+        }
+    }
+
+    @Test
+    public void testTruncatedAndTampered() throws Exception {
+        for (final CipherMode mode : modes()) {
+            final Map<String, Object> config = config(mode);
+            final EnvelopeDecryptingDeserializer<byte[]> deserializer = deserializer(config);
+            final byte[] envelope = serializer(config).serialize(TOPIC, random(2 * SEGMENT + 5));
+
+            for (int length = 0; length < envelope.length; length++) {
+                expectRejected(deserializer, Arrays.copyOf(envelope, length), mode + " cut at " + length);
+            }
+
+            //segment size, salt and segments, the wrapped key is covered by the unwrap
+            for (int i = headerLength(envelope) - ChunkedEnvelope.SALT_BYTES - ChunkedEnvelope.SEGMENT_SIZE_BYTES; i < envelope.length; i++) {
+                final byte[] corrupt = envelope.clone();
+                corrupt[i] ^= 0x01;
+                expectRejected(deserializer, corrupt, mode + " byte " + i);
+            }
+        }
+    }
+
+    @Test
+    public void testInvalidSegmentSize() throws Exception {
+        final Map<String, Object> config = config(CipherMode.AES_GCM);
+        final EnvelopeDecryptingDeserializer<byte[]> deserializer = deserializer(config);
+        final byte[] envelope = serializer(config).serialize(TOPIC, random(3 * SEGMENT));
+        final int offset = headerLength(envelope) - ChunkedEnvelope.SALT_BYTES - ChunkedEnvelope.SEGMENT_SIZE_BYTES;
+
+        for (final int segmentSize : new int[] { 0, -1, -EnvelopeSerdeBase.TAG_BYTES, Integer.MIN_VALUE,
+                Integer.MAX_VALUE, Integer.MAX_VALUE - EnvelopeSerdeBase.TAG_BYTES + 1, ChunkedEnvelope.MAX_SEGMENT_SIZE + 1 }) {
+            final byte[] corrupt = envelope.clone();
+            ByteBuffer.wrap(corrupt, offset, 4).putInt(segmentSize);
+            expectRejected(deserializer, corrupt, "segment size " + segmentSize);
+
+            try {
+                stream(deserializer, corrupt);
+                fail("Stream accepted segment size " + segmentSize);
+            } catch (IOException e) {
+                //expected
+            }
+        }
+
+        config.put(ChunkedEnvelopeEncryptingSerializer.CRYPTO_CHUNK_SIZE, ChunkedEnvelope.MAX_SEGMENT_SIZE + 1);
+        try {
+            serializer(config);
+            fail("Accepted chunk size above the maximum");
+        } catch (ConfigException e) {
+            //expected
+        }
+    }
+
+    @Test
+    public void testUnauthenticatedModeRejected() throws Exception {
+        final Map<String, Object> config = config(CipherMode.AES_GCM);
+        final EnvelopeDecryptingDeserializer<byte[]> deserializer = deserializer(config);
+        final byte[] envelope = serializer(config).serialize(TOPIC, random(3 * SEGMENT));
+
+        for (final CipherMode mode : new CipherMode[] { CipherMode.AES_CBC, CipherMode.AES_CTR }) {
+            final byte[] corrupt = envelope.clone();
+            corrupt[2] = mode.id();
+            expectRejected(deserializer, corrupt, mode.name());
+
+            try {
+                stream(deserializer, corrupt);
+                fail("Stream accepted " + mode);
+            } catch (IOException e) {
+                //expected
+            }
+        }
+    }
+
+    @Test
+    public void testSaltPerRecord() throws Exception {
+        final ChunkedEnvelopeEncryptingSerializer<byte[]> serializer = serializer(config(CipherMode.AES_GCM));
+        final byte[] plain = random(SEGMENT);
+        final byte[] first = serializer.serialize(TOPIC, plain);
+        final byte[] second = serializer.serialize(TOPIC, plain);
+        final int salt = headerLength(first) - ChunkedEnvelope.SALT_BYTES;
+
+        //same data key, but another salt and therefore another segment key
+        assertArrayEquals(Arrays.copyOf(first, salt), Arrays.copyOf(second, salt));
+        assertFalse(Arrays.equals(Arrays.copyOfRange(first, salt, first.length), Arrays.copyOfRange(second, salt, second.length)));
+    }
+
+    private static byte[] stream(final EnvelopeDecryptingDeserializer<byte[]> deserializer, final byte[] envelope) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = deserializer.decryptingStream(new ByteArrayInputStream(envelope))) {
+            final byte[] buffer = new byte[100];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static void expectRejected(final EnvelopeDecryptingDeserializer<byte[]> deserializer, final byte[] data, final String what) {
+        try {
+            deserializer.deserialize(TOPIC, data);
+            fail("Accepted corrupt envelope: " + what);
+        } catch (SerializationException e) {
+            //expected
+        }
+
+        try {
+            stream(deserializer, data);
+            fail("Stream accepted corrupt envelope: " + what);
+        } catch (IOException e) {
+            //expected
+        }
+    }
+
+    /**
+     * @return length of everything before the first segment
+     */
+    private static int headerLength(final byte[] envelope) {
+        return EnvelopeSerdeBase.FIXED_HEADER_SIZE + (ByteBuffer.wrap(envelope, 3, 2).getShort() & 0xFFFF)
+                + ChunkedEnvelope.SEGMENT_SIZE_BYTES + ChunkedEnvelope.SALT_BYTES;
+    }
+
+    private static List<CipherMode> modes() {
+        final List<CipherMode> modes = new ArrayList<>();
+        for (final CipherMode mode : CipherMode.values()) {
+            if(!mode.authenticated()) {
+                continue;
+            }
+            try {
+                mode.newCipher();
+                modes.add(mode);
+            } catch (IllegalStateException e) {
+                System.out.println("Skip " + mode + ": " + e.getMessage());
+            }
+        }
+        return modes;
+    }
+
+    private static byte[] random(final int size) {
+        final byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+
+    private static Map<String, Object> config(final CipherMode mode) {
+        final Map<String, Object> config = new HashMap<>();
+        config.put(SerdeCryptoBase.CRYPTO_RSA_PUBLICKEY_FILEPATH, pubKey.getAbsolutePath());
+        config.put(SerdeCryptoBase.CRYPTO_RSA_PRIVATEKEY_FILEPATH, privKey.getAbsolutePath());
+        config.put(EncryptingSerializer.CRYPTO_VALUE_SERIALIZER, ByteArraySerializer.class.getName());
+        config.put(DecryptingDeserializer.CRYPTO_VALUE_DESERIALIZER, ByteArrayDeserializer.class.getName());
+        config.put(EnvelopeSerdeBase.CRYPTO_CIPHER_MODE, mode.name());
+        config.put(ChunkedEnvelopeEncryptingSerializer.CRYPTO_CHUNK_SIZE, SEGMENT);
+        return config;
+    }
+
+    private static ChunkedEnvelopeEncryptingSerializer<byte[]> serializer(final Map<String, Object> config) {
+        final ChunkedEnvelopeEncryptingSerializer<byte[]> serializer = new ChunkedEnvelopeEncryptingSerializer<byte[]>();
+        serializer.configure(config, false);
+        return serializer;
+    }
+
+    private static EnvelopeDecryptingDeserializer<byte[]> deserializer(final Map<String, Object> config) {
+        final EnvelopeDecryptingDeserializer<byte[]> deserializer = new EnvelopeDecryptingDeserializer<byte[]>();
+        deserializer.configure(config, false);
+        return deserializer;
+    }
+}
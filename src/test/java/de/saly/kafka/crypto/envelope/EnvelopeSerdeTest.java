@@ -0,0 +1,327 @@
+package de.saly.kafka.crypto.envelope;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.kafka.common.config.ConfigException;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import de.saly.kafka.crypto.DecryptingDeserializer;
+import de.saly.kafka.crypto.EncryptingSerializer;
+import de.saly.kafka.crypto.SerdeCryptoBase;
+
+public class EnvelopeSerdeTest {
+
+    private static final String TOPIC = "envelopeTopic";
+
+    private static File pubKey;
+    private static File privKey;
+
+    @BeforeClass
+    public static void keys() throws Exception {
+        final KeyPairGenerator keyGen = KeyPairGenerator.getInstance("RSA");
+        keyGen.initialize(2048);
+        final KeyPair pair = keyGen.genKeyPair();
+
+        pubKey = File.createTempFile("kafka", "crypto");
+        pubKey.deleteOnExit();
+        privKey = File.createTempFile("kafka", "crypto");
+        privKey.deleteOnExit();
+        Files.write(pubKey.toPath(), pair.getPublic().getEncoded());
+        Files.write(privKey.toPath(), pair.getPrivate().getEncoded());
+    }
+
+    @Test
+    public void testRoundTripPerMode() throws Exception {
+        for (final CipherMode mode : modes()) {
+            for (final String arena : new String[] { "none", "heap", "direct" }) {
+                final Map<String, Object> config = config(mode);
+                config.put(EnvelopeSerdeBase.CRYPTO_BUFFER_ARENA, arena);
+                final EnvelopeEncryptingSerializer<byte[]> serializer = serializer(config);
+                final EnvelopeDecryptingDeserializer<byte[]> deserializer = deserializer(config);
+
+                for (final int size : new int[] { 0, 1, 15, 16, 17, 1000, 64 * 1024 }) {
+                    final byte[] plain = random(size);
+                    final byte[] envelope = serializer.serialize(TOPIC, plain);
+
+                    assertEquals(EnvelopeSerdeBase.MAGIC, envelope[0]);
+                    assertEquals(EnvelopeSerdeBase.VERSION, envelope[1]);
+                    assertEquals(mode.id(), envelope[2]);
+                    assertArrayEquals(mode + "/" + arena + "/" + size, plain, deserializer.deserialize(TOPIC, envelope));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testNull() throws Exception {
+        final Map<String, Object> config = config(CipherMode.AES_GCM);
+        assertEquals(null, serializer(config).serialize(TOPIC, null));
+        assertEquals(null, deserializer(config).deserialize(TOPIC, null));
+    }
+
+    @Test
+    public void testMixedModes() throws Exception {
+        final EnvelopeDecryptingDeserializer<byte[]> deserializer = deserializer(config(CipherMode.AES_GCM));
+        final byte[] plain = random(100);
+
+        for (final CipherMode mode : modes()) {
+            assertArrayEquals(mode.name(), plain, deserializer.deserialize(TOPIC, serializer(config(mode)).serialize(TOPIC, plain)));
+        }
+    }
+
+    @Test
+    public void testTruncated() throws Exception {
+        for (final CipherMode mode : modes()) {
+            final Map<String, Object> config = config(mode);
+            final EnvelopeDecryptingDeserializer<byte[]> deserializer = deserializer(config);
+            final byte[] envelope = serializer(config).serialize(TOPIC, random(100));
+            final int ctOffset = EnvelopeSerdeBase.FIXED_HEADER_SIZE + wrappedKeyLength(envelope) + mode.ivLength();
+
+            //unauthenticated modes cannot detect a shortened ciphertext, but all must detect a cut header or iv
+            final int detectable = mode.authenticated() ? envelope.length : ctOffset;
+            for (int length = 0; length < detectable; length++) {
+                expectRejected(deserializer, Arrays.copyOf(envelope, length), mode + " cut at " + length);
+            }
+        }
+    }
+
+    @Test
+    public void testCorruptHeader() throws Exception {
+        for (final CipherMode mode : modes()) {
+            final Map<String, Object> config = config(mode);
+            final EnvelopeDecryptingDeserializer<byte[]> deserializer = deserializer(config);
+            final byte[] envelope = serializer(config).serialize(TOPIC, random(100));
+
+            byte[] corrupt = envelope.clone();
+            corrupt[0] = 0;
+            expectRejected(deserializer, corrupt, mode + " magic");
+
+            corrupt = envelope.clone();
+            corrupt[1] = 42;
+            expectRejected(deserializer, corrupt, mode + " version");
+
+            corrupt = envelope.clone();
+            corrupt[2] = 42;
+            expectRejected(deserializer, corrupt, mode + " mode id");
+
+            for (final int wrappedKeyLength : new int[] { 0, 1, envelope.length, 0xFFFF }) {
+                corrupt = envelope.clone();
+                ByteBuffer.wrap(corrupt, 3, 2).putShort((short) wrappedKeyLength);
+                expectRejected(deserializer, corrupt, mode + " wrapped key length " + wrappedKeyLength);
+            }
+
+            corrupt = envelope.clone();
+            corrupt[EnvelopeSerdeBase.FIXED_HEADER_SIZE + 7] ^= 1;
+            expectRejected(deserializer, corrupt, mode + " wrapped key");
+        }
+    }
+
+    @Test
+    public void testTamperedCiphertext() throws Exception {
+        for (final CipherMode mode : modes()) {
+            if(!mode.authenticated()) {
+                continue;
+            }
+
+            final Map<String, Object> config = config(mode);
+            final EnvelopeDecryptingDeserializer<byte[]> deserializer = deserializer(config);
+            final byte[] envelope = serializer(config).serialize(TOPIC, random(100));
+            final int ivOffset = EnvelopeSerdeBase.FIXED_HEADER_SIZE + wrappedKeyLength(envelope);
+
+            //iv, ciphertext and tag
+            for (int i = ivOffset; i < envelope.length; i++) {
+                final byte[] corrupt = envelope.clone();
+                corrupt[i] ^= 0x40;
+                expectRejected(deserializer, corrupt, mode + " byte " + i);
+            }
+        }
+    }
+
+    @Test
+    public void testModeDowngrade() throws Exception {
+        final Map<String, Object> config = config(CipherMode.AES_GCM);
+        final byte[] plain = random(100);
+        final byte[] ctr = gcmAsCtr(serializer(config).serialize(TOPIC, plain));
+
+        //by default only the authenticated modes are read
+        config.remove(EnvelopeSerdeBase.CRYPTO_CIPHER_MODES_ALLOWED);
+        expectRejected(deserializer(config), ctr, "GCM rewritten to CTR");
+
+        //with CTR allowed the record is decrypted, but with the CTR key and not with the one it was encrypted with
+        config.put(EnvelopeSerdeBase.CRYPTO_CIPHER_MODES_ALLOWED, "AES_GCM,AES_CTR");
+        assertFalse(Arrays.equals(plain, deserializer(config).deserialize(TOPIC, ctr)));
+    }
+
+    @Test
+    public void testWrongPrivateKey() throws Exception {
+        final KeyPairGenerator keyGen = KeyPairGenerator.getInstance("RSA");
+        keyGen.initialize(2048);
+        final File otherKey = File.createTempFile("kafka", "crypto");
+        otherKey.deleteOnExit();
+        Files.write(otherKey.toPath(), keyGen.genKeyPair().getPrivate().getEncoded());
+
+        for (final CipherMode mode : modes()) {
+            final Map<String, Object> config = config(mode);
+            final byte[] envelope = serializer(config).serialize(TOPIC, random(100));
+
+            config.put(SerdeCryptoBase.CRYPTO_RSA_PRIVATEKEY_FILEPATH, otherKey.getAbsolutePath());
+            expectRejected(deserializer(config), envelope, mode.name());
+        }
+    }
+
+    @Test
+    public void testRotationLimit() throws Exception {
+        for (final CipherMode mode : modes()) {
+            final Map<String, Object> config = config(mode);
+
+            for (final String rotation : new String[] { "0", "-1", String.valueOf(EnvelopeEncryptingSerializer.AUTHENTICATED_RECORD_LIMIT + 1) }) {
+                config.put(EnvelopeEncryptingSerializer.CRYPTO_KEY_ROTATION_RECORDS, rotation);
+                try {
+                    serializer(config);
+                    if(mode.authenticated()) {
+                        fail(mode + " accepted rotation after " + rotation + " records");
+                    }
+                } catch (ConfigException e) {
+                    if(!mode.authenticated()) {
+                        throw e;
+                    }
+                }
+            }
+
+            config.put(EnvelopeEncryptingSerializer.CRYPTO_KEY_ROTATION_RECORDS, "2");
+            final EnvelopeEncryptingSerializer<byte[]> serializer = serializer(config);
+            for (int i = 0; i < 5; i++) {
+                serializer.serialize(TOPIC, random(10));
+            }
+            assertEquals(mode.name(), 2, serializer.rotations());
+        }
+    }
+
+    @Test
+    public void testRotationConcurrent() throws Exception {
+        final Map<String, Object> config = config(CipherMode.AES_GCM);
+        config.put(EnvelopeEncryptingSerializer.CRYPTO_KEY_ROTATION_RECORDS, "1");
+        final EnvelopeEncryptingSerializer<byte[]> serializer = serializer(config);
+        final Set<ByteBuffer> headers = Collections.newSetFromMap(new ConcurrentHashMap<ByteBuffer, Boolean>());
+
+        final Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 200; i++) {
+                        final byte[] envelope = serializer.serialize(TOPIC, random(10));
+                        headers.add(ByteBuffer.wrap(envelope, 0, EnvelopeSerdeBase.FIXED_HEADER_SIZE + wrappedKeyLength(envelope)).slice());
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+
+        //every record has its own data key, also when threads rotate at the same time
+        assertEquals(threads.length * 200, headers.size());
+    }
+
+    private static void expectRejected(final EnvelopeDecryptingDeserializer<byte[]> deserializer, final byte[] data, final String what) {
+        try {
+            deserializer.deserialize(TOPIC, data);
+            fail("Accepted corrupt envelope: " + what);
+        } catch (SerializationException e) {
+            //expected
+        }
+    }
+
+    /**
+     * GCM is CTR starting with counter 2 of the nonce plus a tag, so without the tag a GCM record is a CTR record with the
+     * iv {@code nonce | 00000002}
+     */
+    private static byte[] gcmAsCtr(final byte[] gcm) {
+        final int ivOffset = EnvelopeSerdeBase.FIXED_HEADER_SIZE + wrappedKeyLength(gcm);
+        final int ctOffset = ivOffset + CipherMode.AES_GCM.ivLength();
+        final int ctLength = gcm.length - ctOffset - EnvelopeSerdeBase.TAG_BYTES;
+
+        final byte[] ctr = ByteBuffer.allocate(ivOffset + CipherMode.AES_CTR.ivLength() + ctLength)
+                .put(gcm, 0, ivOffset)
+                .put(gcm, ivOffset, CipherMode.AES_GCM.ivLength())
+                .putInt(2)
+                .put(gcm, ctOffset, ctLength)
+                .array();
+        ctr[2] = CipherMode.AES_CTR.id();
+        return ctr;
+    }
+
+    private static int wrappedKeyLength(final byte[] envelope) {
+        return ByteBuffer.wrap(envelope, 3, 2).getShort() & 0xFFFF;
+    }
+
+    /**
+     * @return all modes the running JVM supports, CHACHA20_POLY1305 needs Java 11
+     */
+    static List<CipherMode> modes() {
+        final List<CipherMode> modes = new ArrayList<>();
+        for (final CipherMode mode : CipherMode.values()) {
+            try {
+                mode.newCipher();
+                modes.add(mode);
+            } catch (IllegalStateException e) {
+                System.out.println("Skip " + mode + ": " + e.getMessage());
+            }
+        }
+        return modes;
+    }
+
+    static byte[] random(final int size) {
+        final byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+
+    static Map<String, Object> config(final CipherMode mode) {
+        final Map<String, Object> config = new HashMap<>();
+        config.put(SerdeCryptoBase.CRYPTO_RSA_PUBLICKEY_FILEPATH, pubKey.getAbsolutePath());
+        config.put(SerdeCryptoBase.CRYPTO_RSA_PRIVATEKEY_FILEPATH, privKey.getAbsolutePath());
+        config.put(EncryptingSerializer.CRYPTO_VALUE_SERIALIZER, ByteArraySerializer.class.getName());
+        config.put(DecryptingDeserializer.CRYPTO_VALUE_DESERIALIZER, ByteArrayDeserializer.class.getName());
+        config.put(EnvelopeSerdeBase.CRYPTO_CIPHER_MODE, mode.name());
+        //the tests read records of every mode
+        config.put(EnvelopeSerdeBase.CRYPTO_CIPHER_MODES_ALLOWED, Arrays.asList(CipherMode.values()));
+        return config;
+    }
+
+    static EnvelopeEncryptingSerializer<byte[]> serializer(final Map<String, Object> config) {
+        final EnvelopeEncryptingSerializer<byte[]> serializer = new EnvelopeEncryptingSerializer<byte[]>();
+        serializer.configure(config, false);
+        return serializer;
+    }
+
+    static EnvelopeDecryptingDeserializer<byte[]> deserializer(final Map<String, Object> config) {
+        final EnvelopeDecryptingDeserializer<byte[]> deserializer = new EnvelopeDecryptingDeserializer<byte[]>();
+        deserializer.configure(config, false);
+        return deserializer;
+    }
+}
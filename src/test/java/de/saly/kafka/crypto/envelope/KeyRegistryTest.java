@@ -0,0 +1,154 @@
+package de.saly.kafka.crypto.envelope;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.junit.Test;
+
+import de.saly.kafka.crypto.DecryptingDeserializer;
+import de.saly.kafka.crypto.EncryptingSerializer;
+
+public class KeyRegistryTest {
+
+    private static final String TOPIC = "tenant";
+
+    @Test
+    public void testReloadKeepsPreviousPrivateKey() throws Exception {
+        final Path directory = Files.createTempDirectory("kafka-keys");
+        directory.toFile().deleteOnExit();
+        final Map<String, Object> config = config(directory);
+
+        writeKeys(directory, 1);
+        final EnvelopeEncryptingSerializer<byte[]> serializer = EnvelopeSerdeTest.serializer(config);
+        final EnvelopeDecryptingDeserializer<byte[]> deserializer = EnvelopeSerdeTest.deserializer(config);
+
+        final byte[] plain = EnvelopeSerdeTest.random(100);
+        final byte[] first = serializer.serialize(TOPIC, plain);
+        assertArrayEquals(plain, deserializer.deserialize(TOPIC, first));
+
+        writeKeys(directory, 2);
+        Thread.sleep(10);
+        final byte[] second = serializer.serialize(TOPIC, plain);
+        assertArrayEquals(plain, deserializer.deserialize(TOPIC, second));
+        assertEquals(1, deserializer.registry().reloads());
+        assertNotNull(deserializer.registry().get(TOPIC).previous());
+
+        //written before the change, unwrapped with the previous private key
+        assertArrayEquals(plain, deserializer.deserialize(TOPIC, first));
+
+        //a client started after the change only has the new keys
+        expectRejected(EnvelopeSerdeTest.deserializer(config), first, "first record in a new deserializer");
+
+        //only one generation is kept
+        writeKeys(directory, 3);
+        Thread.sleep(10);
+        final byte[] third = serializer.serialize(TOPIC, plain);
+        assertArrayEquals(plain, deserializer.deserialize(TOPIC, third));
+        assertArrayEquals(plain, deserializer.deserialize(TOPIC, second));
+        expectRejected(deserializer, first, "first record after two changes");
+    }
+
+    @Test
+    public void testReplacing() throws Exception {
+        final KeyPairGenerator keyGen = KeyPairGenerator.getInstance("RSA");
+        keyGen.initialize(2048);
+        final KeyPair pair = keyGen.genKeyPair();
+        final TopicKeys keys = new TopicKeys(TOPIC, pair.getPublic(), pair.getPrivate());
+
+        //only the public key changed, there is nothing to fall back to
+        final TopicKeys newPublic = new TopicKeys(TOPIC, keyGen.genKeyPair().getPublic(), pair.getPrivate());
+        assertSame(newPublic, newPublic.replacing(keys));
+        assertNull(newPublic.previous());
+
+        final TopicKeys newPair = new TopicKeys(TOPIC, null, keyGen.genKeyPair().getPrivate());
+        assertSame(pair.getPrivate(), newPair.replacing(keys).previous().privateKey());
+        assertNull(newPair.replacing(keys).previous().previous());
+    }
+
+    @Test
+    public void testPreload() throws Exception {
+        final Path directory = Files.createTempDirectory("kafka-keys");
+        directory.toFile().deleteOnExit();
+        final Map<String, Object> config = config(directory);
+        writeKeys(directory, 1);
+
+        KeyMaterial.clear();
+        final long parsed = KeyMaterial.parsed();
+        assertEquals(2, KeyMaterial.preload(config));
+        assertEquals(parsed + 2, KeyMaterial.parsed());
+
+        //clients created afterwards find the keys in the cache
+        final long hits = KeyMaterial.hits();
+        final byte[] plain = EnvelopeSerdeTest.random(100);
+        assertArrayEquals(plain, EnvelopeSerdeTest.deserializer(config).deserialize(TOPIC,
+                EnvelopeSerdeTest.serializer(config).serialize(TOPIC, plain)));
+        assertEquals(parsed + 2, KeyMaterial.parsed());
+        assertTrue(KeyMaterial.hits() > hits);
+
+        //a key which can not be used fails the preload instead of the first client
+        final Path broken = Files.write(directory.resolve("broken" + DirectoryKeyRegistry.PRIVATE_SUFFIX), new byte[] { 1, 2, 3 });
+        broken.toFile().deleteOnExit();
+        try {
+            KeyMaterial.preload(config);
+            fail("Broken key preloaded");
+        } catch (KafkaException e) {
+            //expected
+        }
+    }
+
+    private static void expectRejected(final EnvelopeDecryptingDeserializer<byte[]> deserializer, final byte[] data, final String what) {
+        try {
+            deserializer.deserialize(TOPIC, data);
+            fail("Accepted " + what);
+        } catch (SerializationException e) {
+            //expected
+        }
+    }
+
+    private static Map<String, Object> config(final Path directory) {
+        final Map<String, Object> config = new HashMap<>();
+        config.put(KeyRegistry.CRYPTO_KEY_REGISTRY_DIRECTORY, directory.toString());
+        config.put(KeyRegistry.CRYPTO_KEY_REGISTRY_RELOAD_MS, "1");
+        config.put(EncryptingSerializer.CRYPTO_VALUE_SERIALIZER, ByteArraySerializer.class.getName());
+        config.put(DecryptingDeserializer.CRYPTO_VALUE_DESERIALIZER, ByteArrayDeserializer.class.getName());
+        return config;
+    }
+
+    /**
+     * Moves a new key pair in place, with its own modification time so that the change is seen however coarse the
+     * file system's timestamps are
+     */
+    private static void writeKeys(final Path directory, final int generation) throws Exception {
+        final KeyPairGenerator keyGen = KeyPairGenerator.getInstance("RSA");
+        keyGen.initialize(2048);
+        final KeyPair pair = keyGen.genKeyPair();
+
+        move(directory, TOPIC + DirectoryKeyRegistry.PUBLIC_SUFFIX, pair.getPublic().getEncoded(), generation);
+        move(directory, TOPIC + DirectoryKeyRegistry.PRIVATE_SUFFIX, pair.getPrivate().getEncoded(), generation);
+    }
+
+    private static void move(final Path directory, final String name, final byte[] content, final int generation) throws Exception {
+        final Path tmp = Files.write(directory.resolve(name + ".tmp"), content);
+        Files.setLastModifiedTime(tmp, FileTime.fromMillis(1000000000000L + generation * 10000L));
+        final Path file = Files.move(tmp, directory.resolve(name), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        file.toFile().deleteOnExit();
+    }
+}
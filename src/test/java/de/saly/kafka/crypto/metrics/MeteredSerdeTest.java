@@ -0,0 +1,144 @@
+package de.saly.kafka.crypto.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.metrics.KafkaMetric;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import de.saly.kafka.crypto.DecryptingDeserializer;
+import de.saly.kafka.crypto.EncryptingSerializer;
+import de.saly.kafka.crypto.SerdeCryptoBase;
+import de.saly.kafka.crypto.envelope.EnvelopeDecryptingDeserializer;
+import de.saly.kafka.crypto.envelope.EnvelopeEncryptingSerializer;
+
+public class MeteredSerdeTest {
+
+    private static final String TOPIC = "meteredTopic";
+    private static final int RECORDS = 50;
+    private static final int SIZE = 100;
+
+    private static File pubKey;
+    private static File privKey;
+
+    @BeforeClass
+    public static void keys() throws Exception {
+        final KeyPairGenerator keyGen = KeyPairGenerator.getInstance("RSA");
+        keyGen.initialize(2048);
+        final KeyPair pair = keyGen.genKeyPair();
+
+        pubKey = File.createTempFile("kafka", "crypto");
+        pubKey.deleteOnExit();
+        privKey = File.createTempFile("kafka", "crypto");
+        privKey.deleteOnExit();
+        Files.write(pubKey.toPath(), pair.getPublic().getEncoded());
+        Files.write(privKey.toPath(), pair.getPrivate().getEncoded());
+    }
+
+    @Test
+    public void testTotals() throws Exception {
+        final Map<String, Object> config = config("totals");
+        final MeteredEncryptingSerializer<byte[]> serializer = new MeteredEncryptingSerializer<byte[]>();
+        serializer.configure(config, false);
+        final MeteredDecryptingDeserializer<byte[]> deserializer = new MeteredDecryptingDeserializer<byte[]>();
+        deserializer.configure(config, false);
+
+        try {
+            final List<byte[]> records = new ArrayList<>();
+            long ciphertext = 0;
+            for (int i = 0; i < RECORDS; i++) {
+                final byte[] record = serializer.serialize(TOPIC, new byte[SIZE]);
+                records.add(record);
+                ciphertext += record.length;
+            }
+
+            assertEquals(RECORDS, value(serializer.sensors(), "records-total"), 0);
+            assertEquals(RECORDS * SIZE, value(serializer.sensors(), "bytes-in-total"), 0);
+            assertEquals(ciphertext, value(serializer.sensors(), "bytes-out-total"), 0);
+            assertEquals((ciphertext - RECORDS * SIZE) / (double) RECORDS, value(serializer.sensors(), "overhead-bytes-avg"), 0.001);
+            assertEquals(0, value(serializer.sensors(), "encrypt-error-total"), 0);
+
+            for (final byte[] record : records) {
+                deserializer.deserialize(TOPIC, record);
+            }
+
+            final byte[] corrupt = records.get(0).clone();
+            corrupt[corrupt.length - 1] ^= 1;
+            try {
+                deserializer.deserialize(TOPIC, corrupt);
+                fail("Corrupt record accepted");
+            } catch (SerializationException e) {
+                //expected
+            }
+
+            assertEquals(RECORDS, value(deserializer.sensors(), "records-total"), 0);
+            assertEquals(ciphertext, value(deserializer.sensors(), "bytes-in-total"), 0);
+            assertEquals(RECORDS * SIZE, value(deserializer.sensors(), "bytes-out-total"), 0);
+            assertEquals(1, value(deserializer.sensors(), "decrypt-error-total"), 0);
+            assertEquals(1, value(deserializer.sensors(), "key-unwrap-total"), 0);
+        } finally {
+            serializer.close();
+            deserializer.close();
+        }
+    }
+
+    @Test
+    public void testWithoutWrappedSerializer() throws Exception {
+        //the measured serializer does not use crypto.wrapped_serializer, so the plaintext length is unknown
+        final Map<String, Object> config = config("unwrapped");
+        config.remove(EncryptingSerializer.CRYPTO_VALUE_SERIALIZER);
+        config.put(MeteredEncryptingSerializer.CRYPTO_METRICS_SERIALIZER, ByteArraySerializer.class.getName());
+
+        final MeteredEncryptingSerializer<byte[]> serializer = new MeteredEncryptingSerializer<byte[]>();
+        serializer.configure(config, false);
+
+        try {
+            for (int i = 0; i < RECORDS; i++) {
+                serializer.serialize(TOPIC, new byte[SIZE]);
+            }
+
+            assertEquals(RECORDS, value(serializer.sensors(), "records-total"), 0);
+            assertEquals(0, value(serializer.sensors(), "bytes-in-total"), 0);
+            assertEquals(RECORDS * SIZE, value(serializer.sensors(), "bytes-out-total"), 0);
+            assertEquals(0, value(serializer.sensors(), "overhead-bytes-avg"), 0);
+        } finally {
+            serializer.close();
+        }
+    }
+
+    private static double value(final CryptoSensors sensors, final String name) {
+        for (final Map.Entry<MetricName, KafkaMetric> metric : sensors.metrics().entrySet()) {
+            final String topic = metric.getKey().tags().get("topic");
+            if(metric.getKey().name().equals(name) && (topic == null || topic.equals(TOPIC))) {
+                return metric.getValue().value();
+            }
+        }
+        throw new AssertionError("No metric " + name);
+    }
+
+    private static Map<String, Object> config(final String clientId) {
+        final Map<String, Object> config = new HashMap<>();
+        config.put("client.id", clientId);
+        config.put(SerdeCryptoBase.CRYPTO_RSA_PUBLICKEY_FILEPATH, pubKey.getAbsolutePath());
+        config.put(SerdeCryptoBase.CRYPTO_RSA_PRIVATEKEY_FILEPATH, privKey.getAbsolutePath());
+        config.put(EncryptingSerializer.CRYPTO_VALUE_SERIALIZER, ByteArraySerializer.class.getName());
+        config.put(DecryptingDeserializer.CRYPTO_VALUE_DESERIALIZER, ByteArrayDeserializer.class.getName());
+        config.put(MeteredEncryptingSerializer.CRYPTO_METRICS_SERIALIZER, EnvelopeEncryptingSerializer.class.getName());
+        config.put(MeteredDecryptingDeserializer.CRYPTO_METRICS_DESERIALIZER, EnvelopeDecryptingDeserializer.class.getName());
+        return config;
+    }
+}
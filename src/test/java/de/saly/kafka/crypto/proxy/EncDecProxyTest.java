@@ -0,0 +1,87 @@
+package de.saly.kafka.crypto.proxy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.kafka.common.protocol.ApiKeys;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.junit.Test;
+
+public class EncDecProxyTest {
+
+    private static final int FRAME_SIZE = 1024 * 1024;
+    //without backpressure the proxy reads all of it
+    private static final long MAX_SENT = 8L * ProxyConnection.MAX_QUEUED_BYTES;
+
+    @Test(timeout = 60000)
+    public void testBackpressure() throws Exception {
+        try(ServerSocketChannel broker = ServerSocketChannel.open()) {
+            broker.bind(new InetSocketAddress("localhost", 0));
+
+            final Map<String, Object> configs = new HashMap<>();
+            configs.put("value.deserializer", ByteArrayDeserializer.class.getName());
+            configs.put(EncDecProxy.CRYPTO_PROXY_WORKERS, 1);
+
+            try(EncDecProxy proxy = EncDecProxy.start(0, "localhost", broker.socket().getLocalPort(), configs);
+                    SocketChannel client = SocketChannel.open(new InetSocketAddress("localhost", proxy.port()))) {
+                //the broker does not read until the client stalls
+                try(SocketChannel upstream = broker.accept()) {
+                    client.configureBlocking(false);
+
+                    long sent = 0;
+                    int stalled = 0;
+                    ByteBuffer frame = produce(0);
+                    for (int correlationId = 1; sent < MAX_SENT && stalled < 100;) {
+                        final int written = client.write(frame);
+                        sent += written;
+
+                        if(written > 0) {
+                            stalled = 0;
+                        } else {
+                            stalled++;
+                            Thread.sleep(10);
+                        }
+
+                        if(!frame.hasRemaining()) {
+                            frame = produce(correlationId++);
+                        }
+                    }
+
+                    assertTrue("proxy read everything", sent < MAX_SENT);
+                    assertTrue("queued " + proxy.queuedBytes(), proxy.queuedBytes() <= ProxyConnection.MAX_QUEUED_BYTES + FRAME_SIZE);
+
+                    //reading from the broker side re-arms the client
+                    final ByteBuffer in = ByteBuffer.allocate(64 * 1024);
+                    long received = 0;
+                    while (received < sent - (FRAME_SIZE - frame.remaining())) {
+                        in.clear();
+                        received += upstream.read(in);
+                    }
+                    assertEquals(sent - (FRAME_SIZE - frame.remaining()), received);
+                }
+            }
+        }
+    }
+
+    /**
+     * A produce request with acks=0, so the proxy does not wait for a response
+     */
+    private static ByteBuffer produce(final int correlationId) {
+        final ByteBuffer frame = ByteBuffer.allocate(FRAME_SIZE);
+        frame.putInt(FRAME_SIZE - ProxyConnection.SIZE_LENGTH);
+        frame.putShort(ApiKeys.PRODUCE.id);
+        frame.putShort((short) 2);
+        frame.putInt(correlationId);
+        frame.putShort((short) -1);
+        frame.putShort((short) 0);
+        frame.clear();
+        return frame;
+    }
+}